@@ -0,0 +1,24 @@
+package com.github.rdsc.dev.ProSync.aspect;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 標在 @Scheduled 方法上：多個節點一起跑時，同一輪只有拿到租約的那一台真的執行
+ * - 租約放在 Redis（job:{name}:lease），持有者每輪執行前續約；節點掛掉，租約到期後別台自動接手
+ * - 租約長度 = 2 倍 period（period 可以寫 ${...}，跟 @Scheduled 用同一個設定）→ 最多慢兩輪就換人
+ * - 由 ClusterJobAspect 處理；沒拿到租約的節點直接略過這輪（回傳 0 / false / null）
+ * 只適合「全叢集共用資料」的工作（DB、Redis）；清本機記憶體的工作（例如驗證碼、本機鎖）每台都要自己跑，不要標
+**/
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ClusterJob {
+
+    // 工作名稱（Redis key、管理端狀態都用它）
+    String name();
+
+    // 這個排程的間隔（毫秒，可用 ${...} 佔位符）
+    String period();
+}
@@ -0,0 +1,42 @@
+package com.github.rdsc.dev.ProSync.aspect;
+
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * 處理 @ClusterJob：
+ * - @Order(1)：排在 LoggingAspect（0）之後、OptimisticRetryAspect（2）和 @Transactional 之前，
+ *   沒拿到租約的節點連重試、交易都不用開
+ * - 略過這輪時，回傳型別是基本型別就回 0 / false（直接回 null 會 NPE）
+**/
+@Aspect
+@Component
+@RequiredArgsConstructor
+@Order(1)
+public class ClusterJobAspect {
+
+    private final JobCoordinator coordinator;
+
+    @Around("@annotation(job)")
+    public Object aroundJob(ProceedingJoinPoint pjp, ClusterJob job) throws Throwable {
+        Class<?> returnType = ((MethodSignature) pjp.getSignature()).getReturnType();
+        return coordinator.runExclusive(job.name(), job.period(), pjp::proceed, skippedValue(returnType));
+    }
+
+    private static Object skippedValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0d;
+        if (type == float.class) return 0f;
+        if (type == char.class) return '\0';
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        return 0;
+    }
+}
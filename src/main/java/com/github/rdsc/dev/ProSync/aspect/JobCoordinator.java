@@ -0,0 +1,274 @@
+package com.github.rdsc.dev.ProSync.aspect;
+
+import com.github.rdsc.dev.ProSync.dto.JobDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 叢集排程協調（@ClusterJob 的實作）：
+ * - 每個工作一把 Redis 租約 job:{name}:lease（value = 節點 id），同一輪只有持有者執行
+ * - 持有者每輪執行前續約（同一台會一直拿著，不會每輪換人搶）；節點掛了，租約到期後其他節點接手
+ * - 正常關機時放掉自己持有的租約，別台下一輪就能接
+ * - 每次執行完把結果寫到 job:{name}:stats（誰跑的、什麼時候、花多久、成功或錯誤），給管理端看
+ * - Redis 連不上：fail-open = true 時照樣在本機跑（這些工作都以 DB 條件為準，多跑一次不會錯，只是浪費），
+ *   false 時略過這輪
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobCoordinator {
+
+    private static final String PREFIX = "job:";
+    private static final String NAMES_KEY = "job:names";
+
+    // 沒人持有 → 拿下；自己持有 → 續約；別人持有 → 0
+    private static final DefaultRedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "local cur = redis.call('get', KEYS[1]) " +
+                    "if not cur then redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2]) return 1 end " +
+                    "if cur == ARGV[1] then redis.call('pexpire', KEYS[1], ARGV[2]) return 1 end " +
+                    "return 0",
+            Long.class
+    );
+
+    // 只放自己的租約
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0",
+            Long.class
+    );
+
+    private final StringRedisTemplate redis;
+    private final Environment env;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.jobs.coordination.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.jobs.coordination.fail-open:true}")
+    private boolean failOpen;
+
+    @Value("${app.jobs.coordination.min-lease-ms:10000}")
+    private long minLeaseMs; // 租約最短多久（間隔很短的工作，也要撐過一次執行）
+
+    @Getter
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID().toString().substring(0, 8);
+
+    private final ConcurrentMap<String, Long> leaseMsByJob = new ConcurrentHashMap<>(); // name → 解析好的租約長度
+    private final Set<String> owned = ConcurrentHashMap.newKeySet(); // 本機目前持有的租約
+
+    public interface Job {
+        Object run() throws Throwable;
+    }
+
+    /**
+     * 拿到租約才執行 job；沒拿到回 skipped
+     * job 丟出的例外照樣往外丟（@Scheduled 會記 log），結果一樣記到 stats
+    **/
+    public Object runExclusive(String name, String period, Job job, Object skipped) throws Throwable {
+        if (!enabled) return job.run();
+        long leaseMs = leaseMsByJob.computeIfAbsent(name, n -> leaseMsFor(period));
+        return run(name, leaseMs, true, job, skipped);
+    }
+
+    /**
+     * 分片工作用：每個分片一把「只在這次執行期間有效」的租約，跑完就放
+     * 不像 runExclusive 會一直黏在同一台 → 每台每輪都能搶到一部分分片，工作自然分散到各節點
+    **/
+    public Object runPartition(String name, long leaseMs, Job job, Object skipped) throws Throwable {
+        if (!enabled) return job.run();
+        leaseMsByJob.putIfAbsent(name, leaseMs);
+        return run(name, leaseMs, false, job, skipped);
+    }
+
+    private Object run(String name, long leaseMs, boolean sticky, Job job, Object skipped) throws Throwable {
+        String mode;
+        boolean leased = false;
+        try {
+            if (!(sticky ? acquire(name, leaseMs) : acquireOnce(name, leaseMs))) {
+                meterRegistry.counter("scheduled.job", "job", name, "result", "skipped").increment();
+                log.debug("job {} skipped: lease held by another node", name);
+                return skipped;
+            }
+            mode = "leader";
+            leased = true;
+        } catch (Exception ex) {
+            if (!failOpen) {
+                meterRegistry.counter("scheduled.job", "job", name, "result", "skipped").increment();
+                log.warn("job {} skipped: lease store unavailable ({})", name, ex.getMessage());
+                return skipped;
+            }
+            mode = "fail_open";
+            log.warn("job {} running without lease: lease store unavailable ({})", name, ex.getMessage());
+        }
+
+        Instant startedAt = Instant.now();
+        long start = System.nanoTime();
+        String result = "ok";
+        String error = null;
+        try {
+            return job.run();
+        } catch (Throwable t) {
+            result = "error";
+            error = t.getClass().getSimpleName() + ": " + t.getMessage();
+            throw t;
+        } finally {
+            long elapsedNanos = System.nanoTime() - start;
+            Timer.builder("scheduled.job.duration").tag("job", name).tag("mode", mode)
+                    .register(meterRegistry).record(elapsedNanos, TimeUnit.NANOSECONDS);
+            meterRegistry.counter("scheduled.job", "job", name, "result", result).increment();
+            recordRun(name, startedAt, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), result, error, mode);
+            if (leased && !sticky) release(name);
+        }
+    }
+
+    // 管理端：每個工作目前誰持有、租約還剩多久、上一次執行的結果
+    public List<JobDto.JobStatus> status() {
+        Set<String> names = new TreeSet<>(leaseMsByJob.keySet());
+        try {
+            Set<String> known = redis.opsForSet().members(NAMES_KEY);
+            if (known != null) names.addAll(known);
+        } catch (Exception ex) {
+            log.warn("read job names failed: {}", ex.getMessage());
+        }
+
+        List<JobDto.JobStatus> out = new ArrayList<>();
+        for (String name : names) {
+            String owner = null;
+            Long ttl = null;
+            Map<Object, Object> stats = Map.of();
+            try {
+                owner = redis.opsForValue().get(leaseKey(name));
+                ttl = redis.getExpire(leaseKey(name), TimeUnit.MILLISECONDS);
+                stats = redis.opsForHash().entries(statsKey(name));
+            } catch (Exception ex) {
+                log.warn("read job {} status failed: {}", name, ex.getMessage());
+            }
+            out.add(new JobDto.JobStatus(
+                    name,
+                    owner,
+                    owner != null && owner.equals(nodeId),
+                    ttl != null && ttl > 0 ? ttl : null,
+                    str(stats, "lastNode"),
+                    str(stats, "lastMode"),
+                    str(stats, "lastStartAt"),
+                    num(stats, "lastDurationMs"),
+                    str(stats, "lastResult"),
+                    str(stats, "lastError"),
+                    num(stats, "runs"),
+                    num(stats, "errors")
+            ));
+        }
+        return out;
+    }
+
+    // 正常關機：放掉自己持有的租約，別台下一輪就能接手（不用等到期）
+    @PreDestroy
+    public void releaseAll() {
+        for (String name : owned) {
+            release(name);
+        }
+        owned.clear();
+    }
+
+    // 不續約、不黏：沒人拿著才拿
+    private boolean acquireOnce(String name, long leaseMs) {
+        return Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(leaseKey(name), nodeId, Duration.ofMillis(leaseMs)));
+    }
+
+    private void release(String name) {
+        try {
+            redis.execute(RELEASE_SCRIPT, List.of(leaseKey(name)), nodeId);
+        } catch (Exception ex) {
+            log.debug("release job lease {} failed (expires on its own): {}", name, ex.getMessage());
+        }
+    }
+
+    private boolean acquire(String name, long leaseMs) {
+        Long res = redis.execute(ACQUIRE_SCRIPT, List.of(leaseKey(name)), nodeId, String.valueOf(leaseMs));
+        boolean ok = res != null && res == 1L;
+        if (ok) {
+            if (owned.add(name)) {
+                log.info("job {} lease acquired by {}", name, nodeId);
+                meterRegistry.counter("scheduled.job.lease.acquired", "job", name).increment();
+            }
+        } else {
+            owned.remove(name);
+        }
+        return ok;
+    }
+
+    // 執行紀錄寫不進去不影響工作本身
+    private void recordRun(String name, Instant startedAt, long elapsedMs, String result, String error, String mode) {
+        try {
+            Map<String, String> fields = new HashMap<>();
+            fields.put("lastNode", nodeId);
+            fields.put("lastMode", mode);
+            fields.put("lastStartAt", startedAt.toString());
+            fields.put("lastDurationMs", String.valueOf(elapsedMs));
+            fields.put("lastResult", result);
+            fields.put("lastError", error == null ? "" : error);
+            redis.opsForHash().putAll(statsKey(name), fields);
+            redis.opsForHash().increment(statsKey(name), "runs", 1);
+            if (error != null) redis.opsForHash().increment(statsKey(name), "errors", 1);
+            redis.opsForSet().add(NAMES_KEY, name);
+        } catch (Exception ex) {
+            log.debug("record job {} stats failed: {}", name, ex.getMessage());
+        }
+    }
+
+    private long leaseMsFor(String period) {
+        long periodMs;
+        try {
+            periodMs = Long.parseLong(env.resolveRequiredPlaceholders(period).trim());
+        } catch (RuntimeException ex) {
+            log.warn("cannot resolve job period '{}', using min lease", period);
+            periodMs = 0;
+        }
+        return Math.max(minLeaseMs, periodMs * 2);
+    }
+
+    private static String leaseKey(String name) {
+        return PREFIX + name + ":lease";
+    }
+
+    private static String statsKey(String name) {
+        return PREFIX + name + ":stats";
+    }
+
+    private static String str(Map<Object, Object> m, String k) {
+        Object v = m.get(k);
+        return v == null || v.toString().isEmpty() ? null : v.toString();
+    }
+
+    private static Long num(Map<Object, Object> m, String k) {
+        String v = str(m, k);
+        if (v == null) return null;
+        try {
+            return Long.valueOf(v);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.rdsc.dev.ProSync.aspect;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 樂觀鎖衝突重試的實作（@OptimisticRetry 的切面用，單元測試也直接呼叫）：
+ * - 等待時間用 decorrelated jitter：sleep = min(maxDelay, random(baseDelay, 上次 sleep * 3))
+ *   比固定間隔 / 純指數退避更能把同時衝突的人打散
+ * - 超過次數或時間預算就把最後一次的例外丟出去，由呼叫端決定回什麼（例如 429）
+ * 指標：optimistic.retry（tag method / result = retried、recovered、exhausted）、optimistic.retry.backoff（實際等待時間）
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OptimisticRetrier {
+
+    private final MeterRegistry meterRegistry;
+
+    // retryFor：哪些例外要重試（其他的直接丟出去）
+    public record Policy(int maxAttempts, long baseDelayMs, long maxDelayMs, long budgetMs,
+                         List<Class<? extends RuntimeException>> retryFor) {
+        public static final Policy DEFAULT = new Policy(3, 5, 100, 1000);
+
+        public Policy(int maxAttempts, long baseDelayMs, long maxDelayMs, long budgetMs) {
+            this(maxAttempts, baseDelayMs, maxDelayMs, budgetMs, List.of(OptimisticLockingFailureException.class));
+        }
+
+        public static Policy of(OptimisticRetry a) {
+            return new Policy(a.maxAttempts(), a.baseDelayMs(), a.maxDelayMs(), a.budgetMs(), List.of(a.retryFor()));
+        }
+
+        boolean retries(RuntimeException ex) {
+            return retryFor.stream().anyMatch(type -> type.isInstance(ex));
+        }
+    }
+
+    @FunctionalInterface
+    public interface Attempt<T> {
+        T run() throws Throwable;
+    }
+
+    public <T> T execute(String method, Policy policy, Attempt<T> attempt) throws Throwable {
+        int maxAttempts = Math.max(1, policy.maxAttempts());
+        long begin = System.nanoTime();
+        long sleepMs = Math.max(1, policy.baseDelayMs());
+
+        for (int attemptNo = 1; ; attemptNo++) {
+            try {
+                T result = attempt.run();
+                if (attemptNo > 1) count(method, "recovered");
+                return result;
+            } catch (RuntimeException ex) {
+                if (!policy.retries(ex)) throw ex;
+                long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+                long lower = Math.max(1, policy.baseDelayMs());
+                long upper = Math.max(lower + 1, sleepMs * 3);
+                sleepMs = Math.min(Math.max(lower, policy.maxDelayMs()), ThreadLocalRandom.current().nextLong(lower, upper));
+
+                if (attemptNo >= maxAttempts || elapsedMs + sleepMs > policy.budgetMs()) {
+                    count(method, "exhausted");
+                    log.warn("{} conflict ({}), giving up after {} attempt(s), {} ms", method, ex.getClass().getSimpleName(), attemptNo, elapsedMs);
+                    throw ex;
+                }
+
+                count(method, "retried");
+                log.debug("{} conflict ({}), attempt {}/{}, backing off {} ms", method, ex.getClass().getSimpleName(), attemptNo, maxAttempts, sleepMs);
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+                meterRegistry.timer("optimistic.retry.backoff", "method", method).record(sleepMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // 給不會丟 checked exception 的呼叫端用
+    public <T> T call(String method, Policy policy, Attempt<T> attempt) {
+        try {
+            return execute(method, policy, attempt);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private void count(String method, String result) {
+        meterRegistry.counter("optimistic.retry", "method", method, "result", result).increment();
+    }
+}
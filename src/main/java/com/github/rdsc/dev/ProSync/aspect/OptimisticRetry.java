@@ -0,0 +1,36 @@
+package com.github.rdsc.dev.ProSync.aspect;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 標在 public 方法上：遇到樂觀鎖版本衝突（OptimisticLockingFailureException）就整個方法重跑
+ * - 重跑前等一下（指數退避 + decorrelated jitter），撞在一起的人錯開時間，不會馬上又撞一次
+ * - maxAttempts：最多跑幾次（含第一次）；budgetMs：這次呼叫最多花多少時間在重試上，超過就不再等
+ *   每個方法各自寫自己的次數 / 預算（例如拿著 seat 鎖的不能等太久）
+ * - 由 OptimisticRetryAspect 處理，順序排在 @Transactional 外面 → 每次重跑都是新的交易
+ * 同一個類別內部呼叫（self-invocation）不會經過代理：要重試的那段放到另一個 Bean 的 public 方法上
+**/
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface OptimisticRetry {
+
+    // 最多跑幾次（含第一次）
+    int maxAttempts() default 3;
+
+    // 第一次重試前至少等多久
+    long baseDelayMs() default 5;
+
+    // 單次等待上限
+    long maxDelayMs() default 100;
+
+    // 這次呼叫花在重試（含等待）的時間上限
+    long budgetMs() default 1000;
+
+    // 哪些例外算「衝突、重跑就可能會過」（預設只有版本衝突）
+    Class<? extends RuntimeException>[] retryFor() default OptimisticLockingFailureException.class;
+}
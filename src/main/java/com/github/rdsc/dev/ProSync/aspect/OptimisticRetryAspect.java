@@ -0,0 +1,27 @@
+package com.github.rdsc.dev.ProSync.aspect;
+
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * 處理 @OptimisticRetry：
+ * - @Order(2)：排在 LoggingAspect（0）、ClusterJobAspect（1）之後、@Transactional（最低優先）之前 → 包在交易外面，
+ *   版本衝突在 commit 時才丟出來也接得到，而且每次重跑都開新的交易
+**/
+@Aspect
+@Component
+@RequiredArgsConstructor
+@Order(2)
+public class OptimisticRetryAspect {
+
+    private final OptimisticRetrier retrier;
+
+    @Around("@annotation(retry)")
+    public Object aroundRetry(ProceedingJoinPoint pjp, OptimisticRetry retry) throws Throwable {
+        return retrier.execute(pjp.getSignature().toShortString(), OptimisticRetrier.Policy.of(retry), pjp::proceed);
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.rdsc.dev.ProSync.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+@Configuration
+public class RedisPubSubConfig {
+
+    // Redis pub/sub 的訂閱容器：共用一條訂閱連線，各元件用到時再自己 addMessageListener
+    // （不在啟動時就訂閱，Redis 還沒起來也不會讓整個應用程式起不來）
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.rdsc.dev.ProSync.controller;
+
+import com.github.rdsc.dev.ProSync.aspect.JobCoordinator;
+import com.github.rdsc.dev.ProSync.dto.JobDto;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@PreAuthorize("hasRole('ADMIN')")
+@RequestMapping("/api/admin/jobs")
+@RequiredArgsConstructor
+public class AdminJobController {
+
+    private final JobCoordinator coordinator;
+
+    // 各個叢集排程：誰持有、租約剩多久、上一次執行結果
+    @GetMapping
+    public ResponseEntity<List<JobDto.JobStatus>> jobs() {
+        return ResponseEntity.ok(coordinator.status());
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.rdsc.dev.ProSync.controller;
+
+import com.github.rdsc.dev.ProSync.dto.WaitingRoomDto;
+import com.github.rdsc.dev.ProSync.service.WaitingRoomService;
+import jakarta.validation.constraints.Min;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@PreAuthorize("hasRole('ADMIN')")
+@RequestMapping("/api/admin/waiting-room")
+@RequiredArgsConstructor
+@Validated
+@Slf4j
+public class AdminWaitingRoomController {
+
+    private final WaitingRoomService waitingRoom;
+
+    // 開門 / 調整放行速率（每秒幾個）
+    @PutMapping("/{eventId}")
+    public ResponseEntity<WaitingRoomDto.RoomStats> open(@PathVariable("eventId") Long eventId,
+                                                         @RequestParam(value = "ratePerSecond", required = false) @Min(1) Integer ratePerSecond) {
+        waitingRoom.open(eventId, ratePerSecond);
+        return ResponseEntity.ok(waitingRoom.stats(eventId));
+    }
+
+    // 關門：create-order 不再需要號碼牌
+    @DeleteMapping("/{eventId}")
+    public ResponseEntity<WaitingRoomDto.RoomStats> close(@PathVariable("eventId") Long eventId) {
+        waitingRoom.close(eventId);
+        return ResponseEntity.ok(waitingRoom.stats(eventId));
+    }
+
+    @GetMapping("/{eventId}")
+    public ResponseEntity<WaitingRoomDto.RoomStats> stats(@PathVariable("eventId") Long eventId) {
+        return ResponseEntity.ok(waitingRoom.stats(eventId));
+    }
+}
@@ -9,9 +9,12 @@ import com.github.rdsc.dev.ProSync.model.User;
 import com.github.rdsc.dev.ProSync.repository.OrderDetailRepository;
 import com.github.rdsc.dev.ProSync.repository.OrderListRepository;
 import com.github.rdsc.dev.ProSync.repository.UserRepository;
+import com.github.rdsc.dev.ProSync.service.OrderArchiveService;
+import com.github.rdsc.dev.ProSync.service.ReservationGroupCommit;
 import com.github.rdsc.dev.ProSync.service.TicketOrderService;
 
 import com.github.rdsc.dev.ProSync.service.UserService;
+import com.github.rdsc.dev.ProSync.service.WaitingRoomService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -38,9 +41,12 @@ import java.util.Map;
 public class PublicOrderController {
 
     private final TicketOrderService ticketOrderService;
+    private final ReservationGroupCommit reservationGroupCommit;
     private final OrderListRepository orderListRepo;
     private final OrderDetailRepository orderDetailRepo;
     private final UserService userService;
+    private final WaitingRoomService waitingRoom;
+    private final OrderArchiveService orderArchiveService;
 
     @GetMapping("/ping")
     public ResponseEntity<String> ping() {
@@ -50,22 +56,14 @@ public class PublicOrderController {
     @GetMapping("/my")
     public ResponseEntity<List<OrderDto.MyOrderResponse>> myOrders() {
         Long userId = currentUserId();
-        List<OrderList> orderLists = orderListRepo.findAllByUserIdOrderByCreateAtDesc(userId);
-
-        var body = orderLists.stream().map(o -> new OrderDto.MyOrderResponse(
-                o.getId(),
-                o.getStatus(),
-                o.getTotalCost(),
-//                orderDetailRepo.totalCostByOrderListId(o.getId()),
-                o.getExpiresAt()
-        )).toList();
-
-        return ResponseEntity.ok(body);
+        // 熱表 + 封存表（已結束很久的訂單會被搬到 order_list_archive）合併，新到舊
+        return ResponseEntity.ok(orderArchiveService.historyForUser(userId));
     }
 
     // 下單
     @PostMapping("/create-order") // 訂單驗證：扣配額→建訂單
-    public ResponseEntity<OrderDto.ReserveResponse> createOrder(@RequestBody @Valid OrderDto.ReserveRequest req) {
+    public ResponseEntity<OrderDto.ReserveResponse> createOrder(@RequestBody @Valid OrderDto.ReserveRequest req,
+                                                                @RequestHeader(value = "X-Queue-Token", required = false) String queueToken) {
 
         if (req == null) {
             throw new IllegalArgumentException("request body is required");
@@ -82,36 +80,27 @@ public class PublicOrderController {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "No authenticated user");
         }
         String email = auth.getName();
-        User user = userService.findByEmail(email).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found: " + email));
 
-        // 3/ 取得/建立訂單清單（支援帶 orderListId 續加）
+        // 2/ 等候室：活動開著等候室時，要輪到自己的號碼才放進來（沒輪到 → 429，不查 DB、不建訂單）
+        //    號碼牌只能用在一張訂單：建單成功綁上，失敗放掉
+        WaitingRoomService.Admission admission =
+                waitingRoom.checkAdmitted(List.of(req.getTicketTypeId()), queueToken, email, req.getOrderListId());
+
+        Long orderListId;
         OrderList ord;
-        if (req.getOrderListId() != null) {
-            // 3a/ 取既有訂單
-            ord = orderListRepo.findById(req.getOrderListId())
-                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found: " + req.getOrderListId()));
-
-            // 3b/ 驗證所有權（不是本人的訂單 → 403）
-            if (ord.getUser() == null || !ord.getUser().getId().equals(user.getId())) {
-                // 用 Spring Security 的 AccessDeniedException 讓全域處理器回 403
-                throw new AccessDeniedException("Forbidden: not the owner of this order");
-            }
-
-            // 3c/ 狀態需可續加（不是待付款/可續加 → 409）
-            if (!ord.isPending()) {
-                throw new IllegalStateException("This orderList is in " + ord.getStatus()
-                        + " state, can only add items in PENDING_PAYMENT state.");
-            }
-            if (ord.isExpired()) {
-                throw new IllegalStateException("This orderList has expired on " + ord.getExpiresAt());
-            }
-        } else {
-            // 3d/ 沒帶 id → 新建一筆屬於此使用者的訂單清單
-            ord = OrderList.builder().user(user).build();
-            ord = orderListRepo.save(ord);
-        }
+        try {
+            User user = userService.findByEmail(email).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found: " + email));
+
+            // 3/ 取得/建立訂單清單（支援帶 orderListId 續加）
+            ord = resolveOrder(req.getOrderListId(), user);
 
-        Long orderListId = ticketOrderService.reserve(ord.getId(), req.getTicketTypeId(), req.getQuantity());
+            // GROUP_COMMIT 模式會排進票種佇列等批次 commit；其他模式直接走 TicketOrderService.reserve()
+            orderListId = reservationGroupCommit.reserve(ord.getId(), req.getTicketTypeId(), req.getQuantity());
+        } catch (RuntimeException ex) {
+            waitingRoom.release(admission);
+            throw ex;
+        }
+        waitingRoom.bind(admission, orderListId);
 
         log.info("createOrder: orderListId = {}, ticketTypeId = {}, quantity = {}", ord.getId(), req.getTicketTypeId(), req.getQuantity());
 
@@ -127,6 +116,49 @@ public class PublicOrderController {
         return ResponseEntity.ok(body);
     }
 
+    // 一次下多個票種（同一張訂單、同一個交易，全部成功或全部失敗）
+    @PostMapping("/create-order/batch")
+    public ResponseEntity<OrderDto.ReserveResponse> createOrderBatch(@RequestBody @Valid OrderDto.BatchReserveRequest req,
+                                                                     @RequestHeader(value = "X-Queue-Token", required = false) String queueToken) {
+        if (req == null || req.getItems() == null || req.getItems().isEmpty()) {
+            throw new IllegalArgumentException("items is required");
+        }
+
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || auth.getName() == null ) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "No authenticated user");
+        }
+        String email = auth.getName();
+
+        // 等候室：每個票種都要輪到（同一活動的票種共用同一張號碼牌，只能用在一張訂單）
+        WaitingRoomService.Admission admission = waitingRoom.checkAdmitted(
+                req.getItems().stream().map(OrderDto.ReserveLine::getTicketTypeId).distinct().toList(),
+                queueToken, email, req.getOrderListId());
+
+        Long orderListId;
+        try {
+            User user = userService.findByEmail(email).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found: " + email));
+            OrderList ord = resolveOrder(req.getOrderListId(), user);
+
+            orderListId = ticketOrderService.reserveBatch(ord.getId(), req.getItems());
+        } catch (RuntimeException ex) {
+            waitingRoom.release(admission);
+            throw ex;
+        }
+        waitingRoom.bind(admission, orderListId);
+
+        log.info("createOrderBatch: orderListId = {}, lines = {}", orderListId, req.getItems().size());
+
+        OrderList orderList = orderListRepo.findById(orderListId).orElseThrow(() ->
+                new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found: " + orderListId));
+        return ResponseEntity.ok(new OrderDto.ReserveResponse(
+                orderList.getId(),
+                orderList.getStatus(),
+                orderList.getTotalCost(),
+                orderList.getExpiresAt()
+        ));
+    }
+
     // 付款
     @PostMapping("/pay-order/{id}") // 付款驗證
     public ResponseEntity<Map<String, Object>> payOrder(@PathVariable("id") Long orderListId,
@@ -190,6 +222,37 @@ public class PublicOrderController {
 //        return body; // 200 OK
 //    }
 
+    /**
+     * 取得 / 建立訂單清單（支援帶 orderListId 續加）：
+     * 帶 id → 必須是本人的、待付款、未過期；沒帶 → 新建一筆屬於此使用者的訂單清單
+    **/
+    private OrderList resolveOrder(Long orderListId, User user) {
+        if (orderListId == null) {
+            OrderList ord = OrderList.builder().user(user).build();
+            return orderListRepo.save(ord);
+        }
+
+        // 取既有訂單
+        OrderList ord = orderListRepo.findById(orderListId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found: " + orderListId));
+
+        // 驗證所有權（不是本人的訂單 → 403）
+        if (ord.getUser() == null || !ord.getUser().getId().equals(user.getId())) {
+            // 用 Spring Security 的 AccessDeniedException 讓全域處理器回 403
+            throw new AccessDeniedException("Forbidden: not the owner of this order");
+        }
+
+        // 狀態需可續加（不是待付款/可續加 → 409）
+        if (!ord.isPending()) {
+            throw new IllegalStateException("This orderList is in " + ord.getStatus()
+                    + " state, can only add items in PENDING_PAYMENT state.");
+        }
+        if (ord.isExpired()) {
+            throw new IllegalStateException("This orderList has expired on " + ord.getExpiresAt());
+        }
+        return ord;
+    }
+
     private Long currentUserId() {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         if (auth == null || auth.getName() == null) {
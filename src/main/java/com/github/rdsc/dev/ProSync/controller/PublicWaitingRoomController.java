@@ -0,0 +1,44 @@
+package com.github.rdsc.dev.ProSync.controller;
+
+import com.github.rdsc.dev.ProSync.dto.WaitingRoomDto;
+import com.github.rdsc.dev.ProSync.service.WaitingRoomService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+@RestController
+@PreAuthorize("hasRole('USER')")
+@RequestMapping("/api/public/waiting-room")
+@RequiredArgsConstructor
+@Validated
+@Slf4j
+public class PublicWaitingRoomController {
+
+    private final WaitingRoomService waitingRoom;
+
+    // 排隊拿號碼牌（create-order 時放在 X-Queue-Token header）
+    @PostMapping("/{eventId}/join")
+    public ResponseEntity<WaitingRoomDto.QueueStatus> join(@PathVariable("eventId") Long eventId) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || auth.getName() == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "No authenticated user");
+        }
+        WaitingRoomDto.QueueStatus body = waitingRoom.join(eventId, auth.getName());
+        log.info("waiting-room join: eventId = {}, position = {}", eventId, body.getPosition());
+        return ResponseEntity.ok(body);
+    }
+
+    // 查目前位置（只讀 Redis，給前端輪詢用）
+    @GetMapping("/{eventId}/status")
+    public ResponseEntity<WaitingRoomDto.QueueStatus> status(@PathVariable("eventId") Long eventId,
+                                                             @RequestParam("token") String token) {
+        return ResponseEntity.ok(waitingRoom.status(eventId, token));
+    }
+}
@@ -2,6 +2,10 @@ package com.github.rdsc.dev.ProSync.controller;
 
 import com.github.rdsc.dev.ProSync.dto.EventDto;
 import com.github.rdsc.dev.ProSync.dto.TicketTypeDto;
+import com.github.rdsc.dev.ProSync.inventory.QuotaCounters;
+import com.github.rdsc.dev.ProSync.inventory.QuotaShards;
+import com.github.rdsc.dev.ProSync.inventory.SeatHolds;
+import com.github.rdsc.dev.ProSync.inventory.SoldOutRegistry;
 import com.github.rdsc.dev.ProSync.model.Event;
 import com.github.rdsc.dev.ProSync.model.TicketType;
 import com.github.rdsc.dev.ProSync.model.User;
@@ -29,6 +33,7 @@ import org.springframework.web.server.ResponseStatusException;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Set;
 
 import static org.springframework.data.jpa.domain.AbstractPersistable_.id;
 
@@ -42,6 +47,10 @@ public class TicketsController {
     private final TicketTypeRepository ticketTypeRepo;
     private final UserService userService;
     private final EventRepository eventRepo;
+    private final QuotaCounters quotaCounters;
+    private final QuotaShards quotaShards;
+    private final SeatHolds seatHolds;
+    private final SoldOutRegistry soldOut;
 
     private final EntityManager em;
 
@@ -123,8 +132,11 @@ public class TicketsController {
         // 2/ 拿目前登入者 id
         Long me = currentUser().getId();
 
-        // 3/ 只查自己的（Repository 已新增 findAllByEvent_Organizer_Id）
-        Page<TicketType> result = ticketTypeRepo.findAllOwnedByUser(me, pageable);
+        // 3/ 只查自己的：先拿主辦 / 協辦的活動 id，再查這些活動的票種
+        Set<Long> eventIds = eventRepo.findOwnedIds(me);
+        Page<TicketType> result = eventIds.isEmpty()
+                ? Page.empty(pageable)
+                : ticketTypeRepo.findAllByEventIdIn(eventIds, pageable);
 
         // 4/ 映射 DTO + 包裝分頁
         Page<TicketTypeDto.TicketTypeInfo> mapped = result.map(TicketTypeDto.TicketTypeInfo::of);
@@ -239,6 +251,12 @@ public class TicketsController {
                         t.setQuota(req.getQuota());
                     }
                     TicketType saved = ticketTypeRepo.save(t);
+                    if (req.getQuota() != null) {
+                        quotaCounters.invalidate(saved.getId()); // 記憶體帳本 / Redis 計數器下次用到時重新從 DB 載入
+                        quotaShards.invalidate(saved.getId());   // 分片整組丟掉，下次預約依新 quota 重新切分
+                        seatHolds.invalidate(saved.getId());     // Redis 佔位的 quota 快取重載（佔位本身保留）
+                        soldOut.clear(saved.getId());            // 售完標記解除，下一個請求重新看 DB
+                    }
                     log.info("ticketType updated: ticketTypeId = {}, name = {}, price = {}, quota = {}",
                             saved.getId(),
                             req.getName() != null ? req.getName() : "(keep)",
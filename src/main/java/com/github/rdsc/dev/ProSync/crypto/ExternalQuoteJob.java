@@ -1,5 +1,6 @@
 package com.github.rdsc.dev.ProSync.crypto;
 
+import com.github.rdsc.dev.ProSync.aspect.ClusterJob;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -7,6 +8,7 @@ import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
@@ -32,6 +34,10 @@ import java.util.stream.Collectors;
  *     external-quotes:
  *       initial-delay-ms: 5000
  *       delay-ms: 60000
+ *       sync-ms: 10000
+ *
+ * 多節點：pull 只有一台在跑（@ClusterJob），抓到的價格另外寫進 Redis（quotes:external），
+ * 每台再用 syncShared 把它同步進自己的 QuoteRegistry（QuoteRegistry 是本機記憶體）
  */
 @Component
 @RequiredArgsConstructor
@@ -41,6 +47,9 @@ public class ExternalQuoteJob {
     private final QuoteRegistry quoteRegis;
     private final CacheManager cacheManager;
     private final WebClient.Builder webClientBuilder;
+    private final StringRedisTemplate redis;
+
+    private static final String SHARED_KEY = "quotes:external"; // asset → 最新價格（字串）
 
     @Value("${app.external-quotes.enabled:true}")
     private boolean enabled;
@@ -64,6 +73,7 @@ public class ExternalQuoteJob {
             initialDelayString = "${app.jobs.external-quotes.initial-delay-ms:5000}",
             fixedDelayString   = "${app.jobs.external-quotes.delay-ms:60000}"
     )
+    @ClusterJob(name = "external-quotes", period = "${app.jobs.external-quotes.delay-ms:60000}") // 一台抓就好，其他台靠 syncShared
     public void pull() {
         if (!enabled) {
             return;
@@ -146,6 +156,7 @@ public class ExternalQuoteJob {
             // 寫進暫存（系統即時報價）
             try {
                 quoteRegis.put(sym, quote);
+                publishShared(sym, quote);  // ← 給其他節點同步
                 evictQuoteCache(sym);       // ← 清掉快取，讓新數字立刻生效
                 updated++;
             } catch (Exception e) {
@@ -157,6 +168,50 @@ public class ExternalQuoteJob {
         }
     }
 
+    // 每台都跑（不用 @ClusterJob）：把負責抓價的那台寫進 Redis 的價格同步到本機 QuoteRegistry
+    @Scheduled(
+            initialDelayString = "${app.jobs.external-quotes.initial-delay-ms:5000}",
+            fixedDelayString   = "${app.jobs.external-quotes.sync-ms:10000}"
+    )
+    public int syncShared() {
+        if (!enabled) return 0;
+        Map<Object, Object> shared;
+        try {
+            shared = redis.opsForHash().entries(SHARED_KEY);
+        } catch (Exception ex) {
+            log.debug("ExternalQuoteJob: shared quotes unavailable: {}", ex.getMessage());
+            return 0;
+        }
+        int changed = 0;
+        for (var e : shared.entrySet()) {
+            String sym = String.valueOf(e.getKey());
+            BigDecimal quote;
+            try {
+                quote = toDecimal(e.getValue());
+            } catch (NumberFormatException ex) {
+                continue;
+            }
+            if (quote == null || quote.signum() <= 0) continue;
+            BigDecimal cur = quoteRegis.get(sym).orElse(null);
+            if (cur != null && cur.compareTo(quote) == 0) continue;
+            quoteRegis.put(sym, quote);
+            evictQuoteCache(sym);
+            changed++;
+        }
+        if (changed > 0) {
+            log.debug("ExternalQuoteJob: {} shared quotes synced into local registry", changed);
+        }
+        return changed;
+    }
+
+    private void publishShared(String asset, BigDecimal quote) {
+        try {
+            redis.opsForHash().put(SHARED_KEY, asset, quote.toPlainString());
+        } catch (Exception ex) {
+            log.warn("ExternalQuoteJob: failed to share quote for {}: {}", asset, ex.getMessage());
+        }
+    }
+
     private void evictQuoteCache(String asset) {
         if (cacheManager == null || asset == null) return;
         Cache cache = cacheManager.getCache("quotes");
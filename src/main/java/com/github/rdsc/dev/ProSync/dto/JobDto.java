@@ -0,0 +1,27 @@
+package com.github.rdsc.dev.ProSync.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+public final class JobDto {
+
+    private JobDto() {}
+
+    // 管理端：某個叢集排程目前由誰負責、上一次跑的結果
+    @Getter
+    @AllArgsConstructor
+    public static class JobStatus {
+        private String name;
+        private String owner;           // 目前持有租約的節點（null = 沒人持有，下一輪誰先到誰跑）
+        private boolean ownedByThisNode;
+        private Long leaseRemainingMs;
+        private String lastNode;        // 上一次是哪台跑的
+        private String lastMode;        // leader / fail_open（Redis 連不上時本機照跑）
+        private String lastStartAt;
+        private Long lastDurationMs;
+        private String lastResult;      // ok / error
+        private String lastError;
+        private Long runs;              // 累計執行次數（全叢集）
+        private Long errors;
+    }
+}
@@ -5,7 +5,9 @@ import com.github.rdsc.dev.ProSync.enums.PaymentMethod;
 import com.github.rdsc.dev.ProSync.model.Event;
 import com.github.rdsc.dev.ProSync.model.OrderDetail;
 import com.github.rdsc.dev.ProSync.model.OrderList;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -87,6 +89,22 @@ public final class OrderDto {
         @Min(1) private Integer quantity = 1; // 數量至少 1
     }
 
+    // 一次預約多個票種（同一張訂單、同一個交易）
+    @Data
+    @NoArgsConstructor
+    public static class BatchReserveRequest {
+        private Long orderListId;
+        @NotEmpty @Valid private List<ReserveLine> items;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ReserveLine {
+        @NotNull private Long ticketTypeId;
+        @NotNull @Min(1) private Integer quantity;
+    }
+
     @Data
     @AllArgsConstructor
     public static class ReserveResponse {
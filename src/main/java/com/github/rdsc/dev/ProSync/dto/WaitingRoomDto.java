@@ -0,0 +1,34 @@
+package com.github.rdsc.dev.ProSync.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+public final class WaitingRoomDto {
+
+    private WaitingRoomDto() {}
+
+    // 排隊狀態：position 是自己的號碼，admittedUpTo 是目前放行到幾號
+    @Getter
+    @AllArgsConstructor
+    public static class QueueStatus {
+        private Long eventId;
+        private String token;
+        private Long position;
+        private Long admittedUpTo;
+        private Long ahead;                 // 前面還有幾個人（已放行就是 0）
+        private boolean admitted;           // 可以下單了嗎
+        private Long estimatedWaitSeconds;  // 依目前放行速度估算
+    }
+
+    // 管理端：某活動的排隊概況
+    @Getter
+    @AllArgsConstructor
+    public static class RoomStats {
+        private Long eventId;
+        private boolean open;
+        private Integer ratePerSecond;
+        private Long joined;        // 總共發出幾個號碼
+        private Long admittedUpTo;  // 放行到幾號
+        private Long waiting;       // 還在等的人數
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.rdsc.dev.ProSync.enums;
+
+public enum ReservationMode {
+    OPTIMISTIC,   // Redis 短鎖 + TicketType @Version 樂觀鎖重試（預設）
+    LEDGER,       // 單機記憶體配額帳本：原子計數器先扣，背景回寫 ticket_types.quota
+    REDIS_LUA,    // Redis Lua 腳本原子「檢查 + 扣減」quota:{id}，背景回寫 ticket_types.quota（多節點共用）
+    STRIPED,      // 票種切成 N 個 DB 分片（ticket_type_shards），依訂單分流扣減，背景回寫 ticket_types.quota
+    GROUP_COMMIT, // 每個票種單一寫入者佇列，一批預約一個交易：一條 UPDATE 扣 quota + batch INSERT 明細
+    GUARDED_UPDATE, // 不載入票種實體、不重試：UPDATE ... WHERE quota >= n，看影響列數決定成敗
+    REDIS_HOLD    // Redis 佔位（TTL），可用 = DB quota - 有效佔位；付款確認時才扣 ticket_types.quota
+}
@@ -0,0 +1,42 @@
+package com.github.rdsc.dev.ProSync.inventory;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+/**
+ * 從 DB 算出某票種「真正還能賣幾張」：
+ * 可用 = ticket_types.quota（已回寫）- SUM(order_detail.pending_quota)（已賣出、還沒回寫）
+ * 各種計數器（記憶體帳本、Redis…）第一次載入或重建時都用這個數字。
+ * 兩個數字要在同一條 SELECT 裡讀（同一個快照）：分兩次讀的話，QuotaWriteBehind.settle 剛好在中間 commit，
+ * 回寫的那幾張會「兩邊都算到」或「兩邊都沒算到」，後者會多算可用張數 → 超賣
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AvailableQuota {
+
+    private final JdbcTemplate jdbc;
+
+    public int load(Long ticketTypeId) {
+        List<long[]> rows = jdbc.query(
+                "SELECT t.quota, (SELECT COALESCE(SUM(d.pending_quota), 0) FROM order_detail d WHERE d.ticket_type_id = t.id) " +
+                        "FROM ticket_types t WHERE t.id = ?",
+                (rs, i) -> new long[]{rs.getLong(1), rs.getLong(2)},
+                ticketTypeId);
+        if (rows.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + ticketTypeId);
+        }
+        long quota = rows.get(0)[0];
+        long pending = rows.get(0)[1];
+        int remain = (int) Math.max(0L, quota - pending);
+
+        log.info("AvailableQuota loaded: ticketTypeId = {}, quota = {}, pending = {}, available = {}", ticketTypeId, quota, pending, remain);
+        return remain;
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.rdsc.dev.ProSync.inventory;
+
+import com.github.rdsc.dev.ProSync.enums.ReservationMode;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 「交易外先扣」的配額計數器（記憶體帳本、Redis Lua…）。
+ * 扣成功的張數寫進 order_detail.pending_quota，再由 QuotaWriteBehind 回寫 ticket_types.quota。
+**/
+public interface QuotaCounter {
+
+    /**
+     * 這個計數器對應哪個 app.reservation.mode
+    **/
+    ReservationMode mode();
+
+    /**
+     * 嘗試扣 quantity 張；成功回 true，庫存不夠回 false（不會扣成負數）
+    **/
+    boolean tryAcquire(Long ticketTypeId, int quantity);
+
+    /**
+     * 把張數加回去（交易失敗的補償、過期訂單回補）
+    **/
+    void release(Long ticketTypeId, int quantity);
+
+    /**
+     * 丟掉快取的數字，下次用到時重新從 DB 載入（主辦方改 quota 時）
+    **/
+    void invalidate(Long ticketTypeId);
+
+    /**
+     * 目前可用張數（還沒載入過回 null）
+    **/
+    Integer remaining(Long ticketTypeId);
+
+    /**
+     * tryAcquire 扣到的張數已經「落地」：明細的 pending_quota 已 commit，或交易失敗已經 release 還回去。
+     * 呼叫端拿到 tryAcquire = true 之後，不論成敗都要呼叫一次（finally）；記憶體帳本不需要，預設不做事
+    **/
+    default void settled(Long ticketTypeId, int quantity) {
+    }
+
+    /**
+     * 交易 commit 之後才加回去；交易回滾就不加（沒有交易時直接加）
+    **/
+    default void releaseAfterCommit(Long ticketTypeId, int quantity) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            release(ticketTypeId, quantity);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                release(ticketTypeId, quantity);
+            }
+        });
+    }
+}
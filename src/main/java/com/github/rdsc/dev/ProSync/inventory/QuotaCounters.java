@@ -0,0 +1,37 @@
+package com.github.rdsc.dev.ProSync.inventory;
+
+import com.github.rdsc.dev.ProSync.enums.ReservationMode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 依 app.reservation.mode 找出目前生效的 QuotaCounter（LEDGER / REDIS_LUA）；
+ * 其他模式（直接扣 DB）回 empty。
+**/
+@Component
+@RequiredArgsConstructor
+public class QuotaCounters {
+
+    private final List<QuotaCounter> counters;
+
+    @Value("${app.reservation.mode:OPTIMISTIC}")
+    private ReservationMode mode;
+
+    public Optional<QuotaCounter> active() {
+        return counters.stream().filter(c -> c.mode() == mode).findFirst();
+    }
+
+    // 過期回補：只有生效中的計數器要加回（交易 commit 後）
+    public void releaseAfterCommit(Long ticketTypeId, int quantity) {
+        active().ifPresent(c -> c.releaseAfterCommit(ticketTypeId, quantity));
+    }
+
+    // 主辦方改 quota：所有計數器都丟掉快取，避免切換模式後拿到舊數字
+    public void invalidate(Long ticketTypeId) {
+        counters.forEach(c -> c.invalidate(ticketTypeId));
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.rdsc.dev.ProSync.inventory;
+
+import com.github.rdsc.dev.ProSync.enums.ReservationMode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 單機記憶體配額帳本（app.reservation.mode = LEDGER 時啟用）：
+ * - 每個票種一個 AtomicInteger（可用張數），第一次用到才從 DB 載入：ticket_types.quota - SUM(order_detail.pending_quota)
+ * - tryAcquire() 用 CAS 扣減，不搶 Redis 鎖、不讀 DB，失敗就代表庫存不夠
+ * - 真正的 ticket_types.quota 由 QuotaWriteBehind 背景回寫（依 order_detail.pending_quota）
+ * - 重啟後記憶體清空，重新載入時 pending_quota 已經在 DB，所以不會超賣
+ * 注意：只適用「單一節點」負責該票種的情境；多節點請用其他模式。
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class QuotaLedger implements QuotaCounter {
+
+    private final AvailableQuota availableQuota;
+
+    // ticketTypeId → 目前可用張數
+    private final ConcurrentMap<Long, AtomicInteger> available = new ConcurrentHashMap<>();
+
+    @Override
+    public ReservationMode mode() {
+        return ReservationMode.LEDGER;
+    }
+
+    // 嘗試扣 quantity 張；成功回 true，庫存不夠回 false（不會扣成負數）
+    @Override
+    public boolean tryAcquire(Long ticketTypeId, int quantity) {
+        if (ticketTypeId == null) throw new IllegalArgumentException("ticketTypeId is required");
+        if (quantity < 1) throw new IllegalArgumentException("quantity must be >= 1");
+
+        AtomicInteger counter = available.computeIfAbsent(ticketTypeId, this::load);
+        while (true) {
+            int cur = counter.get();
+            if (cur < quantity) {
+                return false;
+            }
+            if (counter.compareAndSet(cur, cur - quantity)) {
+                return true;
+            }
+            // CAS 失敗：別的執行緒剛改過，重讀再試（不會卡住）
+        }
+    }
+
+    // 把張數加回帳本（交易失敗的補償、過期訂單回補）；沒載入過的票種不用管，下次載入會從 DB 算
+    @Override
+    public void release(Long ticketTypeId, int quantity) {
+        if (ticketTypeId == null || quantity <= 0) return;
+        AtomicInteger counter = available.get(ticketTypeId);
+        if (counter != null) {
+            counter.addAndGet(quantity);
+        }
+    }
+
+    // 主辦方改了 quota：丟掉記憶體數字，下次用到時重新從 DB 載入
+    @Override
+    public void invalidate(Long ticketTypeId) {
+        if (ticketTypeId == null) return;
+        available.remove(ticketTypeId);
+    }
+
+    // 目前帳本上的可用張數（沒載入過回 null）
+    @Override
+    public Integer remaining(Long ticketTypeId) {
+        AtomicInteger counter = available.get(ticketTypeId);
+        return counter == null ? null : counter.get();
+    }
+
+    // 唯讀快照（給除錯/管理用）
+    public Map<Long, Integer> snapshot() {
+        Map<Long, Integer> copy = new HashMap<>();
+        available.forEach((k, v) -> copy.put(k, v.get()));
+        return Map.copyOf(copy);
+    }
+
+    // 從 DB 重建：可用 = 已回寫的 quota - 還沒回寫的 pending_quota
+    private AtomicInteger load(Long ticketTypeId) {
+        return new AtomicInteger(availableQuota.load(ticketTypeId));
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.rdsc.dev.ProSync.inventory;
+
+import com.github.rdsc.dev.ProSync.enums.ReservationMode;
+import com.github.rdsc.dev.ProSync.model.TicketType;
+import com.github.rdsc.dev.ProSync.model.TicketTypeShard;
+import com.github.rdsc.dev.ProSync.repository.TicketTypeRepository;
+import com.github.rdsc.dev.ProSync.repository.TicketTypeShardRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * 票種配額分片（app.reservation.mode = STRIPED 時使用）：
+ * - 第一次用到某票種時，把「可用張數」平均切成 N 個分片（ticket_type_shards），每片各自有 @Version
+ * - 預約時依 orderListId 算出「本家」分片，先只讀本家那一列來扣；本家不夠才讀整組往後面的分片找（fall through）
+ * - 過期回補時加回同一張訂單的本家分片（只有 STRIPED 模式才回補）
+ * - 其他模式不會扣分片，分片的數字一跑就過時 → 用其他模式啟動時整組清掉，切回 STRIPED 時依 DB 重新切分
+ * - 扣掉的張數記在 order_detail.pending_quota，ticket_types.quota 由 QuotaWriteBehind 一秒一次回寫
+ * 同一票種的寫入吞吐量大約跟分片數成正比（大家不再搶同一列、同一個 version）。
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class QuotaShards {
+
+    private final TicketTypeShardRepository shardRepo;
+    private final TicketTypeRepository ticketTypeRepo;
+    private final SoldOutRegistry soldOut;
+    private final AvailableQuota availableQuota;
+    private final PlatformTransactionManager txManager;
+
+    @Value("${app.reservation.striping.shards:8}")
+    private int shardCount; // 每個票種切幾片
+
+    @Value("${app.reservation.mode:OPTIMISTIC}")
+    private ReservationMode mode;
+
+    // 不是 STRIPED：之前留下的分片不會再被扣 / 回補，先清掉，免得之後切回 STRIPED 拿到舊數字
+    @EventListener(ApplicationReadyEvent.class)
+    public void dropStaleShards() {
+        if (mode == ReservationMode.STRIPED) return;
+        try {
+            long n = shardRepo.count();
+            if (n == 0) return;
+            shardRepo.deleteAllInBatch();
+            log.info("QuotaShards dropped {} stale shard rows (mode = {})", n, mode);
+        } catch (Exception ex) {
+            log.warn("QuotaShards cleanup failed (ignored): {}", ex.getMessage());
+        }
+    }
+
+    // 沒有分片就建立（自己一個交易）；多節點同時建立時，唯一鍵 (ticket_type_id, shard_no) 只會讓一組成功
+    public void ensureShards(Long ticketTypeId) {
+        if (shardRepo.countByTicketTypeId(ticketTypeId) > 0) return;
+
+        TransactionTemplate tpl = new TransactionTemplate(txManager);
+        tpl.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            tpl.executeWithoutResult(status -> {
+                TicketType tt = ticketTypeRepo.findById(ticketTypeId)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + ticketTypeId));
+                int total = availableQuota.load(ticketTypeId);
+                int n = Math.max(1, shardCount);
+
+                for (int i = 0; i < n; i++) {
+                    int part = total / n + (i < total % n ? 1 : 0); // 除不盡的餘數分給前面幾片
+                    shardRepo.save(TicketTypeShard.builder()
+                            .ticketType(tt)
+                            .shardNo(i)
+                            .quota(part)
+                            .build());
+                }
+                shardRepo.flush();
+                log.info("QuotaShards created: ticketTypeId = {}, shards = {}, total = {}", ticketTypeId, n, total);
+            });
+        } catch (DataIntegrityViolationException ex) {
+            // 別的請求/節點剛好先建好了，直接用它的
+            log.debug("QuotaShards already created by another request, ticketTypeId = {}", ticketTypeId);
+        }
+    }
+
+    /**
+     * 在呼叫端的交易內扣 quantity 張：
+     * 1) 先只讀本家分片（一列），夠就直接扣 → 大部分預約只碰一列
+     * 2) 本家不夠才讀整組：從本家往後繞一圈，找「一片就夠」的
+     * 3) 沒有單片夠、但加起來夠 → 從本家開始把零散的湊起來
+     * 4) 全部加起來都不夠 → 409；加起來是 0 就標售完（soldOutGen = 呼叫端開交易前拿的 SoldOutRegistry.generation）
+     * 版本衝突會丟 ObjectOptimisticLockingFailureException，由呼叫端重試
+    **/
+    public void take(Long ticketTypeId, Long orderListId, int quantity, long soldOutGen) {
+        TicketTypeShard own = shardRepo.findByTicketTypeIdAndShardNo(ticketTypeId, homeShard(orderListId, Math.max(1, shardCount)))
+                .orElse(null);
+        if (own != null && own.getQuota() >= quantity) {
+            own.decreaseQuota(quantity);
+            shardRepo.saveAndFlush(own); // 立刻 flush，提早偵測版本衝突
+            return;
+        }
+
+        List<TicketTypeShard> shards = shardRepo.findAllByTicketTypeIdOrderByShardNo(ticketTypeId);
+        if (shards.isEmpty()) {
+            throw new IllegalStateException("No quota shards for ticketTypeId=" + ticketTypeId);
+        }
+        int n = shards.size();
+        int home = homeShard(orderListId, n);
+
+        for (int k = 0; k < n; k++) {
+            TicketTypeShard s = shards.get((home + k) % n);
+            if (s.getQuota() >= quantity) {
+                s.decreaseQuota(quantity);
+                shardRepo.saveAndFlush(s); // 立刻 flush，提早偵測版本衝突
+                return;
+            }
+        }
+
+        int total = shards.stream().mapToInt(TicketTypeShard::getQuota).sum();
+        if (total < quantity) {
+            if (total == 0) soldOut.markSoldOut(ticketTypeId, soldOutGen);
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: remain=" + total + ", need=" + quantity);
+        }
+
+        int remain = quantity;
+        for (int k = 0; k < n && remain > 0; k++) {
+            TicketTypeShard s = shards.get((home + k) % n);
+            int take = Math.min(s.getQuota(), remain);
+            if (take <= 0) continue;
+            s.decreaseQuota(take);
+            remain -= take;
+        }
+        shardRepo.flush();
+    }
+
+    // 過期回補：加回這張訂單的本家分片（不是 STRIPED、或還沒切分的票種不用管，DB 那邊會自己回補）
+    // 切分後改過分片數：設定的本家分片不存在，就照實際片數重算本家
+    public void refill(Long ticketTypeId, Long orderListId, int quantity) {
+        if (mode != ReservationMode.STRIPED || ticketTypeId == null || quantity <= 0) return;
+        Instant now = Instant.now();
+        if (shardRepo.refill(ticketTypeId, homeShard(orderListId, Math.max(1, shardCount)), quantity, now) > 0) return;
+        long n = shardRepo.countByTicketTypeId(ticketTypeId);
+        if (n == 0) return;
+        shardRepo.refill(ticketTypeId, homeShard(orderListId, (int) n), quantity, now);
+    }
+
+    // 主辦方改 quota：整組分片刪掉，下次預約再依新的 quota 重新切分
+    @Transactional
+    public void invalidate(Long ticketTypeId) {
+        if (ticketTypeId == null) return;
+        int removed = shardRepo.deleteAllByTicketTypeId(ticketTypeId);
+        if (removed > 0) {
+            log.info("QuotaShards invalidated: ticketTypeId = {}, shardsRemoved = {}", ticketTypeId, removed);
+        }
+    }
+
+    // 本家分片：同一張訂單永遠落在同一片（回補時才知道要加回哪片）
+    static int homeShard(Long orderListId, int n) {
+        return orderListId == null ? 0 : Math.floorMod(Long.hashCode(orderListId), n);
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.rdsc.dev.ProSync.inventory;
+
+import com.github.rdsc.dev.ProSync.aspect.ClusterJob;
+import com.github.rdsc.dev.ProSync.model.OrderDetail;
+import com.github.rdsc.dev.ProSync.repository.OrderDetailRepository;
+import com.github.rdsc.dev.ProSync.repository.TicketTypeRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * 背景回寫（對帳）：把 order_detail.pending_quota（已賣出、還沒扣到 ticket_types 的張數）
+ * 依票種加總後，用「一條 UPDATE」扣回 ticket_types.quota，再把那些明細的 pending_quota 歸零。
+ * LEDGER（記憶體帳本）與 REDIS_LUA（Redis 計數器）都靠這支把淨差額寫回 MySQL。
+ * 每個票種各自一個短交易，單一票種失敗不影響其他票種，下一輪再補。
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class QuotaWriteBehind {
+
+    private final OrderDetailRepository orderDetailRepo;
+    private final TicketTypeRepository ticketTypeRepo;
+    private final PlatformTransactionManager txManager;
+
+    @Scheduled(
+            fixedDelayString = "${app.jobs.quota-write-behind.delay-ms:1000}",
+            initialDelayString = "${app.jobs.quota-write-behind.initial-delay-ms:5000}"
+    )
+    @ClusterJob(name = "quota-write-behind", period = "${app.jobs.quota-write-behind.delay-ms:1000}")
+    public int flush() {
+        List<Long> ticketTypeIds = orderDetailRepo.findTicketTypeIdsWithPendingQuota();
+        if (ticketTypeIds.isEmpty()) return 0;
+
+        int total = 0;
+        for (Long ticketTypeId : ticketTypeIds) {
+            try {
+                total += settle(ticketTypeId);
+            } catch (Exception ex) {
+                // 單一票種失敗（例如鎖等待逾時）不影響其他票種，下輪再回寫
+                log.warn("QuotaWriteBehind settle failed, ticketTypeId = {}", ticketTypeId, ex);
+            }
+        }
+        if (total > 0) {
+            log.info("QuotaWriteBehind: {} units written back for {} ticket types", total, ticketTypeIds.size());
+        }
+        return total;
+    }
+
+    // 單一票種回寫（自己一個交易）：鎖明細 → 加總 → 一條 UPDATE 扣 quota → 明細歸零
+    public int settle(Long ticketTypeId) {
+        TransactionTemplate tpl = new TransactionTemplate(txManager);
+        tpl.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        Integer settled = tpl.execute(status -> {
+            List<OrderDetail> rows = orderDetailRepo.findAllPendingQuotaForUpdate(ticketTypeId);
+            int sum = rows.stream().mapToInt(OrderDetail::getPendingQuota).sum();
+            if (sum <= 0) return 0;
+
+            int updated = ticketTypeRepo.applyQuotaDelta(ticketTypeId, -sum, Instant.now());
+            if (updated == 0) {
+                // 理論上帳本不會超賣；真的發生就保留 pending，讓人工介入
+                throw new IllegalStateException("write-behind would make quota negative: ticketTypeId=" + ticketTypeId + ", pending=" + sum);
+            }
+            rows.forEach(od -> od.setPendingQuota(0)); // dirty checking，commit 時一起更新
+            return sum;
+        });
+        return settled == null ? 0 : settled;
+    }
+}
@@ -0,0 +1,217 @@
+package com.github.rdsc.dev.ProSync.inventory;
+
+import com.github.rdsc.dev.ProSync.enums.ReservationMode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Redis 配額計數器（app.reservation.mode = REDIS_LUA 時啟用）：
+ * - Key 長相 quota:{ticketTypeId}，值 = 目前可用張數
+ * - 一支 Lua 腳本在 Redis 裡「檢查 + 扣減」一次做完（單一 round trip、原子），不用再搶 seat 鎖
+ * - Key 不存在時從 DB 載入（quota - pending），帶 TTL：過期後重新載入，順便校正漏掉的 release
+ * - 扣成功的張數寫進 order_detail.pending_quota，由 QuotaWriteBehind 把淨差額回寫 ticket_types.quota
+ * - 重新載入的柵欄：「Redis 扣了、明細還沒 commit」的張數 DB 看不到，這時載入會把它們又算成可賣
+ *   → quota:{id}:inflight 記還沒落地的張數（扣成功 +n，settled -n），不是 0 就不載入（等一下或 503）
+ *   → quota:{id}:gen 每次落地 / invalidate 都 +1；載入前先記下 gen，讀完 DB 要寫回時 gen 變了就重讀
+ * 多節點共用同一個 Redis，所以不像 LEDGER 只限單機。
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RedisQuotaCounter implements QuotaCounter {
+
+    private static final String QUOTA_PREFIX = "quota:"; // Key 長相會是 quota:{ticketTypeId}
+
+    // KEYS: quota, inflight；ARGV: quantity, inflight TTL(ms)
+    // 回傳：>= 0 扣完剩幾張；-1 庫存不夠；-2 還沒載入
+    private static final DefaultRedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "local cur = redis.call('get', KEYS[1]) " +
+                    "if not cur then return -2 end " +                              // 還沒載入
+                    "if tonumber(cur) < tonumber(ARGV[1]) then return -1 end " +   // 不夠就不扣
+                    "redis.call('incrby', KEYS[2], ARGV[1]) " +                     // 記一筆還沒落地
+                    "redis.call('pexpire', KEYS[2], ARGV[2]) " +
+                    "return redis.call('decrby', KEYS[1], ARGV[1])",
+            Long.class
+    );
+
+    // KEYS: inflight, gen；ARGV: quantity
+    // 落地：inflight -n（扣到 0 以下代表之前 TTL 到期，直接清掉），gen +1 讓正在載入的人重讀
+    private static final DefaultRedisScript<Long> SETTLE_SCRIPT = new DefaultRedisScript<>(
+            "local n = redis.call('decrby', KEYS[1], ARGV[1]) " +
+                    "if n <= 0 then redis.call('del', KEYS[1]) end " +
+                    "redis.call('incr', KEYS[2]) " +
+                    "return n",
+            Long.class
+    );
+
+    // KEYS: quota, inflight, gen；ARGV: 載入值, 載入前的 gen, TTL(ms)
+    // 回傳：1 別人已經載入；0 寫入成功；-3 還有沒落地的扣減；-4 載入期間 gen 變了
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 1 then return 1 end " +
+                    "if tonumber(redis.call('get', KEYS[2]) or '0') > 0 then return -3 end " +
+                    "if (redis.call('get', KEYS[3]) or '0') ~= ARGV[2] then return -4 end " +
+                    "redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[3]) " +
+                    "return 0",
+            Long.class
+    );
+
+    // KEYS: quota, gen；ARGV: quantity
+    // 只有已載入的 key 才加回去；沒有 key 就不動（下次載入會從 DB 算），gen +1 讓正在載入的人重讀
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 1 then " +
+                    "  return redis.call('incrby', KEYS[1], ARGV[1]) " +
+                    "end " +
+                    "redis.call('incr', KEYS[2]) " +
+                    "return -2",
+            Long.class
+    );
+
+    // KEYS: quota, gen：先 +gen 再刪 key，正在載入舊值的人寫不回去
+    private static final DefaultRedisScript<Long> INVALIDATE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('incr', KEYS[2]) " +
+                    "return redis.call('del', KEYS[1])",
+            Long.class
+    );
+
+    private final StringRedisTemplate redis;
+    private final AvailableQuota availableQuota;
+
+    @Value("${app.reservation.redis-quota.ttl-ms:600000}")
+    private long ttlMs; // quota:{id} 多久重新從 DB 載入一次
+
+    @Value("${app.reservation.redis-quota.in-flight-ttl-ms:60000}")
+    private long inflightTtlMs; // 節點掛掉沒呼叫 settled 時，inflight 最長卡多久
+
+    @Value("${app.reservation.redis-quota.reload-wait-ms:500}")
+    private long reloadWaitMs; // 要載入但還有扣減沒落地：最多等多久，等不到回 503
+
+    @Override
+    public ReservationMode mode() {
+        return ReservationMode.REDIS_LUA;
+    }
+
+    @Override
+    public boolean tryAcquire(Long ticketTypeId, int quantity) {
+        if (ticketTypeId == null) throw new IllegalArgumentException("ticketTypeId is required");
+        if (quantity < 1) throw new IllegalArgumentException("quantity must be >= 1");
+
+        String key = quotaKey(ticketTypeId);
+        try {
+            Long res = acquire(ticketTypeId, quantity);
+            // 第一次用到 / 過期 / invalidate：從 DB 載入（別的節點先載入就用它的），剛載入又過期就再來一次
+            for (int i = 0; i < 2 && res != null && res == -2; i++) {
+                load(ticketTypeId);
+                res = acquire(ticketTypeId, quantity);
+            }
+            if (res != null && res == -2) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Quota is reloading, please retry");
+            }
+            return res != null && res >= 0;
+        } catch (ResponseStatusException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            log.warn("Redis quota acquire error on key={} : {}", key, ex.getMessage());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Quota store unavailable, please retry");
+        }
+    }
+
+    @Override
+    public void settled(Long ticketTypeId, int quantity) {
+        if (ticketTypeId == null || quantity <= 0) return;
+        try {
+            redis.execute(SETTLE_SCRIPT, List.of(inflightKey(ticketTypeId), genKey(ticketTypeId)), String.valueOf(quantity));
+        } catch (Exception ex) {
+            // 沒扣回去：inflight TTL 到期前這個票種不會重新載入（載入會等一下後回 503），不會超賣
+            log.error("Redis quota settle failed, ticketTypeId={}, quantity={} : {}", ticketTypeId, quantity, ex.getMessage());
+        }
+    }
+
+    @Override
+    public void release(Long ticketTypeId, int quantity) {
+        if (ticketTypeId == null || quantity <= 0) return;
+        String key = quotaKey(ticketTypeId);
+        try {
+            redis.execute(RELEASE_SCRIPT, List.of(key, genKey(ticketTypeId)), String.valueOf(quantity));
+        } catch (Exception ex) {
+            // 加不回去只會「少賣」不會超賣；invalidate 或 key 過期（ttl-ms）後會從 DB 重新載入
+            log.error("Redis quota release failed, key={}, quantity={} : {}", key, quantity, ex.getMessage());
+        }
+    }
+
+    @Override
+    public void invalidate(Long ticketTypeId) {
+        if (ticketTypeId == null) return;
+        try {
+            redis.execute(INVALIDATE_SCRIPT, List.of(quotaKey(ticketTypeId), genKey(ticketTypeId)));
+        } catch (Exception ex) {
+            log.warn("Redis quota invalidate failed, ticketTypeId={} : {}", ticketTypeId, ex.getMessage());
+        }
+    }
+
+    @Override
+    public Integer remaining(Long ticketTypeId) {
+        try {
+            String v = redis.opsForValue().get(quotaKey(ticketTypeId));
+            return v == null ? null : Integer.valueOf(v);
+        } catch (Exception ex) {
+            log.warn("Redis quota read failed, ticketTypeId={} : {}", ticketTypeId, ex.getMessage());
+            return null;
+        }
+    }
+
+    private Long acquire(Long ticketTypeId, int quantity) {
+        return redis.execute(ACQUIRE_SCRIPT, List.of(quotaKey(ticketTypeId), inflightKey(ticketTypeId)),
+                String.valueOf(quantity), String.valueOf(inflightTtlMs));
+    }
+
+    /**
+     * 從 DB 載入 quota:{id}：
+     * 1) 還有扣減沒落地 → 先不讀 DB，等一下再看
+     * 2) 記下 gen → 讀 DB（quota - pending）→ Lua 裡確認 gen 沒變、inflight 還是 0 才寫入（帶 TTL）
+     * 3) 等超過 reload-wait-ms → 503，讓呼叫端重試
+    **/
+    private void load(Long ticketTypeId) {
+        List<String> keys = List.of(quotaKey(ticketTypeId), inflightKey(ticketTypeId), genKey(ticketTypeId));
+        long deadline = System.currentTimeMillis() + reloadWaitMs;
+        while (true) {
+            String inflight = redis.opsForValue().get(inflightKey(ticketTypeId));
+            if (inflight == null || Long.parseLong(inflight) <= 0) {
+                String gen = Objects.requireNonNullElse(redis.opsForValue().get(genKey(ticketTypeId)), "0");
+                int remain = availableQuota.load(ticketTypeId);
+                Long res = redis.execute(LOAD_SCRIPT, keys, String.valueOf(remain), gen, String.valueOf(ttlMs));
+                if (res != null && res >= 0) return;
+                log.debug("Redis quota reload fenced, ticketTypeId={}, result={}", ticketTypeId, res);
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Quota is reloading, please retry");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Quota is reloading, please retry");
+            }
+        }
+    }
+
+    private String quotaKey(Long ticketTypeId) {
+        return QUOTA_PREFIX + ticketTypeId;
+    }
+
+    private String inflightKey(Long ticketTypeId) {
+        return QUOTA_PREFIX + ticketTypeId + ":inflight";
+    }
+
+    private String genKey(Long ticketTypeId) {
+        return QUOTA_PREFIX + ticketTypeId + ":gen";
+    }
+}
@@ -0,0 +1,239 @@
+package com.github.rdsc.dev.ProSync.inventory;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Redis 佔位引擎（app.reservation.mode = REDIS_HOLD 時使用）：
+ * - 預約只在 Redis 佔位（每張訂單一筆，帶到期時間），ticket_types.quota 完全不動
+ * - 可用張數 = DB quota（快取在 Redis，60 秒自動重載）- 目前有效的佔位總數
+ * - 付款確認時才扣 ticket_types.quota，commit 後把佔位「轉正」（佔位移除 + 快取的 quota 同步扣掉）
+ * - 沒付款的購物車：佔位到期自己消失，過期回補也不用寫 ticket_types → 棄單不產生 MySQL 寫入
+ * Key 長相（{id} = ticketTypeId）：
+ *   hold:{id}:exp    ZSET  member = orderListId，score = 佔位到期時間（毫秒）
+ *   hold:{id}:qty    HASH  orderListId → 佔了幾張
+ *   hold:{id}:total        有效佔位總張數
+ *   hold:{id}:quota        快取的 DB 可用張數（TTL 60 秒）
+ *   hold:{id}:gen          載入柵欄：轉正 / 放掉 / invalidate 都 +1
+ * 重新載入的柵欄（跟 RedisQuotaCounter 一樣）：載入前先記下 gen，讀完 DB 要寫回時 gen 變了就重讀
+ *   → 讀 DB 的期間剛好有人付款轉正（quota 快取不存在，轉正沒東西可扣），舊的可用張數寫不回去，
+ *     不會多算可用、讓後面的人佔到位卻在付款確認時 409
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SeatHolds {
+
+    private static final String PREFIX = "hold:";
+    private static final Duration QUOTA_CACHE_TTL = Duration.ofSeconds(60);
+    private static final Duration HOLD_GRACE = Duration.ofMinutes(2); // 佔位比訂單多活一點，付款確認前不會先消失
+    private static final int LOAD_ATTEMPTS = 3; // 載入被柵欄擋下（gen 變了）最多重讀幾次，還是不行就 503
+
+    // 先清掉到期的佔位（一次最多 500 筆），再檢查夠不夠、加上佔位
+    // 回傳：>= 0 佔完剩幾張；-1 不夠；-2 quota 還沒載入
+    private static final DefaultRedisScript<Long> HOLD_SCRIPT = new DefaultRedisScript<>(
+            "local expired = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[4], 'LIMIT', 0, 500) " +
+                    "for _, m in ipairs(expired) do " +
+                    "  local q = tonumber(redis.call('hget', KEYS[2], m) or '0') " +
+                    "  redis.call('hdel', KEYS[2], m) " +
+                    "  redis.call('zrem', KEYS[1], m) " +
+                    "  redis.call('decrby', KEYS[3], q) " +
+                    "end " +
+                    "local quota = redis.call('get', KEYS[4]) " +
+                    "if not quota then return -2 end " +
+                    "local avail = tonumber(quota) - tonumber(redis.call('get', KEYS[3]) or '0') " +
+                    "if avail < tonumber(ARGV[2]) then return -1 end " +
+                    "redis.call('hincrby', KEYS[2], ARGV[1], ARGV[2]) " +
+                    "redis.call('incrby', KEYS[3], ARGV[2]) " +
+                    "local cur = redis.call('zscore', KEYS[1], ARGV[1]) " +
+                    "if (not cur) or tonumber(cur) < tonumber(ARGV[3]) then redis.call('zadd', KEYS[1], ARGV[3], ARGV[1]) end " +
+                    "return avail - tonumber(ARGV[2])",
+            Long.class
+    );
+
+    // 放掉某張訂單的佔位：ARGV[2] < 0 代表全部；ARGV[3] = 1 代表「轉正」（快取的 quota 一起扣掉）
+    // 不管有沒有東西可放都先 gen +1，讓正在載入的人重讀（快取不存在時轉正扣不到，只能靠這個擋舊值）
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('incr', KEYS[5]) " +
+                    "local cur = tonumber(redis.call('hget', KEYS[2], ARGV[1]) or '0') " +
+                    "if cur <= 0 then return 0 end " +
+                    "local q = tonumber(ARGV[2]) " +
+                    "if q < 0 or q > cur then q = cur end " +
+                    "if q == cur then " +
+                    "  redis.call('hdel', KEYS[2], ARGV[1]) " +
+                    "  redis.call('zrem', KEYS[1], ARGV[1]) " +
+                    "else " +
+                    "  redis.call('hincrby', KEYS[2], ARGV[1], -q) " +
+                    "end " +
+                    "redis.call('decrby', KEYS[3], q) " +
+                    "if ARGV[3] == '1' and redis.call('exists', KEYS[4]) == 1 then redis.call('decrby', KEYS[4], q) end " +
+                    "return q",
+            Long.class
+    );
+
+    // KEYS: quota, gen；ARGV: 載入值, 載入前的 gen, TTL(ms)
+    // 回傳：1 別人已經載入；0 寫入成功；-4 載入期間 gen 變了
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 1 then return 1 end " +
+                    "if (redis.call('get', KEYS[2]) or '0') ~= ARGV[2] then return -4 end " +
+                    "redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[3]) " +
+                    "return 0",
+            Long.class
+    );
+
+    // KEYS: quota, gen：先 +gen 再刪 key，正在載入舊值的人寫不回去
+    private static final DefaultRedisScript<Long> INVALIDATE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('incr', KEYS[2]) " +
+                    "return redis.call('del', KEYS[1])",
+            Long.class
+    );
+
+    // 訂單延長到期時間時，佔位跟著延長（只會往後延）
+    private static final DefaultRedisScript<Long> EXTEND_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('hexists', KEYS[2], ARGV[1]) == 0 then return 0 end " +
+                    "local cur = redis.call('zscore', KEYS[1], ARGV[1]) " +
+                    "if (not cur) or tonumber(cur) < tonumber(ARGV[2]) then redis.call('zadd', KEYS[1], ARGV[2], ARGV[1]) end " +
+                    "return 1",
+            Long.class
+    );
+
+    private final StringRedisTemplate redis;
+    private final AvailableQuota availableQuota;
+
+    /**
+     * 幫訂單佔 quantity 張，佔到訂單到期（再多一點緩衝）；不夠回 false
+     * Redis 出錯 → 503（不確定有沒有佔到，不能當作成功）
+    **/
+    public boolean hold(Long ticketTypeId, Long orderListId, int quantity, LocalDateTime orderExpiresAt) {
+        if (ticketTypeId == null) throw new IllegalArgumentException("ticketTypeId is required");
+        if (orderListId == null) throw new IllegalArgumentException("orderListId is required");
+        if (quantity < 1) throw new IllegalArgumentException("quantity must be >= 1");
+
+        List<String> keys = keys(ticketTypeId);
+        String member = String.valueOf(orderListId);
+        String expireAt = String.valueOf(epochMillis(orderExpiresAt.plus(HOLD_GRACE)));
+        try {
+            String now = String.valueOf(System.currentTimeMillis());
+            Long res = redis.execute(HOLD_SCRIPT, keys, member, String.valueOf(quantity), expireAt, now);
+            if (res != null && res == -2) {
+                // 第一次用到 / 快取過期：從 DB 載入（別的節點先載入就用它的）
+                load(ticketTypeId, keys);
+                res = redis.execute(HOLD_SCRIPT, keys, member, String.valueOf(quantity), expireAt, now);
+            }
+            return res != null && res >= 0;
+        } catch (ResponseStatusException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            log.warn("Redis seat hold error on ticketTypeId={} : {}", ticketTypeId, ex.getMessage());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Hold store unavailable, please retry");
+        }
+    }
+
+    // 放掉 quantity 張（交易失敗的補償）
+    public void release(Long ticketTypeId, Long orderListId, int quantity) {
+        run(RELEASE_SCRIPT, ticketTypeId, String.valueOf(orderListId), String.valueOf(quantity), "0");
+    }
+
+    // commit 後放掉整張訂單在這票種的佔位（過期回補）
+    public void releaseAfterCommit(Long ticketTypeId, Long orderListId) {
+        afterCommit(() -> run(RELEASE_SCRIPT, ticketTypeId, String.valueOf(orderListId), "-1", "0"));
+    }
+
+    /**
+     * commit 後把佔位轉正：ticket_types.quota 已經扣了，佔位移除、快取的 quota 同步扣掉（可用張數不變）
+     * 轉正失敗就把快取的 quota 丟掉重載，寧可暫時少賣也不要超賣
+    **/
+    public void convertAfterCommit(Long ticketTypeId, Long orderListId) {
+        afterCommit(() -> {
+            try {
+                redis.execute(RELEASE_SCRIPT, keys(ticketTypeId), String.valueOf(orderListId), "-1", "1");
+            } catch (Exception ex) {
+                log.error("Redis seat hold convert failed, ticketTypeId={}, orderListId={} : {}", ticketTypeId, orderListId, ex.getMessage());
+                invalidate(ticketTypeId);
+            }
+        });
+    }
+
+    // 訂單到期時間往後延時，佔位跟著延
+    public void extend(Long ticketTypeId, Long orderListId, LocalDateTime orderExpiresAt) {
+        try {
+            redis.execute(EXTEND_SCRIPT, keys(ticketTypeId), String.valueOf(orderListId),
+                    String.valueOf(epochMillis(orderExpiresAt.plus(HOLD_GRACE))));
+        } catch (Exception ex) {
+            log.warn("Redis seat hold extend failed, ticketTypeId={}, orderListId={} : {}", ticketTypeId, orderListId, ex.getMessage());
+        }
+    }
+
+    // 主辦方改 quota：丟掉快取的 quota，下次重新從 DB 載入（佔位保留）
+    public void invalidate(Long ticketTypeId) {
+        if (ticketTypeId == null) return;
+        try {
+            List<String> keys = keys(ticketTypeId);
+            redis.execute(INVALIDATE_SCRIPT, List.of(keys.get(3), keys.get(4)));
+        } catch (Exception ex) {
+            log.warn("Redis seat hold invalidate failed, ticketTypeId={} : {}", ticketTypeId, ex.getMessage());
+        }
+    }
+
+    /**
+     * 從 DB 載入 hold:{id}:quota：
+     * 1) 記下 gen → 讀 DB → Lua 裡確認 gen 沒變才寫入（帶 TTL）
+     * 2) gen 變了代表讀 DB 的期間有人轉正 / 放掉，讀到的可能是舊值 → 重讀，LOAD_ATTEMPTS 次都不行回 503
+    **/
+    private void load(Long ticketTypeId, List<String> keys) {
+        List<String> fence = List.of(keys.get(3), keys.get(4));
+        for (int i = 0; i < LOAD_ATTEMPTS; i++) {
+            String gen = Objects.requireNonNullElse(redis.opsForValue().get(keys.get(4)), "0");
+            int remain = availableQuota.load(ticketTypeId);
+            Long res = redis.execute(LOAD_SCRIPT, fence, String.valueOf(remain), gen, String.valueOf(QUOTA_CACHE_TTL.toMillis()));
+            if (res != null && res >= 0) return;
+            log.debug("Redis seat hold quota reload fenced, ticketTypeId={}, result={}", ticketTypeId, res);
+        }
+        throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Quota is reloading, please retry");
+    }
+
+    private void run(DefaultRedisScript<Long> script, Long ticketTypeId, String... args) {
+        if (ticketTypeId == null) return;
+        try {
+            redis.execute(script, keys(ticketTypeId), (Object[]) args);
+        } catch (Exception ex) {
+            // 放不掉只會「少賣」到佔位到期為止，不會超賣
+            log.error("Redis seat hold release failed, ticketTypeId={} : {}", ticketTypeId, ex.getMessage());
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static long epochMillis(LocalDateTime t) {
+        return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static List<String> keys(Long ticketTypeId) {
+        String base = PREFIX + ticketTypeId + ":";
+        return List.of(base + "exp", base + "qty", base + "total", base + "quota", base + "gen");
+    }
+}
@@ -0,0 +1,174 @@
+package com.github.rdsc.dev.ProSync.inventory;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 售完名單（negative cache）：
+ * - 票種賣完後，後面的 reserve() 在拿鎖、開交易之前就直接 409，不用再讀一次 DB 才知道沒票
+ * - 本機一份 Map，標記 / 解除時用 Redis pub/sub（sold-out 頻道）通知其他節點
+ * - 過期回補、主辦方改 quota 時解除（有票了）；萬一通知漏掉，標記最多活 ttl-seconds 就自己失效
+ * - 每個票種一個解除次數（generation）：讀庫存前先記下來，標記時發現中間被解除過（本機或其他節點）就不標
+ * 訊息格式：S:{ticketTypeId} = 售完、C:{ticketTypeId} = 解除
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SoldOutRegistry {
+
+    private static final String CHANNEL = "sold-out";
+
+    private final StringRedisTemplate redis;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final AvailableQuota availableQuota;
+
+    @Value("${app.sold-out.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.sold-out.ttl-seconds:30}")
+    private long ttlSeconds; // 標記最長保留（漏掉解除通知時的保險）
+
+    // ticketTypeId → 標記時間（毫秒）
+    private final ConcurrentMap<Long, Long> soldOut = new ConcurrentHashMap<>();
+    // ticketTypeId → 解除次數；標記前先記下來，讀完 DB 發現中間這個票種被解除過就不標（避免「剛回補又被標成售完」）
+    private final ConcurrentMap<Long, Long> clearGenerations = new ConcurrentHashMap<>();
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    // 售完就直接 409（在任何鎖 / 交易之前呼叫）
+    public void rejectIfSoldOut(Long ticketTypeId) {
+        if (isSoldOut(ticketTypeId)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: ticketType=" + ticketTypeId + " is sold out");
+        }
+    }
+
+    public boolean isSoldOut(Long ticketTypeId) {
+        if (!enabled || ticketTypeId == null) return false;
+        ensureSubscribed();
+        Long markedAt = soldOut.get(ticketTypeId);
+        if (markedAt == null) return false;
+        if (System.currentTimeMillis() - markedAt > ttlSeconds * 1000) {
+            soldOut.remove(ticketTypeId, markedAt);
+            return false;
+        }
+        return true;
+    }
+
+    // 讀庫存（開交易 / 扣計數器）之前先拿，之後原封不動傳給 markSoldOut
+    public long generation(Long ticketTypeId) {
+        if (ticketTypeId == null) return 0L;
+        return clearGenerations.getOrDefault(ticketTypeId, 0L);
+    }
+
+    /**
+     * 已經知道可用張數是 0（例如剛讀到 quota = 0）就標記：
+     * generation = 讀之前拿到的 generation(ticketTypeId)；讀完之前這個票種被解除過 → 讀到的 0 已經過時，不標
+     * 比對跟寫入在同一個 compute 裡，跟 clear 不會交錯
+    **/
+    public void markSoldOut(Long ticketTypeId, long generation) {
+        if (!enabled || ticketTypeId == null) return;
+        boolean[] marked = {false};
+        soldOut.compute(ticketTypeId, (id, markedAt) -> {
+            if (generation(id) != generation) return markedAt;
+            marked[0] = markedAt == null;
+            return System.currentTimeMillis();
+        });
+        if (marked[0]) {
+            log.info("ticketType {} marked sold out", ticketTypeId);
+            publish("S:" + ticketTypeId);
+        }
+    }
+
+    // 扣減失敗但不知道剩幾張（有條件 UPDATE 0 列）：再查一次 DB，真的是 0 才標記
+    public void markIfExhausted(Long ticketTypeId) {
+        if (!enabled || ticketTypeId == null) return;
+        long generation = generation(ticketTypeId);
+        try {
+            if (availableQuota.load(ticketTypeId) <= 0) {
+                markSoldOut(ticketTypeId, generation);
+            }
+        } catch (RuntimeException ex) {
+            log.debug("sold-out check skipped for ticketType {} : {}", ticketTypeId, ex.getMessage());
+        }
+    }
+
+    // 有票回來了：本機解除 + 通知其他節點
+    public void clear(Long ticketTypeId) {
+        if (!enabled || ticketTypeId == null) return;
+        invalidate(ticketTypeId);
+        publish("C:" + ticketTypeId);
+    }
+
+    // 回補寫在交易裡：commit 之後才解除，不然別人會在 commit 前又撞到 quota = 0 再標一次
+    public void clearAfterCommit(Long ticketTypeId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            clear(ticketTypeId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                clear(ticketTypeId);
+            }
+        });
+    }
+
+    private void publish(String message) {
+        try {
+            redis.convertAndSend(CHANNEL, message);
+        } catch (Exception ex) {
+            // 通知不出去只影響其他節點（它們靠自己撞到 0 再標記，或等 TTL 失效）
+            log.warn("publish sold-out message failed: {}", ex.getMessage());
+        }
+    }
+
+    // 第一次用到才訂閱（啟動時不連 Redis）
+    private void ensureSubscribed() {
+        if (subscribed.compareAndSet(false, true)) {
+            try {
+                listenerContainer.addMessageListener(this::onMessage, new ChannelTopic(CHANNEL));
+            } catch (RuntimeException ex) {
+                subscribed.set(false);
+                log.warn("subscribe sold-out channel failed: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.length() < 3) return;
+        Long ticketTypeId;
+        try {
+            ticketTypeId = Long.valueOf(body.substring(2));
+        } catch (NumberFormatException ex) {
+            return;
+        }
+        if (body.startsWith("S:")) {
+            soldOut.putIfAbsent(ticketTypeId, System.currentTimeMillis());
+        } else if (body.startsWith("C:")) {
+            invalidate(ticketTypeId);
+        }
+    }
+
+    // 解除次數 + 1 並移除標記（同一個 compute：拿舊 generation 的 markSoldOut 一定會看到）
+    private void invalidate(Long ticketTypeId) {
+        soldOut.compute(ticketTypeId, (id, markedAt) -> {
+            clearGenerations.merge(id, 1L, Long::sum);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.rdsc.dev.ProSync.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "job_cursors")
+@Getter @Setter
+@AllArgsConstructor @NoArgsConstructor @Builder
+// 排程工作的 keyset 游標：上一批最後一筆的 (expires_at, id)，下一輪從它後面接著掃
+public class JobCursor {
+
+    public static final LocalDateTime START = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    @Id
+    @Column(name = "job_name", length = 64)
+    private String jobName;
+
+    @Column(name = "last_expires_at", nullable = false)
+    private LocalDateTime lastExpiresAt;
+
+    @Column(name = "last_id", nullable = false)
+    private Long lastId;
+
+    @Column(name = "update_at", nullable = false)
+    private Instant updateAt;
+
+    public static JobCursor start(String jobName) {
+        return JobCursor.builder().jobName(jobName).lastExpiresAt(START).lastId(0L).build();
+    }
+
+    @PrePersist
+    @PreUpdate
+    void onSave() {
+        this.updateAt = Instant.now();
+        if (lastExpiresAt == null) lastExpiresAt = START;
+        if (lastId == null) lastId = 0L;
+    }
+
+    // 這批處理到哪
+    public void advance(LocalDateTime expiresAt, Long id) {
+        this.lastExpiresAt = expiresAt;
+        this.lastId = id;
+    }
+
+    // 掃到底了：下一輪從頭
+    public void reset() {
+        this.lastExpiresAt = START;
+        this.lastId = 0L;
+    }
+
+    public boolean atStart() {
+        return START.equals(lastExpiresAt) && (lastId == null || lastId == 0L);
+    }
+}
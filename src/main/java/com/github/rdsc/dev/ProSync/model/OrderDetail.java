@@ -32,7 +32,8 @@ public class OrderDetail {
     @EqualsAndHashCode.Exclude
     @ToString.Exclude
     @ManyToOne(fetch = FetchType.LAZY, optional = false)
-    @JoinColumn(name = "order_list_id", nullable = false)
+    @JoinColumn(name = "order_list_id", nullable = false,
+            foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT)) // 參照分區表 order_list，不能有外鍵（V13）
     private OrderList orderList;
 
     @EqualsAndHashCode.Exclude
@@ -44,6 +45,16 @@ public class OrderDetail {
     @Column(name = "quantity", nullable = false)
     private Integer quantity;
 
+    @Column(name = "pending_quota", nullable = false)
+    @Builder.Default
+    private Integer pendingQuota = 0;
+    // 已賣出、但還沒回寫到 ticket_types.quota 的張數（LEDGER 模式由背景工作回寫後歸零）
+
+    @Column(name = "held_quantity", nullable = false)
+    @Builder.Default
+    private Integer heldQuantity = 0;
+    // REDIS_HOLD：只在 Redis 佔位、付款確認才扣 ticket_types.quota 的張數
+
     @Column(name = "unit_price", nullable = false, precision = 18, scale = 2)
     private BigDecimal unitPrice;
 
@@ -65,6 +76,8 @@ public class OrderDetail {
         this.updateAt = now;
         if (unitPrice == null) unitPrice = BigDecimal.ZERO;
         if (quantity == null) quantity = 0;
+        if (pendingQuota == null) pendingQuota = 0;
+        if (heldQuantity == null) heldQuantity = 0;
         recalcCost();
     }
 
@@ -33,7 +33,8 @@ public class OrderList {
     // By Default:
     //      @ManyToOne、@OneToOne → 預設 EAGER
     //      @OneToMany、@ManyToMany → 預設 LAZY
-    @JoinColumn(name = "user_id", nullable = false)
+    @JoinColumn(name = "user_id", nullable = false,
+            foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT)) // order_list 是分區表，不能有外鍵（V13）
     private User user;
 
     @Enumerated(EnumType.STRING)
@@ -12,10 +12,7 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(
-        name = "payments",
-        uniqueConstraints = @UniqueConstraint(name = "uk_payments_tx_hash", columnNames = "tx_hash")
-)
+@Table(name = "payments") // tx_hash 唯一性在 payment_tx_hashes（分區表的 UNIQUE 必須包含 create_at，見 V13）
 // @ToString(exclude = "orderList") // 避免雙向關聯循環
 // @EqualsAndHashCode(of = "id") // 只用 id 這個欄位來判斷兩個物件是否相等、以及計算雜湊值。
 @Getter @Setter
@@ -28,7 +25,8 @@ public class Payment {
     @EqualsAndHashCode.Exclude
     @ToString.Exclude
     @ManyToOne(fetch = FetchType.LAZY, optional = false)
-    @JoinColumn(name = "order_list_id", nullable = false)
+    @JoinColumn(name = "order_list_id", nullable = false,
+            foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT)) // payments / order_list 都是分區表，不能有外鍵（V13）
     private OrderList orderList;
 
     @Column(name = "asset", nullable = false, length = 20)
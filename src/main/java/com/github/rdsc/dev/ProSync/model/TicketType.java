@@ -39,6 +39,10 @@ public class TicketType {
     @Column(name = "quota", nullable = false)
     private Integer quota;
 
+    @Column(name = "fence_token", nullable = false)
+    private Long fenceToken;
+    // 最後一次寫入 quota 的鎖持有者號碼（見 RedisLockHelper.acquireLease）；比這個小的寫入會被擋掉
+
     @Version
     @Column(name = "version", nullable = false)
     private Long version;
@@ -59,6 +63,9 @@ public class TicketType {
         if(version == null) {
             version = 0L;
         }
+        if (fenceToken == null) {
+            fenceToken = 0L;
+        }
     }
 
     @PreUpdate
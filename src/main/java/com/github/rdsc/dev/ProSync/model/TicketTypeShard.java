@@ -0,0 +1,68 @@
+package com.github.rdsc.dev.ProSync.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+@Entity
+@Table(
+        name = "ticket_type_shards",
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uk_ticket_type_shards_ticket_type_id_shard_no", columnNames = {"ticket_type_id", "shard_no"})
+        }
+)
+@Getter @Setter
+@AllArgsConstructor @NoArgsConstructor @Builder
+// 票種配額分片：一個票種的可用張數拆成 N 列，各自有 @Version，分散搶同一列的衝突
+public class TicketTypeShard {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "ticket_type_id", nullable = false)
+    private TicketType ticketType;
+
+    @Column(name = "shard_no", nullable = false)
+    private Integer shardNo;
+
+    @Column(name = "quota", nullable = false)
+    private Integer quota;
+
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+
+    @Column(name = "create_at", nullable = false, updatable = false)
+    private Instant createAt;
+
+    @Column(name = "update_at", nullable = false)
+    private Instant updateAt;
+
+    @PrePersist
+    void onCreate() {
+        Instant now = Instant.now();
+        this.createAt = now;
+        this.updateAt = now;
+        if (version == null) {
+            version = 0L;
+        }
+        if (quota == null) {
+            quota = 0;
+        }
+    }
+
+    @PreUpdate
+    void onUpdate() {
+        this.updateAt = Instant.now();
+    }
+
+    public void decreaseQuota(int amount) {
+        if (amount <= 0) throw new IllegalArgumentException("Amount must be > 0");
+        if (quota == null || quota < amount) throw new IllegalStateException("Not enough quota in shard " + shardNo);
+        quota -= amount;
+    }
+}
@@ -8,12 +8,37 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 @Repository
 public interface EventRepository extends JpaRepository<Event, Long> {
 
 //    Page<Event> findAllByOrganizer_Id(Long organizerId, Pageable pageable);
 
-    @Query("select distinct e from Event e left join e.coOrganizers co where e.organizer.id = :userId or co.id = :userId")
-    // left join e.coOrganizers co：把協同主辦的使用者連上來。
-    Page<Event> findAllOwnedBy(@Param("userId") Long userId, Pageable pageable);
+    // 自己主辦的活動 id（走 events.organizer_id 索引）
+    @Query("select e.id from Event e where e.organizer.id = :userId")
+    List<Long> findIdsByOrganizerId(@Param("userId") Long userId);
+
+    // 協同主辦的活動 id（走 event_organizers.user_id 索引）
+    @Query("select e.id from Event e join e.coOrganizers co where co.id = :userId")
+    List<Long> findIdsByCoOrganizerId(@Param("userId") Long userId);
+
+    Page<Event> findAllByIdIn(Collection<Long> ids, Pageable pageable);
+
+    // 主辦 + 協辦的活動 id（兩條各自走索引再合併）
+    default Set<Long> findOwnedIds(Long userId) {
+        Set<Long> ids = new LinkedHashSet<>(findIdsByOrganizerId(userId));
+        ids.addAll(findIdsByCoOrganizerId(userId));
+        return ids;
+    }
+
+    // 以前是 distinct + left join coOrganizers + OR：OR 跨兩張表用不到索引，整張 events 掃過再去重（Using temporary）
+    // 改成先拿 id（各自走索引），再用主鍵分頁
+    default Page<Event> findAllOwnedBy(Long userId, Pageable pageable) {
+        Set<Long> ids = findOwnedIds(userId);
+        return ids.isEmpty() ? Page.empty(pageable) : findAllByIdIn(ids, pageable);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.github.rdsc.dev.ProSync.repository;
+
+import com.github.rdsc.dev.ProSync.model.JobCursor;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
+
+public interface JobCursorRepository extends JpaRepository<JobCursor, String> {
+
+    // 鎖住游標列（SELECT ... FOR UPDATE）：多節點同時跑同一個排程時，一次只有一個在推進
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from JobCursor c where c.jobName = :jobName")
+    Optional<JobCursor> lockByJobName(@Param("jobName") String jobName);
+}
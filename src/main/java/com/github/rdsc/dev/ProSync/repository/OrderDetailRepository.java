@@ -1,7 +1,9 @@
 package com.github.rdsc.dev.ProSync.repository;
 
 import com.github.rdsc.dev.ProSync.model.OrderDetail;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -27,4 +29,13 @@ public interface OrderDetailRepository extends JpaRepository<OrderDetail, Long>
     BigDecimal totalCostByOrderListId (@Param("orderListId") Long orderListId);
     // recalcTotal() 是在 Java 記憶體裡，把「已載入的 detail」逐筆相加。
     // coalesce(sum(…)) 是在資料庫裡，請 DB 直接算總和，不用把每一筆載回來。
+
+    // 有待回寫張數的票種清單（背景回寫的工作清單）
+    @Query("select distinct od.ticketType.id from OrderDetail od where od.pendingQuota > 0")
+    List<Long> findTicketTypeIdsWithPendingQuota();
+
+    // 回寫時把該票種的待回寫明細鎖住（SELECT ... FOR UPDATE），避免加總後又被改動
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select od from OrderDetail od where od.ticketType.id = :ticketTypeId and od.pendingQuota > 0")
+    List<OrderDetail> findAllPendingQuotaForUpdate(@Param("ticketTypeId") Long ticketTypeId);
 }
@@ -30,8 +30,8 @@ public interface OrderListRepository extends JpaRepository<OrderList, Long> {
     // Before 是早於某個時間的部分取消，取某個時間之後的部分
 
     // 5/ 讀單筆時，順便把 detail 一次抓回（避免 Lazy 問題）
-    @Query("select distinct o from OrderList o left join fetch o.detail where o.id = :orderListId")
-    // distinct：去重
+    @Query("select o from OrderList o left join fetch o.detail where o.id = :orderListId")
+    // 不用 distinct：Hibernate 6 會自己把 fetch join 重複的訂單合併，SQL 加 DISTINCT 只會多一個暫存表
     // left join fetch：就算沒有 detail 也要把訂單帶回，而且這次就把 detail 一起載入，不要之後再查
     Optional<OrderList> findByIdWithDetail(@Param("orderListId") Long id);
 }
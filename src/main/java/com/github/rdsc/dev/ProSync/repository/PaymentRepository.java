@@ -2,9 +2,14 @@ package com.github.rdsc.dev.ProSync.repository;
 
 import com.github.rdsc.dev.ProSync.enums.PaymentStatus;
 import com.github.rdsc.dev.ProSync.model.Payment;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
@@ -23,4 +28,37 @@ public interface PaymentRepository extends JpaRepository<Payment, Long> {
 
     // 給排程/清理用：找已過期的 PENDING
     List<Payment> findAllByStatusAndExpiresAtBefore(PaymentStatus status, LocalDateTime before);
+
+    // 排程用的 keyset 分頁：只取 (id, expiresAt)，不載入實體
+    interface ExpiryKey {
+        Long getId();
+        LocalDateTime getExpiresAt();
+    }
+
+    // 游標 (afterAt, afterId) 之後、已過期的 PENDING，依 (expires_at, id) 排序取一頁
+    // createdAfter / createdBefore：payments 依 create_at 分區，帶上範圍才只掃相關分區（呼叫端依報價有效期推算）
+    @Query("select p.id as id, p.expiresAt as expiresAt from Payment p " +
+            "where p.status = :status and p.expiresAt < :cutoff " +
+            "and (p.expiresAt > :afterAt or (p.expiresAt = :afterAt and p.id > :afterId)) " +
+            "and p.createAt >= :createdAfter and p.createAt < :createdBefore " +
+            "order by p.expiresAt, p.id")
+    List<ExpiryKey> findExpiredPage(@Param("status") PaymentStatus status, @Param("cutoff") LocalDateTime cutoff,
+                                    @Param("afterAt") LocalDateTime afterAt, @Param("afterId") Long afterId,
+                                    @Param("createdAfter") Instant createdAfter, @Param("createdBefore") Instant createdBefore,
+                                    Limit limit);
+
+    // 這幾筆裡還是 PENDING 的（到期索引沒處理掉的，依到期時間放回索引）
+    @Query("select p.id as id, p.expiresAt as expiresAt from Payment p where p.id in :ids and p.status = :status")
+    List<ExpiryKey> findExpiryKeys(@Param("ids") List<Long> ids, @Param("status") PaymentStatus status);
+
+    // 指定幾筆付款單（到期索引 / 排程的一頁），還是 PENDING 且真的過期了才改 EXPIRED（中間付款成功的不會被改到）
+    @Modifying
+    @Query(value = "UPDATE payments SET status = 'EXPIRED', update_at = :now " +
+            "WHERE id IN (:ids) AND status = 'PENDING' AND expires_at < :cutoff", nativeQuery = true)
+    int expirePendingByIds(@Param("ids") List<Long> ids, @Param("cutoff") LocalDateTime cutoff, @Param("now") Instant now);
+
+    // 登記 txHash（PK 擋重複，含已封存的付款單）；重複會丟 DataIntegrityViolationException
+    @Modifying
+    @Query(value = "INSERT INTO payment_tx_hashes (tx_hash, payment_id) VALUES (:txHash, :paymentId)", nativeQuery = true)
+    int registerTxHash(@Param("txHash") String txHash, @Param("paymentId") Long paymentId);
 }
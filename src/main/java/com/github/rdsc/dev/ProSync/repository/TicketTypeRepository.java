@@ -6,9 +6,13 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -39,6 +43,32 @@ public interface TicketTypeRepository extends JpaRepository<TicketType, Long> {
 
 //    Page<TicketType> findAllByEvent_OrganizerId(Long organizerId, Pageable pageable);
 
-    @Query("select distinct t from TicketType t join t.event e left join e.coOrganizers co where e.organizer.id = :userId or co.id = :userId")
-    Page<TicketType> findAllOwnedByUser(@Param("userId") Long userId, Pageable pageable);
+    // 某幾個活動的票種（主辦方看自己的票種：活動 id 由 EventRepository.findOwnedIds 先查好）
+    Page<TicketType> findAllByEventIdIn(Collection<Long> eventIds, Pageable pageable);
+
+    // 直接在 DB 端加減庫存（一條 UPDATE，不載入實體），同時把 version + 1，讓拿舊版本的人更新時會衝突
+    // 條件 quota + delta >= 0：不允許扣成負數；回傳 0 代表沒更新到（票種不存在或庫存不夠）
+    @Modifying
+    @Query("update TicketType t set t.quota = t.quota + :delta, t.version = t.version + 1, t.updateAt = :now " +
+            "where t.id = :ticketTypeId and t.quota + :delta >= 0")
+    int applyQuotaDelta(@Param("ticketTypeId") Long id, @Param("delta") int delta, @Param("now") Instant now);
+
+    // 帶 fencing token 的扣減：除了庫存夠，還要求 token 不比上一個寫入者舊（鎖過期的舊持有者會拿到 0 列）
+    // 成功時記下這次的 token，version 一樣 + 1
+    @Modifying
+    @Query("update TicketType t set t.quota = t.quota + :delta, t.fenceToken = :fence, t.version = t.version + 1, t.updateAt = :now " +
+            "where t.id = :ticketTypeId and t.quota + :delta >= 0 and t.fenceToken <= :fence")
+    int applyQuotaDeltaFenced(@Param("ticketTypeId") Long id, @Param("delta") int delta, @Param("fence") long fence, @Param("now") Instant now);
+
+    // 目前記錄的 fencing token（判斷 0 列是「庫存不夠」還是「token 太舊」）
+    @Query("select t.fenceToken from TicketType t where t.id = :ticketTypeId")
+    Optional<Long> findFenceTokenById(@Param("ticketTypeId") Long id);
+
+    // 只查票價（不載入整個實體）；給 GUARDED_UPDATE 預約寫明細用
+    @Query("select t.price from TicketType t where t.id = :ticketTypeId")
+    Optional<BigDecimal> findPriceById(@Param("ticketTypeId") Long id);
+
+    // 只查票種所屬的活動 id（等候室檢查用）
+    @Query("select t.event.id from TicketType t where t.id = :ticketTypeId")
+    Optional<Long> findEventIdById(@Param("ticketTypeId") Long id);
 }
@@ -0,0 +1,35 @@
+package com.github.rdsc.dev.ProSync.repository;
+
+import com.github.rdsc.dev.ProSync.model.TicketTypeShard;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface TicketTypeShardRepository extends JpaRepository<TicketTypeShard, Long> {
+
+    // 某票種的全部分片（依 shard_no 排好）
+    List<TicketTypeShard> findAllByTicketTypeIdOrderByShardNo(Long ticketTypeId);
+
+    // 只讀一個分片（預約先看本家分片夠不夠，不用把整組讀出來）
+    Optional<TicketTypeShard> findByTicketTypeIdAndShardNo(Long ticketTypeId, int shardNo);
+
+    // 某票種有幾個分片（0 代表還沒切分）
+    long countByTicketTypeId(Long ticketTypeId);
+
+    // 回補到指定分片：一條 UPDATE 直接加，version + 1 讓正在扣這個分片的人重試（回補本身不會衝突）
+    @Modifying
+    @Query("update TicketTypeShard s set s.quota = s.quota + :amount, s.version = s.version + 1, s.updateAt = :now " +
+            "where s.ticketType.id = :ticketTypeId and s.shardNo = :shardNo")
+    int refill(@Param("ticketTypeId") Long ticketTypeId, @Param("shardNo") int shardNo,
+               @Param("amount") int amount, @Param("now") Instant now);
+
+    // 主辦方改 quota 時整組丟掉，下次預約再依 DB 重新切分
+    @Modifying
+    @Query("delete from TicketTypeShard s where s.ticketType.id = :ticketTypeId")
+    int deleteAllByTicketTypeId(@Param("ticketTypeId") Long ticketTypeId);
+}
@@ -0,0 +1,377 @@
+package com.github.rdsc.dev.ProSync.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.rdsc.dev.ProSync.exception.ErrorDto;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Idempotency-Key 支援（建單 / 報價 / 確認付款）：
+ * 行動網路不穩時 client 會重送同一個請求；帶同一把 Idempotency-Key 的重送：
+ * - 第一個請求做完 → 回應（狀態碼 + body）存進 Redis（預設 24 小時），之後的重送直接回存好的結果，
+ *   完全不進 Controller / TicketOrderService / PaymentService
+ * - 第一個還在跑 → 重送的請求等它做完（pub/sub 通知），拿同一份結果
+ *   「處理中」標記帶 TTL（節點掛掉時自動釋放），請求還在跑就背景每 1/3 TTL 續約一次：
+ *   排隊等 seat 鎖、等 group commit 批次這種慢請求不會讓標記先過期，重送的請求也就不會跟它同時跑
+ * - 同一把 key 但 body 不一樣 → 422（client 把 key 用錯了）
+ * - 5xx / 429 這種「再試一次可能會好」的結果不存，key 直接刪掉，讓下次重送真的再跑一次
+ * Key 依「登入者 + method + path + Idempotency-Key」分開，不同使用者不會撞在一起。
+ * 掛在 JwtAuthFilter 後面（要知道是誰）；Redis 出錯就照常放行，不擋正常請求。
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "Idempotency-Key";
+    private static final String KEY_PREFIX = "idem:";
+    private static final String DONE_CHANNEL_PREFIX = "idem-done:";
+    private static final String IN_FLIGHT = "IN_FLIGHT";
+    private static final String COMPLETED = "COMPLETED";
+
+    // 要支援冪等的 POST 端點
+    private static final List<String> PATHS = List.of(
+            "/api/public/orders/create-order",
+            "/api/public/orders/create-order/batch",
+            "/api/public/payment/create-quote",
+            "/api/public/payment/confirm-payment/*"
+    );
+
+    // 續約「處理中」標記：還是自己那一筆才延長 TTL（已經完成 / 被刪掉 / 別人重新搶到就不動）
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+                    "  return redis.call('pexpire', KEYS[1], ARGV[2]) " +
+                    "else " +
+                    "  return 0 " +
+                    "end",
+            Long.class
+    );
+
+    private final StringRedisTemplate redis;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    @Value("${app.idempotency.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.idempotency.ttl-hours:24}")
+    private long ttlHours;              // 完成的結果保留多久
+
+    @Value("${app.idempotency.in-flight-ttl-seconds:30}")
+    private long inFlightTtlSeconds;    // 「處理中」標記的 TTL：請求還在跑就一直續約，節點掛掉時最多卡這麼久
+
+    @Value("${app.idempotency.wait-ms:10000}")
+    private long waitMs;                // 重送的請求最多等第一個多久
+
+    // 本機正在等某把 key 的請求；收到 idem-done:{key} 就叫醒
+    private final ConcurrentMap<String, Set<Semaphore>> waiters = new ConcurrentHashMap<>();
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    private volatile ScheduledExecutorService claimRenewer; // 第一次真的執行請求才建
+
+    // 存在 Redis 的內容；owner 只有「處理中」才有（每次搶到都不一樣，續約時認得出是不是自己那一筆）
+    private record Stored(String state, String fingerprint, int status, String contentType, String body, String owner) {}
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled || !"POST".equalsIgnoreCase(request.getMethod())) return true;
+        String idemKey = request.getHeader(HEADER);
+        if (idemKey == null || idemKey.isBlank()) return true;
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return PATHS.stream().noneMatch(p -> pathMatcher.match(p, path));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || auth.getName() == null) {
+            chain.doFilter(request, response); // 沒登入交給後面擋，不佔 key
+            return;
+        }
+
+        CachedBodyRequest req = new CachedBodyRequest(request);
+        String idemKey = request.getHeader(HEADER).trim();
+        String cacheKey = KEY_PREFIX + sha256(auth.getName() + "|" + request.getMethod() + "|" + request.getRequestURI() + "|" + idemKey);
+        String fingerprint = sha256(new String(req.body, StandardCharsets.UTF_8));
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMs);
+        while (true) {
+            Boolean claimed;
+            String claim = write(new Stored(IN_FLIGHT, fingerprint, 0, null, null, UUID.randomUUID().toString()));
+            try {
+                claimed = redis.opsForValue().setIfAbsent(cacheKey, claim, Duration.ofSeconds(inFlightTtlSeconds));
+            } catch (RuntimeException ex) {
+                log.warn("Idempotency skipped (redis error): {}", ex.getMessage());
+                chain.doFilter(req, response);
+                return;
+            }
+
+            // 1/ 第一個：真的執行，做完把結果存起來
+            if (Boolean.TRUE.equals(claimed)) {
+                execute(req, response, chain, cacheKey, fingerprint, claim);
+                return;
+            }
+
+            // 2/ 已經有人在做 / 做完了
+            Stored stored = read(cacheKey);
+            if (stored == null) {
+                continue; // 剛好被刪掉（第一個失敗了）→ 重新搶
+            }
+            if (!stored.fingerprint().equals(fingerprint)) {
+                writeError(req, response, HttpStatus.UNPROCESSABLE_ENTITY, "Idempotency-Key reused with a different request body");
+                return;
+            }
+            if (COMPLETED.equals(stored.state())) {
+                replay(response, stored);
+                return;
+            }
+
+            // 3/ 還在處理中：等完成通知（或等到上限）
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) {
+                writeError(req, response, HttpStatus.CONFLICT, "A request with the same Idempotency-Key is still in progress");
+                return;
+            }
+            awaitDone(cacheKey, remainingMs);
+        }
+    }
+
+    private void execute(CachedBodyRequest req, HttpServletResponse response, FilterChain chain,
+                         String cacheKey, String fingerprint, String claim) throws ServletException, IOException {
+        ContentCachingResponseWrapper res = new ContentCachingResponseWrapper(response);
+        boolean stored = false;
+        ScheduledFuture<?> renewal = scheduleRenewal(cacheKey, claim);
+        try {
+            chain.doFilter(req, res);
+
+            int status = res.getStatus();
+            if (status < 500 && status != 429) {
+                String body = new String(res.getContentAsByteArray(), StandardCharsets.UTF_8);
+                redis.opsForValue().set(cacheKey,
+                        write(new Stored(COMPLETED, fingerprint, status, res.getContentType(), body, null)),
+                        Duration.ofHours(ttlHours));
+                stored = true;
+            }
+        } catch (RuntimeException ex) {
+            if (!stored) log.debug("Idempotent request failed, key released: {}", ex.getMessage());
+            throw ex;
+        } finally {
+            if (renewal != null) renewal.cancel(false);
+            try {
+                if (!stored) redis.delete(cacheKey); // 失敗 / 暫時性錯誤 → 放掉 key，讓重送真的再跑
+                redis.convertAndSend(DONE_CHANNEL_PREFIX + cacheKey, cacheKey);
+            } catch (RuntimeException ex) {
+                log.warn("Idempotency finalize failed (ignored): {}", ex.getMessage());
+            }
+            res.copyBodyToResponse();
+        }
+    }
+
+    // 請求還在跑：每 1/3 TTL 把「處理中」標記續約一次；排程不起來就只靠原本的 TTL
+    private ScheduledFuture<?> scheduleRenewal(String cacheKey, String claim) {
+        long ttlMs = TimeUnit.SECONDS.toMillis(inFlightTtlSeconds);
+        long periodMs = Math.max(ttlMs / 3, 1);
+        try {
+            return renewer().scheduleAtFixedRate(() -> {
+                try {
+                    redis.execute(RENEW_SCRIPT, List.of(cacheKey), claim, String.valueOf(ttlMs));
+                } catch (RuntimeException ex) {
+                    log.debug("Idempotency claim renew failed, key = {} : {}", cacheKey, ex.getMessage());
+                }
+            }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException ex) {
+            log.warn("Idempotency claim renewal not scheduled: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    private ScheduledExecutorService renewer() {
+        ScheduledExecutorService r = claimRenewer;
+        if (r == null) {
+            synchronized (this) {
+                r = claimRenewer;
+                if (r == null) {
+                    r = Executors.newSingleThreadScheduledExecutor(job -> {
+                        Thread t = new Thread(job, "idempotency-claim-renewer");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    claimRenewer = r;
+                }
+            }
+        }
+        return r;
+    }
+
+    @PreDestroy
+    void shutdownRenewer() {
+        ScheduledExecutorService r = claimRenewer;
+        if (r != null) r.shutdownNow();
+    }
+
+    private void replay(HttpServletResponse response, Stored stored) throws IOException {
+        response.setStatus(stored.status());
+        if (stored.contentType() != null) response.setContentType(stored.contentType());
+        response.setHeader("Idempotent-Replayed", "true");
+        if (stored.body() != null) {
+            response.getOutputStream().write(stored.body().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // 跟 GlobalExceptionHandler 一樣回 ErrorDto（用 ObjectMapper 序列化，訊息裡的引號 / 換行會正確跳脫）
+    private void writeError(HttpServletRequest request, HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        objectMapper.writeValue(response.getOutputStream(), ErrorDto.toResponse(status, message, request));
+    }
+
+    // 等 idem-done:{key}；沒收到通知就等到 in-flight 標記的 TTL 或上限，再回頭看一次
+    private void awaitDone(String cacheKey, long remainingMs) {
+        ensureSubscribed();
+        Semaphore signal = new Semaphore(0);
+        waiters.computeIfAbsent(cacheKey, k -> ConcurrentHashMap.newKeySet()).add(signal);
+        try {
+            // 註冊之後再看一次，避免「看完還在跑 → 註冊前剛好做完」漏掉通知
+            Stored again = read(cacheKey);
+            if (again != null && IN_FLIGHT.equals(again.state())) {
+                signal.tryAcquire(Math.min(remainingMs, TimeUnit.SECONDS.toMillis(inFlightTtlSeconds)), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            Set<Semaphore> set = waiters.get(cacheKey);
+            if (set != null) {
+                set.remove(signal);
+                if (set.isEmpty()) waiters.remove(cacheKey, set);
+            }
+        }
+    }
+
+    private void ensureSubscribed() {
+        if (subscribed.compareAndSet(false, true)) {
+            try {
+                listenerContainer.addMessageListener(this::onDone, new PatternTopic(DONE_CHANNEL_PREFIX + "*"));
+            } catch (RuntimeException ex) {
+                subscribed.set(false);
+                log.warn("subscribe idem-done channel failed: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private void onDone(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Set<Semaphore> set = waiters.get(channel.substring(DONE_CHANNEL_PREFIX.length()));
+        if (set != null) {
+            set.forEach(Semaphore::release);
+        }
+    }
+
+    private Stored read(String cacheKey) {
+        try {
+            String v = redis.opsForValue().get(cacheKey);
+            return v == null ? null : objectMapper.readValue(v, Stored.class);
+        } catch (IOException ex) {
+            log.warn("Idempotency record unreadable, key = {}", cacheKey);
+            return null;
+        }
+    }
+
+    private String write(Stored stored) {
+        try {
+            return objectMapper.writeValueAsString(stored);
+        } catch (IOException ex) {
+            throw new IllegalStateException("serialize idempotency record failed", ex);
+        }
+    }
+
+    private static String sha256(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // 先把 body 讀進來（要算指紋），之後 Controller 還能再讀一次
+    // 非同步讀取（setReadListener）也支援：資料已經全在記憶體裡，註冊時直接通知「可以讀」、「讀完了」
+    private static class CachedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest request) throws IOException {
+            super(request);
+            this.body = request.getInputStream().readAllBytes();
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override public boolean isFinished() { return in.available() == 0; }
+                @Override public boolean isReady() { return true; }
+                @Override public void setReadListener(ReadListener listener) {
+                    if (listener == null) throw new NullPointerException("listener");
+                    try {
+                        listener.onDataAvailable();
+                        listener.onAllDataRead();
+                    } catch (IOException ex) {
+                        listener.onError(ex);
+                    }
+                }
+                @Override public int read() { return in.read(); }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+        }
+    }
+}
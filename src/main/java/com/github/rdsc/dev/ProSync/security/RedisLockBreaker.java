@@ -0,0 +1,102 @@
+package com.github.rdsc.dev.ProSync.security;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Redis 鎖的斷路器（RedisLockHelper 內部使用）：
+ * - CLOSED：正常走 Redis；連續 failureThreshold 次「出錯或太慢」就跳到 OPEN
+ * - OPEN：不碰 Redis，改用本機鎖 + DB 有條件 UPDATE（降級模式）；過了 openMs 進入 HALF_OPEN
+ * - HALF_OPEN：只放一個請求去試 Redis，成功回 CLOSED，失敗再 OPEN 一輪
+ * 狀態切換記到 seat.lock.mode.transition（tag from / to），目前是否降級記到 seat.lock.degraded（1 / 0）
+**/
+@Slf4j
+class RedisLockBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long slowCallMs;
+    private final long openMs;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicBoolean probing = new AtomicBoolean(false); // HALF_OPEN 時只放一個人去試
+
+    RedisLockBreaker(int failureThreshold, long slowCallMs, long openMs, MeterRegistry meterRegistry) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.slowCallMs = slowCallMs;
+        this.openMs = openMs;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("seat.lock.degraded", this, b -> b.isDegraded() ? 1 : 0)
+                .description("1 while seat locks fall back to node-local locks")
+                .register(meterRegistry);
+    }
+
+    // 現在要不要走 Redis：CLOSED 一律走；OPEN 時間到了就轉 HALF_OPEN，只讓搶到試探資格的人走
+    boolean allowRedis() {
+        State s = state.get();
+        if (s == State.CLOSED) return true;
+        if (s == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt.get() < openMs) return false;
+            transition(State.OPEN, State.HALF_OPEN);
+        }
+        return probing.compareAndSet(false, true);
+    }
+
+    // 降級中（OPEN / HALF_OPEN）：呼叫端改用 DB 有條件 UPDATE
+    boolean isDegraded() {
+        return state.get() != State.CLOSED;
+    }
+
+    // 一次 Redis 呼叫結束：太慢也算失敗
+    void onSuccess(long elapsedMs) {
+        if (slowCallMs > 0 && elapsedMs > slowCallMs) {
+            onFailure();
+            return;
+        }
+        consecutiveFailures.set(0);
+        if (state.get() == State.HALF_OPEN && transition(State.HALF_OPEN, State.CLOSED)) {
+            probing.set(false);
+        }
+    }
+
+    void onFailure() {
+        State s = state.get();
+        if (s == State.HALF_OPEN) {
+            if (transition(State.HALF_OPEN, State.OPEN)) {
+                openedAt.set(System.currentTimeMillis());
+            }
+            probing.set(false);
+            return;
+        }
+        if (s == State.CLOSED && consecutiveFailures.incrementAndGet() >= failureThreshold
+                && transition(State.CLOSED, State.OPEN)) {
+            openedAt.set(System.currentTimeMillis());
+            consecutiveFailures.set(0);
+        }
+    }
+
+    State state() {
+        return state.get();
+    }
+
+    private boolean transition(State from, State to) {
+        if (!state.compareAndSet(from, to)) return false;
+        meterRegistry.counter("seat.lock.mode.transition", "from", from.name(), "to", to.name()).increment();
+        if (to == State.OPEN) {
+            log.warn("Redis seat lock circuit OPEN: falling back to node-local locks + guarded DB updates");
+        } else {
+            log.info("Redis seat lock circuit {} -> {}", from, to);
+        }
+        return true;
+    }
+}
@@ -1,20 +1,37 @@
 package com.github.rdsc.dev.ProSync.security;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 @Component
@@ -23,20 +40,164 @@ import java.util.concurrent.ConcurrentMap;
 public class RedisLockHelper {
 
     private static final String SEAT_PREFIX = "seat:"; // 鎖的 Key 長相會是 seat:{ticketTypeId}
+    private static final String FENCE_SUFFIX = ":fence"; // 遞增號碼 seat:{ticketTypeId}:fence（不設 TTL，只會往上加）
+    private static final String RELEASED_CHANNEL_PREFIX = "lock-released:"; // 解鎖通知頻道：lock-released:{key}
+    private static final String LOCAL_TOKEN_PREFIX = "local:"; // 斷路器打開時發的「只有本機鎖」token
+    private static final long MIN_RECHECK_MS = 50; // 等待中最短多久自己再看一次（只在「鎖剛好空著、輪到別人」時用到）
 
     private final StringRedisTemplate redis; // 注入的 Redis 客戶端，用來 get/set/execute script
+    private final RedisMessageListenerContainer listenerContainer;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.locks.seat.max-wait-ms:0}")
+    private long maxWaitMs; // 0 = 舊行為（SETNX 一次，搶不到就回 null）；> 0 = 公平排隊，最多等這麼久
+
+    @Value("${app.locks.seat.local-stripes:64}")
+    private int localStripes; // 本機鎖分幾條（票種 id hash 到其中一條）
+
+    @Value("${app.locks.seat.local-wait-ms:2000}")
+    private long localWaitMs; // 本機排隊最多等多久（等不到就跟搶不到 Redis 鎖一樣回 null）
+
+    @Value("${app.locks.redis-breaker.failure-threshold:5}")
+    private int breakerFailureThreshold; // 連續幾次出錯 / 太慢就斷開
+
+    @Value("${app.locks.redis-breaker.slow-call-ms:200}")
+    private long breakerSlowCallMs; // 單次 Redis 呼叫超過多久算「太慢」（0 = 不看延遲）
+
+    @Value("${app.locks.redis-breaker.open-ms:5000}")
+    private long breakerOpenMs; // 斷開後多久再試一次 Redis
+
+    private RedisLockBreaker breaker;
+
+    // 續約：只有鎖還是自己的才延長 TTL；回 0 代表鎖已經不是自己的（過期被別人拿走）
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+                    "  return redis.call('pexpire', KEYS[1], ARGV[2]) " +
+                    "else " +
+                    "  return 0 " +
+                    "end",
+            Long.class
+    );
+
+    // 把遞增號碼至少推到 ARGV[1]（Redis 資料遺失、號碼從頭算時，用 DB 上記錄的號碼墊底）
+    private static final DefaultRedisScript<Long> SEED_FENCE_SCRIPT = new DefaultRedisScript<>(
+            "local cur = tonumber(redis.call('get', KEYS[1]) or '0') " +
+                    "if cur < tonumber(ARGV[1]) then redis.call('set', KEYS[1], ARGV[1]) return tonumber(ARGV[1]) end " +
+                    "return cur",
+            Long.class
+    );
 
     // Lua 腳本：只有「持有同一把 token 的人」才允許刪除該 key（避免把別人的鎖刪掉）
+    // 刪掉之後 publish 到 lock-released:{key}，叫醒正在排隊等這把鎖的人（沒人訂閱也沒關係）
     private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
             "if redis.call('get', KEYS[1]) == ARGV[1] then " + // 先把 Redis 目前這個 key 的值取出來，檢查是不是跟傳進來的 token 一樣
-                    "  return redis.call('del', KEYS[1]) " + // 一樣才真的 DEL（刪掉鎖）
+                    "  local res = redis.call('del', KEYS[1]) " + // 一樣才真的 DEL（刪掉鎖）
+                    "  redis.call('publish', '" + RELEASED_CHANNEL_PREFIX + "' .. KEYS[1], KEYS[1]) " +
+                    "  return res " +
                     "else " +
                     "  return 0 " + // 不一樣就什麼都不做，回 0
                     "end",
             Long.class // 回傳型別 Long.class，因為 DEL 回 1/0（成功刪/沒有刪）
     );
+
+    /**
+     * 公平排隊搶鎖（FIFO）：KEYS[1] = 鎖、KEYS[2] = 排隊用的 ZSET（score = 第一次排進來的時間）
+     * 1) 先清掉太久沒走的排隊者（等待一定有上限，超過就是掛掉沒清的）
+     * 2) 自己還沒排隊就排進去（score 只在第一次設定，先來的永遠在前面）
+     * 3) 排在第一個、而且鎖空著 → SET NX PX 拿鎖並離開隊伍，回 1
+     * 4) 其他情況回 -(鎖剩幾毫秒)，呼叫端最多等到那時候（或被解鎖通知叫醒）再試
+    **/
+    private static final DefaultRedisScript<Long> FAIR_ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('zremrangebyscore', KEYS[2], '-inf', ARGV[4]) " +
+                    "if not redis.call('zscore', KEYS[2], ARGV[1]) then redis.call('zadd', KEYS[2], ARGV[3], ARGV[1]) end " +
+                    "redis.call('pexpire', KEYS[2], ARGV[5]) " +
+                    "local head = redis.call('zrange', KEYS[2], 0, 0)[1] " +
+                    "if head == ARGV[1] and redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then " +
+                    "  redis.call('zrem', KEYS[2], ARGV[1]) " +
+                    "  return 1 " +
+                    "end " +
+                    "local pttl = redis.call('pttl', KEYS[1]) " +
+                    "if pttl < 1 then pttl = 1 end " +
+                    "return -pttl",
+            Long.class
+    );
+
     private static final ConcurrentMap<String, Entry> LOCKS = new ConcurrentHashMap<>();
 
+    // 本機正在等某把鎖的執行緒（key → 等待者）；收到解鎖通知就叫醒它們
+    private final ConcurrentMap<String, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    private static class Waiter {
+        private final Semaphore signal = new Semaphore(0);
+    }
+
+    /**
+     * 兩層鎖的第一層：本機分條鎖（每條一個公平 Semaphore(1)）
+     * 同一個 JVM 裡同票種一次只放一個執行緒去跟 Redis 搶 seat:{id}，其他人在本機排隊，
+     * 不用 200 個執行緒各送一次 SETNX 然後大部分失敗（Lettuce 連線池只有 8~16 條）。
+     * token → 本機持有紀錄：unlockSeat 時還回去；忘了 unlock 的在 TTL 到的時候收回（跟 Redis 鎖同時過期）。
+     * 同一個執行緒一次鎖多個票種（批次預約）剛好落在同一條時，不再拿第二次（不然會自己等自己）。
+    **/
+    private Semaphore[] stripes;
+    private final ConcurrentMap<String, LocalHold> localHolds = new ConcurrentHashMap<>();
+    private ScheduledThreadPoolExecutor holdReaper; // TTL 到了還沒 unlock 的本機持有，由它收回
+
+    // 哪個執行緒拿著哪一條的 permit（同執行緒重複拿同一條時，O(1) 查到就不再拿）
+    private record StripeOwner(Semaphore stripe, Thread owner) {}
+    private final Set<StripeOwner> heldStripes = ConcurrentHashMap.newKeySet();
+
+    @Getter
+    @AllArgsConstructor
+    private static class LocalHold {
+        private final Semaphore stripe;
+        private final Instant expiresAt;
+        private final Thread owner;
+        private final boolean ownsPermit; // false = 同執行緒已經拿過這一條，這次沒有另外拿 permit
+    }
+
+    @PostConstruct
+    void initStripes() {
+        breaker = new RedisLockBreaker(breakerFailureThreshold, breakerSlowCallMs, breakerOpenMs, meterRegistry);
+
+        int n = Math.max(1, localStripes);
+        stripes = new Semaphore[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Semaphore(1, true); // 公平：本機也照先來後到
+        }
+
+        holdReaper = new ScheduledThreadPoolExecutor(1, job -> {
+            Thread t = new Thread(job, "seat-stripe-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        holdReaper.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 帶 fencing token 的租約（acquireLease 回傳）：
+     * - fence：拿到鎖之後 INCR seat:{id}:fence 的結果，後拿到鎖的人一定比較大
+     * - 背景每 ttl/3 續約一次，持有者還在做事就不會過期；續約失敗（鎖被別人拿走）就標記 lost
+     * 寫 ticket_types 時帶上 fence（applyQuotaDeltaFenced），就算鎖真的過期，舊持有者的寫入也會被 DB 擋掉
+    **/
+    @Getter
+    public static class Lease {
+        private final Long ticketTypeId;
+        private final String token;
+        private final long fence;
+        private volatile boolean lost;
+        @Getter(lombok.AccessLevel.NONE)
+        private volatile ScheduledFuture<?> renewal;
+
+        private Lease(Long ticketTypeId, String token, long fence) {
+            this.ticketTypeId = ticketTypeId;
+            this.token = token;
+            this.fence = fence;
+        }
+    }
+
+    private volatile ScheduledExecutorService leaseRenewer; // 第一次用到租約才建
+
     @Getter
     @AllArgsConstructor
     private static class Entry {
@@ -48,14 +209,200 @@ public class RedisLockHelper {
     public String lockSeat (Long ticketTypeId, Duration ttl) {
         if (ticketTypeId == null) throw new IllegalArgumentException("ticketTypeId is required");
         String key = seatKey(ticketTypeId);
-        return lockKey(key, ttl);
+
+        // 1/ 先拿本機分條鎖（同票種在本機一次只有一個人去 Redis 搶）
+        Semaphore stripe = stripes[Math.floorMod(Long.hashCode(ticketTypeId), stripes.length)];
+        Thread me = Thread.currentThread();
+        boolean alreadyHeld = heldStripes.contains(new StripeOwner(stripe, me));
+        try {
+            if (!alreadyHeld && !stripe.tryAcquire(localWaitMs, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        // 2/ 再拿 Redis 分散式鎖（斷路器打開時不碰 Redis，只靠本機鎖；呼叫端要改用 DB 有條件 UPDATE）
+        String token = null;
+        try {
+            if (!breaker.allowRedis()) {
+                token = LOCAL_TOKEN_PREFIX + UUID.randomUUID();
+            } else {
+                token = maxWaitMs > 0
+                        ? lockKeyFair(key, ttl, Duration.ofMillis(maxWaitMs))
+                        : lockKey(key, ttl);
+            }
+        } finally {
+            if (token == null) {
+                if (!alreadyHeld) stripe.release(); // Redis 沒搶到，本機鎖馬上還回去
+            } else {
+                Duration holdTtl = (ttl == null || ttl.isZero() || ttl.isNegative()) ? Duration.ofSeconds(5) : ttl;
+                LocalHold hold = new LocalHold(stripe, Instant.now().plus(holdTtl), me, !alreadyHeld);
+                localHolds.put(token, hold);
+                if (!alreadyHeld) heldStripes.add(new StripeOwner(stripe, me));
+                scheduleReclaim(token, hold, holdTtl);
+            }
+        }
+        return token;
     }
 
-    // 釋放「某票種」的鎖（只有持有相同 token 才會成功）
+    // 釋放「某票種」的鎖（只有持有相同 token 才會成功）：先放 Redis，再放本機
     public void unlockSeat(Long ticketTypeId, String token) {
         if (ticketTypeId == null) throw new IllegalArgumentException("ticketTypeId is required");
         String key = seatKey(ticketTypeId);
-        unlockKey(key, token);
+        try {
+            if (!isLocalOnly(token)) unlockKey(key, token);
+        } finally {
+            releaseLocal(token);
+        }
+    }
+
+    /**
+     * 拿「會自動續約、帶 fencing token」的鎖：
+     * 1) 一樣走 lockSeat（本機分條 + Redis 公平排隊），TTL 可以設很短
+     * 2) 拿到後 INCR seat:{id}:fence 取號（持有鎖時才取號 → 號碼順序 = 拿到鎖的順序）
+     * 3) 背景每 ttl/3 續約，直到 releaseLease
+     * 拿不到鎖 / Redis 出錯回 null（跟 lockSeat 一樣由呼叫端回 429）
+    **/
+    public Lease acquireLease(Long ticketTypeId, Duration ttl) {
+        Duration leaseTtl = (ttl == null || ttl.isZero() || ttl.isNegative()) ? Duration.ofSeconds(2) : ttl;
+        String token = lockSeat(ticketTypeId, leaseTtl);
+        if (token == null) return null;
+        if (isLocalOnly(token)) {
+            // 降級中拿不到號碼；呼叫端應該先看 isDegraded() 改走 DB 有條件 UPDATE
+            unlockSeat(ticketTypeId, token);
+            return null;
+        }
+
+        // 取號跟 SET NX 一樣算進斷路器：Redis 卡住 / 出錯，一直拿不到租約就該降級
+        Long fence;
+        try {
+            long begin = System.currentTimeMillis();
+            fence = redis.opsForValue().increment(seatKey(ticketTypeId) + FENCE_SUFFIX);
+            breaker.onSuccess(System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            breaker.onFailure();
+            log.warn("Redis fence increment error on ticketTypeId={} : {}", ticketTypeId, e.getMessage());
+            fence = null;
+        }
+        if (fence == null) {
+            unlockSeat(ticketTypeId, token);
+            return null;
+        }
+
+        Lease lease = new Lease(ticketTypeId, token, fence);
+        long periodMs = Math.max(leaseTtl.toMillis() / 3, 1);
+        lease.renewal = renewer().scheduleAtFixedRate(() -> renew(lease, leaseTtl), periodMs, periodMs, TimeUnit.MILLISECONDS);
+        // 本機分條鎖也要跟著續約的時間走，不能被 purgeExpired 用原本的短 TTL 收回
+        localHolds.computeIfPresent(token, (k, h) -> new LocalHold(h.getStripe(), Instant.MAX, h.getOwner(), h.isOwnsPermit()));
+        return lease;
+    }
+
+    // 停止續約並放鎖
+    public void releaseLease(Lease lease) {
+        if (lease == null) return;
+        ScheduledFuture<?> renewal = lease.renewal;
+        if (renewal != null) renewal.cancel(false);
+        unlockSeat(lease.getTicketTypeId(), lease.getToken());
+    }
+
+    // DB 上記錄的號碼比 Redis 的還大（Redis 資料遺失）→ 把 Redis 的號碼墊高，下一個持有者就能正常寫入
+    public void seedFence(Long ticketTypeId, long atLeast) {
+        try {
+            redis.execute(SEED_FENCE_SCRIPT, List.of(seatKey(ticketTypeId) + FENCE_SUFFIX), String.valueOf(atLeast));
+        } catch (Exception e) {
+            breaker.onFailure();
+            log.warn("Redis fence seed error on ticketTypeId={} : {}", ticketTypeId, e.getMessage());
+        }
+    }
+
+    private void renew(Lease lease, Duration ttl) {
+        if (lease.isLost()) return;
+        try {
+            Long res = redis.execute(RENEW_SCRIPT, List.of(seatKey(lease.getTicketTypeId())),
+                    lease.getToken(), String.valueOf(ttl.toMillis()));
+            if (res == null || res == 0L) {
+                lease.lost = true;
+                ScheduledFuture<?> renewal = lease.renewal;
+                if (renewal != null) renewal.cancel(false);
+                meterRegistry.counter("seat.lock.lease.lost").increment();
+                log.warn("seat lease lost, ticketTypeId={}, fence={}", lease.getTicketTypeId(), lease.getFence());
+            }
+        } catch (Exception e) {
+            breaker.onFailure();
+            // 這次續約失敗不代表鎖掉了，下一輪再試；真的過期就靠 fencing token 擋寫入
+            log.warn("Redis lease renew error on ticketTypeId={} : {}", lease.getTicketTypeId(), e.getMessage());
+        }
+    }
+
+    private ScheduledExecutorService renewer() {
+        ScheduledExecutorService r = leaseRenewer;
+        if (r == null) {
+            synchronized (this) {
+                r = leaseRenewer;
+                if (r == null) {
+                    r = Executors.newSingleThreadScheduledExecutor(job -> {
+                        Thread t = new Thread(job, "seat-lease-renewer");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    leaseRenewer = r;
+                }
+            }
+        }
+        return r;
+    }
+
+    @PreDestroy
+    void shutdownRenewer() {
+        ScheduledExecutorService r = leaseRenewer;
+        if (r != null) r.shutdownNow();
+        if (holdReaper != null) holdReaper.shutdownNow();
+    }
+
+    /**
+     * Redis 鎖目前是否降級（斷路器 OPEN / HALF_OPEN）：
+     * 降級時 lockSeat 只保證「同一台機器」互斥，跨節點的正確性要靠 DB 的有條件 UPDATE（quota >= n）
+    **/
+    public boolean isDegraded() {
+        return breaker.isDegraded();
+    }
+
+    private static boolean isLocalOnly(String token) {
+        return token != null && token.startsWith(LOCAL_TOKEN_PREFIX);
+    }
+
+    // 持有者忘了 unlock（例外、執行緒卡死）：TTL 一到就把本機分條鎖還回去，不用等 purgeExpired 排程（預設 60 秒）
+    private void scheduleReclaim(String token, LocalHold hold, Duration ttl) {
+        try {
+            holdReaper.schedule(() -> {
+                if (reclaim(token, hold)) {
+                    log.warn("local seat stripe reclaimed after TTL without unlock, token={}", token);
+                }
+            }, ttl.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("stripe reaper is shut down, leaving token={} to purgeExpired", token);
+        }
+    }
+
+    // 只收回「還是同一筆」的持有紀錄（已經 unlock 就什麼都不做）
+    private boolean reclaim(String token, LocalHold hold) {
+        if (!localHolds.remove(token, hold)) return false;
+        returnPermit(hold);
+        return true;
+    }
+
+    private void releaseLocal(String token) {
+        if (token == null) return;
+        LocalHold hold = localHolds.remove(token);
+        if (hold != null) returnPermit(hold);
+    }
+
+    private void returnPermit(LocalHold hold) {
+        if (!hold.isOwnsPermit()) return;
+        heldStripes.remove(new StripeOwner(hold.getStripe(), hold.getOwner()));
+        hold.getStripe().release();
     }
 
     private String seatKey(Long ticketTypeId) {
@@ -70,7 +417,9 @@ public class RedisLockHelper {
 
         String token = UUID.randomUUID().toString();
         try {
+            long begin = System.currentTimeMillis();
             Boolean ok = redis.opsForValue().setIfAbsent(key, token, setTtl);
+            breaker.onSuccess(System.currentTimeMillis() - begin); // 搶不到鎖也是 Redis 正常回應
             // SET key value NX EX ttl：NX：key 不存在才設（搶鎖），EX ttl：設定過期秒數（到期自動釋放）
             // 成功回 true，代表搶到鎖；失敗回 false（別人先鎖了）
             if (Boolean.TRUE.equals(ok)) {
@@ -80,6 +429,7 @@ public class RedisLockHelper {
             // 鎖已被別人拿走
             return null;
         } catch (Exception e) {
+            breaker.onFailure();
             log.warn("Redis lock error on key={} : {}", key, e.getMessage());
             return null;
             // 如果 Redis 連不上或出錯，記一條警告，回 null（保守做法：視為沒鎖到，避免整個流程掛掉）
@@ -103,6 +453,111 @@ public class RedisLockHelper {
 //        return ok ? token : null;
     }
 
+    /**
+     * 有上限的公平等待：照排隊順序拿鎖，拿不到就睡，直到
+     * (a) 持有者解鎖（pub/sub 叫醒）、(b) 鎖自然過期、(c) 等到上限 → 回 null
+     * 不是固定間隔輪詢 Redis；每次等待的時間 = min(剩下可等的時間, 鎖剩下的 TTL)
+     * 等待時間記到 seat.lock.wait，依鎖的種類（key 前綴，例如 seat）+ outcome（acquired / timeout）分組；
+     * 不用整個 key 當 tag，不然每個票種一條時間序列，metric 數量會跟著票種無限長
+    **/
+    private String lockKeyFair(String key, Duration ttl, Duration maxWait) {
+        Duration setTtl = (ttl == null || ttl.isZero() || ttl.isNegative())
+                ? Duration.ofSeconds(5) : ttl;
+        String token = UUID.randomUUID().toString();
+        String queueKey = key + ":queue";
+        long staleMs = maxWait.toMillis() * 2 + setTtl.toMillis(); // 正常排隊者不可能待這麼久
+        long queueTtlMs = staleMs * 2;
+
+        long begin = System.nanoTime();
+        long deadline = begin + maxWait.toNanos();
+        boolean acquired = false;
+
+        Waiter waiter = new Waiter();
+        waiters.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(waiter);
+        try {
+            ensureSubscribed();
+            while (true) {
+                waiter.signal.drainPermits(); // 之前的通知已經過時，這次重新看
+                long now = System.currentTimeMillis();
+                Long res = redis.execute(FAIR_ACQUIRE_SCRIPT, List.of(key, queueKey),
+                        token, String.valueOf(setTtl.toMillis()), String.valueOf(now),
+                        String.valueOf(now - staleMs), String.valueOf(queueTtlMs));
+                breaker.onSuccess(System.currentTimeMillis() - now);
+                if (res != null && res == 1L) {
+                    acquired = true;
+                    return token;
+                }
+
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return null; // 等到上限還是沒輪到
+                }
+                long lockTtlMs = res == null ? MIN_RECHECK_MS : Math.max(-res, MIN_RECHECK_MS);
+                waiter.signal.tryAcquire(Math.min(remainingMs, lockTtlMs), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            breaker.onFailure();
+            log.warn("Redis fair lock error on key={} : {}", key, e.getMessage());
+            return null;
+        } finally {
+            Set<Waiter> set = waiters.get(key);
+            if (set != null) {
+                set.remove(waiter);
+                if (set.isEmpty()) waiters.remove(key, set);
+            }
+            if (!acquired) {
+                leaveQueue(key, queueKey, token);
+            }
+            Timer.builder("seat.lock.wait")
+                    .description("Time spent waiting for a seat lock")
+                    .tag("lock", lockKind(key))
+                    .tag("outcome", acquired ? "acquired" : "timeout")
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // seat:{id} → seat
+    private static String lockKind(String key) {
+        int i = key.indexOf(':');
+        return i > 0 ? key.substring(0, i) : key;
+    }
+
+    // 沒拿到就離開隊伍，並通知下一位（如果我原本排第一個，下一位不用等到我的排隊紀錄過期）
+    private void leaveQueue(String key, String queueKey, String token) {
+        try {
+            redis.opsForZSet().remove(queueKey, token);
+            redis.convertAndSend(RELEASED_CHANNEL_PREFIX + key, key);
+        } catch (Exception e) {
+            log.debug("leave lock queue failed, key={} : {}", key, e.getMessage());
+        }
+    }
+
+    // 第一次真的要排隊時才訂閱解鎖通知（啟動時不連 Redis）
+    private void ensureSubscribed() {
+        if (subscribed.compareAndSet(false, true)) {
+            try {
+                listenerContainer.addMessageListener(this::onReleased, new PatternTopic(RELEASED_CHANNEL_PREFIX + "*"));
+            } catch (RuntimeException e) {
+                subscribed.set(false); // 下次再試；這次就靠鎖的 TTL 醒來
+                log.warn("subscribe lock-released channel failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    // 收到 lock-released:{key} → 叫醒本機所有在等這把鎖的人，讓它們各自再試（只有排第一的會拿到）
+    private void onReleased(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String key = channel.substring(RELEASED_CHANNEL_PREFIX.length());
+        Set<Waiter> set = waiters.get(key);
+        if (set != null) {
+            set.forEach(w -> w.signal.release());
+        }
+    }
+
     private void unlockKey(String key, String token) {
         // 比對 token 正確才刪；回傳 1 代表真的刪掉，0 代表沒刪（token 不符或 key 不存在）
         if (token == null || token.isBlank()) return;
@@ -117,6 +572,7 @@ public class RedisLockHelper {
                 // 0 代表沒刪（可能 token 不對或鎖已過期/不存在）
             }
         } catch (Exception e) {
+            breaker.onFailure();
             log.warn("Redis unlock error on key={} : {}", key, e.getMessage());
         }
 //        if (token == null || token.isBlank()) return; // 沒 token 就忽略
@@ -153,6 +609,13 @@ public class RedisLockHelper {
 //                removed++;
 //            }
 //        }
+        // 本機分條鎖：平常由 holdReaper 在 TTL 到時收回，這裡是保險（排程被拒絕、關機中）
+        for (var e : localHolds.entrySet()) {
+            if (e.getValue().getExpiresAt().isBefore(now) && reclaim(e.getKey(), e.getValue())) {
+                removed++;
+            }
+        }
+
         if (removed > 0) {
             log.info("RedisLockHelper purge: {} expired locks removed", removed);
         }
@@ -25,10 +25,12 @@ import java.time.Instant;
 public class SecurityConfig { // 宣告一個具名類別，承載安全設定之組態邏輯
 
     private final JwtAuthFilter jwtAuthFilter;
+    private final IdempotencyFilter idempotencyFilter;
 
-    public SecurityConfig(JwtAuthFilter jwtAuthFilter){
+    public SecurityConfig(JwtAuthFilter jwtAuthFilter, IdempotencyFilter idempotencyFilter){
         this.jwtAuthFilter = jwtAuthFilter; // 建構子接受同名參數 jwtAuthFilter 以由 Spring DI 注入，
                                             // 並將參數指派給成員 this.jwtAuthFilter 完成依賴設定
+        this.idempotencyFilter = idempotencyFilter;
     }
 
     @Bean
@@ -122,6 +124,9 @@ public class SecurityConfig { // 宣告一個具名類別，承載安全設定
         // 把 jwtAuthFilter 以 addFilterBefore 掛載在 UsernamePasswordAuthenticationFilter.class 之前，
         // 使 Bearer Token 驗證先於表單登入過濾器執行。
 
+        // 5/ Idempotency-Key 過濾器掛在 JWT 之後（要知道是誰送的，重送的請求直接回存好的結果）
+        http.addFilterAfter(idempotencyFilter, JwtAuthFilter.class);
+
         return http.build();
         // 呼叫 build() 將前述 DSL 組態物件化為 SecurityFilterChain 並由方法回傳給容器。
     }
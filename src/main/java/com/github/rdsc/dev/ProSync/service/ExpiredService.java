@@ -1,72 +1,157 @@
 package com.github.rdsc.dev.ProSync.service;
 
-import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.aspect.ClusterJob;
+import com.github.rdsc.dev.ProSync.aspect.JobCoordinator;
 import com.github.rdsc.dev.ProSync.enums.PaymentStatus;
-import com.github.rdsc.dev.ProSync.model.OrderDetail;
-import com.github.rdsc.dev.ProSync.model.OrderList;
-import com.github.rdsc.dev.ProSync.model.Payment;
-import com.github.rdsc.dev.ProSync.model.TicketType;
-import com.github.rdsc.dev.ProSync.repository.OrderListRepository;
+import com.github.rdsc.dev.ProSync.model.JobCursor;
+import com.github.rdsc.dev.ProSync.repository.JobCursorRepository;
 import com.github.rdsc.dev.ProSync.repository.PaymentRepository;
-import com.github.rdsc.dev.ProSync.repository.TicketTypeRepository;
 
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Isolation;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RequiredArgsConstructor // Repository自動被注入，不用寫 @Autowired
 @Slf4j
 @Service // 把這個類別註冊成 Spring Bean, 自動發現並管理這個排程任務
 public class ExpiredService {
 
-    private final OrderListRepository orderListRepo;
-    private final TicketTypeRepository ticketTypeRepo;
+    private static final String PAYMENTS_JOB = "expire-payments";
+
     private final PaymentRepository paymentRepo;
+    private final OrderRestocker orderRestocker;
+    private final JobCursorRepository jobCursorRepo;
+    private final PlatformTransactionManager txManager;
+    private final JobCoordinator coordinator;
+
+    @Value("${app.jobs.expire-payments.chunk-size:1000}")
+    private int chunkSize; // 每批最多改幾筆付款單
+
+    @Value("${app.jobs.expire-payments.budget-ms:2000}")
+    private long paymentsBudgetMs; // 一輪最多跑多久，用完下一輪接著跑
+
+    @Value("${app.jobs.restock-orders.chunk-size:500}")
+    private int restockChunkSize; // 每批最多回補幾張訂單
+
+    @Value("${app.jobs.restock-orders.budget-ms:5000}")
+    private long restockBudgetMs;
+
+    @Value("${app.jobs.restock-orders.partitions:4}")
+    private int restockPartitions; // 依 id % partitions 切幾個分片（改了會換一組游標）
+
+    @Value("${app.jobs.restock-orders.workers:4}")
+    private int restockWorkerCount; // 本機同時跑幾個分片（= 最多同時用幾條 DB 連線）
+
+    @Value("${app.partitions.prune-slack-hours:24}")
+    private long pruneSlackHours; // create_at 範圍多放寬一點（時鐘誤差）
+
+    private static final long PARTITION_LEASE_MARGIN_MS = 10_000; // 分片租約 = 時間預算 + 這個緩衝
+    private volatile ExecutorService restockWorkers;
 
     /**
      * 標記「已過期未付款」的付款單為 EXPIRED
-     * 每 15 秒掃一次（只改 Payment，不回補庫存）
+     * 定時掃一次（只改 Payment，不回補庫存）；平常到點過期靠 ExpiryScheduler，這裡是安全網
+     * 依 (expires_at, id) keyset 分頁：一頁最多 chunk 筆（只取 id），每頁自己一個短交易、連同游標一起 commit
+     * 時間預算用完就先停，下一輪從 job_cursors 接著跑 → 不管積了多少筆，記憶體和每輪時間都有上限
     **/
-    @Transactional(isolation = Isolation.REPEATABLE_READ)
 //    @Scheduled(fixedDelay = 15_000, initialDelay = 5_000)
     @Scheduled(
             fixedDelayString = "${app.jobs.expire-payments.delay-ms:15000}",
             initialDelayString = "${app.jobs.expire-payments.initial-delay-ms:5000}"
     )
-    public void expirePaymentsService() {
+    @ClusterJob(name = "expire-payments", period = "${app.jobs.expire-payments.delay-ms:15000}") // 多節點時同一輪只有一台跑
+    public int expirePaymentsService() {
+
+        LocalDateTime now = LocalDateTime.now(); // 這一輪固定用同一個截止時間，跑到一半才過期的留給下一輪
+        int chunk = Math.max(1, chunkSize);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(paymentsBudgetMs);
 
-        LocalDateTime now = LocalDateTime.now();
+        TransactionTemplate tpl = new TransactionTemplate(txManager);
+        tpl.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
 
-        // 找出「狀態=PENDING 且 已過期」的付款單
-        List<Payment> expiredPayments = paymentRepo.findAllByStatusAndExpiresAtBefore(PaymentStatus.PENDING, now);
+        int total = 0;
+        int chunks = 0;
+        boolean done = false;
+        while (true) { // 至少跑一批，之後看時間預算
+            int[] page = tpl.execute(status -> expirePaymentPage(now, chunk));
+            int read = page == null ? 0 : page[0];
+            total += page == null ? 0 : page[1];
+            chunks++;
+            if (read < chunk) {
+                done = true;
+                break;
+            }
+            if (System.nanoTime() >= deadline) break;
+        }
+
+        if (total > 0 || !done) {
+            log.info("expirePayments: expired payments marked = {} ({} chunks of <= {}){}", total, chunks, chunk,
+                    done ? "" : ", time budget used up, resuming from cursor next run");
+        }
+        return total;
+    }
 
-        if (expiredPayments.isEmpty()) return;
+    // 一頁：鎖游標 → 取游標後一頁 id → 改 EXPIRED → 推進游標；回傳 {讀到幾筆, 改了幾筆}
+    private int[] expirePaymentPage(LocalDateTime cutoff, int chunk) {
+        JobCursor cursor = jobCursorRepo.lockByJobName(PAYMENTS_JOB)
+                .orElseGet(() -> JobCursor.start(PAYMENTS_JOB));
 
-        int itemsCount = 0;
-        for (var p : expiredPayments) {
+        // payments 依 create_at 分區：expires_at = create_at + 報價有效期，
+        // 所以 (游標, cutoff) 之間到期的，create_at 一定在 [游標 - 有效期, cutoff]，只掃這幾個分區
+        ZoneId zone = ZoneId.systemDefault();
+        Instant createdAfter = cursor.getLastExpiresAt().minus(PaymentService.QUOTE_TTL).minusHours(pruneSlackHours)
+                .atZone(zone).toInstant();
+        Instant createdBefore = cutoff.plusHours(pruneSlackHours).atZone(zone).toInstant();
 
-            p.setStatus(PaymentStatus.EXPIRED);
-            paymentRepo.save(p);
+        List<PaymentRepository.ExpiryKey> page = paymentRepo.findExpiredPage(PaymentStatus.PENDING, cutoff,
+                cursor.getLastExpiresAt(), cursor.getLastId(), createdAfter, createdBefore, Limit.of(chunk));
+        int expired = 0;
+        if (!page.isEmpty()) {
+            List<Long> ids = page.stream().map(PaymentRepository.ExpiryKey::getId).toList();
+            expired = paymentRepo.expirePendingByIds(ids, cutoff, Instant.now());
+        }
 
-            itemsCount++;
+        if (page.size() < chunk) {
+            cursor.reset(); // 掃到底了，下一輪從頭
+        } else {
+            PaymentRepository.ExpiryKey last = page.get(page.size() - 1);
+            cursor.advance(last.getExpiresAt(), last.getId());
         }
-        log.info("expirePayments: expired payments marked = {}", itemsCount);
+        jobCursorRepo.save(cursor);
+        return new int[]{page.size(), expired};
     }
 
     /**
      * 作廢過期的訂單
-     * 每 30 秒掃一次：把逾時未付的訂單回補庫存，並把訂單狀態改成 EXPIRED
-     * 用 REPEATABLE_READ 配合 TicketType 的 @Version（樂觀鎖），避免超賣/少補。
+     * 定時掃一次：把逾時未付的訂單回補庫存，並把訂單狀態改成 EXPIRED（平常到點過期靠 ExpiryScheduler，這裡是安全網）
+     * 依 id % partitions 切成幾個分片，每個分片交給 worker 執行緒池裡的一個執行緒，各自：
+     * - 先搶這個分片的租約（job:restock-orders:{p}/{n}:lease，跑完就放）→ 多個節點一起跑時分片自然分散到各台
+     * - 一批一個交易（OrderRestocker.sweep）：每個票種一條原子加法、訂單一次改 EXPIRED，分片自己的游標跟著 commit
+     *   撞到死結 / 等鎖逾時由 sweep 上的 @OptimisticRetry 退避重跑這一批
+     * - 一批不到 chunk 張就代表掃到底；時間預算用完也先停，下一輪從游標接著跑
+     * workers 決定同時用掉幾條 DB 連線（不要超過連線池大小）
     **/
-    @Transactional(isolation = Isolation.REPEATABLE_READ)
 //    @Scheduled(fixedDelay = 30_000, initialDelay = 5_000)
     @Scheduled(
             fixedDelayString = "${app.jobs.restock-orders.delay-ms:30000}",
@@ -74,67 +159,102 @@ public class ExpiredService {
     )
     // 排程註解：fixedDelayString(上一輪結束後，等多久再啟動下一輪)
     // @Scheduled(fixedDelayString = "${app.jobs.expired-orders.delay-ms:30000}") // <- 這裡是預設，實際執行要看yml
-    public void restockExpiredOrder() {
+    public int restockExpiredOrder() {
 
-        LocalDateTime now = LocalDateTime.now();
-        // 1/ 找過期未付款：status=PENDING_PAYMENT 且 expiresAt < now
-        List<OrderList> expiredLists = orderListRepo.findAllByStatusAndExpiresAtBefore(OrderStatus.PENDING_PAYMENT, now);
+        LocalDateTime now = LocalDateTime.now(); // 這一輪固定截止時間
+        int chunk = Math.max(1, restockChunkSize);
+        int partitions = Math.max(1, restockPartitions);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(restockBudgetMs);
+        long leaseMs = restockBudgetMs + PARTITION_LEASE_MARGIN_MS;
 
-        if (expiredLists.isEmpty()) {
-            return;
+        // 從隨機的分片開始丟，多個節點同時跑時不會大家都先搶 0 號
+        int offset = ThreadLocalRandom.current().nextInt(partitions);
+        List<Future<Integer>> futures = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            int p = (offset + i) % partitions;
+            futures.add(workers().submit(() -> restockPartition(p, partitions, now, chunk, deadline, leaseMs)));
         }
 
-        for (OrderList list : expiredLists) {
-
-            try{
-                // 重新抓「含明細」的一筆，避免 LAZY 取不到 detail
-                Optional<OrderList> listWithDetail = orderListRepo.findByIdWithDetail(list.getId());
-
-                if (listWithDetail.isEmpty()) continue;
-
-                OrderList lwd = listWithDetail.get();
-
-                // 再次確認狀態與到期
-                if (lwd.getStatus() != OrderStatus.PENDING_PAYMENT
-                        || lwd.getExpiresAt() == null
-                        || !lwd.getExpiresAt().isBefore(now)) {
-                    continue; // ← 新增：不是待付款或其實未過期，就略過
-                }
-
-                int ttCount = 0; // 計數器：統計「實際回補的張數（qty 加總）」
-
-                // 把每一筆明細的數量加回該票種的 quota
-                for(OrderDetail item : lwd.getDetail()) {
-
-                    TicketType tt = item.getTicketType();
-                    Integer qty = item.getQuantity();
-                    if (tt == null || qty == null || qty <= 0) continue; // continue 跳出，換下一筆
-
-                    try{
-                        // 回補庫存
-                        tt.increaseQuota(qty);
-                        ticketTypeRepo.save(tt);
-                        ttCount += qty; // 累加張數
-                    } catch (ObjectOptimisticLockingFailureException e) {
-                        // 有別的交易剛改過這筆票種，先略過，下次排程再補
-                        log.warn("Refund quota optimistic lock failed, ticketTypeId = {}, orderDetailId = {}, orderListId = {}",
-                                tt.getId(), item.getId(), lwd.getId());
-                    }
-                }
-
-                // 狀態改 EXPIRED
-                lwd.setStatus(OrderStatus.EXPIRED);
-                orderListRepo.save(lwd);
-
+        int total = 0;
+        for (Future<Integer> f : futures) {
+            try {
+                total += f.get(leaseMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                // 還在跑的就讓它跑完（它會自己看時間預算停），結果算在下一輪
+                log.warn("reclaimExpiredOrders: a partition worker is still running after {} ms", leaseMs);
+            } catch (ExecutionException ex) {
+                log.warn("reclaimExpiredOrders partition worker failed", ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return total;
+    }
 
-                log.info("reclaimExpiredOrders: orderListId = {}, unitsRestocked = {}, newStatus = EXPIRED", lwd.getId(), ttCount);
+    // 一個分片：拿到分片租約才跑（別台正在跑這個分片就略過）
+    // runPartition 宣告 throws Throwable：RuntimeException / Error 原樣往上丟，只有 checked 的才包起來
+    private int restockPartition(int partition, int partitions, LocalDateTime now, int chunk, long deadline, long leaseMs) {
+        String name = OrderRestocker.cursorName(partition, partitions);
+        try {
+            Object n = coordinator.runPartition(name, leaseMs, () -> drainPartition(partition, partitions, now, chunk, deadline), 0);
+            return n == null ? 0 : (Integer) n;
+        } catch (Throwable t) {
+            if (t instanceof RuntimeException re) throw re;
+            if (t instanceof Error err) throw err;
+            throw new IllegalStateException(t);
+        }
+    }
 
+    private int drainPartition(int partition, int partitions, LocalDateTime now, int chunk, long deadline) {
+        int total = 0;
+        boolean done = false;
+        while (true) { // 至少跑一批，之後看時間預算
+            int n;
+            try {
+                n = orderRestocker.sweep(now, chunk, partition, partitions);
             } catch (Exception ex) {
-
-                // 單筆失敗不影響其他筆，記一條警告
-                log.warn("reclaimExpiredOrders failed for orderListId = {}", list.getId(), ex);
+                // sweep 自己的 @OptimisticRetry 也救不回來（重試用完 / 不是衝突）：這批整個回滾，游標沒動，下一輪排程再補
+                log.warn("reclaimExpiredOrders sweep failed, partition {}/{} after {} orders", partition, partitions, total, ex);
+                return total;
+            }
+            total += n;
+            if (n < chunk) {
+                done = true;
+                break;
             }
+            if (System.nanoTime() >= deadline) break;
+        }
+        if (!done) {
+            log.info("reclaimExpiredOrders: partition {}/{} time budget used up after {} orders, resuming from cursor next run",
+                    partition, partitions, total);
+        }
+        return total;
+    }
 
+    // 第一次用到才建；固定 workers 條執行緒，分片比執行緒多的就排隊
+    private ExecutorService workers() {
+        ExecutorService w = restockWorkers;
+        if (w == null) {
+            synchronized (this) {
+                w = restockWorkers;
+                if (w == null) {
+                    AtomicInteger seq = new AtomicInteger();
+                    w = Executors.newFixedThreadPool(Math.max(1, restockWorkerCount), job -> {
+                        Thread t = new Thread(job, "restock-worker-" + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    restockWorkers = w;
+                }
+            }
         }
+        return w;
+    }
+
+    @PreDestroy
+    void shutdownWorkers() {
+        ExecutorService w = restockWorkers;
+        if (w != null) w.shutdownNow();
     }
 }
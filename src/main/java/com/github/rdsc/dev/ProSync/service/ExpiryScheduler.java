@@ -0,0 +1,228 @@
+package com.github.rdsc.dev.ProSync.service;
+
+import com.github.rdsc.dev.ProSync.enums.PaymentStatus;
+import com.github.rdsc.dev.ProSync.repository.PaymentRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * 到期索引（精準過期）：
+ * - 建單 / 延長訂單、建立報價時，把 id 依 expiresAt 放進 Redis ZSET（score = 到期時間毫秒）
+ * - 每秒看一次 ZSET 最前面：到點的才拿出來處理，沒東西到期就只是一次 ZRANGEBYSCORE，不掃 DB
+ * - 拿出來用 Lua 一次「查 + 刪」，多個節點同時輪詢也只會有一個拿到同一個 id
+ * - 真正改不改以 DB 為準（狀態還是待付款、expires_at 真的過了才改），所以索引多放、舊的沒清都沒關係
+ * - 處理失敗就放回去，retry-delay-ms 後再試；訂單被別人鎖住（SKIP LOCKED 跳過）、還沒過期處理的，一樣放回去
+ *   拿出來了卻還沒到期的（延長了、或毫秒進位差）放回它自己的到期時間；已經付款 / 處理掉的才不放
+ * - score 是到期時間「無條件進位」到毫秒，截止時間也取同一個毫秒的結尾 → 到點拿出來的，expires_at 一定已經過了
+ * - Redis 掛了、漏加的，ExpiredService 慢速掃描會補
+ * Key：expiry:order / expiry:payment   member = id，score = 到期時間（毫秒）
+**/
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ExpiryScheduler {
+
+    private static final String ORDER_KEY = "expiry:order";
+    private static final String PAYMENT_KEY = "expiry:payment";
+
+    // 拿出最多 ARGV[2] 個到期（score <= ARGV[1]）的 id，並從 ZSET 移除；回傳 [id, score, id, score, ...]
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final DefaultRedisScript<List> POP_DUE_SCRIPT = new DefaultRedisScript<>(
+            "local due = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'WITHSCORES', 'LIMIT', 0, tonumber(ARGV[2])) " +
+                    "for i = 1, #due, 2 do redis.call('zrem', KEYS[1], due[i]) end " +
+                    "return due",
+            List.class
+    );
+
+    private final StringRedisTemplate redis;
+    private final OrderRestocker orderRestocker;
+    private final PaymentRepository paymentRepo;
+    private final PlatformTransactionManager txManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.expiry-index.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.expiry-index.batch-size:200}")
+    private int batchSize; // 一次最多拿幾個到期的 id
+
+    @Value("${app.expiry-index.retry-delay-ms:5000}")
+    private long retryDelayMs; // 處理失敗 / 被別人鎖住的放回去，多久後再試
+
+    @Value("${app.expiry-index.backoff-ms:30000}")
+    private long backoffMs; // Redis 連不上時，暫停輪詢多久（這段時間靠 DB 掃描）
+
+    private volatile long pausedUntil = 0L;
+
+    // 訂單建立 / 延長：commit 後放進索引（同一張訂單再放一次就是更新到期時間）
+    public void scheduleOrder(Long orderListId, LocalDateTime expiresAt) {
+        scheduleAfterCommit(ORDER_KEY, orderListId, expiresAt);
+    }
+
+    // 建立報價
+    public void schedulePayment(Long paymentId, LocalDateTime expiresAt) {
+        scheduleAfterCommit(PAYMENT_KEY, paymentId, expiresAt);
+    }
+
+    @Scheduled(
+            fixedDelayString = "${app.jobs.expiry-index.tick-ms:1000}",
+            initialDelayString = "${app.jobs.expiry-index.initial-delay-ms:5000}"
+    )
+    public int poll() {
+        if (!enabled || System.currentTimeMillis() < pausedUntil) return 0;
+        try {
+            // 付款單先：報價到期時間不會晚於訂單
+            int payments = drain(PAYMENT_KEY, "payment", this::expirePayments);
+            int orders = drain(ORDER_KEY, "order", this::expireOrders);
+            return payments + orders;
+        } catch (Exception ex) {
+            pausedUntil = System.currentTimeMillis() + backoffMs;
+            log.warn("expiry index poll failed, pausing {} ms (DB sweep still runs): {}", backoffMs, ex.getMessage());
+            return 0;
+        }
+    }
+
+    // 一直拿到沒有到期的為止；這一輪用同一個截止時間
+    // 截止時間跟 nowMs 取自同一個時間點，進位到下一毫秒：score <= nowMs 拿出來的，expires_at 一定 < cutoff
+    private int drain(String key, String kind, BiFunction<List<Long>, LocalDateTime, Integer> handler) {
+        int size = Math.max(1, batchSize);
+        long nowMs = System.currentTimeMillis();
+        LocalDateTime cutoff = LocalDateTime.ofInstant(Instant.ofEpochMilli(nowMs + 1), ZoneId.systemDefault());
+
+        int total = 0;
+        while (true) {
+            List<?> due = redis.execute(POP_DUE_SCRIPT, List.of(key), String.valueOf(nowMs), String.valueOf(size));
+            if (due == null || due.isEmpty()) break;
+
+            List<Long> ids = new ArrayList<>(due.size() / 2);
+            Timer lag = meterRegistry.timer("expiry.fire.lag", "kind", kind);
+            for (int i = 0; i + 1 < due.size(); i += 2) {
+                try {
+                    ids.add(Long.valueOf(String.valueOf(due.get(i))));
+                    long dueAt = (long) Double.parseDouble(String.valueOf(due.get(i + 1)));
+                    lag.record(Duration.ofMillis(Math.max(0, nowMs - dueAt)));
+                } catch (NumberFormatException ex) {
+                    log.debug("skip malformed expiry entry {} in {}", due.get(i), key);
+                }
+            }
+
+            try {
+                Integer n = handler.apply(ids, cutoff);
+                int fired = n == null ? 0 : n;
+                total += fired;
+                meterRegistry.counter("expiry.fired", "kind", kind).increment(fired);
+            } catch (Exception ex) {
+                // 整批回滾：放回索引稍後再試（DB 掃描也會兜底）
+                log.warn("expiry index handler failed for {} {} ids, requeue", ids.size(), kind, ex);
+                requeue(key, ids, nowMs + retryDelayMs);
+            }
+            if (due.size() / 2 < size) break;
+        }
+        if (total > 0) {
+            log.info("expiry index: {} {}s expired on time", total, kind);
+        }
+        return total;
+    }
+
+    // SKIP LOCKED 跳過的（別的交易正鎖著，例如付款確認中）放回索引：付款失敗的話還是要準時過期，不能只等 DB 掃描
+    private int expireOrders(List<Long> ids, LocalDateTime cutoff) {
+        List<Long> expired = orderRestocker.expire(ids, cutoff);
+        if (expired.size() < ids.size()) {
+            List<Long> rest = new ArrayList<>(ids);
+            rest.removeAll(expired);
+            requeuePending(ORDER_KEY, "order", orderRestocker.pendingDeadlines(rest));
+        }
+        return expired.size();
+    }
+
+    // 沒改到的（這批 UPDATE 時還沒到期 / 剛好被延長）一樣依到期時間放回去
+    private int expirePayments(List<Long> ids, LocalDateTime cutoff) {
+        TransactionTemplate tpl = new TransactionTemplate(txManager);
+        tpl.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Integer n = tpl.execute(status -> paymentRepo.expirePendingByIds(ids, cutoff, Instant.now()));
+        int expired = n == null ? 0 : n;
+        if (expired < ids.size()) {
+            Map<Long, LocalDateTime> pending = new LinkedHashMap<>();
+            paymentRepo.findExpiryKeys(ids, PaymentStatus.PENDING).forEach(k -> pending.put(k.getId(), k.getExpiresAt()));
+            requeuePending(PAYMENT_KEY, "payment", pending);
+        }
+        return expired;
+    }
+
+    // handler 沒處理掉、還在待付款的放回索引：還沒到期的放回它自己的到期時間，已經到期（被鎖住跳過）的 retry-delay-ms 後再試
+    private void requeuePending(String key, String kind, Map<Long, LocalDateTime> pending) {
+        if (pending.isEmpty()) return;
+        long nowMs = System.currentTimeMillis();
+        try {
+            pending.forEach((id, expiresAt) -> {
+                long dueMs = expiresAt == null ? nowMs : score(expiresAt);
+                redis.opsForZSet().add(key, String.valueOf(id), dueMs > nowMs ? dueMs : nowMs + retryDelayMs);
+            });
+            meterRegistry.counter("expiry.requeued", "kind", kind).increment(pending.size());
+            log.debug("expiry index: {} pending {}s requeued", pending.size(), kind);
+        } catch (Exception ex) {
+            log.warn("requeue expiry ids failed ({} ids), left to DB sweep: {}", pending.size(), ex.getMessage());
+        }
+    }
+
+    // 到期時間 → score：無條件進位到毫秒（expires_at 有微秒，捨去的話會早一點點被拿出來，這時候 DB 還不算過期）
+    private static long score(LocalDateTime expiresAt) {
+        Instant at = expiresAt.atZone(ZoneId.systemDefault()).toInstant();
+        long ms = at.toEpochMilli();
+        return at.getNano() % 1_000_000 == 0 ? ms : ms + 1;
+    }
+
+    private void requeue(String key, List<Long> ids, long atMs) {
+        try {
+            for (Long id : ids) {
+                redis.opsForZSet().add(key, String.valueOf(id), atMs);
+            }
+        } catch (Exception ex) {
+            log.warn("requeue expiry ids failed ({} ids), left to DB sweep: {}", ids.size(), ex.getMessage());
+        }
+    }
+
+    // commit 後才放：交易回滾的單不會進索引；放不進去（Redis 掛了）也不影響下單，DB 掃描會補
+    private void scheduleAfterCommit(String key, Long id, LocalDateTime expiresAt) {
+        if (!enabled || id == null || expiresAt == null) return;
+        Runnable add = () -> {
+            try {
+                redis.opsForZSet().add(key, String.valueOf(id), score(expiresAt));
+            } catch (Exception ex) {
+                log.debug("expiry index add skipped for {}:{} : {}", key, id, ex.getMessage());
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            add.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                add.run();
+            }
+        });
+    }
+}
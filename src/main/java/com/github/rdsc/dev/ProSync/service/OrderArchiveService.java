@@ -0,0 +1,156 @@
+package com.github.rdsc.dev.ProSync.service;
+
+import com.github.rdsc.dev.ProSync.aspect.ClusterJob;
+import com.github.rdsc.dev.ProSync.dto.OrderDto;
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.model.OrderList;
+import com.github.rdsc.dev.ProSync.repository.OrderListRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷熱分離：已結束的訂單（CONFIRMED / EXPIRED / CANCELLED）超過 after-days 沒再變動，
+ * 就連同明細、付款單整批搬到 *_archive，熱表只留最近的資料（索引、buffer pool 都維持小）
+ * - 一批一個交易：鎖一批訂單（SKIP LOCKED）→ INSERT ... SELECT 三張表 → DELETE 三張表，要嘛全搬要嘛不動
+ * - 時間預算用完就停，下一輪再接（候選條件本身就會排除已搬走的，不需要游標）
+ * - 讀取：使用者的歷史訂單（/my）同時讀熱表 + 封存表合併；txHash 重複由 payment_tx_hashes 擋（含封存的）
+ * - order_list 依 create_at 分區：候選條件多帶 create_at < before（create_at 一定早於 update_at），
+ *   只掃舊分區；搬空的舊分區由 PartitionMaintenance 刪掉
+**/
+@RequiredArgsConstructor
+@Slf4j
+@Service
+public class OrderArchiveService {
+
+    // 熱表 / 封存表共用的欄位（熱表加欄位時要一起改，見 V12 migration）
+    private static final String ORDER_COLUMNS = "id, user_id, status, total_cost, expires_at, create_at, update_at";
+    private static final String DETAIL_COLUMNS = "id, order_list_id, ticket_type_id, quantity, pending_quota, held_quantity, unit_price, cost, create_at, update_at";
+    private static final String PAYMENT_COLUMNS = "id, order_list_id, asset, quote_rate, amount_crypto, tx_hash, status, expires_at, create_at, update_at";
+
+    private static final List<String> TERMINAL = List.of(
+            OrderStatus.CONFIRMED.name(), OrderStatus.EXPIRED.name(), OrderStatus.CANCELLED.name());
+
+    private final JdbcTemplate jdbc;
+    private final OrderListRepository orderListRepo;
+    private final PlatformTransactionManager txManager;
+
+    @Value("${app.archive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.archive.after-days:90}")
+    private int afterDays; // 結束後多少天沒變動就搬
+
+    @Value("${app.archive.chunk-size:1000}")
+    private int chunkSize; // 一批幾張訂單
+
+    @Value("${app.archive.budget-ms:10000}")
+    private long budgetMs; // 一輪最多跑多久
+
+    @Scheduled(
+            fixedDelayString = "${app.jobs.archive.delay-ms:600000}",
+            initialDelayString = "${app.jobs.archive.initial-delay-ms:60000}"
+    )
+    @ClusterJob(name = "archive-orders", period = "${app.jobs.archive.delay-ms:600000}")
+    public int archiveTerminalOrders() {
+        if (!enabled) return 0;
+
+        LocalDateTime before = LocalDateTime.now().minusDays(Math.max(0, afterDays));
+        int chunk = Math.max(1, chunkSize);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+
+        TransactionTemplate tpl = new TransactionTemplate(txManager);
+        tpl.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        int total = 0;
+        while (true) { // 至少跑一批，之後看時間預算
+            Integer n;
+            try {
+                n = tpl.execute(status -> archiveChunk(before, chunk));
+            } catch (Exception ex) {
+                log.warn("archiveOrders chunk failed after {} orders", total, ex);
+                break;
+            }
+            int moved = n == null ? 0 : n;
+            total += moved;
+            if (moved < chunk || System.nanoTime() >= deadline) break;
+        }
+        if (total > 0) {
+            log.info("archiveOrders: {} terminal orders older than {} moved to archive", total, before);
+        }
+        return total;
+    }
+
+    // 一批：鎖訂單 → 複製到封存表 → 從熱表刪除（子表先刪）
+    private int archiveChunk(LocalDateTime before, int limit) {
+        List<Long> orderIds = jdbc.queryForList(
+                "SELECT id FROM order_list WHERE status IN (?, ?, ?) AND update_at < ? AND create_at < ? " +
+                        "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED",
+                Long.class, TERMINAL.get(0), TERMINAL.get(1), TERMINAL.get(2), Timestamp.valueOf(before), Timestamp.valueOf(before), limit);
+        if (orderIds.isEmpty()) return 0;
+
+        String in = String.join(",", Collections.nCopies(orderIds.size(), "?"));
+        Object[] ids = orderIds.toArray();
+
+        jdbc.update("INSERT INTO order_list_archive (" + ORDER_COLUMNS + ") " +
+                "SELECT " + ORDER_COLUMNS + " FROM order_list WHERE id IN (" + in + ")", ids);
+        jdbc.update("INSERT INTO order_detail_archive (" + DETAIL_COLUMNS + ") " +
+                "SELECT " + DETAIL_COLUMNS + " FROM order_detail WHERE order_list_id IN (" + in + ")", ids);
+        jdbc.update("INSERT INTO payments_archive (" + PAYMENT_COLUMNS + ") " +
+                "SELECT " + PAYMENT_COLUMNS + " FROM payments WHERE order_list_id IN (" + in + ")", ids);
+
+        jdbc.update("DELETE FROM payments WHERE order_list_id IN (" + in + ")", ids);
+        jdbc.update("DELETE FROM order_detail WHERE order_list_id IN (" + in + ")", ids);
+        return jdbc.update("DELETE FROM order_list WHERE id IN (" + in + ")", ids);
+    }
+
+    /**
+     * 使用者的歷史訂單（新到舊）：熱表 + 封存表合併
+     * 封存表一定是舊資料，但建立時間可能跟熱表交錯（很久以前下單、最近才結束的還在熱表），所以合併後再排一次
+    **/
+    public List<OrderDto.MyOrderResponse> historyForUser(Long userId) {
+        record Row(OrderDto.MyOrderResponse body, Instant createAt) {}
+
+        Map<Long, Row> rows = new LinkedHashMap<>();
+        for (OrderList o : orderListRepo.findAllByUserIdOrderByCreateAtDesc(userId)) {
+            rows.put(o.getId(), new Row(new OrderDto.MyOrderResponse(o.getId(), o.getStatus(), o.getTotalCost(), o.getExpiresAt()),
+                    o.getCreateAt()));
+        }
+        jdbc.query("SELECT id, status, total_cost, expires_at, create_at FROM order_list_archive " +
+                        "WHERE user_id = ? ORDER BY create_at DESC",
+                (RowCallbackHandler) rs -> {
+                    long id = rs.getLong(1);
+                    Timestamp expires = rs.getTimestamp(4);
+                    Timestamp created = rs.getTimestamp(5);
+                    rows.putIfAbsent(id, new Row(new OrderDto.MyOrderResponse(
+                            id,
+                            OrderStatus.valueOf(rs.getString(2)),
+                            rs.getBigDecimal(3),
+                            expires == null ? null : expires.toLocalDateTime()),
+                            created == null ? Instant.EPOCH : created.toInstant()));
+                },
+                userId);
+
+        List<Row> merged = new ArrayList<>(rows.values());
+        merged.sort(Comparator.comparing(Row::createAt, Comparator.nullsLast(Comparator.reverseOrder())));
+        return merged.stream().map(Row::body).toList();
+    }
+}
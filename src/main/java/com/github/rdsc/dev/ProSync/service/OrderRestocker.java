@@ -0,0 +1,244 @@
+package com.github.rdsc.dev.ProSync.service;
+
+import com.github.rdsc.dev.ProSync.aspect.OptimisticRetry;
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.inventory.QuotaCounters;
+import com.github.rdsc.dev.ProSync.inventory.QuotaShards;
+import com.github.rdsc.dev.ProSync.inventory.SeatHolds;
+import com.github.rdsc.dev.ProSync.inventory.SoldOutRegistry;
+import com.github.rdsc.dev.ProSync.model.JobCursor;
+import com.github.rdsc.dev.ProSync.repository.JobCursorRepository;
+import com.github.rdsc.dev.ProSync.repository.TicketTypeRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 過期訂單回補（ExpiredService 排程一批一批呼叫）：
+ * 一批 = 一個交易、固定幾條 SQL，不管這批有幾張訂單：
+ * 1) 鎖住一批過期的待付款訂單（SKIP LOCKED：別的節點正在處理的就跳過；sweep 從 job_cursors 接著掃）
+ * 2) 鎖住它們的明細，依 ticket_type_id 加總要加回去的張數
+ * 3) 每個票種一條原子 UPDATE quota = quota + n（依 id 排序，跟其他批次不會互相死結）
+ *    STRIPED 的分片還是照訂單加回各自的本家分片
+ * 4) 明細的 pending_quota / held_quantity 一次歸零，訂單一次改 EXPIRED
+ * 以前是每張訂單、每筆明細各自 increaseQuota + save（帶 @Version），
+ * 一萬台購物車都是同一票種時，就是一萬次搶同一列熱門資料
+ * 兩個入口：sweep（DB 掃描，安全網）/ expire（ExpiryScheduler 到點指定 id），後面 2) ~ 4) 共用
+ * 兩個入口都標 @OptimisticRetry：跟預約搶明細 / 票種列時輸掉死結、等鎖逾時，整批回滾後退避重跑，
+ * 不用等下一輪排程（以前回補失敗只記 log，那批的庫存要等很久才回來）
+**/
+@RequiredArgsConstructor
+@Slf4j
+@Service
+public class OrderRestocker {
+
+    public static final String SWEEP_JOB = "restock-orders";
+
+    private final JdbcTemplate jdbc;
+    private final JobCursorRepository jobCursorRepo;
+    private final TicketTypeRepository ticketTypeRepo;
+    private final QuotaCounters quotaCounters;
+    private final QuotaShards quotaShards;
+    private final SeatHolds seatHolds;
+    private final SoldOutRegistry soldOut;
+
+    @Value("${app.orders.max-age-hours:24}")
+    private long orderMaxAgeHours; // 跟 TicketOrderService 同一個設定：expires_at 不會超過 create_at + 這麼久
+
+    @Value("${app.partitions.prune-slack-hours:24}")
+    private long pruneSlackHours; // create_at 範圍多放寬一點（時鐘誤差、上限生效前的舊訂單）
+
+    // 加總時用：這個票種要加回 ticket_types 的張數 / 全部張數（計數器用）/ 每張訂單各幾張（分片回補用）
+    private static final class Refund {
+        int settled;
+        int quantity;
+        final Map<Long, Integer> byOrder = new TreeMap<>();
+    }
+
+    /**
+     * 處理一批（最多 limit 張）過期訂單，回傳這批拿到幾張；< limit 代表掃到底了
+     * 從 job_cursors 的 (expires_at, id) 後面接著掃（keyset 分頁，不用 OFFSET，也不會整表載入），
+     * 處理完在同一個交易裡把游標推到這批最後一筆；掃到底就歸回起點
+     * 分片（partitions > 1）：只看 id % partitions = partition 的訂單，每個分片自己一個游標，可以同時跑
+    **/
+    @OptimisticRetry(maxAttempts = 3, baseDelayMs = 50, maxDelayMs = 500, budgetMs = 2000,
+            retryFor = {OptimisticLockingFailureException.class, PessimisticLockingFailureException.class})
+    @Transactional(propagation = Propagation.REQUIRES_NEW, isolation = Isolation.READ_COMMITTED)
+    public int sweep(LocalDateTime cutoff, int limit, int partition, int partitions) {
+        // 0/ 鎖游標（別的節點 / 執行緒同時在掃同一個分片就等它這批做完）
+        String job = cursorName(partition, partitions);
+        if (partitions > 1) {
+            // 分片數是設定值，游標列第一次用到才建（IGNORE：別人先建了就算了）
+            jdbc.update("INSERT IGNORE INTO job_cursors (job_name, last_expires_at, last_id) VALUES (?, ?, 0)",
+                    job, Timestamp.valueOf(JobCursor.START));
+        }
+        JobCursor cursor = jobCursorRepo.lockByJobName(job)
+                .orElseGet(() -> JobCursor.start(job));
+        Timestamp afterAt = Timestamp.valueOf(cursor.getLastExpiresAt());
+
+        // order_list 依 create_at 分區：create_at <= expires_at <= create_at + max-age，
+        // 所以 (游標, cutoff) 之間到期的訂單，create_at 一定落在 [游標 - max-age, cutoff]，只需要掃這幾個分區
+        //   （游標在起點時下界就是 1970 之前 → 全部分區都掃，這是每一圈唯一一次）
+        Timestamp createdAfter = Timestamp.valueOf(cursor.getLastExpiresAt().minusHours(orderMaxAgeHours + pruneSlackHours));
+        Timestamp createdBefore = Timestamp.valueOf(cutoff.plusHours(pruneSlackHours));
+
+        // 1/ 鎖一批過期的待付款訂單（游標之後的、屬於這個分片的）
+        List<Long> orderIds = new ArrayList<>();
+        LocalDateTime[] lastAt = new LocalDateTime[1];
+        RowCallbackHandler collect = rs -> {
+            orderIds.add(rs.getLong(1));
+            lastAt[0] = rs.getTimestamp(2).toLocalDateTime();
+        };
+        String select = "SELECT id, expires_at FROM order_list WHERE status = ? AND expires_at < ? " +
+                "AND (expires_at > ? OR (expires_at = ? AND id > ?)) AND create_at >= ? AND create_at < ? ";
+        String page = "ORDER BY expires_at, id LIMIT ? FOR UPDATE SKIP LOCKED";
+        if (partitions > 1) {
+            jdbc.query(select + "AND MOD(id, ?) = ? " + page, collect,
+                    OrderStatus.PENDING_PAYMENT.name(), Timestamp.valueOf(cutoff), afterAt, afterAt, cursor.getLastId(),
+                    createdAfter, createdBefore, partitions, partition, limit);
+        } else {
+            jdbc.query(select + page, collect,
+                    OrderStatus.PENDING_PAYMENT.name(), Timestamp.valueOf(cutoff), afterAt, afterAt, cursor.getLastId(),
+                    createdAfter, createdBefore, limit);
+        }
+
+        int n = restock(orderIds);
+
+        // 2/ 游標：滿一批 → 推到最後一筆；不滿 → 掃到底了，下一輪從頭
+        if (orderIds.size() < limit) {
+            cursor.reset();
+        } else {
+            cursor.advance(lastAt[0], orderIds.get(orderIds.size() - 1));
+        }
+        jobCursorRepo.save(cursor);
+        return n;
+    }
+
+    // 指定幾張訂單（到期索引到點了）：只處理真的還在待付款、已經過期、沒被別人鎖住的那些，回傳這次處理掉的 id
+    // 到點的訂單要快：重試次數一樣，等得比排程短（沒處理到的 ExpiryScheduler 會放回索引再試）
+    @OptimisticRetry(maxAttempts = 3, baseDelayMs = 10, maxDelayMs = 100, budgetMs = 500,
+            retryFor = {OptimisticLockingFailureException.class, PessimisticLockingFailureException.class})
+    @Transactional(propagation = Propagation.REQUIRES_NEW, isolation = Isolation.READ_COMMITTED)
+    public List<Long> expire(List<Long> orderListIds, LocalDateTime cutoff) {
+        if (orderListIds == null || orderListIds.isEmpty()) return List.of();
+
+        // 付款、延長到期都會改這張訂單：狀態 / 到期時間以 DB 為準，索引只是提醒
+        List<Long> orderIds = jdbc.queryForList(
+                "SELECT id FROM order_list WHERE status = ? AND expires_at < ? AND id IN (" + placeholders(orderListIds.size()) + ") " +
+                        "ORDER BY id FOR UPDATE SKIP LOCKED",
+                Long.class, dueArgs(orderListIds, cutoff));
+        restock(orderIds);
+        return orderIds;
+    }
+
+    /**
+     * 這幾張裡還在待付款的，以及各自的到期時間（不上鎖，讀最新 commit 的版本）
+     * expire() 沒拿到的 id 用這個分開：還在待付款的要放回索引（被別人鎖住跳過的、或其實還沒到期的）；
+     * 其他的已經付款 / 被處理掉了，不用再排
+    **/
+    @Transactional(readOnly = true, isolation = Isolation.READ_COMMITTED)
+    public Map<Long, LocalDateTime> pendingDeadlines(List<Long> orderListIds) {
+        if (orderListIds == null || orderListIds.isEmpty()) return Map.of();
+        Object[] args = new Object[orderListIds.size() + 1];
+        args[0] = OrderStatus.PENDING_PAYMENT.name();
+        System.arraycopy(orderListIds.toArray(), 0, args, 1, orderListIds.size());
+
+        Map<Long, LocalDateTime> pending = new LinkedHashMap<>();
+        jdbc.query("SELECT id, expires_at FROM order_list WHERE status = ? AND id IN (" + placeholders(orderListIds.size()) + ")",
+                (RowCallbackHandler) rs -> {
+                    Timestamp expiresAt = rs.getTimestamp(2);
+                    if (expiresAt != null) pending.put(rs.getLong(1), expiresAt.toLocalDateTime());
+                }, args);
+        return pending;
+    }
+
+    // 2) ~ 4)：呼叫端已經在交易裡鎖住這批訂單，回傳這批張數
+    private int restock(List<Long> orderIds) {
+        if (orderIds.isEmpty()) return 0;
+        String in = placeholders(orderIds.size());
+        Object[] ids = orderIds.toArray();
+
+        // 2/ 鎖明細（背景回寫 pending_quota 的人要等這批 commit），依票種加總
+        //    pending_quota / held_quantity 那幾張根本還沒扣到 ticket_types，不能加回去
+        Map<Long, Refund> refunds = new TreeMap<>(); // 依 ticketTypeId 排序 → 上鎖順序固定
+        List<Object[]> heldPairs = new ArrayList<>();
+        jdbc.query("SELECT order_list_id, ticket_type_id, quantity, pending_quota, held_quantity FROM order_detail " +
+                "WHERE order_list_id IN (" + in + ") FOR UPDATE", (RowCallbackHandler) rs -> {
+            long orderListId = rs.getLong(1);
+            long ticketTypeId = rs.getLong(2);
+            int qty = rs.getInt(3);
+            if (qty <= 0) return;
+            int pending = rs.getInt(4);
+            int held = rs.getInt(5);
+
+            Refund r = refunds.computeIfAbsent(ticketTypeId, k -> new Refund());
+            r.settled += Math.max(0, qty - pending - held);
+            r.quantity += qty;
+            r.byOrder.merge(orderListId, qty, Integer::sum);
+            if (held > 0) heldPairs.add(new Object[]{ticketTypeId, orderListId});
+        }, ids);
+
+        // 3/ 每個票種一條原子加法（不做版本比對，version + 1 讓拿舊版本的預約自己重試）
+        Instant now = Instant.now();
+        refunds.forEach((ticketTypeId, r) -> {
+            if (r.settled > 0) {
+                ticketTypeRepo.applyQuotaDelta(ticketTypeId, r.settled, now);
+            }
+            quotaCounters.releaseAfterCommit(ticketTypeId, r.quantity); // 記憶體帳本 / Redis 計數器：commit 後整筆加回
+            // STRIPED：同一個交易內加回分片；每張訂單加回自己的本家，不然分片會越來越不平均
+            r.byOrder.forEach((orderListId, qty) -> quotaShards.refill(ticketTypeId, orderListId, qty));
+            soldOut.clearAfterCommit(ticketTypeId); // 有票回來了：commit 後解除售完標記（含其他節點）
+        });
+        heldPairs.forEach(p -> seatHolds.releaseAfterCommit((Long) p[0], (Long) p[1])); // REDIS_HOLD：commit 後放掉佔位
+
+        // 4/ 明細歸零、訂單一次改 EXPIRED
+        Timestamp ts = Timestamp.from(now);
+        jdbc.update("UPDATE order_detail SET pending_quota = 0, held_quantity = 0 WHERE order_list_id IN (" + in + ")", ids);
+
+        Object[] expireArgs = new Object[ids.length + 2];
+        expireArgs[0] = OrderStatus.EXPIRED.name();
+        expireArgs[1] = ts;
+        System.arraycopy(ids, 0, expireArgs, 2, ids.length);
+        int expired = jdbc.update("UPDATE order_list SET status = ?, update_at = ? WHERE id IN (" + in + ")", expireArgs);
+
+        int units = refunds.values().stream().mapToInt(r -> r.quantity).sum();
+        log.info("reclaimExpiredOrders: orders = {}, ticketTypes = {}, unitsRestocked = {}, newStatus = EXPIRED",
+                expired, refunds.size(), units);
+        return orderIds.size();
+    }
+
+    // 不分片沿用原本的游標名稱；分片數改了就換一組游標（分片的意義變了，舊位置不能用）
+    public static String cursorName(int partition, int partitions) {
+        return partitions > 1 ? SWEEP_JOB + ":" + partition + "/" + partitions : SWEEP_JOB;
+    }
+
+    private static Object[] dueArgs(List<Long> orderListIds, LocalDateTime cutoff) {
+        Object[] args = new Object[orderListIds.size() + 2];
+        args[0] = OrderStatus.PENDING_PAYMENT.name();
+        args[1] = Timestamp.valueOf(cutoff);
+        System.arraycopy(orderListIds.toArray(), 0, args, 2, orderListIds.size());
+        return args;
+    }
+
+    private static String placeholders(int n) {
+        return String.join(",", Collections.nCopies(n, "?"));
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.rdsc.dev.ProSync.service;
+
+import com.github.rdsc.dev.ProSync.aspect.ClusterJob;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * order_list / payments 的分區維護（分區方式見 V13 migration：RANGE COLUMNS(create_at)，一個月一個分區）：
+ * - 往後切：最後一個分區 p_max（MAXVALUE）前面，永遠預先切好 months-ahead 個月的分區
+ *   V13 建表時已經切到本月 + 3 個月，之後每輪補到 months-ahead，正常情況 p_max 是空的，
+ *   REORGANIZE 只改定義、不搬資料；排程停太久、p_max 已經有資料時，REORGANIZE 會搬資料並鎖表（先記 warn）
+ * - 往前刪：超過 retention-months 的舊分區，確定是空的（封存已經搬走）才 DROP PARTITION；還有資料就留著等封存
+ * - 表沒有分區（例如 dev 還沒跑 V13）就略過
+ * 一台跑就好（@ClusterJob）；DDL 失敗只記 log，下一輪再試
+**/
+@RequiredArgsConstructor
+@Slf4j
+@Service
+public class PartitionMaintenance {
+
+    private static final List<String> TABLES = List.of("order_list", "payments");
+    private static final String MAX_PARTITION = "p_max";
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    private static final DateTimeFormatter BOUND = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final JdbcTemplate jdbc;
+
+    @Value("${app.partitions.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.partitions.months-ahead:3}")
+    private int monthsAhead; // 預先切好幾個月
+
+    @Value("${app.partitions.retention-months:12}")
+    private int retentionMonths; // 多舊的分區可以刪（要先被封存搬空）
+
+    private record Part(String name, LocalDateTime upperBound, boolean max) {}
+
+    @Scheduled(
+            fixedDelayString = "${app.jobs.partitions.delay-ms:21600000}",
+            initialDelayString = "${app.jobs.partitions.initial-delay-ms:30000}"
+    )
+    @ClusterJob(name = "partition-maintenance", period = "${app.jobs.partitions.delay-ms:21600000}")
+    public int maintain() {
+        if (!enabled) return 0;
+        int changes = 0;
+        for (String table : TABLES) {
+            try {
+                changes += maintain(table);
+            } catch (Exception ex) {
+                log.warn("partition maintenance on {} failed, retry next run: {}", table, ex.getMessage());
+            }
+        }
+        return changes;
+    }
+
+    // 回傳這張表做了幾個 DDL
+    private int maintain(String table) {
+        List<Part> parts = partitions(table);
+        if (parts.isEmpty()) {
+            log.debug("table {} is not partitioned, skip", table);
+            return 0;
+        }
+        LocalDate thisMonth = LocalDate.now().withDayOfMonth(1);
+        return createAhead(table, parts, thisMonth) + dropExpired(table, parts, thisMonth);
+    }
+
+    // 1/ 從最後一個有界分區的上界開始，一個月一個，切到 (本月 + months-ahead) 的月底
+    private int createAhead(String table, List<Part> parts, LocalDate thisMonth) {
+        Part last = parts.get(parts.size() - 1);
+        LocalDateTime from = parts.stream().filter(p -> !p.max()).map(Part::upperBound)
+                .reduce((a, b) -> b).orElse(null);
+        if (from == null) {
+            log.warn("table {} has no bounded partition, cannot extend", table);
+            return 0;
+        }
+        LocalDateTime target = thisMonth.plusMonths(Math.max(0, monthsAhead) + 1L).atStartOfDay();
+
+        List<String> defs = new ArrayList<>();
+        for (LocalDateTime start = from; start.isBefore(target); start = start.plusMonths(1)) {
+            defs.add("PARTITION " + start.format(NAME) + " VALUES LESS THAN ('" + start.plusMonths(1).format(BOUND) + "')");
+        }
+        if (defs.isEmpty()) return 0;
+
+        if (last.max()) {
+            boolean maxEmpty = jdbc.queryForList("SELECT 1 FROM " + table + " PARTITION (" + last.name() + ") LIMIT 1",
+                    Integer.class).isEmpty();
+            if (!maxEmpty) {
+                log.warn("partition {}.{} already has rows, REORGANIZE will copy them and lock the table", table, last.name());
+            }
+            defs.add("PARTITION " + last.name() + " VALUES LESS THAN (MAXVALUE)");
+            jdbc.execute("ALTER TABLE " + table + " REORGANIZE PARTITION " + last.name() + " INTO (" + String.join(", ", defs) + ")");
+        } else {
+            jdbc.execute("ALTER TABLE " + table + " ADD PARTITION (" + String.join(", ", defs) + ")");
+        }
+        log.info("partition maintenance: {} new monthly partitions on {} up to {}", defs.size() - (last.max() ? 1 : 0), table, target);
+        return 1;
+    }
+
+    // 2/ 上界早於 (本月 - retention-months) 的分區：空的才刪（至少留一個有界分區）
+    private int dropExpired(String table, List<Part> parts, LocalDate thisMonth) {
+        LocalDateTime keepFrom = thisMonth.minusMonths(Math.max(1, retentionMonths)).atStartOfDay();
+        long bounded = parts.stream().filter(p -> !p.max()).count();
+
+        int dropped = 0;
+        for (Part p : parts) {
+            if (p.max() || p.upperBound().isAfter(keepFrom) || bounded - dropped <= 1) continue;
+            boolean empty = jdbc.queryForList("SELECT 1 FROM " + table + " PARTITION (" + p.name() + ") LIMIT 1",
+                    Integer.class).isEmpty();
+            if (!empty) {
+                log.info("partition {}.{} is past retention but still has rows, waiting for archive", table, p.name());
+                continue;
+            }
+            jdbc.execute("ALTER TABLE " + table + " DROP PARTITION " + p.name());
+            dropped++;
+            log.info("partition maintenance: dropped empty partition {}.{} (< {})", table, p.name(), p.upperBound());
+        }
+        return dropped;
+    }
+
+    private List<Part> partitions(String table) {
+        return jdbc.query(
+                "SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS " +
+                        "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL " +
+                        "ORDER BY PARTITION_ORDINAL_POSITION",
+                (rs, i) -> {
+                    String desc = rs.getString(2);
+                    boolean max = desc == null || desc.equalsIgnoreCase("MAXVALUE");
+                    LocalDateTime bound = max ? null : LocalDateTime.parse(desc.replace("'", "").trim(), BOUND);
+                    return new Part(rs.getString(1), bound, max);
+                },
+                table);
+    }
+}
@@ -12,6 +12,7 @@ import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.parameters.P;
 import org.springframework.stereotype.Service;
@@ -21,8 +22,8 @@ import org.springframework.web.server.ResponseStatusException;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 
 @RequiredArgsConstructor
 @Slf4j
@@ -30,10 +31,13 @@ import java.time.temporal.ChronoUnit;
 // 建立報價與確認交易
 public class PaymentService {
 
+    public static final Duration QUOTE_TTL = Duration.ofMinutes(15); // 報價有效期（付款單過期掃描也靠它推算 create_at 範圍）
+
     private final PriceFeed priceFeed; // 報價來源 / 固定價
     private final TicketOrderService ticketOrderService; // 付款成功後要呼叫 confirmPayment()
     private final OrderListRepository orderRepo; // 讀訂單
     private final PaymentRepository paymentRepo; // 存取付款
+    private final ExpiryScheduler expiryScheduler; // 報價到期時間放進到期索引
 
     @PersistenceContext
     private EntityManager em;
@@ -100,7 +104,7 @@ public class PaymentService {
 
         // 3/ 建立 Payment（TX_PENDING，15 分鐘過期）
         LocalDateTime now = LocalDateTime.now();
-        LocalDateTime quoteExpires = now.plus(15, ChronoUnit.MINUTES);
+        LocalDateTime quoteExpires = now.plus(QUOTE_TTL);
         LocalDateTime orderExpires = orderList.getExpiresAt();
 
         // 取較早的那個，確保 payment 不會比 order 活得更久
@@ -119,7 +123,9 @@ public class PaymentService {
         orderList.addPayment(p);     // 2/ 反向端（OneToMany）也維護一下關聯
 
 //        em.persist(p);
-        return paymentRepo.save(p);
+        Payment saved = paymentRepo.save(p);
+        expiryScheduler.schedulePayment(saved.getId(), saved.getExpiresAt());
+        return saved;
     }
 
     /**
@@ -170,6 +176,13 @@ public class PaymentService {
         if (payDup != null && !payDup.getId().equals(paymentId)) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, "txHash already used by payment " + payDup.getId());
         }
+        // 登記到 payment_tx_hashes：分區後 payments 沒有 UNIQUE(tx_hash)，靠這張表的 PK 擋（已封存的也在裡面，
+        // 兩個請求同時拿同一個 txHash 也只有一個插得進去）
+        try {
+            paymentRepo.registerTxHash(txHash, p.getId());
+        } catch (DataIntegrityViolationException ex) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "txHash already used by another payment");
+        }
 
         // 設定交易哈希並標記已確認
         p.setTxHash(txHash); // 寫入鏈上交易哈希（txHash）
@@ -0,0 +1,74 @@
+package com.github.rdsc.dev.ProSync.service;
+
+import com.github.rdsc.dev.ProSync.aspect.OptimisticRetry;
+import com.github.rdsc.dev.ProSync.enums.ReservationMode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 預約的「一次嘗試」：一個新交易（REQUIRES_NEW + REPEATABLE_READ）= 一條連線，commit 後馬上還
+ * - TicketOrderService 從外面呼叫會經過代理，方法上的 @OptimisticRetry 才會生效：
+ *   版本衝突 → 這次交易整個回滾，退避後用新交易重跑；次數 / 時間用完丟出衝突，由 TicketOrderService 回 429
+ * - 每個入口的次數 / 時間預算寫在各自的註解上：拿著 seat 鎖的不能等太久，STRIPED 沒拿鎖可以多試幾次
+ * - 每次嘗試記一次 reservation.connection.hold（tag mode / outcome = commit、rollback），含跟連線池拿連線的等待
+ *   搭配 hikaricp.connections.usage / acquire 看連線池是不是瓶頸
+**/
+@Service
+@RequiredArgsConstructor
+public class ReservationAttempts {
+
+    private final PlatformTransactionManager txManager;
+    private final MeterRegistry meterRegistry;
+
+    // OPTIMISTIC：重試時還拿著 seat 鎖，單次最多等 50 ms、整次 500 ms
+    @OptimisticRetry(maxAttempts = 3, baseDelayMs = 5, maxDelayMs = 50, budgetMs = 500)
+    public <T> T reserve(ReservationMode mode, TransactionCallback<T> attempt) {
+        return once(mode, attempt);
+    }
+
+    // STRIPED：不拿 seat 鎖，撞到的只是同一個分片 → 可以多試幾次、等久一點
+    @OptimisticRetry(maxAttempts = 5, baseDelayMs = 5, maxDelayMs = 100, budgetMs = 1000)
+    public <T> T reserveStriped(ReservationMode mode, TransactionCallback<T> attempt) {
+        return once(mode, attempt);
+    }
+
+    // 購物車：拿著好幾個 seat 鎖，整包重跑的代價也大 → 次數少、預算短
+    @OptimisticRetry(maxAttempts = 3, baseDelayMs = 10, maxDelayMs = 50, budgetMs = 400)
+    public <T> T reserveBatch(ReservationMode mode, TransactionCallback<T> attempt) {
+        return once(mode, attempt);
+    }
+
+    // 不會版本衝突的路徑（計數器 / 有條件 UPDATE / fencing / Redis 佔位）：只跑一次
+    public <T> T once(ReservationMode mode, TransactionCallback<T> attempt) {
+        long begin = System.nanoTime();
+        String outcome = "rollback";
+        try {
+            T result = newAttemptTemplate().execute(attempt);
+            outcome = "commit";
+            return result;
+        } finally {
+            Timer.builder("reservation.connection.hold")
+                    .description("Time a reservation attempt holds its DB connection")
+                    .tag("mode", mode.name())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // 每次嘗試用自己的新交易（REQUIRES_NEW + REPEATABLE_READ），commit 在 execute() 裡完成
+    private TransactionTemplate newAttemptTemplate() {
+        TransactionTemplate tpl = new TransactionTemplate(txManager);
+        tpl.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW); // 每次重試用新交易
+        tpl.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        return tpl;
+    }
+}
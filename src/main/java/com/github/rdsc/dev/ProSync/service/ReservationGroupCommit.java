@@ -0,0 +1,364 @@
+package com.github.rdsc.dev.ProSync.service;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.ReservationMode;
+import com.github.rdsc.dev.ProSync.inventory.SoldOutRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 預約的入口（Controller 呼叫這支，不直接呼叫 TicketOrderService.reserve）：
+ * - 一般模式：直接轉給 TicketOrderService.reserve()
+ * - GROUP_COMMIT 模式：每個票種一條「單一寫入者」佇列，同一時間湧進來的預約排進佇列，
+ *   由一個寫入執行緒一次拿一批，在「同一個交易」裡處理：
+ *   1) 鎖住這批涉及的訂單列（id 由小到大），再 SELECT ... FOR UPDATE 鎖票種列，算出可用張數（quota - pending_quota）
+ *      上鎖順序「訂單 → 票種」跟批次預約（reserveBatch）、過期回補一樣，不會互相死結
+ *   2) 依到達順序接受放得下的請求，放不下的回 409
+ *   3) 一條 UPDATE 扣掉整批的張數
+ *   4) 一次 batch INSERT ... ON DUPLICATE KEY UPDATE 寫入全部 order_detail
+ *   5) 重算相關訂單的總金額與到期時間（now + 30 分鐘，但不超過 create_at + max-age-hours，跟 reserve() 一樣）
+ *   commit 成功後才把結果交還給各自的呼叫端（CompletableFuture），並把接受的訂單放進到期索引（ExpiryScheduler）
+ *   → 一次 commit（fsync）的成本由整批分攤，不用每個人各搶一次 Redis 鎖、各自 flush
+ * 注意：呼叫端在「交易外」等待結果，才不會每個等待中的請求都佔住一條 DB 連線。
+ * 逾時：還在佇列裡的請求取消（寫入者不會處理，回 503）；已經被拿進批次的不能取消，
+ *   呼叫端繼續等這批 commit / 回滾的結果（否則回 503 但其實已經扣了，重試就會重複預約）。
+**/
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ReservationGroupCommit {
+
+    private final TicketOrderService ticketOrderService;
+    private final JdbcTemplate jdbc;
+    private final PlatformTransactionManager txManager;
+    private final SoldOutRegistry soldOut;
+    private final ExpiryScheduler expiryScheduler;
+
+    @Value("${app.reservation.mode:OPTIMISTIC}")
+    private ReservationMode reservationMode;
+
+    @Value("${app.reservation.group-commit.max-batch:64}")
+    private int maxBatch;        // 一批最多幾筆預約
+
+    @Value("${app.reservation.group-commit.writers:4}")
+    private int writers;         // 寫入執行緒數（同時能處理幾個不同票種）
+
+    @Value("${app.reservation.group-commit.timeout-ms:5000}")
+    private long timeoutMs;      // 呼叫端最多等多久
+
+    @Value("${app.orders.max-age-hours:24}")
+    private long orderMaxAgeHours; // 跟 TicketOrderService 同一個設定：延長到期也不超過 create_at + 這麼久
+
+    private static final String INSERT_DETAIL_SQL =
+            "INSERT INTO order_detail (order_list_id, ticket_type_id, quantity, pending_quota, unit_price, cost, create_at, update_at) " +
+            "VALUES (?, ?, ?, 0, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE quantity = quantity + VALUES(quantity), " +
+            "unit_price = VALUES(unit_price), " +
+            "cost = quantity * VALUES(unit_price), " + // 左到右套用，這裡的 quantity 已經是加完的新值
+            "update_at = VALUES(update_at)";
+
+    private static final String UPDATE_ORDER_SQL =
+            "UPDATE order_list SET " +
+            "total_cost = (SELECT COALESCE(SUM(d.cost), 0) FROM order_detail d WHERE d.order_list_id = ?), " +
+            "status = ?, expires_at = ?, update_at = ? " +
+            "WHERE id = ?";
+
+    // ticketTypeId → 該票種的佇列
+    private final ConcurrentMap<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private ExecutorService writerPool;
+
+    @PostConstruct
+    void start() {
+        if (reservationMode != ReservationMode.GROUP_COMMIT) return;
+
+        AtomicInteger seq = new AtomicInteger();
+        writerPool = Executors.newFixedThreadPool(Math.max(1, writers), r -> {
+            Thread t = new Thread(r, "reserve-writer-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        log.info("ReservationGroupCommit started: writers = {}, maxBatch = {}", writers, maxBatch);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (writerPool != null) {
+            writerPool.shutdown();
+        }
+    }
+
+    // 預約入口：GROUP_COMMIT 排隊等批次 commit，其他模式照舊
+    public Long reserve(Long orderListId, Long ticketTypeId, int quantity) {
+        if (reservationMode != ReservationMode.GROUP_COMMIT) {
+            return ticketOrderService.reserve(orderListId, ticketTypeId, quantity);
+        }
+        if (orderListId == null) throw new IllegalArgumentException("orderListId is required");
+        if (ticketTypeId == null) throw new IllegalArgumentException("ticketTypeId is required");
+        if (quantity < 1) throw new IllegalArgumentException("quantity must be >= 1");
+        soldOut.rejectIfSoldOut(ticketTypeId); // 賣完了就不用排隊
+
+        Request req = new Request(orderListId, quantity, new CompletableFuture<>(), new AtomicInteger(QUEUED));
+        Lane lane = lanes.computeIfAbsent(ticketTypeId, Lane::new);
+        lane.queue.add(req);
+        lane.schedule();
+
+        try {
+            return req.result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // 還沒被寫入者拿走的，取消之後就不會處理；已經在批次裡的，等這批的結果
+            if (req.cancel()) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Reservation queue timeout, please retry");
+            }
+            log.debug("reserve() queue timeout after batch took the request, waiting for commit: order = {}", orderListId);
+            return awaitTaken(req);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (req.cancel()) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Reservation interrupted");
+            }
+            return awaitTaken(req);
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        }
+    }
+
+    // 已經在批次裡：不理會中斷一直等到 commit / 回滾（一個交易的時間），最後再把中斷狀態設回去
+    private Long awaitTaken(Request req) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    return req.result.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    throw unwrap(ex);
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException ex) {
+        if (ex.getCause() instanceof RuntimeException re) return re;
+        return new IllegalStateException(ex.getCause());
+    }
+
+    // 一個票種一條佇列；running 保證同一時間只有一個寫入者在處理它
+    private class Lane {
+        private final Long ticketTypeId;
+        private final Queue<Request> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean(false);
+
+        Lane(Long ticketTypeId) {
+            this.ticketTypeId = ticketTypeId;
+        }
+
+        void schedule() {
+            if (running.compareAndSet(false, true)) {
+                try {
+                    writerPool.execute(this::drain);
+                } catch (RejectedExecutionException ex) {
+                    running.set(false);
+                    failAll(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Reservation queue is shutting down"));
+                }
+            }
+        }
+
+        void drain() {
+            try {
+                while (true) {
+                    List<Request> batch = new ArrayList<>();
+                    Request r;
+                    while (batch.size() < maxBatch && (r = queue.poll()) != null) {
+                        if (r.take()) batch.add(r); // 呼叫端已經逾時取消的就不處理
+                    }
+                    if (batch.isEmpty()) break;
+                    commitBatch(ticketTypeId, batch);
+                }
+            } finally {
+                running.set(false);
+                // 剛好在 set(false) 之前有人排進來 → 再排一次，避免沒人處理
+                if (!queue.isEmpty()) schedule();
+            }
+        }
+
+        void failAll(RuntimeException ex) {
+            Request r;
+            while ((r = queue.poll()) != null) {
+                r.result.completeExceptionally(ex);
+            }
+        }
+    }
+
+    private static final int QUEUED = 0;
+    private static final int TAKEN = 1;
+    private static final int CANCELLED = 2;
+
+    // state：QUEUED → TAKEN（寫入者拿進批次）或 QUEUED → CANCELLED（呼叫端逾時），兩邊用 CAS 搶，只會有一個成功
+    private record Request(Long orderListId, int quantity, CompletableFuture<Long> result, AtomicInteger state) {
+        boolean take() {
+            return state.compareAndSet(QUEUED, TAKEN);
+        }
+
+        boolean cancel() {
+            return state.compareAndSet(QUEUED, CANCELLED);
+        }
+    }
+
+    /**
+     * 單一交易處理一批：被拒絕的（庫存不夠、訂單狀態不對）直接回錯誤，
+     * 被接受的等 commit 成功才回 orderListId；交易失敗時整批都回同一個錯誤。
+    **/
+    private void commitBatch(Long ticketTypeId, List<Request> batch) {
+        List<Request> accepted = new ArrayList<>();
+        Map<Request, RuntimeException> rejected = new LinkedHashMap<>();
+        Map<Long, LocalDateTime> expiresAt = new HashMap<>(); // 接受的訂單 → 這次寫進去的到期時間
+        int[] left = {-1}; // 這批處理完還剩幾張（0 = 賣完）
+
+        TransactionTemplate tpl = new TransactionTemplate(txManager);
+        tpl.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        long soldOutGen = soldOut.generation(ticketTypeId); // 讀 quota 之前記下來：commit 後才標記，中間有回補就不標
+
+        try {
+            tpl.executeWithoutResult(status -> {
+                accepted.clear();
+                rejected.clear();
+                expiresAt.clear();
+
+                // 1/ 先鎖這批涉及的訂單，確認仍是待付款、未過期、也還沒到最長壽命（避免跟過期回補撞在一起）
+                Map<Long, LocalDateTime> maxAt = new HashMap<>();
+                Map<Long, ResponseStatusException> orderProblems = lockOrders(batch, maxAt);
+
+                // 2/ 再鎖票種列（其他節點 / 其他模式要改這列都得等這批 commit）
+                Map<String, Object> tt;
+                try {
+                    tt = jdbc.queryForMap("SELECT quota, price FROM ticket_types WHERE id = ? FOR UPDATE", ticketTypeId);
+                } catch (EmptyResultDataAccessException ex) {
+                    throw new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + ticketTypeId);
+                }
+                int quota = ((Number) tt.get("quota")).intValue();
+                BigDecimal price = (BigDecimal) tt.get("price");
+                Long pending = jdbc.queryForObject(
+                        "SELECT COALESCE(SUM(pending_quota), 0) FROM order_detail WHERE ticket_type_id = ?", Long.class, ticketTypeId);
+                int remain = quota - (pending == null ? 0 : pending.intValue());
+
+                // 3/ 依到達順序接受放得下的
+                for (Request r : batch) {
+                    ResponseStatusException problem = orderProblems.get(r.orderListId());
+                    if (problem != null) {
+                        rejected.put(r, problem);
+                    } else if (r.quantity() > remain) {
+                        rejected.put(r, new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: remain=" + remain + ", need=" + r.quantity()));
+                    } else {
+                        remain -= r.quantity();
+                        accepted.add(r);
+                    }
+                }
+                left[0] = remain;
+                if (accepted.isEmpty()) return;
+
+                Timestamp now = Timestamp.from(Instant.now());
+                int total = accepted.stream().mapToInt(Request::quantity).sum();
+
+                // 4/ 一條 UPDATE 扣整批（version + 1，讓 OPTIMISTIC 路徑上的人知道這列被改過）
+                jdbc.update("UPDATE ticket_types SET quota = quota - ?, version = version + 1, update_at = ? WHERE id = ?",
+                        total, now, ticketTypeId);
+
+                // 5/ 一次 batch 寫入所有明細（同訂單同票種就累加數量）
+                jdbc.batchUpdate(INSERT_DETAIL_SQL, accepted, accepted.size(), (ps, r) -> {
+                    ps.setLong(1, r.orderListId());
+                    ps.setLong(2, ticketTypeId);
+                    ps.setInt(3, r.quantity());
+                    ps.setBigDecimal(4, price);
+                    ps.setBigDecimal(5, price.multiply(BigDecimal.valueOf(r.quantity())));
+                    ps.setTimestamp(6, now);
+                    ps.setTimestamp(7, now);
+                });
+
+                // 6/ 重算訂單總額，到期時間往後推 30 分鐘，但不超過 create_at + max-age-hours（跟 reserve() 一樣）
+                //    否則一直加購的購物車 expires_at 會跑到分區掃描修剪的 create_at 範圍外面，安全網就掃不到了
+                List<Long> orderIds = accepted.stream().map(Request::orderListId).distinct().toList();
+                LocalDateTime extended = LocalDateTime.now().plusMinutes(30);
+                for (Long id : orderIds) {
+                    LocalDateTime cap = maxAt.get(id);
+                    expiresAt.put(id, cap != null && cap.isBefore(extended) ? cap : extended);
+                }
+                jdbc.batchUpdate(UPDATE_ORDER_SQL, orderIds, orderIds.size(), (ps, id) -> {
+                    ps.setLong(1, id);
+                    ps.setString(2, OrderStatus.PENDING_PAYMENT.name());
+                    ps.setTimestamp(3, Timestamp.valueOf(expiresAt.get(id)));
+                    ps.setTimestamp(4, now);
+                    ps.setLong(5, id);
+                });
+            });
+        } catch (RuntimeException ex) {
+            log.warn("reserve() group commit failed: ticketTypeId = {}, batch = {}", ticketTypeId, batch.size(), ex);
+            batch.forEach(r -> r.result.completeExceptionally(ex));
+            return;
+        }
+
+        // commit 成功才交還結果，並放進到期索引（到點就回補，不用等 DB 掃描）
+        if (left[0] == 0) soldOut.markSoldOut(ticketTypeId, soldOutGen);
+        expiresAt.forEach(expiryScheduler::scheduleOrder);
+        accepted.forEach(r -> r.result.complete(r.orderListId()));
+        rejected.forEach((r, ex) -> r.result.completeExceptionally(ex));
+
+        log.info("reserve() group commit: ticketTypeId = {}, batch = {}, accepted = {}, units = {}",
+                ticketTypeId, batch.size(), accepted.size(), accepted.stream().mapToInt(Request::quantity).sum());
+    }
+
+    // 鎖住這批的訂單列，回傳有問題的訂單（不存在 / 不是待付款 / 已過期 / 到了最長壽命）；maxAt 填入每張訂單最晚能到期的時間
+    private Map<Long, ResponseStatusException> lockOrders(List<Request> batch, Map<Long, LocalDateTime> maxAt) {
+        List<Long> ids = batch.stream().map(Request::orderListId).distinct().sorted().toList(); // 固定順序上鎖，避免死結
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+
+        Map<Long, ResponseStatusException> problems = new HashMap<>();
+        ids.forEach(id -> problems.put(id, new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found: " + id)));
+
+        LocalDateTime now = LocalDateTime.now();
+        jdbc.query("SELECT id, status, expires_at, create_at FROM order_list WHERE id IN (" + placeholders + ") ORDER BY id FOR UPDATE",
+                rs -> {
+                    Long id = rs.getLong("id");
+                    String status = rs.getString("status");
+                    Timestamp expiresAt = rs.getTimestamp("expires_at");
+                    Timestamp createAt = rs.getTimestamp("create_at");
+                    LocalDateTime cap = createAt == null ? null : createAt.toLocalDateTime().plusHours(orderMaxAgeHours);
+                    if (!OrderStatus.PENDING_PAYMENT.name().equals(status)) {
+                        problems.put(id, new ResponseStatusException(HttpStatus.CONFLICT,
+                                "Order status is " + status + " — can only add items in PENDING_PAYMENT"));
+                    } else if (expiresAt != null && now.isAfter(expiresAt.toLocalDateTime())) {
+                        problems.put(id, new ResponseStatusException(HttpStatus.CONFLICT,
+                                "Order expired at " + expiresAt.toLocalDateTime()));
+                    } else if (cap != null && !cap.isAfter(now)) {
+                        problems.put(id, new ResponseStatusException(HttpStatus.CONFLICT,
+                                "Order reached its max lifetime at " + cap + " — please start a new order"));
+                    } else {
+                        problems.remove(id);
+                        if (cap != null) maxAt.put(id, cap);
+                    }
+                }, ids.toArray());
+        return problems;
+    }
+}
@@ -1,7 +1,14 @@
 package com.github.rdsc.dev.ProSync.service;
 
+import com.github.rdsc.dev.ProSync.dto.OrderDto;
 import com.github.rdsc.dev.ProSync.enums.OrderStatus;
 import com.github.rdsc.dev.ProSync.enums.PaymentStatus;
+import com.github.rdsc.dev.ProSync.enums.ReservationMode;
+import com.github.rdsc.dev.ProSync.inventory.QuotaCounter;
+import com.github.rdsc.dev.ProSync.inventory.QuotaCounters;
+import com.github.rdsc.dev.ProSync.inventory.QuotaShards;
+import com.github.rdsc.dev.ProSync.inventory.SeatHolds;
+import com.github.rdsc.dev.ProSync.inventory.SoldOutRegistry;
 import com.github.rdsc.dev.ProSync.model.*;
 import com.github.rdsc.dev.ProSync.repository.OrderDetailRepository;
 import com.github.rdsc.dev.ProSync.repository.OrderListRepository;
@@ -9,27 +16,31 @@ import com.github.rdsc.dev.ProSync.repository.PaymentRepository;
 import com.github.rdsc.dev.ProSync.repository.TicketTypeRepository;
 import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
-import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.math.BigDecimal;
 
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Objects;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 @RequiredArgsConstructor
 @Slf4j
@@ -42,8 +53,14 @@ public class TicketOrderService {
     private final PaymentRepository paymentRepo;
     private final UserService userService;
     private final RedisLockHelper rLock;
+    private final QuotaCounters quotaCounters;
+    private final QuotaShards quotaShards;
+    private final SeatHolds seatHolds;
+    private final SoldOutRegistry soldOut;
+    private final ExpiryScheduler expiryScheduler;
+
+    private final ReservationAttempts attempts; // 每次嘗試一個新交易；版本衝突的重試在它的 @OptimisticRetry 上
 
-    private final PlatformTransactionManager txManager;
     private final EntityManager em;
     // 因為 OrderList.user 是 @ManyToOne User user，
     // 需要用 em.getReference(User.class, userId) 取得
@@ -52,6 +69,18 @@ public class TicketOrderService {
     // em.getReference(User.class, userId) 可以只用 userId 建個「殼」，
     // 不用真的去 SELECT 一次 User，省查詢
 
+    @Value("${app.reservation.mode:OPTIMISTIC}")
+    private ReservationMode reservationMode; // 扣庫存的方式（見 application.yml 的 app.reservation.mode）
+
+    @Value("${app.locks.seat.fencing.enabled:false}")
+    private boolean fencingEnabled; // OPTIMISTIC 改用「短 TTL + 自動續約 + fencing token」的鎖
+
+    @Value("${app.locks.seat.fencing.lease-ms:2000}")
+    private long leaseMs; // 租約 TTL（背景每 1/3 續約一次）
+
+    @Value("${app.orders.max-age-hours:24}")
+    private long orderMaxAgeHours; // 購物車從建立起最多活多久（延長到期也不會超過；分區掃描靠這個上限縮 create_at 範圍）
+
     /**
      * 預約流程：
      * 1) 讀取票種（含 @Version 樂觀鎖）
@@ -59,20 +88,23 @@ public class TicketOrderService {
      * 3) quota--（靠版本版號防併發）
      * 4) 建立 PENDING_PAYMENT 訂單 + 明細
     **/
-    @Transactional(isolation = Isolation.REPEATABLE_READ)
-    // @ 告訴 Spring：下面這個方法要放在資料庫交易裡處理（要嘛全成功、要嘛全回滾）。
-    // 幫一個方法套「保護罩」＝資料庫交易（transaction）。
-    // 同生共死：方法裡一連串 DB 動作，要嘛全部成功（commit），要嘛全部失敗一起回復（rollback）。
-    // 例：讀票種 → 檢查庫存 → 扣庫存 → 建訂單，任何一步失敗就整包撤銷，資料不會半套。
-    // 隔離級別設為 REPEATABLE_READ，配合 @Version 可處理併發扣庫存
-    // 同一個交易裡重讀同一筆資料，不會忽然變（避免幻讀/不可重複讀）。
-    // 這是配合票券扣庫存 + 樂觀鎖的建議級別。
+    // 不加外層 @Transactional：以前外層交易佔一條連線，裡面 REQUIRES_NEW 的每次嘗試再拿一條，
+    // 一個預約同時佔兩條 Hikari 連線，連線池比 MySQL 先被吃光。
+    // 現在前面的檢查各自是短的唯讀查詢（用完就還），排隊等鎖時不佔連線，
+    // 真正「讀票種 → 檢查庫存 → 扣庫存 → 建訂單」在每次嘗試自己的交易裡（REPEATABLE_READ），同一時間只有一條連線。
     public Long reserve(Long orderListId, Long ticketTypeId, int quantity) {
 //        if (userId == null) throw new IllegalArgumentException("userId is required");
         if (orderListId == null) throw new IllegalArgumentException("orderListId is required");
         if (ticketTypeId == null) throw new IllegalArgumentException("ticketTypeId is required");
         if (quantity < 1) throw new IllegalArgumentException("quantity must be >= 1");
 
+        // 已經賣完的票種：不拿鎖、不讀 DB，直接 409
+        soldOut.rejectIfSoldOut(ticketTypeId);
+
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            // 呼叫端自己包了交易：每次嘗試的 REQUIRES_NEW 會再拿第二條連線
+            log.warn("reserve() called inside an existing transaction; each attempt will hold a second connection");
+        }
 
 //        User user = userService.findById(userId).orElseThrow(() -> new IllegalStateException("User not found: " + userId));
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
@@ -93,6 +125,37 @@ public class TicketOrderService {
         }
 
 
+        // LEDGER / REDIS_LUA：交易外先用計數器扣，不搶 Redis 鎖、不做 @Version 重試
+        QuotaCounter counter = quotaCounters.active().orElse(null);
+        if (counter != null) {
+            return reserveWithCounter(counter, user, orderListId, ticketTypeId, quantity);
+        }
+
+        // GUARDED_UPDATE：一條有條件的 UPDATE 直接扣，不搶 Redis 鎖、不會版本衝突
+        if (reservationMode == ReservationMode.GUARDED_UPDATE) {
+            return reserveGuarded(user, orderListId, ticketTypeId, quantity);
+        }
+
+        // STRIPED：扣分片列（各自 @Version），不搶 Redis 鎖
+        if (reservationMode == ReservationMode.STRIPED) {
+            return reserveStriped(user, orderListId, ticketTypeId, quantity);
+        }
+
+        // REDIS_HOLD：只在 Redis 佔位，ticket_types 等付款確認才扣
+        if (reservationMode == ReservationMode.REDIS_HOLD) {
+            return reserveHeld(user, orderListId, ticketTypeId, quantity);
+        }
+
+        // Redis 鎖降級中（斷路器打開）：本機鎖 + 有條件 UPDATE，跨節點靠 quota >= n 保證不超賣
+        if (rLock.isDegraded()) {
+            return reserveDegraded(user, orderListId, ticketTypeId, quantity);
+        }
+
+        // 開了 fencing：短租約 + 自動續約，寫 ticket_types 時檢查號碼
+        if (fencingEnabled) {
+            return reserveFenced(user, orderListId, ticketTypeId, quantity);
+        }
+
         // 先搶鎖（seat:{ticketTypeId}，預設 5 秒）
         String lockToken = rLock.lockSeat(ticketTypeId, Duration.ofSeconds(5));
         if (lockToken == null) {
@@ -102,97 +165,40 @@ public class TicketOrderService {
 
 
         try {
-
-            final int maxRetry = 3; // 不可再被改變（常數）
-            for (int attempt = 1; attempt <= maxRetry; attempt++) {
-
-                try{ // 每一次嘗試，都在自己的交易裡做
-                    TransactionTemplate tpl = new TransactionTemplate(txManager);
-                    tpl.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW); // 每次重試用新交易
-                    // 一旦某次嘗試拋出 ObjectOptimisticLockingFailureException，外層交易可能被標成 rollback-only，
-                    // 之後的重試也會跟著失敗。設為 REQUIRES_NEW 會 暫停外層交易，讓每次重試都是乾淨的新交易。
-                    tpl.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
-
-                    final int attemptNo = attempt;
-
-                    return tpl.execute(status -> {
-
-                        OrderList orderList = orderListRepo.findById(orderListId)
-                                .orElseThrow(() -> new ResponseStatusException(
-                                        HttpStatus.NOT_FOUND, "Order not found: " + orderListId));
-                        if (!orderList.isPending()) {
-                            throw new ResponseStatusException(HttpStatus.CONFLICT,
-                                    "Order status is " + orderList.getStatus() + " — can only add items in PENDING_PAYMENT");
-                        }
-                        if (orderList.isExpired()) {
-                            throw new ResponseStatusException(HttpStatus.CONFLICT,
-                                    "Order expired at " + orderList.getExpiresAt());
-                        }
-
-                        // 1/ 讀票種（@Version 會在更新時，做版本比對）
-                        TicketType tt = ticketTypeRepo.findByIdWithOptimisticLock(ticketTypeId)
-                                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
-                                                                                    "TicketType not found: " + ticketTypeId));
-                        // ()：參數列表。這裡是空的，表示「不需要參數」。
-                        // ->：意思是「把左邊的參數，交給右邊這段要做的事」。
-
-                        // 2/ 檢查庫存
-                        Integer quota = tt.getQuota() == null ? 0 : tt.getQuota();
-                        if (quota < quantity) {
-                            throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: remain=" + quota + ", need=" + quantity);
-                        }
-
-                        // 3/ 扣庫存 樂觀鎖：版本號改變會在 saveAndFlush 時丟出衝突）
-                        tt.decreaseQuota(quantity);
-                        ticketTypeRepo.saveAndFlush(tt); // 立刻 flush，提早偵測版本衝突
-
-                        // 4/ 建訂單（PENDING_PAYMENT，過期時間先給 30 分鐘）
-
-                        var trySameType = orderDetailRepo.findByOrderListIdAndTicketTypeId(orderListId, ticketTypeId);
-                        if (trySameType.isPresent() ) {
-                            OrderDetail existed = trySameType.get();
-                            int newQty = existed.getQuantity() + quantity;
-                            existed.setQuantity(newQty);
-                            existed.setUnitPrice(tt.getPrice());
-                            existed.recalcCost();
-                            orderList.recalcTotal();
-                        } else {
-                            // 4-1/ 建立訂單明細
-                            OrderDetail orderDetail = new OrderDetail();
-//                            orderDetail.setOrderList(list);
-                            orderDetail.setTicketType(tt);
-                            orderDetail.setQuantity(quantity);
-                            orderDetail.setUnitPrice(tt.getPrice());
-                            orderDetail.recalcCost();
-                            orderList.addItem(orderDetail);
-
-                        }
-
-                        orderList.setStatus(OrderStatus.PENDING_PAYMENT);
-                        orderList.setExpiresAt(LocalDateTime.now().plusMinutes(30));
-
-                        // 5/ 存檔（Cascade.ALL 會一起把 detail 存起來）
-                        OrderList saved = orderListRepo.saveAndFlush(orderList);
-
-                        log.info("reserve() success: user = {}, order = {}, ticketType = {}, quantity = {}, attempt = {}", user.getEmail(), saved.getId(), tt.getId(), quantity, attemptNo);
-
-                        return saved.getId();
-                    });
-
-                } catch (ObjectOptimisticLockingFailureException ex) { // 版本衝突才會進來
-
-                    log.warn("reserve() optimistic lock conflict on ticketType = {}, attempt = {}/{}", ticketTypeId, attempt, maxRetry);
-
-                    if (attempt == maxRetry) {
-                        throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many concurrent reservations, please retry"
-                        ); // 如果已經是最後一次重試，把例外丟出去（在 GlobalExceptionHandler 轉成 409 Conflict）
-                    }
-                    // 進下一輪重試
+            // 每一次嘗試都在自己的交易裡做（一條連線，commit 後馬上還）
+            // 版本衝突 → 整個交易回滾，退避一下（decorrelated jitter）再用新交易重跑；次數 / 時間預算用完回 429
+            AtomicInteger attemptCount = new AtomicInteger();
+            long soldOutGen = soldOut.generation(ticketTypeId); // 開交易（讀 quota）之前記下來，讀到 0 時拿它標記
+            return conflictAsTooMany(() -> attempts.reserve(reservationMode, status -> {
+                int attemptNo = attemptCount.incrementAndGet();
+
+                OrderList orderList = loadPendingOrder(orderListId);
+
+                // 1/ 讀票種（@Version 會在更新時，做版本比對）
+                TicketType tt = ticketTypeRepo.findByIdWithOptimisticLock(ticketTypeId)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+                                                                            "TicketType not found: " + ticketTypeId));
+                // ()：參數列表。這裡是空的，表示「不需要參數」。
+                // ->：意思是「把左邊的參數，交給右邊這段要做的事」。
+
+                // 2/ 檢查庫存
+                Integer quota = tt.getQuota() == null ? 0 : tt.getQuota();
+                if (quota < quantity) {
+                    if (quota == 0) soldOut.markSoldOut(ticketTypeId, soldOutGen);
+                    throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: remain=" + quota + ", need=" + quantity);
                 }
-            }
-            throw new IllegalStateException("Unreachable");
-            // 理論上跑不到這裡（因為成功就 return 了；失敗也在最後一次重試 throw）。這是一個保險。
-            // throw new UnsupportedOperationException("reserve() not implemented yet");
+
+                // 3/ 扣庫存 樂觀鎖：版本號改變會在 saveAndFlush 時丟出衝突）
+                tt.decreaseQuota(quantity);
+                ticketTypeRepo.saveAndFlush(tt); // 立刻 flush，提早偵測版本衝突
+
+                // 4/ 建訂單明細 + 存檔（已直接扣到 ticket_types，pending = 0）
+                OrderList saved = addItemAndSave(orderList, tt, tt.getPrice(), quantity, 0, 0);
+
+                log.info("reserve() success: user = {}, order = {}, ticketType = {}, quantity = {}, attempt = {}", user.getEmail(), saved.getId(), tt.getId(), quantity, attemptNo);
+
+                return saved.getId();
+            }));
         } finally {
 
             if (lockToken != null) {
@@ -207,6 +213,492 @@ public class TicketOrderService {
 
     }
 
+    /**
+     * 一次預約多個票種（購物車）：同一張訂單、同一個交易，要嘛全部成功、要嘛全部不算
+     * 1) 同票種合併數量，依 ticketTypeId 排序（所有人都照同一順序上鎖 / 扣減 → 不會互相死結）
+     * 2) 依目前模式「扣」每一行：
+     *    - LEDGER / REDIS_LUA：交易外先扣計數器，任何一行不夠就把前面扣的還回去
+     *    - GUARDED_UPDATE：交易內逐行有條件 UPDATE，任何一行 0 列就整包回滾
+     *    - STRIPED：交易內逐行扣分片
+     *    - REDIS_HOLD：交易外逐行在 Redis 佔位，任何一行不夠就把前面佔的放掉
+     *    - 其他（OPTIMISTIC / GROUP_COMMIT）：依序拿各票種的 seat 鎖，交易內 @Version 扣減
+     *      GROUP_COMMIT 的單筆預約由 ReservationGroupCommit 的寫入者處理，它不拿 seat 鎖（seat 鎖擋不住它），
+     *      兩邊靠同一個 DB 上鎖順序避開死結：先鎖訂單列，再依 ticketTypeId 動票種列（過期回補也是這個順序）；
+     *      寫入者改過的票種列 version + 1，批次這邊 @Version 衝突整包重試
+     * 3) 只讀一次訂單、只開一個交易（版本衝突才整包重試）
+     * 不加外層 @Transactional：排隊等鎖時不佔 DB 連線
+    **/
+    public Long reserveBatch(Long orderListId, List<OrderDto.ReserveLine> items) {
+        if (orderListId == null) throw new IllegalArgumentException("orderListId is required");
+        if (items == null || items.isEmpty()) throw new IllegalArgumentException("items is required");
+
+        SortedMap<Long, Integer> lines = new TreeMap<>();
+        for (OrderDto.ReserveLine item : items) {
+            if (item == null || item.getTicketTypeId() == null) throw new IllegalArgumentException("ticketTypeId is required");
+            if (item.getQuantity() == null || item.getQuantity() < 1) throw new IllegalArgumentException("quantity must be >= 1");
+            lines.merge(item.getTicketTypeId(), item.getQuantity(), Integer::sum);
+        }
+        lines.keySet().forEach(soldOut::rejectIfSoldOut); // 任何一行已售完，整包直接 409
+
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || auth.getName() == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "No authenticated user");
+        }
+        String email = auth.getName();
+        User user = userService.findByEmail(email).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found: " + email));
+
+        loadPendingOrder(orderListId); // 先擋掉不能加品項的訂單，不用白白上鎖 / 扣計數器
+
+        // LEDGER / REDIS_LUA
+        QuotaCounter counter = quotaCounters.active().orElse(null);
+        if (counter != null) {
+            Map<Long, Integer> acquired = new LinkedHashMap<>();
+            try {
+                for (var line : lines.entrySet()) {
+                    long soldOutGen = soldOut.generation(line.getKey());
+                    if (!counter.tryAcquire(line.getKey(), line.getValue())) {
+                        if (Objects.equals(counter.remaining(line.getKey()), 0)) soldOut.markSoldOut(line.getKey(), soldOutGen);
+                        throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: ticketType=" + line.getKey()
+                                + ", remain=" + counter.remaining(line.getKey()) + ", need=" + line.getValue());
+                    }
+                    acquired.put(line.getKey(), line.getValue());
+                }
+                return applyBatch(user, orderListId, lines, (ticketTypeId, quantity) -> quantity, false, false);
+            } catch (RuntimeException ex) {
+                acquired.forEach(counter::release); // 沒寫成功 → 扣掉的全部還回去
+                throw ex;
+            } finally {
+                acquired.forEach(counter::settled); // 不論成敗，扣掉的張數都已落地（明細 commit 或已還回去）
+            }
+        }
+
+        if (reservationMode == ReservationMode.GUARDED_UPDATE) {
+            return applyBatch(user, orderListId, lines, (ticketTypeId, quantity) -> {
+                if (ticketTypeRepo.applyQuotaDelta(ticketTypeId, -quantity, Instant.now()) == 0) {
+                    soldOut.markIfExhausted(ticketTypeId);
+                    throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: ticketType=" + ticketTypeId + ", need=" + quantity);
+                }
+                return 0;
+            }, false, false);
+        }
+
+        if (reservationMode == ReservationMode.STRIPED) {
+            lines.keySet().forEach(quotaShards::ensureShards);
+            Map<Long, Long> soldOutGens = soldOutGenerations(lines.keySet());
+            return applyBatch(user, orderListId, lines, (ticketTypeId, quantity) -> {
+                quotaShards.take(ticketTypeId, orderListId, quantity, soldOutGens.get(ticketTypeId));
+                return quantity;
+            }, true, false);
+        }
+
+        if (reservationMode == ReservationMode.REDIS_HOLD) {
+            LocalDateTime holdUntil = LocalDateTime.now().plusMinutes(30);
+            Map<Long, Integer> heldLines = new LinkedHashMap<>();
+            try {
+                for (var line : lines.entrySet()) {
+                    if (!seatHolds.hold(line.getKey(), orderListId, line.getValue(), holdUntil)) {
+                        throw new ResponseStatusException(HttpStatus.CONFLICT,
+                                "insufficient quota: ticketType=" + line.getKey() + ", need=" + line.getValue());
+                    }
+                    heldLines.put(line.getKey(), line.getValue());
+                }
+                return applyBatch(user, orderListId, lines, (ticketTypeId, quantity) -> 0, false, true);
+            } catch (RuntimeException ex) {
+                heldLines.forEach((ticketTypeId, quantity) -> seatHolds.release(ticketTypeId, orderListId, quantity));
+                throw ex;
+            }
+        }
+
+        // OPTIMISTIC / GROUP_COMMIT：照 ticketTypeId 由小到大拿鎖（Redis 降級時只有本機鎖，改用有條件 UPDATE）
+        boolean degraded = rLock.isDegraded();
+        Map<Long, String> tokens = new LinkedHashMap<>();
+        Map<Long, Long> soldOutGens = soldOutGenerations(lines.keySet());
+        try {
+            for (Long ticketTypeId : lines.keySet()) {
+                String token = rLock.lockSeat(ticketTypeId, Duration.ofSeconds(5));
+                if (token == null) {
+                    throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many concurrent reservations, please retry");
+                }
+                tokens.put(ticketTypeId, token);
+            }
+
+            return applyBatch(user, orderListId, lines, (ticketTypeId, quantity) -> {
+                if (degraded) {
+                    if (ticketTypeRepo.applyQuotaDelta(ticketTypeId, -quantity, Instant.now()) == 0) {
+                        soldOut.markIfExhausted(ticketTypeId);
+                        throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: ticketType=" + ticketTypeId + ", need=" + quantity);
+                    }
+                    return 0;
+                }
+                TicketType tt = ticketTypeRepo.findByIdWithOptimisticLock(ticketTypeId)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + ticketTypeId));
+                int quota = tt.getQuota() == null ? 0 : tt.getQuota();
+                if (quota < quantity) {
+                    if (quota == 0) soldOut.markSoldOut(ticketTypeId, soldOutGens.get(ticketTypeId));
+                    throw new ResponseStatusException(HttpStatus.CONFLICT,
+                            "insufficient quota: ticketType=" + ticketTypeId + ", remain=" + quota + ", need=" + quantity);
+                }
+                tt.decreaseQuota(quantity);
+                ticketTypeRepo.saveAndFlush(tt); // 立刻 flush，提早偵測版本衝突
+                return 0;
+            }, true, false);
+        } finally {
+            // 反過來放鎖
+            List<Map.Entry<Long, String>> held = new ArrayList<>(tokens.entrySet());
+            Collections.reverse(held);
+            for (var e : held) {
+                try {
+                    rLock.unlockSeat(e.getKey(), e.getValue());
+                } catch (Exception ex) {
+                    log.warn("unlockSeat failed (ignored): ticketTypeId={}, token={}", e.getKey(), e.getValue(), ex);
+                }
+            }
+        }
+    }
+
+    // 批次預約的「扣一行」：回傳這行有幾張要記在 pending_quota（直接扣 ticket_types 的回 0）
+    @FunctionalInterface
+    private interface LineTaker {
+        int take(Long ticketTypeId, int quantity);
+    }
+
+    // 開交易之前先記下每個票種的售完 generation（重試也沿用這份：只會更保守，不會標錯）
+    private Map<Long, Long> soldOutGenerations(Collection<Long> ticketTypeIds) {
+        Map<Long, Long> gens = new HashMap<>();
+        ticketTypeIds.forEach(id -> gens.put(id, soldOut.generation(id)));
+        return gens;
+    }
+
+    // 一個交易跑完整張購物車；retry = true：版本衝突就整包退避重試（ReservationAttempts.reserveBatch），false 只跑一次
+    // held = true：每行的張數都是 Redis 佔位，記在 held_quantity
+    private Long applyBatch(User user, Long orderListId, SortedMap<Long, Integer> lines, LineTaker taker, boolean retry, boolean held) {
+        AtomicInteger attemptCount = new AtomicInteger();
+        TransactionCallback<Long> attempt = status -> {
+            int attemptNo = attemptCount.incrementAndGet();
+            OrderList orderList = loadPendingOrder(orderListId, true); // 先鎖訂單列（上鎖順序：訂單 → 票種）
+
+            for (var line : lines.entrySet()) {
+                Long ticketTypeId = line.getKey();
+                int quantity = line.getValue();
+
+                BigDecimal price = ticketTypeRepo.findPriceById(ticketTypeId)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + ticketTypeId));
+                int pending = taker.take(ticketTypeId, quantity);
+                orderList = addItemAndSave(orderList, em.getReference(TicketType.class, ticketTypeId), price, quantity, pending, held ? quantity : 0);
+            }
+
+            log.info("reserveBatch() success ({}): user = {}, order = {}, lines = {}, attempt = {}",
+                    reservationMode, user.getEmail(), orderList.getId(), lines, attemptNo);
+            return orderList.getId();
+        };
+        return retry
+                ? conflictAsTooMany(() -> attempts.reserveBatch(reservationMode, attempt))
+                : inAttempt(attempt);
+    }
+
+    /**
+     * LEDGER / REDIS_LUA 模式的預約：
+     * 1) 計數器先扣 quantity（記憶體 CAS 或 Redis Lua，一次就知道夠不夠，不夠就直接 409）
+     * 2) 一個短交易：檢查訂單 → 寫明細（pending_quota = quantity，等背景回寫 ticket_types）
+     * 3) 交易失敗 → 把計數器扣掉的補回去
+     * 4) 最後一定 settled：告訴計數器這筆已經落地（REDIS_LUA 靠它決定什麼時候可以從 DB 重新載入）
+    **/
+    private Long reserveWithCounter(QuotaCounter counter, User user, Long orderListId, Long ticketTypeId, int quantity) {
+        long soldOutGen = soldOut.generation(ticketTypeId);
+        if (!counter.tryAcquire(ticketTypeId, quantity)) {
+            if (Objects.equals(counter.remaining(ticketTypeId), 0)) soldOut.markSoldOut(ticketTypeId, soldOutGen);
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "insufficient quota: remain=" + counter.remaining(ticketTypeId) + ", need=" + quantity);
+        }
+
+        try {
+            return inAttempt(status -> {
+                OrderList orderList = loadPendingOrder(orderListId);
+
+                // 只讀票價，不做版本檢查、不更新 ticket_types
+                TicketType tt = ticketTypeRepo.findById(ticketTypeId)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + ticketTypeId));
+
+                OrderList saved = addItemAndSave(orderList, tt, tt.getPrice(), quantity, quantity, 0);
+
+                log.info("reserve() success ({}): user = {}, order = {}, ticketType = {}, quantity = {}",
+                        counter.mode(), user.getEmail(), saved.getId(), ticketTypeId, quantity);
+                return saved.getId();
+            });
+        } catch (RuntimeException ex) {
+            // 明細沒寫成功 → 計數器要還回去，避免少賣
+            counter.release(ticketTypeId, quantity);
+            throw ex;
+        } finally {
+            counter.settled(ticketTypeId, quantity); // pending_quota 已 commit 或已還回去：Redis 計數器可以放行重新載入
+        }
+    }
+
+    /**
+     * GUARDED_UPDATE 模式的預約（一次嘗試、一個短交易）：
+     * 1) 只查票價，不載入 TicketType 實體
+     * 2) UPDATE ticket_types SET quota = quota - n ... WHERE id = ? AND quota >= n
+     *    影響 1 列 = 扣成功；0 列 = 庫存不夠 → 409（不做版本比對，也就沒有衝突重試）
+     * 3) 明細用 em.getReference() 指到票種，不多一次 SELECT
+     * version 一樣 + 1，其他還在用 @Version 的地方（例如過期回補）才不會蓋掉這次的扣減
+    **/
+    private Long reserveGuarded(User user, Long orderListId, Long ticketTypeId, int quantity) {
+        return inAttempt(status -> {
+            OrderList orderList = loadPendingOrder(orderListId);
+
+            BigDecimal price = ticketTypeRepo.findPriceById(ticketTypeId)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + ticketTypeId));
+
+            int updated = ticketTypeRepo.applyQuotaDelta(ticketTypeId, -quantity, Instant.now());
+            if (updated == 0) {
+                soldOut.markIfExhausted(ticketTypeId);
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: need=" + quantity);
+            }
+
+            TicketType ref = em.getReference(TicketType.class, ticketTypeId);
+            OrderList saved = addItemAndSave(orderList, ref, price, quantity, 0, 0);
+
+            log.info("reserve() success (GUARDED_UPDATE): user = {}, order = {}, ticketType = {}, quantity = {}",
+                    user.getEmail(), saved.getId(), ticketTypeId, quantity);
+            return saved.getId();
+        });
+    }
+
+    /**
+     * Redis 降級時的預約（OPTIMISTIC / fencing 模式用）：
+     * 1) lockSeat 這時只拿本機分條鎖（同一台機器同票種排隊，不會一擁而上去撞 DB）
+     * 2) 扣庫存改用 GUARDED_UPDATE 那條有條件 UPDATE：不同節點同時扣也不會超賣，不需要 @Version 重試
+     * Redis 恢復後斷路器自動關上，下一個請求就回到原本的路徑
+    **/
+    private Long reserveDegraded(User user, Long orderListId, Long ticketTypeId, int quantity) {
+        String localToken = rLock.lockSeat(ticketTypeId, Duration.ofSeconds(5));
+        if (localToken == null) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many concurrent reservations, please retry");
+        }
+        try {
+            return reserveGuarded(user, orderListId, ticketTypeId, quantity);
+        } finally {
+            try {
+                rLock.unlockSeat(ticketTypeId, localToken);
+            } catch (Exception ex) {
+                log.warn("unlockSeat failed (ignored): ticketTypeId={}, token={}", ticketTypeId, localToken, ex);
+            }
+        }
+    }
+
+    /**
+     * OPTIMISTIC + fencing 的預約：
+     * 1) 拿租約（短 TTL、背景續約、帶遞增 fencing token），拿不到就 429
+     * 2) 一個短交易：檢查訂單 → UPDATE ... WHERE quota >= n AND fence_token <= 我的號碼 → 寫明細
+     * 3) 0 列時再看 DB 上的號碼：比我大 = 我的鎖早就過期、別人已經寫過 → 整筆不算（429 請重試）；否則就是庫存不夠（409）
+     * 不靠 @Version 重試：持有鎖的人不會撞版本，鎖過期的人由號碼擋下
+    **/
+    private Long reserveFenced(User user, Long orderListId, Long ticketTypeId, int quantity) {
+        RedisLockHelper.Lease lease = rLock.acquireLease(ticketTypeId, Duration.ofMillis(leaseMs));
+        if (lease == null) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many concurrent reservations, please retry");
+        }
+
+        try {
+            return inAttempt(status -> {
+                OrderList orderList = loadPendingOrder(orderListId);
+
+                BigDecimal price = ticketTypeRepo.findPriceById(ticketTypeId)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + ticketTypeId));
+
+                int updated = ticketTypeRepo.applyQuotaDeltaFenced(ticketTypeId, -quantity, lease.getFence(), Instant.now());
+                if (updated == 0) {
+                    long current = ticketTypeRepo.findFenceTokenById(ticketTypeId).orElse(0L);
+                    if (current > lease.getFence()) {
+                        log.warn("reserve() rejected stale fence on ticketType = {}: mine = {}, db = {}, leaseLost = {}",
+                                ticketTypeId, lease.getFence(), current, lease.isLost());
+                        rLock.seedFence(ticketTypeId, current); // Redis 號碼落後 DB（例如 Redis 重建）時墊高
+                        throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Seat lock lease expired, please retry");
+                    }
+                    soldOut.markIfExhausted(ticketTypeId);
+                    throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: need=" + quantity);
+                }
+
+                OrderList saved = addItemAndSave(orderList, em.getReference(TicketType.class, ticketTypeId), price, quantity, 0, 0);
+
+                log.info("reserve() success (fenced): user = {}, order = {}, ticketType = {}, quantity = {}, fence = {}",
+                        user.getEmail(), saved.getId(), ticketTypeId, quantity, lease.getFence());
+                return saved.getId();
+            });
+        } finally {
+            try {
+                rLock.releaseLease(lease);
+            } catch (Exception ex) {
+                log.warn("releaseLease failed (ignored): ticketTypeId={}, fence={}", ticketTypeId, lease.getFence(), ex);
+            }
+        }
+    }
+
+    /**
+     * REDIS_HOLD 模式的預約：
+     * 1) 交易外先在 Redis 佔位（Lua：清掉到期佔位 → 可用 = 快取的 DB quota - 有效佔位 → 夠才佔），不夠就 409
+     * 2) 一個短交易：檢查訂單 → 寫明細（held_quantity += quantity），ticket_types 完全不碰
+     * 3) 交易失敗 → 放掉剛剛的佔位
+     * 沒付款的購物車等佔位到期自己消失；付款確認時 confirmPayment() 才扣 ticket_types.quota
+    **/
+    private Long reserveHeld(User user, Long orderListId, Long ticketTypeId, int quantity) {
+        if (!seatHolds.hold(ticketTypeId, orderListId, quantity, LocalDateTime.now().plusMinutes(30))) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota: need=" + quantity);
+        }
+
+        try {
+            return inAttempt(status -> {
+                OrderList orderList = loadPendingOrder(orderListId);
+
+                BigDecimal price = ticketTypeRepo.findPriceById(ticketTypeId)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + ticketTypeId));
+
+                OrderList saved = addItemAndSave(orderList, em.getReference(TicketType.class, ticketTypeId), price, quantity, 0, quantity);
+
+                log.info("reserve() success (REDIS_HOLD): user = {}, order = {}, ticketType = {}, quantity = {}",
+                        user.getEmail(), saved.getId(), ticketTypeId, quantity);
+                return saved.getId();
+            });
+        } catch (RuntimeException ex) {
+            seatHolds.release(ticketTypeId, orderListId, quantity);
+            throw ex;
+        }
+    }
+
+    /**
+     * STRIPED 模式的預約：
+     * 1) 確保票種已切好分片（第一次用到才切）
+     * 2) 每次嘗試一個新交易：檢查訂單 → 從本家分片扣（不夠就往其他分片找）→ 寫明細（pending_quota = quantity）
+     * 3) 分片版本衝突就退避重試（次數 / 預算見 ReservationAttempts.reserveStriped）；
+     *    大家分散在不同分片上，衝突機率比搶同一列低很多
+    **/
+    private Long reserveStriped(User user, Long orderListId, Long ticketTypeId, int quantity) {
+        quotaShards.ensureShards(ticketTypeId);
+
+        AtomicInteger attemptCount = new AtomicInteger();
+        long soldOutGen = soldOut.generation(ticketTypeId);
+        return conflictAsTooMany(() -> attempts.reserveStriped(reservationMode, status -> {
+            int attemptNo = attemptCount.incrementAndGet();
+            OrderList orderList = loadPendingOrder(orderListId);
+
+            TicketType tt = ticketTypeRepo.findById(ticketTypeId)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + ticketTypeId));
+
+            quotaShards.take(ticketTypeId, orderListId, quantity, soldOutGen);
+
+            OrderList saved = addItemAndSave(orderList, tt, tt.getPrice(), quantity, quantity, 0);
+
+            log.info("reserve() success (STRIPED): user = {}, order = {}, ticketType = {}, quantity = {}, attempt = {}",
+                    user.getEmail(), saved.getId(), ticketTypeId, quantity, attemptNo);
+            return saved.getId();
+        }));
+    }
+
+    /**
+     * 版本衝突重試用完（ReservationAttempts 上的 @OptimisticRetry 丟出最後一次的衝突）→ 429，讓使用者稍後再試
+    **/
+    private static Long conflictAsTooMany(Supplier<Long> call) {
+        try {
+            return call.get();
+        } catch (OptimisticLockingFailureException ex) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many concurrent reservations, please retry");
+        }
+    }
+
+    // 跑一次嘗試（不重試）：一個新交易 = 一條連線，連線佔用時間記在 reservation.connection.hold
+    private <T> T inAttempt(TransactionCallback<T> action) {
+        return attempts.once(reservationMode, action);
+    }
+
+    // 在交易內重讀訂單，確認仍是「待付款且未過期」
+    private OrderList loadPendingOrder(Long orderListId) {
+        return loadPendingOrder(orderListId, false);
+    }
+
+    // forUpdate = true：鎖住訂單列再檢查（鎖之前的狀態可能已經被過期回補改掉）
+    private OrderList loadPendingOrder(Long orderListId, boolean forUpdate) {
+        OrderList orderList = orderListRepo.findById(orderListId)
+                .orElseThrow(() -> new ResponseStatusException(
+                        HttpStatus.NOT_FOUND, "Order not found: " + orderListId));
+        if (forUpdate) em.refresh(orderList, LockModeType.PESSIMISTIC_WRITE);
+        if (!orderList.isPending()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Order status is " + orderList.getStatus() + " — can only add items in PENDING_PAYMENT");
+        }
+        if (orderList.isExpired()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Order expired at " + orderList.getExpiresAt());
+        }
+        LocalDateTime maxAt = maxExpiresAt(orderList);
+        if (maxAt != null && !maxAt.isAfter(LocalDateTime.now())) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Order reached its max lifetime at " + maxAt + " — please start a new order");
+        }
+        return orderList;
+    }
+
+    // 這張訂單最晚只能到期在什麼時候（還沒存過、沒有 create_at 的新訂單 → null，不限制）
+    private LocalDateTime maxExpiresAt(OrderList orderList) {
+        if (orderList.getCreateAt() == null) return null;
+        return LocalDateTime.ofInstant(orderList.getCreateAt(), ZoneId.systemDefault()).plusHours(orderMaxAgeHours);
+    }
+
+    /**
+     * 把 quantity 張加進訂單（同票種就合併數量），並延長到期時間後存檔
+     * unitPrice：票價（GUARDED_UPDATE 的 tt 只是 getReference 的殼，票價另外查）
+     * pendingQuota：這次有幾張「還沒扣到 ticket_types.quota」（直接扣 DB 的模式傳 0）
+     * heldQuantity：這次有幾張只在 Redis 佔位（REDIS_HOLD 才有，付款確認才扣 ticket_types）
+    **/
+    private OrderList addItemAndSave(OrderList orderList, TicketType tt, BigDecimal unitPrice, int quantity, int pendingQuota, int heldQuantity) {
+        Long orderListId = orderList.getId();
+
+        var trySameType = orderDetailRepo.findByOrderListIdAndTicketTypeId(orderListId, tt.getId());
+        if (trySameType.isPresent() ) {
+            OrderDetail existed = trySameType.get();
+            // 鎖住這筆明細並重讀：背景回寫（QuotaWriteBehind.settle）可能剛把 pending_quota 歸零，
+            // 拿沒鎖的舊值加上去會把已回寫的張數又記一次
+            em.refresh(existed, LockModeType.PESSIMISTIC_WRITE);
+            int newQty = existed.getQuantity() + quantity;
+            existed.setQuantity(newQty);
+            existed.setPendingQuota(existed.getPendingQuota() + pendingQuota);
+            existed.setHeldQuantity(existed.getHeldQuantity() + heldQuantity);
+            existed.setUnitPrice(unitPrice);
+            existed.recalcCost();
+            orderList.recalcTotal();
+        } else {
+            // 建立訂單明細
+            OrderDetail orderDetail = new OrderDetail();
+//            orderDetail.setOrderList(list);
+            orderDetail.setTicketType(tt);
+            orderDetail.setQuantity(quantity);
+            orderDetail.setPendingQuota(pendingQuota);
+            orderDetail.setHeldQuantity(heldQuantity);
+            orderDetail.setUnitPrice(unitPrice);
+            orderDetail.recalcCost();
+            orderList.addItem(orderDetail);
+
+        }
+
+        // PENDING_PAYMENT，過期時間先給 30 分鐘（但不超過訂單建立後 max-age-hours）
+        orderList.setStatus(OrderStatus.PENDING_PAYMENT);
+        LocalDateTime expiresAt = LocalDateTime.now().plusMinutes(30);
+        LocalDateTime maxAt = maxExpiresAt(orderList);
+        orderList.setExpiresAt(maxAt != null && maxAt.isBefore(expiresAt) ? maxAt : expiresAt);
+
+        // 存檔（Cascade.ALL 會一起把 detail 存起來）
+        OrderList saved = orderListRepo.saveAndFlush(orderList);
+        expiryScheduler.scheduleOrder(saved.getId(), saved.getExpiresAt()); // commit 後放進到期索引（到點就回補）
+
+        // 訂單延長了，其他票種的 Redis 佔位也要跟著延，不然付款前就先到期被別人買走
+        for (OrderDetail od : saved.getDetail()) {
+            if (od.getHeldQuantity() != null && od.getHeldQuantity() > 0 && od.getTicketType() != null
+                    && !Objects.equals(od.getTicketType().getId(), tt.getId())) {
+                seatHolds.extend(od.getTicketType().getId(), orderListId, saved.getExpiresAt());
+            }
+        }
+        return saved;
+    }
+
     /**
      * 把訂單從 PENDING_PAYMENT → CONFIRMED：
      * 1) 依 orderListId 找訂單
@@ -259,7 +751,19 @@ public class TicketOrderService {
             throw new ResponseStatusException(HttpStatus.CONFLICT, "No confirmed payment found for this order");
         }
 
-        // 6/ 轉為 CONFIRMED and SAVE
+        // 6/ REDIS_HOLD 的佔位轉正：這時候才真的扣 ticket_types.quota（有條件 UPDATE，扣不下去就整筆回滾）
+        for (OrderDetail od : detail.getDetail()) {
+            int held = od.getHeldQuantity() == null ? 0 : od.getHeldQuantity();
+            if (held <= 0 || od.getTicketType() == null) continue;
+            Long ticketTypeId = od.getTicketType().getId();
+            if (ticketTypeRepo.applyQuotaDelta(ticketTypeId, -held, Instant.now()) == 0) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "insufficient quota to confirm held seats: ticketType=" + ticketTypeId);
+            }
+            od.setHeldQuantity(0);
+            seatHolds.convertAfterCommit(ticketTypeId, orderListId);
+        }
+
+        // 7/ 轉為 CONFIRMED and SAVE
         detail.setStatus(OrderStatus.CONFIRMED);
         OrderList saved = orderListRepo.save(detail);
 
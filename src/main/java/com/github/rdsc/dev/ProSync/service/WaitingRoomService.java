@@ -0,0 +1,320 @@
+package com.github.rdsc.dev.ProSync.service;
+
+import com.github.rdsc.dev.ProSync.dto.WaitingRoomDto;
+import com.github.rdsc.dev.ProSync.repository.TicketTypeRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 虛擬等候室（大型活動開賣時擋在 create-order 前面）：
+ * - 管理員對某活動「開門」後，使用者要先 join 拿一個號碼牌（token + position），用 INCR 發號
+ * - 每秒放行 ratePerSecond 個號碼（admitted 水位往上推），多節點一起跑也只會推一次（每秒一個 NX tick key）
+ * - create-order 帶 X-Queue-Token，號碼 <= 放行水位才讓它進 reserve()，否則 429
+ * - 一張號碼牌只能用在一張訂單：第一次用就綁定（新訂單先佔 "new"，建好後改成訂單 id），
+ *   之後只能繼續往同一張訂單加購；拿同一張號碼牌再開新訂單 → 409
+ * - 查狀態只讀 Redis，不碰 DB，客戶端輪詢也不會打爆後端
+ * 這樣 reserve() 收到的流量就固定在設定的速率，不會一開賣就全部擠進來再互相 429 重試。
+ * Key 長相：
+ *   wr:active                      → 目前開著等候室的活動 id（SET）
+ *   wr:{eventId}:seq               → 已發出的最大號碼
+ *   wr:{eventId}:admitted          → 已放行到幾號
+ *   wr:{eventId}:rate              → 每秒放行幾個（沒設就用預設值）
+ *   wr:{eventId}:user:{email}      → 這個人的 "token|position"（重複 join 拿回同一張）
+ *   wr:{eventId}:token:{token}     → "email|position"
+ *   wr:{eventId}:bound:{token}     → 這張號碼牌綁定的訂單 id（建單中是 "new"）
+**/
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class WaitingRoomService {
+
+    private static final String PREFIX = "wr:";
+    private static final String ACTIVE_KEY = PREFIX + "active";
+
+    // 發號：同一個人重複 join 直接回舊的；否則 INCR 拿新號碼，同時寫 user / token 兩把 key
+    private static final DefaultRedisScript<String> JOIN_SCRIPT = new DefaultRedisScript<>(
+            "local existing = redis.call('get', KEYS[1]) " +
+                    "if existing then return existing end " +
+                    "local pos = redis.call('incr', KEYS[2]) " +
+                    "local v = ARGV[1] .. '|' .. pos " +
+                    "redis.call('set', KEYS[1], v, 'EX', ARGV[3]) " +
+                    "redis.call('set', KEYS[3], ARGV[2] .. '|' .. pos, 'EX', ARGV[3]) " +
+                    "return v",
+            String.class
+    );
+
+    // 放行：同一秒只有第一個節點推得動（tick key NX），水位不會超過已發出的號碼
+    private static final DefaultRedisScript<Long> ADVANCE_SCRIPT = new DefaultRedisScript<>(
+            "if not redis.call('set', KEYS[3], '1', 'NX', 'EX', 5) then return -1 end " +
+                    "local seq = tonumber(redis.call('get', KEYS[2]) or '0') " +
+                    "local adm = tonumber(redis.call('get', KEYS[1]) or '0') " +
+                    "local nxt = math.min(seq, adm + tonumber(ARGV[1])) " +
+                    "if nxt > adm then redis.call('set', KEYS[1], nxt) end " +
+                    "return nxt",
+            Long.class
+    );
+
+    // 綁定號碼牌：還沒綁 → 綁上（沒帶訂單 id 先佔 "new"）；已綁同一張訂單 → 放行；其他 → 0
+    private static final DefaultRedisScript<Long> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local cur = redis.call('get', KEYS[1]) " +
+                    "if not cur then " +
+                    "  local v = ARGV[1] " +
+                    "  if v == '' then v = 'new' end " +
+                    "  redis.call('set', KEYS[1], v, 'EX', ARGV[2]) " +
+                    "  return 1 " +
+                    "end " +
+                    "if ARGV[1] ~= '' and cur == ARGV[1] then return 1 end " +
+                    "return 0",
+            Long.class
+    );
+
+    // 建單失敗：放掉 "new" 的佔位，讓同一張號碼牌可以重試（已經綁到訂單的不動）
+    private static final DefaultRedisScript<Long> UNCLAIM_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == 'new' then return redis.call('del', KEYS[1]) end " +
+                    "return 0",
+            Long.class
+    );
+
+    /**
+     * checkAdmitted 的結果：這次請求佔用了哪些活動的號碼牌（等候室沒開 / fail open 時是空的）
+     * 建單成功 → bind(訂單 id)；失敗 → release()
+    **/
+    public record Admission(List<Long> eventIds, String token) {
+        public static final Admission NONE = new Admission(List.of(), null);
+    }
+
+    private final StringRedisTemplate redis;
+    private final TicketTypeRepository ticketTypeRepo;
+
+    @Value("${app.waiting-room.enabled:false}")
+    private boolean enabled;                // 總開關（關掉時 create-order 完全不檢查）
+
+    @Value("${app.waiting-room.default-rate-per-second:50}")
+    private int defaultRate;                // 沒特別設定時，每秒放行幾個
+
+    @Value("${app.waiting-room.token-ttl-minutes:30}")
+    private long tokenTtlMinutes;           // 號碼牌有效時間
+
+    // ticketTypeId → eventId（票種不會換活動，查過一次就記起來，檢查時不用每次打 DB）
+    private final ConcurrentMap<Long, Long> eventIdByTicketType = new ConcurrentHashMap<>();
+
+    // 管理員開門：設定放行速率，之後 create-order 就要排隊
+    public void open(Long eventId, Integer ratePerSecond) {
+        int rate = ratePerSecond == null ? defaultRate : ratePerSecond;
+        if (rate < 1) throw new IllegalArgumentException("ratePerSecond must be >= 1");
+        redis.opsForValue().set(key(eventId, "rate"), String.valueOf(rate));
+        redis.opsForSet().add(ACTIVE_KEY, String.valueOf(eventId));
+        log.info("WaitingRoom opened: eventId = {}, ratePerSecond = {}", eventId, rate);
+    }
+
+    // 管理員關門：不再檢查號碼牌（號碼與水位留著，自然過期前重開可以接著用）
+    public void close(Long eventId) {
+        redis.opsForSet().remove(ACTIVE_KEY, String.valueOf(eventId));
+        log.info("WaitingRoom closed: eventId = {}", eventId);
+    }
+
+    public boolean isOpen(Long eventId) {
+        return Boolean.TRUE.equals(redis.opsForSet().isMember(ACTIVE_KEY, String.valueOf(eventId)));
+    }
+
+    // 排隊拿號碼（同一個人重複呼叫拿到同一張）
+    public WaitingRoomDto.QueueStatus join(Long eventId, String email) {
+        if (!isOpen(eventId)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Waiting room is not open for event " + eventId);
+        }
+        String token = UUID.randomUUID().toString();
+        long ttlSeconds = Duration.ofMinutes(tokenTtlMinutes).toSeconds();
+
+        String v = redis.execute(JOIN_SCRIPT,
+                List.of(key(eventId, "user:" + email), key(eventId, "seq"), key(eventId, "token:" + token)),
+                token, email, String.valueOf(ttlSeconds));
+        if (v == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Waiting room unavailable");
+        }
+        String[] parts = v.split("\\|");
+        return status(eventId, parts[0], Long.parseLong(parts[1]));
+    }
+
+    // 查自己的位置（只讀 Redis）
+    public WaitingRoomDto.QueueStatus status(Long eventId, String token) {
+        String v = token == null ? null : redis.opsForValue().get(key(eventId, "token:" + token));
+        if (v == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Queue token not found or expired");
+        }
+        return status(eventId, token, Long.parseLong(v.split("\\|")[1]));
+    }
+
+    /**
+     * create-order 前的檢查：這些票種所屬的活動開著等候室時，號碼牌要存在、是本人的、已經輪到，
+     * 而且沒被別張訂單用過（orderListId = null 代表要開新訂單）
+     * 同一活動的多個票種共用同一張號碼牌，只檢查 / 佔用一次
+     * Redis 掛掉時放行（fail open）：reserve() 本身還有鎖 / 庫存檢查擋著，不至於因為等候室壞掉就整個停賣
+    **/
+    public Admission checkAdmitted(Collection<Long> ticketTypeIds, String token, String email, Long orderListId) {
+        if (!enabled) return Admission.NONE;
+
+        List<Long> eventIds = ticketTypeIds.stream().map(this::eventIdOf).distinct().toList();
+        List<Long> claimed = new ArrayList<>();
+        try {
+            for (Long eventId : eventIds) {
+                if (admit(eventId, token, email, orderListId)) claimed.add(eventId);
+            }
+        } catch (RuntimeException ex) {
+            release(new Admission(claimed, token)); // 後面的活動沒過：前面佔的放掉
+            throw ex;
+        }
+        return claimed.isEmpty() ? Admission.NONE : new Admission(List.copyOf(claimed), token);
+    }
+
+    // 建單成功：號碼牌綁到這張訂單（之後只能往這張訂單加購）
+    public void bind(Admission admission, Long orderListId) {
+        if (admission == null || admission.eventIds().isEmpty() || orderListId == null) return;
+        Duration ttl = Duration.ofMinutes(tokenTtlMinutes);
+        for (Long eventId : admission.eventIds()) {
+            try {
+                redis.opsForValue().set(key(eventId, "bound:" + admission.token()), String.valueOf(orderListId), ttl);
+            } catch (RuntimeException ex) {
+                log.warn("WaitingRoom bind failed (ignored): eventId = {}, orderListId = {}", eventId, orderListId, ex);
+            }
+        }
+    }
+
+    // 建單失敗：放掉 "new" 的佔位
+    public void release(Admission admission) {
+        if (admission == null || admission.eventIds().isEmpty()) return;
+        for (Long eventId : admission.eventIds()) {
+            try {
+                redis.execute(UNCLAIM_SCRIPT, List.of(key(eventId, "bound:" + admission.token())));
+            } catch (RuntimeException ex) {
+                log.warn("WaitingRoom release failed (ignored): eventId = {}", eventId, ex);
+            }
+        }
+    }
+
+    // 回傳 true = 這個活動開著等候室、號碼牌已佔用；false = 沒開 / Redis 出錯放行
+    private boolean admit(Long eventId, String token, String email, Long orderListId) {
+        String v;
+        long admittedUpTo;
+        try {
+            if (!isOpen(eventId)) return false;
+            v = token == null || token.isBlank() ? null : redis.opsForValue().get(key(eventId, "token:" + token));
+            admittedUpTo = readLong(key(eventId, "admitted"));
+        } catch (RuntimeException ex) {
+            log.warn("WaitingRoom check skipped (redis error): eventId = {}", eventId, ex);
+            return false;
+        }
+
+        if (v == null) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                    "Waiting room is active for event " + eventId + ", join the queue first");
+        }
+        String[] parts = v.split("\\|");
+        if (!Objects.equals(parts[0], email)) {
+            throw new AccessDeniedException("Forbidden: queue token belongs to another user");
+        }
+        long position = Long.parseLong(parts[1]);
+        if (position > admittedUpTo) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                    "Not admitted yet: position=" + position + ", admitted=" + admittedUpTo);
+        }
+
+        Long claimed;
+        try {
+            claimed = redis.execute(CLAIM_SCRIPT, List.of(key(eventId, "bound:" + token)),
+                    orderListId == null ? "" : String.valueOf(orderListId),
+                    String.valueOf(Duration.ofMinutes(tokenTtlMinutes).toSeconds()));
+        } catch (RuntimeException ex) {
+            log.warn("WaitingRoom claim skipped (redis error): eventId = {}", eventId, ex);
+            return false;
+        }
+        if (claimed == null || claimed == 0) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Queue token is already used for another order");
+        }
+        return true;
+    }
+
+    private Long eventIdOf(Long ticketTypeId) {
+        return eventIdByTicketType.computeIfAbsent(ticketTypeId, id ->
+                ticketTypeRepo.findEventIdById(id)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "TicketType not found: " + id)));
+    }
+
+    // 每秒把各個開著的等候室往前放行一批
+    @Scheduled(
+            fixedDelayString = "${app.jobs.waiting-room.tick-ms:1000}",
+            initialDelayString = "${app.jobs.waiting-room.initial-delay-ms:5000}"
+    )
+    public void advance() {
+        if (!enabled) return;
+
+        Set<String> events;
+        try {
+            events = redis.opsForSet().members(ACTIVE_KEY);
+        } catch (RuntimeException ex) {
+            log.warn("WaitingRoom advance skipped (redis error)", ex);
+            return;
+        }
+        if (events == null || events.isEmpty()) return;
+
+        long second = Instant.now().getEpochSecond();
+        for (String e : events) {
+            Long eventId = Long.valueOf(e);
+            try {
+                int rate = rateOf(eventId);
+                redis.execute(ADVANCE_SCRIPT,
+                        List.of(key(eventId, "admitted"), key(eventId, "seq"), key(eventId, "tick:" + second)),
+                        String.valueOf(rate));
+            } catch (RuntimeException ex) {
+                log.warn("WaitingRoom advance failed: eventId = {}", eventId, ex);
+            }
+        }
+    }
+
+    public WaitingRoomDto.RoomStats stats(Long eventId) {
+        long joined = readLong(key(eventId, "seq"));
+        long admittedUpTo = readLong(key(eventId, "admitted"));
+        return new WaitingRoomDto.RoomStats(eventId, isOpen(eventId), rateOf(eventId),
+                joined, admittedUpTo, Math.max(0, joined - admittedUpTo));
+    }
+
+    private WaitingRoomDto.QueueStatus status(Long eventId, String token, long position) {
+        long admittedUpTo = readLong(key(eventId, "admitted"));
+        long ahead = Math.max(0, position - admittedUpTo);
+        int rate = rateOf(eventId);
+        long waitSeconds = ahead == 0 ? 0 : (ahead + rate - 1) / rate; // 無條件進位
+        return new WaitingRoomDto.QueueStatus(eventId, token, position, admittedUpTo, ahead, ahead == 0, waitSeconds);
+    }
+
+    private int rateOf(Long eventId) {
+        String v = redis.opsForValue().get(key(eventId, "rate"));
+        return v == null ? defaultRate : Integer.parseInt(v);
+    }
+
+    private long readLong(String key) {
+        String v = redis.opsForValue().get(key);
+        return v == null ? 0L : Long.parseLong(v);
+    }
+
+    private String key(Long eventId, String suffix) {
+        return PREFIX + eventId + ":" + suffix;
+    }
+}
@@ -0,0 +1,6 @@
+-- Fencing token：拿到 seat:{id} 鎖時順便從 Redis INCR 拿一個遞增號碼
+-- 寫 ticket_types 時帶上號碼，只接受「號碼 >= 目前記錄」的寫入；
+-- 鎖過期（GC 停頓、DB 慢）後還在寫的舊持有者號碼比較小，會被擋下來，不會重複扣
+
+ALTER TABLE ticket_types
+    ADD COLUMN fence_token BIGINT NOT NULL DEFAULT 0 AFTER quota;
@@ -0,0 +1,15 @@
+-- 排程工作的進度游標：依 (expires_at, id) 做 keyset 分頁，一輪跑不完（時間預算用完）下一輪從這裡接著跑
+-- 每批處理完，和那批資料在同一個交易裡更新游標 → 節點重啟也不會重做 / 漏掉
+-- 掃到底（一批不滿）就歸回起點，下一輪從頭再掃一次（被 SKIP LOCKED 跳過的會在那時補上）
+
+CREATE TABLE IF NOT EXISTS job_cursors (
+    job_name VARCHAR(64) PRIMARY KEY,              -- 例：restock-orders / expire-payments
+    last_expires_at DATETIME(6) NOT NULL,          -- 上一批最後一筆的 expires_at（起點 = 1970-01-01）
+    last_id BIGINT NOT NULL DEFAULT 0,             -- 同一個 expires_at 內的 id
+    update_at DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) ON UPDATE CURRENT_TIMESTAMP(6)
+)ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 先放好兩列：排程用 SELECT ... FOR UPDATE 鎖游標，多節點同時跑時一次只有一個在推進
+INSERT IGNORE INTO job_cursors (job_name, last_expires_at, last_id) VALUES
+    ('restock-orders', '1970-01-01 00:00:00', 0),
+    ('expire-payments', '1970-01-01 00:00:00', 0);
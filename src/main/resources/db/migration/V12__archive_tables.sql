@@ -0,0 +1,53 @@
+-- 冷資料封存：已結束（CONFIRMED / EXPIRED / CANCELLED）且超過保留天數的訂單，連同明細、付款單
+-- 整批搬到 *_archive，熱表（排程掃描、下單路徑的索引）只留最近的資料
+-- 欄位跟熱表一樣（多一個 archived_at），不設外鍵：封存資料不該擋住熱表或票種的刪除
+-- ※ 之後熱表加欄位時，這裡也要加，OrderArchiveService 的欄位清單也要跟著改
+
+CREATE TABLE IF NOT EXISTS order_list_archive (
+    id BIGINT PRIMARY KEY,
+    user_id BIGINT NOT NULL,
+    status VARCHAR(32) NOT NULL,
+    total_cost DECIMAL(18,2) NOT NULL DEFAULT 0.00,
+    expires_at DATETIME(6) NULL,
+    create_at DATETIME(6) NOT NULL,
+    update_at DATETIME(6) NOT NULL,
+    archived_at DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6),
+
+    INDEX idx_order_list_archive_by_user_id_create_at (user_id, create_at)   -- /my 歷史訂單
+)ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS order_detail_archive (
+    id BIGINT PRIMARY KEY,
+    order_list_id BIGINT NOT NULL,
+    ticket_type_id BIGINT NOT NULL,
+    quantity INT NOT NULL,
+    pending_quota INT NOT NULL DEFAULT 0,
+    held_quantity INT NOT NULL DEFAULT 0,
+    unit_price DECIMAL(18,2) NOT NULL,
+    cost DECIMAL(18,2) NOT NULL,
+    create_at DATETIME(6) NOT NULL,
+    update_at DATETIME(6) NOT NULL,
+    archived_at DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6),
+
+    INDEX idx_order_detail_archive_by_order_list_id (order_list_id)
+)ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS payments_archive (
+    id BIGINT PRIMARY KEY,
+    order_list_id BIGINT NOT NULL,
+    asset VARCHAR(20) NOT NULL,
+    quote_rate DECIMAL(18, 8) NOT NULL,
+    amount_crypto DECIMAL(38, 18) NOT NULL,
+    tx_hash VARCHAR(128) NULL,
+    status VARCHAR(20) NOT NULL,
+    expires_at DATETIME(6) NOT NULL,
+    create_at DATETIME(6) NOT NULL,
+    update_at DATETIME(6) NOT NULL,
+    archived_at DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6),
+
+    INDEX idx_payments_archive_by_order_list_id (order_list_id),
+    INDEX idx_payments_archive_by_tx_hash (tx_hash)   -- 查鏈上交易有沒有被用過（熱表的 UNIQUE 管不到封存的）
+)ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 封存排程找候選：status IN (...) AND update_at < 截止日，依 id 分批
+CREATE INDEX idx_order_list_by_status_update_at ON order_list(status, update_at);
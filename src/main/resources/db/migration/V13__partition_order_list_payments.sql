@@ -0,0 +1,77 @@
+-- order_list / payments 依 create_at 按月分區（RANGE COLUMNS）：
+-- 排程、後台查詢帶 create_at 範圍時只掃相關月份，不用每次走整棵含全部歷史的 B-tree；
+-- 舊月份（封存搬空後）直接 DROP PARTITION，不用大量 DELETE
+-- MySQL 分區表的限制：
+-- 1) 不能有外鍵（不能參照別人、也不能被參照）→ 三條外鍵拿掉，關聯改由程式維護（封存 / 刪除都是程式明確處理子表）
+-- 2) 每個 UNIQUE / PRIMARY KEY 都要包含分區欄位 → PK 改成 (id, create_at)；
+--    payments.tx_hash 的唯一性搬到 payment_tx_hashes（不分區的小表），封存後也一樣擋得住重複
+-- 初始分區：p_hist（本月以前）、本月和往後 3 個月各一個分區、p_max（MAXVALUE，保持是空的）；
+-- 之後每個月的分區由 PartitionMaintenance 排程提前切出來（REORGANIZE 空的 p_max 只改定義、不搬資料）
+
+-- 1/ tx_hash 唯一性（含已封存的）
+CREATE TABLE IF NOT EXISTS payment_tx_hashes (
+    tx_hash VARCHAR(128) PRIMARY KEY,
+    payment_id BIGINT NOT NULL,
+    create_at DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6)
+)ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+INSERT IGNORE INTO payment_tx_hashes (tx_hash, payment_id)
+    SELECT tx_hash, id FROM payments WHERE tx_hash IS NOT NULL;
+INSERT IGNORE INTO payment_tx_hashes (tx_hash, payment_id)
+    SELECT tx_hash, id FROM payments_archive WHERE tx_hash IS NOT NULL;
+
+-- 2/ 拿掉外鍵（用 information_schema 找名字：dev 環境可能還有 Hibernate ddl-auto 建的、名字不一樣的外鍵）
+SET @fks = (SELECT GROUP_CONCAT(DISTINCT CONCAT('DROP FOREIGN KEY `', CONSTRAINT_NAME, '`') SEPARATOR ', ')
+            FROM information_schema.KEY_COLUMN_USAGE
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'order_detail' AND REFERENCED_TABLE_NAME = 'order_list');
+SET @stmt = IF(@fks IS NULL, 'DO 0', CONCAT('ALTER TABLE order_detail ', @fks));
+PREPARE s FROM @stmt;
+EXECUTE s;
+DEALLOCATE PREPARE s;
+
+SET @fks = (SELECT GROUP_CONCAT(DISTINCT CONCAT('DROP FOREIGN KEY `', CONSTRAINT_NAME, '`') SEPARATOR ', ')
+            FROM information_schema.KEY_COLUMN_USAGE
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'payments' AND REFERENCED_TABLE_NAME IS NOT NULL);
+SET @stmt = IF(@fks IS NULL, 'DO 0', CONCAT('ALTER TABLE payments ', @fks));
+PREPARE s FROM @stmt;
+EXECUTE s;
+DEALLOCATE PREPARE s;
+
+SET @fks = (SELECT GROUP_CONCAT(DISTINCT CONCAT('DROP FOREIGN KEY `', CONSTRAINT_NAME, '`') SEPARATOR ', ')
+            FROM information_schema.KEY_COLUMN_USAGE
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'order_list' AND REFERENCED_TABLE_NAME IS NOT NULL);
+SET @stmt = IF(@fks IS NULL, 'DO 0', CONCAT('ALTER TABLE order_list ', @fks));
+PREPARE s FROM @stmt;
+EXECUTE s;
+DEALLOCATE PREPARE s;
+
+-- 3/ 主鍵帶上分區欄位；tx_hash 改成一般索引
+ALTER TABLE order_list
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, create_at);
+
+ALTER TABLE payments
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, create_at),
+    DROP INDEX uk_payments_tx_hash,
+    ADD INDEX idx_payments_by_tx_hash (tx_hash);
+
+-- 4/ 分區：邊界依 migration 執行當下的月份算（現有的資料都在 p_hist / 本月，新資料不會落進 p_max）
+SET @m0 = DATE(DATE_FORMAT(CURDATE(), '%Y-%m-01'));
+SET @parts = CONCAT(
+        'PARTITION p_hist VALUES LESS THAN (''', @m0, ' 00:00:00''), ',
+        'PARTITION p', DATE_FORMAT(@m0, '%Y%m'), ' VALUES LESS THAN (''', @m0 + INTERVAL 1 MONTH, ' 00:00:00''), ',
+        'PARTITION p', DATE_FORMAT(@m0 + INTERVAL 1 MONTH, '%Y%m'), ' VALUES LESS THAN (''', @m0 + INTERVAL 2 MONTH, ' 00:00:00''), ',
+        'PARTITION p', DATE_FORMAT(@m0 + INTERVAL 2 MONTH, '%Y%m'), ' VALUES LESS THAN (''', @m0 + INTERVAL 3 MONTH, ' 00:00:00''), ',
+        'PARTITION p', DATE_FORMAT(@m0 + INTERVAL 3 MONTH, '%Y%m'), ' VALUES LESS THAN (''', @m0 + INTERVAL 4 MONTH, ' 00:00:00''), ',
+        'PARTITION p_max VALUES LESS THAN (MAXVALUE)');
+
+SET @stmt = CONCAT('ALTER TABLE order_list PARTITION BY RANGE COLUMNS (create_at) (', @parts, ')');
+PREPARE s FROM @stmt;
+EXECUTE s;
+DEALLOCATE PREPARE s;
+
+SET @stmt = CONCAT('ALTER TABLE payments PARTITION BY RANGE COLUMNS (create_at) (', @parts, ')');
+PREPARE s FROM @stmt;
+EXECUTE s;
+DEALLOCATE PREPARE s;
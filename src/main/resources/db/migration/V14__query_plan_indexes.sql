@@ -0,0 +1,42 @@
+-- 依 QueryPlanIntegrationTest 的 EXPLAIN 結果補齊的複合索引（每條 repository 查詢都要走索引、不能 filesort）
+
+-- ORDER LIST
+-- /my 歷史訂單：WHERE user_id = ? ORDER BY create_at DESC（原本只有外鍵留下的 user_id 單欄索引 → filesort）
+CREATE INDEX idx_order_list_by_user_id_create_at ON order_list(user_id, create_at);
+-- 過期掃描：WHERE status = ? AND expires_at < ? ORDER BY expires_at, id（原本 status、expires_at 各一個單欄索引，只能挑一個用）
+CREATE INDEX idx_order_list_by_status_expires_at_id ON order_list(status, expires_at, id);
+-- status 單欄索引被 (status, expires_at, id) / (status, update_at) 涵蓋
+DROP INDEX idx_order_list_by_status ON order_list;
+
+-- V5 外鍵自動建的 user_id 索引（外鍵在 V13 拿掉了），被 (user_id, create_at) 涵蓋
+SET @idx = (SELECT INDEX_NAME FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'order_list' AND INDEX_NAME = 'fk_order_list_dep_user_id' LIMIT 1);
+SET @stmt = IF(@idx IS NULL, 'DO 0', 'DROP INDEX fk_order_list_dep_user_id ON order_list');
+PREPARE s FROM @stmt;
+EXECUTE s;
+DEALLOCATE PREPARE s;
+
+-- PAYMENTS
+-- 過期掃描：同 order_list
+CREATE INDEX idx_payments_by_status_expires_at_id ON payments(status, expires_at, id);
+-- 最新一筆某狀態的報價：WHERE order_list_id = ? AND status = ? ORDER BY create_at DESC LIMIT 1
+CREATE INDEX idx_payments_by_order_list_id_status_create_at ON payments(order_list_id, status, create_at);
+-- 被上面兩個涵蓋
+DROP INDEX idx_payments_by_status ON payments;
+DROP INDEX idx_payments_by_order_list_id ON payments;
+
+-- EVENTS
+-- organizer_id 一直是 Hibernate ddl-auto 加的（migration 裡沒有）：沒有就補欄位，再補索引（主辦方查自己的活動）
+SET @col = (SELECT COUNT(*) FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'events' AND COLUMN_NAME = 'organizer_id');
+SET @stmt = IF(@col = 0, 'ALTER TABLE events ADD COLUMN organizer_id BIGINT NULL', 'DO 0');
+PREPARE s FROM @stmt;
+EXECUTE s;
+DEALLOCATE PREPARE s;
+
+SET @idx = (SELECT COUNT(*) FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'events' AND COLUMN_NAME = 'organizer_id' AND SEQ_IN_INDEX = 1);
+SET @stmt = IF(@idx = 0, 'CREATE INDEX idx_events_by_organizer_id ON events(organizer_id)', 'DO 0');
+PREPARE s FROM @stmt;
+EXECUTE s;
+DEALLOCATE PREPARE s;
@@ -0,0 +1,11 @@
+-- 記憶體帳本（LEDGER）模式：明細先記「已售出但還沒回寫到 ticket_types.quota」的張數
+-- 背景工作把 pending_quota 加總後一次扣回 ticket_types，再把 pending_quota 歸零
+-- 重啟時：可用量 = ticket_types.quota - SUM(pending_quota)，不會因為記憶體消失而超賣
+
+ALTER TABLE order_detail
+    ADD COLUMN pending_quota INT NOT NULL DEFAULT 0 AFTER quantity;
+
+-- 背景回寫：先找「有哪些票種還有待回寫」
+CREATE INDEX idx_order_detail_by_pending_quota ON order_detail(pending_quota, ticket_type_id);
+-- 回寫單一票種時 SELECT ... FOR UPDATE，只鎖該票種的待回寫明細
+CREATE INDEX idx_order_detail_by_ticket_type_id_pending_quota ON order_detail(ticket_type_id, pending_quota);
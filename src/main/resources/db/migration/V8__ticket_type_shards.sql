@@ -0,0 +1,17 @@
+-- 票種配額分片（STRIPED 模式）：把一個熱門票種的可用張數拆成 N 列，每列有自己的 version
+-- 大家不再搶同一列 ticket_types / 同一個 version，衝突機率大約變成 1/N
+-- 分片裡扣掉的張數記在 order_detail.pending_quota，再由背景回寫 ticket_types.quota
+
+CREATE TABLE IF NOT EXISTS ticket_type_shards (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    ticket_type_id BIGINT NOT NULL,
+    shard_no INT NOT NULL,                 -- 0 ~ N-1
+    quota INT NOT NULL,                    -- 這個分片目前可用張數
+    version BIGINT NOT NULL DEFAULT 0,     -- 每個分片各自的樂觀鎖版本
+    create_at DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6),
+    update_at DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) ON UPDATE CURRENT_TIMESTAMP(6),
+
+    CONSTRAINT fk_ticket_type_shards_dep_ticket_type_id FOREIGN KEY (ticket_type_id) REFERENCES ticket_types(id) ON DELETE CASCADE,
+    CONSTRAINT uk_ticket_type_shards_ticket_type_id_shard_no UNIQUE (ticket_type_id, shard_no)
+    -- 唯一鍵 (ticket_type_id, shard_no) 同時當作「依票種查全部分片」的索引
+)ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
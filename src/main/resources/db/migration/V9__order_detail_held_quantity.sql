@@ -0,0 +1,6 @@
+-- REDIS_HOLD 模式：預約只在 Redis 佔位（有 TTL），ticket_types.quota 要等付款確認才扣
+-- held_quantity = 這筆明細還在 Redis 佔位、還沒扣到 ticket_types 的張數
+-- 付款確認時一次扣 ticket_types.quota 並歸零；過期回補時這幾張不用加回 DB（本來就沒扣）
+
+ALTER TABLE order_detail
+    ADD COLUMN held_quantity INT NOT NULL DEFAULT 0 AFTER pending_quota;
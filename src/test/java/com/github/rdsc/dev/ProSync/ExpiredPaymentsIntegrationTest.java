@@ -0,0 +1,169 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.PaymentStatus;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.ExpiredService;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 付款單過期（一頁一條 UPDATE ... WHERE id IN (...)）：
+ * 1) expirePendingByIds 只改「還是 PENDING、真的過期」的那幾筆：中間付款成功的、到期時間還沒到的都不動
+ * 2) 一頁 2 筆、要過期 5 筆（其中 3 筆 expires_at 一樣）→ 跨頁用 (expires_at, id) 接續，每筆都改到、沒有漏
+ * 3) 時間預算 0：一輪只跑一頁就停，游標存在 job_cursors，下一輪從那裡接著跑；掃到底游標歸回起點
+ * 排程關掉、不搶叢集租約（別的測試 context 可能還拿著），直接呼叫 expirePaymentsService()
+**/
+@SpringBootTest(properties = {
+        "app.jobs.expire-payments.chunk-size=2",
+        "app.jobs.expire-payments.initial-delay-ms=3600000",
+        "app.jobs.coordination.enabled=false"
+})
+class ExpiredPaymentsIntegrationTest {
+
+    @Resource ExpiredService es;
+    @Resource UserRepository ur;
+    @Resource OrderListRepository lr;
+    @Resource PaymentRepository pr;
+    @Resource JobCursorRepository cr;
+    @Resource PlatformTransactionManager txManager;
+
+    // 過期付款不會用到鎖；一樣 mock 掉，避免依賴本機 Redis
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @Test
+    @DisplayName("expirePendingByIds：只改 PENDING 且已過期的，付款成功 / 還沒到期的不動")
+    void set_based_update_only_touches_expired_pending() {
+        OrderList ol = newOrder();
+        LocalDateTime now = LocalDateTime.now();
+
+        Payment expired = newPayment(ol, PaymentStatus.PENDING, now.minusMinutes(5));
+        Payment confirmed = newPayment(ol, PaymentStatus.CONFIRMED, now.minusMinutes(5)); // 過期前剛好付款成功
+        Payment future = newPayment(ol, PaymentStatus.PENDING, now.plusMinutes(10));
+
+        Integer n = new TransactionTemplate(txManager).execute(s -> pr.expirePendingByIds(
+                List.of(expired.getId(), confirmed.getId(), future.getId()), now, Instant.now()));
+
+        assertThat(n).isEqualTo(1);
+        assertThat(pr.findById(expired.getId()).orElseThrow().getStatus()).isEqualTo(PaymentStatus.EXPIRED);
+        assertThat(pr.findById(confirmed.getId()).orElseThrow().getStatus()).isEqualTo(PaymentStatus.CONFIRMED);
+        assertThat(pr.findById(future.getId()).orElseThrow().getStatus()).isEqualTo(PaymentStatus.PENDING);
+    }
+
+    @Test
+    @DisplayName("expirePaymentsService：一頁 2 筆，5 筆過期（3 筆同一個 expires_at）跨頁都改到")
+    void chunks_cover_every_expired_payment() {
+        OrderList ol = newOrder();
+        LocalDateTime sameAt = LocalDateTime.now().minusMinutes(30).truncatedTo(ChronoUnit.SECONDS);
+
+        List<Long> ids = new ArrayList<>();
+        ids.add(newPayment(ol, PaymentStatus.PENDING, sameAt.minusMinutes(1)).getId());
+        for (int i = 0; i < 3; i++) {
+            ids.add(newPayment(ol, PaymentStatus.PENDING, sameAt).getId()); // 同一個時間點：靠 id 決定先後
+        }
+        ids.add(newPayment(ol, PaymentStatus.PENDING, sameAt.plusMinutes(1)).getId());
+        Long notYet = newPayment(ol, PaymentStatus.PENDING, LocalDateTime.now().plusMinutes(10)).getId();
+
+        // 游標可能停在別的測試留下的位置：最多跑幾輪，掃到底會從頭再來
+        for (int run = 0; run < 5 && !allExpired(ids); run++) {
+            es.expirePaymentsService();
+        }
+
+        assertThat(ids).allSatisfy(id ->
+                assertThat(pr.findById(id).orElseThrow().getStatus()).isEqualTo(PaymentStatus.EXPIRED));
+        assertThat(pr.findById(notYet).orElseThrow().getStatus()).isEqualTo(PaymentStatus.PENDING);
+    }
+
+    @Test
+    @DisplayName("expirePaymentsService：時間預算用完 → 一輪只跑一頁，游標記在 job_cursors，下一輪接著跑")
+    void budget_stops_after_one_page_and_cursor_resumes() {
+        OrderList ol = newOrder();
+        // 挑一個沒人用的時間點（兩天前），游標直接放在它前面：第一頁就是這裡建的付款單
+        LocalDateTime at = LocalDateTime.now().minusDays(2).truncatedTo(ChronoUnit.SECONDS);
+        Long p1 = newPayment(ol, PaymentStatus.PENDING, at).getId();
+        Long p2 = newPayment(ol, PaymentStatus.PENDING, at).getId();
+        Long p3 = newPayment(ol, PaymentStatus.PENDING, at.plusSeconds(1)).getId();
+
+        JobCursor cursor = cr.findById("expire-payments").orElseGet(() -> JobCursor.start("expire-payments"));
+        cursor.advance(at.minusSeconds(1), 0L);
+        cr.save(cursor);
+
+        ExpiredService target = AopTestUtils.getTargetObject(es);
+        Object budget = ReflectionTestUtils.getField(target, "paymentsBudgetMs");
+        ReflectionTestUtils.setField(target, "paymentsBudgetMs", 0L);
+        try {
+            // 1/ 一輪只跑一頁（2 筆）：p3 還沒輪到，游標停在 (at, p2)
+            assertThat(es.expirePaymentsService()).isEqualTo(2);
+            assertThat(pr.findById(p1).orElseThrow().getStatus()).isEqualTo(PaymentStatus.EXPIRED);
+            assertThat(pr.findById(p2).orElseThrow().getStatus()).isEqualTo(PaymentStatus.EXPIRED);
+            assertThat(pr.findById(p3).orElseThrow().getStatus()).isEqualTo(PaymentStatus.PENDING);
+
+            JobCursor saved = cr.findById("expire-payments").orElseThrow();
+            assertThat(saved.getLastExpiresAt()).isEqualTo(at);
+            assertThat(saved.getLastId()).isEqualTo(p2);
+
+            // 2/ 下一輪從游標接著跑：p3 改到；一路跑到底，游標歸回起點
+            es.expirePaymentsService();
+            assertThat(pr.findById(p3).orElseThrow().getStatus()).isEqualTo(PaymentStatus.EXPIRED);
+            for (int run = 0; run < 20 && !cr.findById("expire-payments").orElseThrow().atStart(); run++) {
+                es.expirePaymentsService();
+            }
+            assertThat(cr.findById("expire-payments").orElseThrow().atStart()).isTrue();
+        } finally {
+            ReflectionTestUtils.setField(target, "paymentsBudgetMs", budget);
+        }
+    }
+
+    private boolean allExpired(List<Long> ids) {
+        return pr.findAllById(ids).stream().allMatch(p -> p.getStatus() == PaymentStatus.EXPIRED);
+    }
+
+    private OrderList newOrder() {
+        final String email = "expire-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("500.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        return lr.save(ol);
+    }
+
+    private Payment newPayment(OrderList ol, PaymentStatus status, LocalDateTime expiresAt) {
+        return pr.save(Payment.builder()
+                .orderList(ol)
+                .asset("BTC")
+                .quoteRate(new BigDecimal("1000000.00000000"))
+                .amountCrypto(new BigDecimal("0.000500000000000000"))
+                .status(status)
+                .expiresAt(expiresAt)
+                .build());
+    }
+}
@@ -83,6 +83,7 @@ class ExpiredServiceIntegrationTest {
         // 2/ 預留 1 張（讓訂單有金額，方便支付模擬）
         Mockito.when(rlock.lockSeat(Mockito.anyLong(), Mockito.any())).thenReturn("test-token");
         Mockito.doNothing().when(rlock).unlockSeat(Mockito.anyLong(), Mockito.anyString());
+        Mockito.when(rlock.isDegraded()).thenReturn(false); // 明確走 OPTIMISTIC 路徑（不靠 mock 的預設值）
         ts.reserve(ol.getId(), t.getId(), 1);
 
         // 3/ 建一筆「已過期」的 PENDING 付款
@@ -141,6 +142,7 @@ class ExpiredServiceIntegrationTest {
         // 2/ 預留 3 張（庫存 10 → 7）
         Mockito.when(rlock.lockSeat(Mockito.anyLong(), Mockito.any())).thenReturn("test-token");
         Mockito.doNothing().when(rlock).unlockSeat(Mockito.anyLong(), Mockito.anyString());
+        Mockito.when(rlock.isDegraded()).thenReturn(false); // 明確走 OPTIMISTIC 路徑（不靠 mock 的預設值）
         ts.reserve(ol.getId(), t.getId(), 3);
 
         // 3/ 手動把訂單設為「已過期」
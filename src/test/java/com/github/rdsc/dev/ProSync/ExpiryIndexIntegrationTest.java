@@ -0,0 +1,199 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.PaymentStatus;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.ExpiryScheduler;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 到期索引（要本機 Redis，連不上就略過）：
+ * 1) 到點的訂單正被別的交易鎖住（SKIP LOCKED 跳過）→ 不會就這樣掉出索引，放回去 retry-delay-ms 後再試
+ * 2) 同一批裡已經付款的訂單 → 不放回去
+ * 3) 鎖放掉、再到點 → 準時過期，離開索引
+ * 4) 拿出來了但 DB 上其實還沒到期（延長了 / 毫秒進位差）的訂單、付款單 → 不丟掉，放回它自己的到期時間
+ * 背景輪詢延後一小時，這個 context 只有測試自己呼叫 poll()
+**/
+@SpringBootTest(properties = {
+        "app.expiry-index.retry-delay-ms=60000",
+        "app.jobs.expiry-index.initial-delay-ms=3600000"
+})
+class ExpiryIndexIntegrationTest {
+
+    private static final String ORDER_KEY = "expiry:order";
+    private static final String PAYMENT_KEY = "expiry:payment";
+
+    @Resource ExpiryScheduler scheduler;
+    @Resource StringRedisTemplate redis;
+    @Resource JdbcTemplate jdbc;
+    @Resource PlatformTransactionManager txManager;
+
+    @Resource UserRepository ur;
+    @Resource OrderListRepository lr;
+    @Resource PaymentRepository pr;
+
+    // 到期索引不會用到 seat 鎖；一樣 mock 掉
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @Test
+    @DisplayName("ExpiryIndex：被鎖住跳過的訂單放回索引稍後再試；已付款的不放回；鎖放掉後準時過期")
+    void skipped_locked_orders_are_requeued() throws Exception {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+
+        Long locked = newOrder(OrderStatus.PENDING_PAYMENT).getId();
+        Long paid = newOrder(OrderStatus.CONFIRMED).getId();
+
+        // 1/ 另一個交易鎖住 locked（例如付款確認正在跑）
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() ->
+                new TransactionTemplate(txManager).executeWithoutResult(s -> {
+                    jdbc.queryForList("SELECT id FROM order_list WHERE id = ? FOR UPDATE", Long.class, locked);
+                    held.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+
+        try {
+            assertThat(held.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // 2/ 兩張都到點：locked 被跳過 → 放回去、分數往後推；paid 已經付款 → 不放回
+            long dueAt = System.currentTimeMillis() - 1000;
+            redis.opsForZSet().add(ORDER_KEY, String.valueOf(locked), dueAt);
+            redis.opsForZSet().add(ORDER_KEY, String.valueOf(paid), dueAt);
+
+            long before = System.currentTimeMillis();
+            scheduler.poll();
+
+            assertThat(lr.findById(locked).orElseThrow().getStatus()).isEqualTo(OrderStatus.PENDING_PAYMENT);
+            Double requeuedAt = redis.opsForZSet().score(ORDER_KEY, String.valueOf(locked));
+            assertThat(requeuedAt).isNotNull();
+            assertThat(requeuedAt.longValue()).isGreaterThan(before); // 往後推了（其他測試 context 的輪詢也可能先拿到，用它自己的 retry-delay）
+            assertThat(redis.opsForZSet().score(ORDER_KEY, String.valueOf(paid))).isNull();
+        } finally {
+            release.countDown();
+            holder.get(10, TimeUnit.SECONDS);
+        }
+
+        try {
+            // 3/ 鎖放掉了；不等 retry-delay，直接把它調成到點 → 這次過期，離開索引
+            redis.opsForZSet().add(ORDER_KEY, String.valueOf(locked), System.currentTimeMillis() - 1000);
+            scheduler.poll();
+
+            assertThat(lr.findById(locked).orElseThrow().getStatus()).isEqualTo(OrderStatus.EXPIRED);
+            assertThat(redis.opsForZSet().score(ORDER_KEY, String.valueOf(locked))).isNull();
+        } finally {
+            redis.opsForZSet().remove(ORDER_KEY, String.valueOf(locked), String.valueOf(paid));
+        }
+    }
+
+    @Test
+    @DisplayName("ExpiryIndex：拿出來但還沒到期、仍待付款的訂單 / 付款單 → 放回自己的到期時間，不等 DB 掃描")
+    void popped_but_not_yet_due_is_requeued_at_its_deadline() {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+
+        // 到期時間帶微秒，而且還沒到（例如剛延長，索引裡的舊分數還在）
+        LocalDateTime later = LocalDateTime.now().plusMinutes(10).withNano(123_456_000);
+        OrderList order = newOrder(OrderStatus.PENDING_PAYMENT, later);
+        Payment payment = pr.save(Payment.builder()
+                .orderList(order)
+                .asset("BTC")
+                .quoteRate(new BigDecimal("1000000.00000000"))
+                .amountCrypto(new BigDecimal("0.000500000000000000"))
+                .status(PaymentStatus.PENDING)
+                .expiresAt(later)
+                .build());
+        String orderMember = String.valueOf(order.getId());
+        String paymentMember = String.valueOf(payment.getId());
+
+        try {
+            long dueAt = System.currentTimeMillis() - 1000;
+            redis.opsForZSet().add(ORDER_KEY, orderMember, dueAt);
+            redis.opsForZSet().add(PAYMENT_KEY, paymentMember, dueAt);
+
+            scheduler.poll();
+
+            // DB 沒動
+            assertThat(lr.findById(order.getId()).orElseThrow().getStatus()).isEqualTo(OrderStatus.PENDING_PAYMENT);
+            assertThat(pr.findById(payment.getId()).orElseThrow().getStatus()).isEqualTo(PaymentStatus.PENDING);
+
+            // 放回索引，分數 = DB 上的到期時間（進位到毫秒）
+            long orderDue = ceilMillis(lr.findById(order.getId()).orElseThrow().getExpiresAt());
+            long paymentDue = ceilMillis(pr.findById(payment.getId()).orElseThrow().getExpiresAt());
+            Double orderScore = redis.opsForZSet().score(ORDER_KEY, orderMember);
+            Double paymentScore = redis.opsForZSet().score(PAYMENT_KEY, paymentMember);
+            assertThat(orderScore).isNotNull();
+            assertThat(paymentScore).isNotNull();
+            assertThat(orderScore.longValue()).isEqualTo(orderDue);
+            assertThat(paymentScore.longValue()).isEqualTo(paymentDue);
+        } finally {
+            redis.opsForZSet().remove(ORDER_KEY, orderMember);
+            redis.opsForZSet().remove(PAYMENT_KEY, paymentMember);
+        }
+    }
+
+    private static long ceilMillis(LocalDateTime t) {
+        Instant at = t.atZone(ZoneId.systemDefault()).toInstant();
+        return at.getNano() % 1_000_000 == 0 ? at.toEpochMilli() : at.toEpochMilli() + 1;
+    }
+
+    private OrderList newOrder(OrderStatus status) {
+        return newOrder(status, LocalDateTime.now().minusMinutes(1)); // 已經到期
+    }
+
+    private OrderList newOrder(OrderStatus status, LocalDateTime expiresAt) {
+        final String email = "expiry-index-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(status);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(expiresAt);
+        return lr.save(ol);
+    }
+}
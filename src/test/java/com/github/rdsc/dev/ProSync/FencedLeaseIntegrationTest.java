@@ -0,0 +1,210 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.TicketOrderService;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * fencing token（要本機 Redis，連不上就略過；這裡用真的 RedisLockHelper）：
+ * 1) applyQuotaDeltaFenced：號碼比 DB 上記錄的小 → 0 列，quota 不動
+ * 2) 租約持有中：背景續約撐過 TTL，別人（本機其他執行緒 / 其他節點 SET NX）都拿不到
+ * 3) 租約過期被別的節點接手：舊持有者續約發現 lost，帶舊號碼的寫入被 DB 擋掉，放鎖也不會刪到別人的鎖
+ * 4) Redis 號碼落後 DB（Redis 重建）：reserve 回 429 並墊高號碼，下一次就能正常寫入
+**/
+@SpringBootTest(properties = {
+        "app.locks.seat.fencing.enabled=true",
+        "app.locks.seat.fencing.lease-ms=300"
+})
+class FencedLeaseIntegrationTest {
+
+    @Resource RedisLockHelper rlock;
+    @Resource StringRedisTemplate redis;
+    @Resource TicketOrderService ts;
+
+    @Resource UserRepository ur;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+    @Resource OrderListRepository lr;
+    @Resource PlatformTransactionManager txManager;
+
+    private Long ticketTypeId;
+
+    @BeforeEach
+    void setUp() {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+
+        Event e = new Event();
+        e.setName("Fencing Test");
+        e.setDescription("Fencing token testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Fenced");
+        t.setPrice(new BigDecimal("100.00"));
+        t.setQuota(10);
+        tr.save(t);
+        ticketTypeId = t.getId();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        if (ticketTypeId == null) return;
+        redis.delete(List.of("seat:" + ticketTypeId, "seat:" + ticketTypeId + ":fence"));
+    }
+
+    @Test
+    @DisplayName("fencing：號碼比 DB 小的寫入 → 0 列；號碼相同或更大才寫得進去")
+    void stale_fence_is_rejected_by_db() {
+        assertThat(fenced(-1, 5)).isEqualTo(1);
+        assertThat(fenced(-1, 4)).isZero();
+        assertThat(fenced(-1, 5)).isEqualTo(1);
+
+        TicketType after = tr.findById(ticketTypeId).orElseThrow();
+        assertThat(after.getQuota()).isEqualTo(8);
+        assertThat(after.getFenceToken()).isEqualTo(5L);
+    }
+
+    @Test
+    @DisplayName("fencing：持有中背景續約撐過 TTL，其他執行緒 / 其他節點都拿不到；放掉後才拿得到")
+    void lease_is_renewed_and_exclusive() throws Exception {
+        RedisLockHelper.Lease lease = rlock.acquireLease(ticketTypeId, Duration.ofMillis(300));
+        assertThat(lease).isNotNull();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            // 1/ 超過 TTL 兩倍還是自己的鎖（續約中）
+            Thread.sleep(700);
+            assertThat(redis.opsForValue().get("seat:" + ticketTypeId)).isEqualTo(lease.getToken());
+            assertThat(lease.isLost()).isFalse();
+
+            // 2/ 本機其他執行緒、其他節點（直接 SET NX）都拿不到
+            assertThat(pool.submit(() -> rlock.acquireLease(ticketTypeId, Duration.ofMillis(300))).get(5, TimeUnit.SECONDS)).isNull();
+            assertThat(redis.opsForValue().setIfAbsent("seat:" + ticketTypeId, "other-node", Duration.ofSeconds(5))).isFalse();
+        } finally {
+            rlock.releaseLease(lease);
+        }
+
+        // 3/ 放掉之後別的執行緒拿得到，號碼比較大
+        RedisLockHelper.Lease next = pool.submit(() -> rlock.acquireLease(ticketTypeId, Duration.ofMillis(300))).get(5, TimeUnit.SECONDS);
+        try {
+            assertThat(next).isNotNull();
+            assertThat(next.getFence()).isGreaterThan(lease.getFence());
+        } finally {
+            pool.submit(() -> rlock.releaseLease(next)).get(5, TimeUnit.SECONDS);
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("fencing：租約過期被其他節點接手 → 舊持有者 lost，舊號碼寫不進去，放鎖不會刪到別人的鎖")
+    void expired_lease_cannot_write_after_takeover() throws Exception {
+        RedisLockHelper.Lease stale = rlock.acquireLease(ticketTypeId, Duration.ofMillis(300));
+        assertThat(stale).isNotNull();
+        try {
+            // 1/ 模擬舊持有者卡住、鎖過期：其他節點拿到鎖並取號
+            redis.delete("seat:" + ticketTypeId);
+            assertThat(redis.opsForValue().setIfAbsent("seat:" + ticketTypeId, "other-node", Duration.ofSeconds(5))).isTrue();
+            Long otherFence = redis.opsForValue().increment("seat:" + ticketTypeId + ":fence");
+            assertThat(otherFence).isGreaterThan(stale.getFence());
+
+            // 2/ 下一輪續約發現鎖不是自己的 → lost
+            long deadline = System.currentTimeMillis() + 2000;
+            while (!stale.isLost()) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(20);
+            }
+
+            // 3/ 新持有者先寫；舊持有者醒來帶舊號碼寫 → 0 列
+            assertThat(fenced(-2, otherFence)).isEqualTo(1);
+            assertThat(fenced(-3, stale.getFence())).isZero();
+            assertThat(tr.findById(ticketTypeId).orElseThrow().getQuota()).isEqualTo(8);
+        } finally {
+            rlock.releaseLease(stale);
+        }
+
+        // 4/ 舊持有者放鎖只放自己的，其他節點的鎖還在
+        assertThat(redis.opsForValue().get("seat:" + ticketTypeId)).isEqualTo("other-node");
+    }
+
+    @Test
+    @DisplayName("fencing：Redis 號碼落後 DB → reserve 回 429 並墊高號碼，重試就成功")
+    @WithMockUser(username = "fence-test@example.com", roles = {"USER"})
+    void redis_fence_behind_db_is_reseeded() {
+        final String email = "fence-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        Long olId = lr.save(ol).getId();
+
+        // 1/ 正常預約：DB 記下這次的號碼
+        ts.reserve(olId, ticketTypeId, 1);
+        long dbFence = tr.findById(ticketTypeId).orElseThrow().getFenceToken();
+        assertThat(dbFence).isPositive();
+
+        // 2/ Redis 重建，號碼從頭算 → 比 DB 小，寫不進去 → 429，quota 不動
+        redis.opsForValue().set("seat:" + ticketTypeId + ":fence", "0");
+        assertThatThrownBy(() -> ts.reserve(olId, ticketTypeId, 1))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS));
+        assertThat(tr.findById(ticketTypeId).orElseThrow().getQuota()).isEqualTo(9);
+        assertThat(Long.parseLong(redis.opsForValue().get("seat:" + ticketTypeId + ":fence"))).isEqualTo(dbFence);
+
+        // 3/ 號碼已經墊高：重試成功
+        ts.reserve(olId, ticketTypeId, 1);
+        assertThat(tr.findById(ticketTypeId).orElseThrow().getQuota()).isEqualTo(8);
+        assertThat(tr.findById(ticketTypeId).orElseThrow().getFenceToken()).isGreaterThan(dbFence);
+    }
+
+    // @Modifying 的 UPDATE 要在交易裡跑
+    private int fenced(int delta, long fence) {
+        Integer n = new TransactionTemplate(txManager)
+                .execute(s -> tr.applyQuotaDeltaFenced(ticketTypeId, delta, fence, Instant.now()));
+        return n == null ? 0 : n;
+    }
+}
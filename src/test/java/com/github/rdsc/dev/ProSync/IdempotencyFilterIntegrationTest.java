@@ -0,0 +1,253 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.rdsc.dev.ProSync.security.IdempotencyFilter;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import jakarta.annotation.Resource;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Idempotency-Key（要本機 Redis，連不上就略過）：
+ * 1) 同一把 key、同一個 body 重送 → 直接回存好的結果，不再進 Controller
+ * 2) 同一把 key、不同 body → 422（ErrorDto）
+ * 3) 第一個還在跑，重送的等到上限 → 409（ErrorDto）
+ * 4) 第一個跑得比「處理中」標記的 TTL 還久：標記一直續約，重送的不會趁過期跟它同時跑
+ * 5) Controller 用非同步讀取（setReadListener）：直接通知可讀 / 讀完，讀得到整個 body
+ * 直接呼叫 filter，Controller 用一個計數的 FilterChain 代替
+**/
+@SpringBootTest
+class IdempotencyFilterIntegrationTest {
+
+    private static final String PATH = "/api/public/orders/create-order";
+    private static final String EMAIL = "idem-test@example.com";
+
+    @Resource IdempotencyFilter filter;
+    @Resource StringRedisTemplate redis;
+    @Resource ObjectMapper objectMapper;
+
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @BeforeEach
+    void setUp() {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+        authenticate();
+    }
+
+    @AfterEach
+    void clearAuth() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    @DisplayName("Idempotency：同 key 同 body 重送 → 回放第一次的結果；不同 body → 422")
+    void replay_and_body_mismatch() throws Exception {
+        String key = UUID.randomUUID().toString();
+        AtomicInteger calls = new AtomicInteger();
+        FilterChain controller = (rq, rs) -> {
+            calls.incrementAndGet();
+            HttpServletResponse r = (HttpServletResponse) rs;
+            r.setStatus(201);
+            r.setContentType("application/json");
+            r.getWriter().write("{\"orderListId\":42}");
+        };
+
+        MockHttpServletResponse first = send(key, "{\"ticketTypeId\":1,\"quantity\":2}", controller);
+        assertThat(first.getStatus()).isEqualTo(201);
+
+        MockHttpServletResponse again = send(key, "{\"ticketTypeId\":1,\"quantity\":2}", controller);
+        assertThat(again.getStatus()).isEqualTo(201);
+        assertThat(again.getContentAsString()).isEqualTo("{\"orderListId\":42}");
+        assertThat(again.getHeader("Idempotent-Replayed")).isEqualTo("true");
+        assertThat(calls.get()).isEqualTo(1); // 重送沒有再進 Controller
+
+        MockHttpServletResponse mismatch = send(key, "{\"ticketTypeId\":1,\"quantity\":3}", controller);
+        assertThat(mismatch.getStatus()).isEqualTo(422);
+        JsonNode err = objectMapper.readTree(mismatch.getContentAsString());
+        assertThat(err.get("status").asInt()).isEqualTo(422);
+        assertThat(err.get("error").asText()).isEqualTo("Unprocessable Entity");
+        assertThat(err.get("message").asText()).contains("different request body");
+        assertThat(err.get("path").asText()).isEqualTo(PATH);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Idempotency：第一個還在處理，重送的等到上限 → 409")
+    void in_progress_returns_conflict() throws Exception {
+        IdempotencyFilter target = AopTestUtils.getTargetObject(filter);
+        Object originalWait = ReflectionTestUtils.getField(target, "waitMs");
+        ReflectionTestUtils.setField(target, "waitMs", 200L);
+
+        String key = UUID.randomUUID().toString();
+        String body = "{\"ticketTypeId\":1,\"quantity\":1}";
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        FilterChain slowController = (rq, rs) -> {
+            entered.countDown();
+            try {
+                finish.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            ((HttpServletResponse) rs).setStatus(200);
+        };
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<MockHttpServletResponse> first = pool.submit(() -> {
+                authenticate();
+                return send(key, body, slowController);
+            });
+            assertThat(entered.await(10, TimeUnit.SECONDS)).isTrue();
+
+            MockHttpServletResponse retry = send(key, body, (rq, rs) -> {
+                throw new AssertionError("retry must not reach the controller while the first is in flight");
+            });
+            assertThat(retry.getStatus()).isEqualTo(409);
+            JsonNode err = objectMapper.readTree(retry.getContentAsString());
+            assertThat(err.get("status").asInt()).isEqualTo(409);
+            assertThat(err.get("message").asText()).contains("still in progress");
+
+            finish.countDown();
+            assertThat(first.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(200);
+        } finally {
+            finish.countDown();
+            pool.shutdown();
+            ReflectionTestUtils.setField(target, "waitMs", originalWait);
+        }
+    }
+
+    @Test
+    @DisplayName("Idempotency：第一個跑超過「處理中」的 TTL → 標記有續約，重送的還是等它（409），不會重複執行")
+    void in_flight_claim_is_renewed_while_running() throws Exception {
+        IdempotencyFilter target = AopTestUtils.getTargetObject(filter);
+        Object originalWait = ReflectionTestUtils.getField(target, "waitMs");
+        Object originalTtl = ReflectionTestUtils.getField(target, "inFlightTtlSeconds");
+        ReflectionTestUtils.setField(target, "waitMs", 200L);
+        ReflectionTestUtils.setField(target, "inFlightTtlSeconds", 1L);
+
+        String key = UUID.randomUUID().toString();
+        String body = "{\"ticketTypeId\":1,\"quantity\":1}";
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        FilterChain slowController = (rq, rs) -> {
+            calls.incrementAndGet();
+            entered.countDown();
+            try {
+                finish.await(10, TimeUnit.SECONDS); // 例如排隊等 seat 鎖 / group commit 批次
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            ((HttpServletResponse) rs).setStatus(200);
+        };
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<MockHttpServletResponse> first = pool.submit(() -> {
+                authenticate();
+                return send(key, body, slowController);
+            });
+            assertThat(entered.await(10, TimeUnit.SECONDS)).isTrue();
+
+            Thread.sleep(2500); // 超過 1 秒的 TTL 兩倍多
+
+            MockHttpServletResponse retry = send(key, body, slowController);
+            assertThat(retry.getStatus()).isEqualTo(409);
+            assertThat(calls.get()).isEqualTo(1);
+
+            finish.countDown();
+            assertThat(first.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(200);
+        } finally {
+            finish.countDown();
+            pool.shutdown();
+            ReflectionTestUtils.setField(target, "waitMs", originalWait);
+            ReflectionTestUtils.setField(target, "inFlightTtlSeconds", originalTtl);
+        }
+    }
+
+    @Test
+    @DisplayName("Idempotency：Controller 用 setReadListener 非同步讀 body → 收到可讀 / 讀完通知，內容完整")
+    void cached_body_supports_read_listener() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String body = "{\"ticketTypeId\":1,\"quantity\":4}";
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        List<String> events = new CopyOnWriteArrayList<>();
+        FilterChain asyncController = (rq, rs) -> {
+            ServletInputStream in = rq.getInputStream();
+            in.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    events.add("available");
+                    int b;
+                    while (in.isReady() && !in.isFinished() && (b = in.read()) != -1) read.write(b);
+                }
+
+                @Override
+                public void onAllDataRead() {
+                    events.add("done");
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    events.add("error");
+                }
+            });
+            ((HttpServletResponse) rs).setStatus(201);
+        };
+
+        assertThat(send(key, body, asyncController).getStatus()).isEqualTo(201);
+        assertThat(events).containsExactly("available", "done");
+        assertThat(read.toString(StandardCharsets.UTF_8)).isEqualTo(body);
+    }
+
+    private MockHttpServletResponse send(String idemKey, String body, FilterChain chain) throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("POST", PATH);
+        req.addHeader(IdempotencyFilter.HEADER, idemKey);
+        req.setContentType("application/json");
+        req.setContent(body.getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse res = new MockHttpServletResponse();
+        filter.doFilter(req, res, chain);
+        return res;
+    }
+
+    private static void authenticate() {
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                EMAIL, null, List.of(new SimpleGrantedAuthority("ROLE_USER"))));
+    }
+}
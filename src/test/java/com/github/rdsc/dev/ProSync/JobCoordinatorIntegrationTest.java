@@ -0,0 +1,154 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.aspect.ClusterJob;
+import com.github.rdsc.dev.ProSync.aspect.JobCoordinator;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 叢集排程租約（要本機 Redis，連不上就略過）：
+ * 1) 別的節點拿著 job:{name}:lease → 這台略過；租約到期 / 被放掉 → 這台接手，之後每輪續約、別台搶不到
+ * 2) 分片租約只在這次執行期間有效，跑完就放
+ * 3) @ClusterJob 方法：沒拿到租約 → 不執行，基本型別回 0
+ * 工作名稱每次隨機（@ClusterJob 的除外，跑完清掉），不會碰到真的排程的租約
+**/
+@SpringBootTest(properties = "app.jobs.coordination.enabled=true")
+class JobCoordinatorIntegrationTest {
+
+    private static final String OTHER_NODE = "other-node";
+
+    @Resource JobCoordinator coordinator;
+    @Resource CountingJob countingJob;
+    @Resource StringRedisTemplate redis;
+
+    // 只測排程租約；seat 鎖一樣 mock 掉
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @TestConfiguration
+    static class Jobs {
+        @Bean
+        CountingJob countingJob() {
+            return new CountingJob();
+        }
+    }
+
+    // 一個標了 @ClusterJob 的工作（經過 ClusterJobAspect 的代理；欄位要透過方法讀，代理物件自己的欄位是空的）
+    static class CountingJob {
+        private final AtomicInteger runs = new AtomicInteger();
+
+        @ClusterJob(name = "test-counting-job", period = "1000")
+        public int run() {
+            return runs.incrementAndGet();
+        }
+
+        public int runs() {
+            return runs.get();
+        }
+    }
+
+    @BeforeEach
+    void requireRedis() {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+    }
+
+    @Test
+    @DisplayName("JobCoordinator：別台持有就略過；租約到期後接手，之後續約、別台搶不到")
+    void lease_takeover_after_expiry() throws Throwable {
+        String name = "test-job-" + UUID.randomUUID();
+        String key = "job:" + name + ":lease";
+        AtomicInteger runs = new AtomicInteger();
+        JobCoordinator.Job job = runs::incrementAndGet;
+
+        try {
+            // 1/ 別的節點拿著（剩 300 ms）→ 這輪略過，不執行
+            redis.opsForValue().set(key, OTHER_NODE, Duration.ofMillis(300));
+            assertThat(coordinator.runExclusive(name, "1000", job, -1)).isEqualTo(-1);
+            assertThat(runs.get()).isZero();
+            assertThat(redis.opsForValue().get(key)).isEqualTo(OTHER_NODE);
+
+            // 2/ 那台掛了沒續約 → 到期後這台接手
+            Thread.sleep(400);
+            assertThat(coordinator.runExclusive(name, "1000", job, -1)).isEqualTo(1);
+            assertThat(redis.opsForValue().get(key)).isEqualTo(coordinator.getNodeId());
+
+            // 3/ 黏在這台：下一輪續約照跑，別台 SET NX 搶不到
+            assertThat(coordinator.runExclusive(name, "1000", job, -1)).isEqualTo(2);
+            assertThat(redis.getExpire(key)).isPositive();
+            assertThat(redis.opsForValue().setIfAbsent(key, OTHER_NODE, Duration.ofSeconds(10))).isFalse();
+
+            // 4/ 正常關機放掉 → 別台馬上可以拿
+            coordinator.releaseAll();
+            assertThat(redis.opsForValue().get(key)).isNull();
+        } finally {
+            redis.delete(key);
+            redis.delete("job:" + name + ":stats");
+            redis.opsForSet().remove("job:names", name);
+        }
+    }
+
+    @Test
+    @DisplayName("JobCoordinator：分片租約跑完就放；別台拿著的分片這輪略過")
+    void partition_lease_is_released_after_run() throws Throwable {
+        String name = "test-partition-" + UUID.randomUUID();
+        String key = "job:" + name + ":lease";
+
+        try {
+            // 1/ 執行期間持有，跑完就放
+            Object seen = coordinator.runPartition(name, 10_000, () -> redis.opsForValue().get(key), null);
+            assertThat(seen).isEqualTo(coordinator.getNodeId());
+            assertThat(redis.opsForValue().get(key)).isNull();
+
+            // 2/ 別台正在跑這個分片 → 略過，也不會把別人的租約放掉
+            redis.opsForValue().set(key, OTHER_NODE, Duration.ofSeconds(10));
+            assertThat(coordinator.runPartition(name, 10_000, () -> "ran", "skipped")).isEqualTo("skipped");
+            assertThat(redis.opsForValue().get(key)).isEqualTo(OTHER_NODE);
+        } finally {
+            redis.delete(key);
+            redis.delete("job:" + name + ":stats");
+            redis.opsForSet().remove("job:names", name);
+        }
+    }
+
+    @Test
+    @DisplayName("@ClusterJob：別台持有租約 → 方法不執行、回 0；拿回租約後照常執行")
+    void cluster_job_skips_without_lease() {
+        String key = "job:test-counting-job:lease";
+        int before = countingJob.runs();
+
+        try {
+            redis.opsForValue().set(key, OTHER_NODE, Duration.ofSeconds(10));
+            assertThat(countingJob.run()).isZero();
+            assertThat(countingJob.runs()).isEqualTo(before);
+
+            redis.delete(key);
+            assertThat(countingJob.run()).isEqualTo(before + 1);
+            assertThat(redis.opsForValue().get(key)).isEqualTo(coordinator.getNodeId());
+        } finally {
+            redis.delete(key);
+            redis.delete("job:test-counting-job:stats");
+            redis.opsForSet().remove("job:names", "test-counting-job");
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.aspect.OptimisticRetrier;
+import com.github.rdsc.dev.ProSync.aspect.OptimisticRetry;
+import com.github.rdsc.dev.ProSync.aspect.OptimisticRetryAspect;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.PessimisticLockingFailureException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * OptimisticRetrier（不需要 Spring / DB）：
+ * 1) 衝突幾次後成功 → 回結果，記 retried / recovered，每次等待都在 [baseDelay, maxDelay] 內
+ * 2) 次數用完 → 丟出最後一次的例外，記 exhausted
+ * 3) 時間預算不夠再等一輪 → 提早放棄（次數還沒用完）
+ * 4) 不是版本衝突的例外不重試；call() 把 checked exception 包成 IllegalStateException
+ * 5) 等待中被中斷 → 不再重試，保留中斷旗標
+ * 6) @OptimisticRetry（經過 OptimisticRetryAspect 的代理）：次數照註解；retryFor 決定哪些例外要重試
+**/
+class OptimisticRetrierTest {
+
+    private SimpleMeterRegistry registry;
+    private OptimisticRetrier retrier;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        retrier = new OptimisticRetrier(registry);
+    }
+
+    @AfterEach
+    void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    @DisplayName("Retrier：衝突兩次後成功 → 回結果，retried = 2、recovered = 1，等待時間在上下限內")
+    void recovers_after_conflicts() {
+        AtomicInteger calls = new AtomicInteger();
+        OptimisticRetrier.Policy policy = new OptimisticRetrier.Policy(5, 5, 20, 5000);
+
+        String result = retrier.call("test.recover", policy, () -> {
+            if (calls.incrementAndGet() < 3) throw new OptimisticLockingFailureException("version changed");
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(count("test.recover", "retried")).isEqualTo(2.0);
+        assertThat(count("test.recover", "recovered")).isEqualTo(1.0);
+        assertThat(registry.find("optimistic.retry").tags("method", "test.recover", "result", "exhausted").counter()).isNull();
+
+        var backoff = registry.get("optimistic.retry.backoff").tag("method", "test.recover").timer();
+        assertThat(backoff.count()).isEqualTo(2);
+        assertThat(backoff.max(TimeUnit.MILLISECONDS)).isBetween(5.0, 20.0);
+    }
+
+    @Test
+    @DisplayName("Retrier：一次就成功 → 不記任何重試指標")
+    void first_attempt_success_records_nothing() {
+        assertThat(retrier.call("test.once", OptimisticRetrier.Policy.DEFAULT, () -> 42)).isEqualTo(42);
+        assertThat(registry.find("optimistic.retry").counters()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Retrier：次數用完 → 丟出最後一次的例外，exhausted = 1")
+    void exhausted_rethrows_last_conflict() {
+        AtomicInteger calls = new AtomicInteger();
+        OptimisticRetrier.Policy policy = new OptimisticRetrier.Policy(3, 1, 5, 5000);
+        OptimisticLockingFailureException[] last = new OptimisticLockingFailureException[1];
+
+        assertThatThrownBy(() -> retrier.call("test.exhausted", policy, () -> {
+            calls.incrementAndGet();
+            last[0] = new OptimisticLockingFailureException("conflict #" + calls.get());
+            throw last[0];
+        })).isSameAs(last[0]).hasMessage("conflict #3");
+
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(count("test.exhausted", "retried")).isEqualTo(2.0);
+        assertThat(count("test.exhausted", "exhausted")).isEqualTo(1.0);
+    }
+
+    @Test
+    @DisplayName("Retrier：時間預算不夠再等一輪 → 次數還沒用完也放棄")
+    void budget_stops_before_max_attempts() {
+        AtomicInteger calls = new AtomicInteger();
+        // 每次至少等 40 ms，預算 100 ms：最多撐兩三輪，遠不到 50 次
+        OptimisticRetrier.Policy policy = new OptimisticRetrier.Policy(50, 40, 40, 100);
+
+        long begin = System.nanoTime();
+        assertThatThrownBy(() -> retrier.call("test.budget", policy, () -> {
+            calls.incrementAndGet();
+            throw new OptimisticLockingFailureException("conflict");
+        })).isInstanceOf(OptimisticLockingFailureException.class);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        assertThat(calls.get()).isBetween(2, 3);
+        assertThat(elapsedMs).isLessThan(1000);
+        assertThat(count("test.budget", "exhausted")).isEqualTo(1.0);
+    }
+
+    @Test
+    @DisplayName("Retrier：其他例外不重試；call() 把 checked exception 包成 IllegalStateException")
+    void other_exceptions_are_not_retried() {
+        AtomicInteger calls = new AtomicInteger();
+        assertThatThrownBy(() -> retrier.call("test.other", OptimisticRetrier.Policy.DEFAULT, () -> {
+            calls.incrementAndGet();
+            throw new IllegalArgumentException("bad input");
+        })).isInstanceOf(IllegalArgumentException.class);
+        assertThat(calls.get()).isEqualTo(1);
+
+        assertThatThrownBy(() -> retrier.call("test.checked", OptimisticRetrier.Policy.DEFAULT, () -> {
+            throw new IOException("io");
+        })).isInstanceOf(IllegalStateException.class).hasCauseInstanceOf(IOException.class);
+
+        assertThat(registry.find("optimistic.retry").counters()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Retrier：等待中被中斷 → 丟出衝突例外，不再重試，中斷旗標保留")
+    void interrupted_backoff_gives_up() {
+        AtomicInteger calls = new AtomicInteger();
+        OptimisticRetrier.Policy policy = new OptimisticRetrier.Policy(5, 50, 100, 5000);
+
+        Thread.currentThread().interrupt();
+        assertThatThrownBy(() -> retrier.call("test.interrupt", policy, () -> {
+            calls.incrementAndGet();
+            throw new OptimisticLockingFailureException("conflict");
+        })).isInstanceOf(OptimisticLockingFailureException.class);
+
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(Thread.currentThread().isInterrupted()).isTrue();
+    }
+
+    // 標了 @OptimisticRetry 的方法：前 failures 次丟出 conflict，之後成功
+    static class Conflicting {
+        final AtomicInteger calls = new AtomicInteger();
+        int failures;
+        RuntimeException conflict;
+
+        @OptimisticRetry(maxAttempts = 4, baseDelayMs = 1, maxDelayMs = 2, budgetMs = 5000)
+        public int versioned() {
+            return attempt();
+        }
+
+        @OptimisticRetry(maxAttempts = 4, baseDelayMs = 1, maxDelayMs = 2, budgetMs = 5000,
+                retryFor = {OptimisticLockingFailureException.class, PessimisticLockingFailureException.class})
+        public int locking() {
+            return attempt();
+        }
+
+        private int attempt() {
+            int n = calls.incrementAndGet();
+            if (n <= failures) throw conflict;
+            return n;
+        }
+    }
+
+    @Test
+    @DisplayName("@OptimisticRetry：次數照註解（4 次）；retryFor 沒列的例外不重試，列了的會重試")
+    void annotation_drives_attempts_and_retry_for() {
+        Conflicting target = new Conflicting();
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(new OptimisticRetryAspect(retrier));
+        Conflicting proxy = factory.getProxy();
+
+        // 1/ 一直版本衝突 → 跑滿註解上的 4 次就放棄
+        target.failures = Integer.MAX_VALUE;
+        target.conflict = new OptimisticLockingFailureException("conflict");
+        assertThatThrownBy(proxy::versioned).isSameAs(target.conflict);
+        assertThat(target.calls.get()).isEqualTo(4);
+
+        // 2/ 等鎖逾時：預設的 retryFor 只有版本衝突 → 不重試
+        target.calls.set(0);
+        target.failures = 1;
+        target.conflict = new CannotAcquireLockException("lock wait timeout");
+        assertThatThrownBy(proxy::versioned).isSameAs(target.conflict);
+        assertThat(target.calls.get()).isEqualTo(1);
+
+        // 3/ retryFor 列了悲觀鎖失敗 → 重跑一次就過
+        target.calls.set(0);
+        assertThat(proxy.locking()).isEqualTo(2);
+        assertThat(registry.find("optimistic.retry").tag("result", "recovered").counter()).isNotNull();
+    }
+
+    private double count(String method, String result) {
+        return registry.get("optimistic.retry").tags("method", method, "result", result).counter().count();
+    }
+}
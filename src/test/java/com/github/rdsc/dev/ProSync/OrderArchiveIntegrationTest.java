@@ -0,0 +1,165 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.dto.OrderDto;
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.PaymentStatus;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.OrderArchiveService;
+import com.github.rdsc.dev.ProSync.service.TicketOrderService;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 冷熱分離：
+ * 1) 結束很久的訂單連同明細、付款單搬到 *_archive，/my 歷史照樣查得到
+ * 2) 還在待付款的（不管多舊）、剛結束的 → 留在熱表
+**/
+@SpringBootTest
+class OrderArchiveIntegrationTest {
+
+    // === Services ===
+    @Resource OrderArchiveService archive;
+    @Resource TicketOrderService ts;
+
+    // === Repositories ===
+    @Resource UserRepository ur;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+    @Resource OrderListRepository lr;
+    @Resource OrderDetailRepository dr;
+    @Resource PaymentRepository pr;
+    @Resource JdbcTemplate jdbc;
+
+    // reserve() 會用到鎖；測試中把它「假成功」
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @Test
+    @DisplayName("Archive：CONFIRMED + update_at 超過保留天數 → 搬到 *_archive，/my 歷史照樣查得到")
+    @WithMockUser(username = "archive-test@example.com", roles = {"USER"})
+    void archiveTerminalOrders_moves_order_detail_payment() {
+        // 1/ 基本資料
+        final String email = "archive-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Archive Test");
+        e.setDescription("Archive testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Standard");
+        t.setPrice(new BigDecimal("500.00"));
+        t.setQuota(5);
+        tr.save(t);
+
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        ol = lr.save(ol);
+
+        Mockito.when(rlock.lockSeat(Mockito.anyLong(), Mockito.any())).thenReturn("test-token");
+        Mockito.doNothing().when(rlock).unlockSeat(Mockito.anyLong(), Mockito.anyString());
+        ts.reserve(ol.getId(), t.getId(), 1);
+
+        String txHash = "0x" + UUID.randomUUID().toString().replace("-", "");
+        Payment p = Payment.builder()
+                .orderList(ol)
+                .asset("BTC")
+                .quoteRate(new BigDecimal("1000000.00000000"))
+                .amountCrypto(new BigDecimal("0.000500000000000000"))
+                .txHash(txHash)
+                .status(PaymentStatus.CONFIRMED)
+                .expiresAt(LocalDateTime.now().plusMinutes(15))
+                .build();
+        pr.save(p);
+
+        // 2/ 手動把訂單改成「很久以前下單、付款完成」（封存只看 create_at 也夠舊的分區）
+        Timestamp longAgo = Timestamp.valueOf(LocalDateTime.now().minusDays(365));
+        jdbc.update("UPDATE order_list SET status = 'CONFIRMED', create_at = ?, update_at = ? WHERE id = ?",
+                longAgo, longAgo, ol.getId());
+
+        // 3/ 封存
+        archive.archiveTerminalOrders();
+
+        // 4/ 熱表沒了，封存表有（付款單連同 txHash 一起搬）；歷史訂單照樣查得到
+        Long orderListId = ol.getId();
+        assertThat(lr.findById(orderListId)).isEmpty();
+        assertThat(pr.findAllByOrderListId(orderListId)).isEmpty();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM order_detail_archive WHERE order_list_id = ?", Long.class, orderListId))
+                .isEqualTo(1L);
+
+        assertThat(archive.historyForUser(u.getId()))
+                .extracting(OrderDto.MyOrderResponse::getOrderListId)
+                .contains(orderListId);
+        assertThat(jdbc.queryForList("SELECT id FROM payments_archive WHERE tx_hash = ?", Long.class, txHash))
+                .containsExactly(p.getId());
+    }
+
+    @Test
+    @DisplayName("Archive：待付款的舊訂單、剛結束的訂單都不搬")
+    void archiveTerminalOrders_keeps_pending_and_recent_orders() {
+        final String email = "archive-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Long stillPending = newOrder(u).getId();
+        Long justConfirmed = newOrder(u).getId();
+
+        // 1/ 很久以前建的、還在待付款（到期回補還沒處理到）→ 不是結束狀態，不能搬
+        Timestamp longAgo = Timestamp.valueOf(LocalDateTime.now().minusDays(365));
+        jdbc.update("UPDATE order_list SET create_at = ?, update_at = ? WHERE id = ?", longAgo, longAgo, stillPending);
+
+        // 2/ 很久以前建的、剛剛才付款完成（update_at 是現在）→ 還沒超過保留天數
+        jdbc.update("UPDATE order_list SET status = 'CONFIRMED', create_at = ?, update_at = ? WHERE id = ?",
+                longAgo, Timestamp.valueOf(LocalDateTime.now()), justConfirmed);
+
+        archive.archiveTerminalOrders();
+
+        assertThat(lr.findById(stillPending)).isPresent();
+        assertThat(lr.findById(justConfirmed)).isPresent();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM order_list_archive WHERE id IN (?, ?)", Long.class,
+                stillPending, justConfirmed)).isZero();
+    }
+
+    private OrderList newOrder(User u) {
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        return lr.save(ol);
+    }
+}
@@ -0,0 +1,230 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.OrderRestocker;
+import com.github.rdsc.dev.ProSync.service.TicketOrderService;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 過期回補（一批訂單、依票種加總）：
+ * 1) 兩張訂單、兩個票種一起過期 → 兩張都 EXPIRED，明細的 pending_quota 歸零，ticket_types.quota 各自回到原本的數字
+ * 2) STRIPED：分片照訂單加回「各自的」本家分片，不是全部加到第一張訂單的本家
+ * 3) sweep 分成 3 片、一批 2 張：每一片只拿 id % 3 = 自己的訂單，全部分片跑完每張剛好處理一次
+ * 訂單的 expires_at 都在未來，用 cutoff = 一小時後直接呼叫 expire() / sweep()，排程掃不到它們
+ * （排程用 4 片，游標是另一組，3 片的游標只有這裡在用）
+**/
+@SpringBootTest(properties = {
+        "app.reservation.mode=STRIPED",
+        "app.reservation.striping.shards=4"
+})
+class OrderRestockerIntegrationTest {
+
+    private static final int SHARDS = 4;
+
+    @Resource TicketOrderService ts;
+    @Resource OrderRestocker restocker;
+
+    @Resource UserRepository ur;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+    @Resource TicketTypeShardRepository shardRepo;
+    @Resource OrderListRepository lr;
+    @Resource OrderDetailRepository dr;
+    @Resource JobCursorRepository cr;
+
+    // STRIPED 不搶 Redis 鎖；一樣 mock 掉，避免依賴本機 Redis
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @Test
+    @DisplayName("restock：多張訂單、多個票種一起過期 → 票種各自加回，分片加回每張訂單自己的本家")
+    @WithMockUser(username = "restock-test@example.com", roles = {"USER"})
+    void aggregated_restock_refills_each_home_shard() {
+        final String email = "restock-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Restock Test");
+        e.setDescription("Aggregated restock testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        Long a = newTicketType(e, "Restock A");
+        Long b = newTicketType(e, "Restock B");
+
+        // 1/ 兩張本家不同的訂單（id 是自動編號，建到不同本家為止）
+        OrderList first = newOrder(u);
+        OrderList second = newOrder(u);
+        while (home(second.getId()) == home(first.getId())) {
+            second = newOrder(u);
+        }
+
+        // 2/ 預約：first = A×2 + B×1、second = A×1 + B×2（都在本家分片扣得到）
+        ts.reserve(first.getId(), a, 2);
+        ts.reserve(first.getId(), b, 1);
+        ts.reserve(second.getId(), a, 1);
+        ts.reserve(second.getId(), b, 2);
+
+        List<Integer> shardsA = quotas(a);
+        List<Integer> shardsB = quotas(b);
+        assertThat(shardsA.stream().mapToInt(Integer::intValue).sum()).isEqualTo(5);
+        assertThat(shardsB.stream().mapToInt(Integer::intValue).sum()).isEqualTo(5);
+
+        // 3/ 一起過期
+        List<Long> expired = restocker.expire(List.of(first.getId(), second.getId()), LocalDateTime.now().plusHours(1));
+        assertThat(expired).containsExactlyInAnyOrder(first.getId(), second.getId());
+
+        for (OrderList ol : List.of(first, second)) {
+            assertThat(lr.findById(ol.getId()).orElseThrow().getStatus()).isEqualTo(OrderStatus.EXPIRED);
+            assertThat(dr.findAllByOrderListId(ol.getId()))
+                    .extracting(OrderDetail::getPendingQuota)
+                    .containsOnly(0);
+        }
+
+        // 4/ ticket_types：不管背景回寫做過沒，都回到 8
+        assertThat(tr.findById(a).orElseThrow().getQuota()).isEqualTo(8);
+        assertThat(tr.findById(b).orElseThrow().getQuota()).isEqualTo(8);
+
+        // 5/ 分片：每張訂單加回自己的本家
+        List<Integer> expectedA = new ArrayList<>(shardsA);
+        expectedA.set(home(first.getId()), expectedA.get(home(first.getId())) + 2);
+        expectedA.set(home(second.getId()), expectedA.get(home(second.getId())) + 1);
+        assertThat(quotas(a)).containsExactlyElementsOf(expectedA);
+
+        List<Integer> expectedB = new ArrayList<>(shardsB);
+        expectedB.set(home(first.getId()), expectedB.get(home(first.getId())) + 1);
+        expectedB.set(home(second.getId()), expectedB.get(home(second.getId())) + 2);
+        assertThat(quotas(b)).containsExactlyElementsOf(expectedB);
+    }
+
+    @Test
+    @DisplayName("sweep：3 個分片各自掃 id % 3 的訂單，全部跑完每張過期訂單剛好回補一次")
+    @WithMockUser(username = "restock-test@example.com", roles = {"USER"})
+    void partitions_cover_every_order_exactly_once() {
+        final int partitions = 3;
+        final int chunk = 2;
+        final String email = "restock-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Partition Sweep Test");
+        e.setDescription("Partitioned restock sweep testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        // 票種已經賣光（quota 0）：每張訂單買 1 張、已經扣過 → 回補一次 +1，回補兩次就會多出來
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Partitioned");
+        t.setPrice(new BigDecimal("100.00"));
+        t.setQuota(0);
+        tr.save(t);
+
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            OrderList ol = newOrder(u);
+            dr.save(OrderDetail.builder()
+                    .orderList(ol)
+                    .ticketType(t)
+                    .quantity(1)
+                    .unitPrice(t.getPrice())
+                    .build());
+            ids.add(ol.getId());
+        }
+        Map<Integer, List<Long>> byPartition = ids.stream()
+                .collect(Collectors.groupingBy(id -> (int) (id % partitions)));
+
+        // 游標從頭開始（上一次測試如果中途失敗，可能停在中間）
+        for (int p = 0; p < partitions; p++) {
+            String name = OrderRestocker.cursorName(p, partitions);
+            cr.findById(name).ifPresent(c -> {
+                c.reset();
+                cr.save(c);
+            });
+        }
+
+        LocalDateTime cutoff = LocalDateTime.now().plusHours(1);
+        for (int p = 0; p < partitions; p++) {
+            // 1/ 一個分片一批一批掃到底（跟 drainPartition 一樣：不滿一批就是掃完了）
+            int n;
+            do {
+                n = restocker.sweep(cutoff, chunk, p, partitions);
+            } while (n == chunk);
+
+            // 2/ 到這個分片為止的都 EXPIRED，後面分片的還沒被碰
+            for (int q = 0; q < partitions; q++) {
+                OrderStatus expected = q <= p ? OrderStatus.EXPIRED : OrderStatus.PENDING_PAYMENT;
+                assertThat(byPartition.getOrDefault(q, List.of()))
+                        .allSatisfy(id -> assertThat(lr.findById(id).orElseThrow().getStatus()).isEqualTo(expected));
+            }
+        }
+
+        // 3/ 每張剛好一次：7 張各加回 1 張；再掃一輪也不會多加
+        assertThat(tr.findById(t.getId()).orElseThrow().getQuota()).isEqualTo(ids.size());
+        for (int p = 0; p < partitions; p++) {
+            restocker.sweep(cutoff, chunk, p, partitions);
+        }
+        assertThat(tr.findById(t.getId()).orElseThrow().getQuota()).isEqualTo(ids.size());
+    }
+
+    // 跟 QuotaShards 算本家的方式一樣
+    private static int home(Long orderListId) {
+        return Math.floorMod(Long.hashCode(orderListId), SHARDS);
+    }
+
+    private Long newTicketType(Event e, String name) {
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName(name);
+        t.setPrice(new BigDecimal("100.00"));
+        t.setQuota(8); // 切 4 片，各 2 張
+        return tr.save(t).getId();
+    }
+
+    private OrderList newOrder(User u) {
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        return lr.save(ol);
+    }
+
+    private List<Integer> quotas(Long ticketTypeId) {
+        return shardRepo.findAllByTicketTypeIdOrderByShardNo(ticketTypeId).stream()
+                .map(TicketTypeShard::getQuota)
+                .toList();
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.rdsc.dev.ProSync;
 
+import com.github.rdsc.dev.ProSync.dto.OrderDto;
 import com.github.rdsc.dev.ProSync.enums.OrderStatus;
 import com.github.rdsc.dev.ProSync.enums.PaymentStatus;
 import com.github.rdsc.dev.ProSync.enums.UserStatus;
@@ -20,12 +21,15 @@ import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.annotation.Rollback;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 
 /**
@@ -147,4 +151,69 @@ class OrderWorkflowIntegrationTest {
         OrderList finalOl = lr.findById(ol.getId()).orElseThrow();
         assertThat(finalOl.getStatus()).isEqualTo(OrderStatus.CONFIRMED);
     }
+
+    @Test
+    @DisplayName("reserveBatch：多票種同一交易，任何一行不夠就整包不算")
+    @WithMockUser(username = "test@example.com", roles = {"USER"})
+    void reserveBatch_is_all_or_nothing() {
+        final String email = "test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Batch Concert");
+        e.setDescription("Batch reservation testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(3));
+        e.setEndAt(LocalDateTime.now().plusDays(3).plusHours(3));
+        er.save(e);
+
+        TicketType vip = new TicketType();
+        vip.setEvent(e);
+        vip.setName("VIP");
+        vip.setPrice(new BigDecimal("2000"));
+        vip.setQuota(3);
+        tr.save(vip);
+
+        TicketType general = new TicketType();
+        general.setEvent(e);
+        general.setName("General");
+        general.setPrice(new BigDecimal("500"));
+        general.setQuota(10);
+        tr.save(general);
+
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        lr.save(ol);
+
+        Mockito.when(rlock.lockSeat(Mockito.anyLong(), Mockito.any()))
+                .thenReturn("test-token");
+
+        // 1/ 2 張 VIP + 4 張 General：一次成功
+        ts.reserveBatch(ol.getId(), List.of(
+                new OrderDto.ReserveLine(vip.getId(), 2),
+                new OrderDto.ReserveLine(general.getId(), 4)));
+
+        assertThat(tr.findById(vip.getId()).orElseThrow().getQuota()).isEqualTo(1);
+        assertThat(tr.findById(general.getId()).orElseThrow().getQuota()).isEqualTo(6);
+        assertThat(lr.findById(ol.getId()).orElseThrow().getTotalCost())
+                .isEqualByComparingTo(new BigDecimal("6000.00")); // 2000 * 2 + 500 * 4
+
+        // 2/ General 夠、VIP 不夠 → 整包回滾，General 也不能被扣
+        Long olId = ol.getId();
+        assertThatThrownBy(() -> ts.reserveBatch(olId, List.of(
+                new OrderDto.ReserveLine(general.getId(), 1),
+                new OrderDto.ReserveLine(vip.getId(), 2))))
+                .isInstanceOf(ResponseStatusException.class);
+
+        assertThat(tr.findById(vip.getId()).orElseThrow().getQuota()).isEqualTo(1);
+        assertThat(tr.findById(general.getId()).orElseThrow().getQuota()).isEqualTo(6);
+    }
 }
@@ -0,0 +1,207 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.PaymentStatus;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.PartitionMaintenance;
+import com.github.rdsc.dev.ProSync.service.PaymentService;
+import com.github.rdsc.dev.ProSync.service.TicketOrderService;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * order_list / payments 依 create_at 分區之後：
+ * 1) 訂單建立超過 max-age-hours → 不能再加票（409），庫存不動（分區掃描靠這個上限縮 create_at 範圍）
+ * 2) txHash 重複由 payment_tx_hashes 擋：用過的 → 409；原本那筆付款單搬去封存了也一樣擋得住
+ * 3) PartitionMaintenance：預先切好 months-ahead 個月、p_max 保持空的、再跑一次不會多做 DDL；新訂單落在本月分區
+ * 排程不搶叢集租約（直接呼叫 maintain()）
+**/
+@SpringBootTest(properties = "app.jobs.coordination.enabled=false")
+class PartitionedOrdersIntegrationTest {
+
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+
+    @Resource TicketOrderService ts;
+    @Resource PaymentService ps;
+    @Resource PartitionMaintenance maintenance;
+    @Resource JdbcTemplate jdbc;
+
+    @Resource UserRepository ur;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+    @Resource OrderListRepository lr;
+    @Resource PaymentRepository pr;
+
+    // reserve() 會用到鎖；測試中把它「假成功」
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @BeforeEach
+    void fakeLock() {
+        Mockito.when(rlock.lockSeat(Mockito.anyLong(), Mockito.any())).thenReturn("test-token");
+        Mockito.when(rlock.isDegraded()).thenReturn(false);
+    }
+
+    @Test
+    @DisplayName("max-age：訂單建立超過上限 → 不能再加票（409），庫存不動")
+    @WithMockUser(username = "partition-test@example.com", roles = {"USER"})
+    void order_past_max_age_rejects_new_items() {
+        TicketType t = newTicketType(5);
+        OrderList ol = newOrder(user());
+        ts.reserve(ol.getId(), t.getId(), 1);
+        assertThat(tr.findById(t.getId()).orElseThrow().getQuota()).isEqualTo(4);
+
+        // 25 小時前建立（預設上限 24 小時），到期時間還沒到
+        jdbc.update("UPDATE order_list SET create_at = ?, expires_at = ? WHERE id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusHours(25)),
+                Timestamp.valueOf(LocalDateTime.now().plusMinutes(30)),
+                ol.getId());
+
+        assertThatThrownBy(() -> ts.reserve(ol.getId(), t.getId(), 1))
+                .isInstanceOfSatisfying(ResponseStatusException.class, ex -> {
+                    assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+                    assertThat(ex.getReason()).contains("max lifetime");
+                });
+        assertThat(tr.findById(t.getId()).orElseThrow().getQuota()).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("txHash：用過的 → 409；原付款單搬去封存後一樣擋得住；換一個 txHash 才成功")
+    @WithMockUser(username = "partition-test@example.com", roles = {"USER"})
+    void duplicate_tx_hash_is_rejected_even_after_archive() {
+        User u = user();
+        TicketType t = newTicketType(5);
+        OrderList first = newOrder(u);
+        OrderList second = newOrder(u);
+        ts.reserve(first.getId(), t.getId(), 1);
+        ts.reserve(second.getId(), t.getId(), 1);
+
+        // 1/ 第一張訂單用 txHash 付款成功 → payment_tx_hashes 登記
+        String txHash = "0x" + UUID.randomUUID().toString().replace("-", "");
+        Payment paid = ps.confirmCryptoTx(ps.createCryptoQuote(first.getId(), "BTC").getId(), txHash);
+        assertThat(jdbc.queryForList("SELECT payment_id FROM payment_tx_hashes WHERE tx_hash = ?", Long.class, txHash))
+                .containsExactly(paid.getId());
+
+        // 2/ 第二張訂單拿同一個 txHash → 409，付款單 / 訂單都不動
+        Long quote = ps.createCryptoQuote(second.getId(), "BTC").getId();
+        assertConflict(() -> ps.confirmCryptoTx(quote, txHash));
+        assertThat(pr.findById(quote).orElseThrow().getStatus()).isEqualTo(PaymentStatus.PENDING);
+
+        // 3/ 第一筆付款單搬到封存表（熱表找不到它了）→ 還是擋得住
+        jdbc.update("INSERT INTO payments_archive (id, order_list_id, asset, quote_rate, amount_crypto, tx_hash, status, expires_at, create_at, update_at) " +
+                "SELECT id, order_list_id, asset, quote_rate, amount_crypto, tx_hash, status, expires_at, create_at, update_at FROM payments WHERE id = ?",
+                paid.getId());
+        jdbc.update("DELETE FROM payments WHERE id = ?", paid.getId());
+        assertThat(pr.findByTxHash(txHash)).isEmpty();
+
+        assertConflict(() -> ps.confirmCryptoTx(quote, txHash));
+        assertThat(pr.findById(quote).orElseThrow().getStatus()).isEqualTo(PaymentStatus.PENDING);
+        assertThat(lr.findById(second.getId()).orElseThrow().getStatus()).isEqualTo(OrderStatus.PENDING_PAYMENT);
+
+        // 4/ 換一個沒用過的 txHash → 成功
+        String fresh = "0x" + UUID.randomUUID().toString().replace("-", "");
+        ps.confirmCryptoTx(quote, fresh);
+        assertThat(pr.findById(quote).orElseThrow().getStatus()).isEqualTo(PaymentStatus.CONFIRMED);
+        assertThat(lr.findById(second.getId()).orElseThrow().getStatus()).isEqualTo(OrderStatus.CONFIRMED);
+    }
+
+    @Test
+    @DisplayName("PartitionMaintenance：預先切好未來的月份、p_max 是空的、再跑一次沒事做；新訂單落在本月分區")
+    void maintenance_keeps_months_ahead_and_p_max_empty() {
+        assumeTrue(!partitionNames("order_list").isEmpty(), "order_list is not partitioned (V13 not applied)");
+
+        maintenance.maintain();
+
+        LocalDate thisMonth = LocalDate.now().withDayOfMonth(1);
+        for (String table : List.of("order_list", "payments")) {
+            List<String> names = partitionNames(table);
+            // 本月 ~ 本月 + 3 個月（預設 months-ahead）都有分區，最後一個是 p_max
+            for (int i = 0; i <= 3; i++) {
+                assertThat(names).contains(thisMonth.plusMonths(i).format(PARTITION_NAME));
+            }
+            assertThat(names.get(names.size() - 1)).isEqualTo("p_max");
+            assertThat(jdbc.queryForList("SELECT 1 FROM " + table + " PARTITION (p_max) LIMIT 1", Integer.class)).isEmpty();
+        }
+
+        // 已經切夠了：再跑一次不做任何 DDL
+        assertThat(maintenance.maintain()).isZero();
+
+        // 新訂單落在本月分區
+        Long id = newOrder(user()).getId();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM order_list PARTITION (" + thisMonth.format(PARTITION_NAME) + ") WHERE id = ?",
+                Long.class, id)).isEqualTo(1L);
+    }
+
+    private void assertConflict(Runnable call) {
+        assertThatThrownBy(call::run)
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.CONFLICT));
+    }
+
+    private List<String> partitionNames(String table) {
+        return jdbc.queryForList("SELECT PARTITION_NAME FROM information_schema.PARTITIONS " +
+                        "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL " +
+                        "ORDER BY PARTITION_ORDINAL_POSITION",
+                String.class, table);
+    }
+
+    private User user() {
+        final String email = "partition-test@example.com";
+        return ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+    }
+
+    private TicketType newTicketType(int quota) {
+        Event e = new Event();
+        e.setName("Partition Test");
+        e.setDescription("Partitioned order testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Standard");
+        t.setPrice(new BigDecimal("500.00"));
+        t.setQuota(quota);
+        return tr.save(t);
+    }
+
+    private OrderList newOrder(User u) {
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        return lr.save(ol);
+    }
+}
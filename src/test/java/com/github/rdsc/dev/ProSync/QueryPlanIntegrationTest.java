@@ -0,0 +1,383 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.PaymentStatus;
+import com.github.rdsc.dev.ProSync.model.Event;
+import com.github.rdsc.dev.ProSync.model.JobCursor;
+import com.github.rdsc.dev.ProSync.repository.EventRepository;
+import com.github.rdsc.dev.ProSync.repository.OrderListRepository;
+import com.github.rdsc.dev.ProSync.repository.PaymentRepository;
+import com.github.rdsc.dev.ProSync.repository.TicketTypeRepository;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import jakarta.annotation.Resource;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 查詢計畫回歸測試：
+ * - 開始前灌一批接近正式環境比例的資料（使用者 500、訂單 / 付款 5 萬筆、活動 2 千、票種 6 千），跑完全部刪掉
+ *   待付款的訂單 / 付款單都還沒到期，過期 / 回補 / 封存排程碰不到它們
+ * - OrderListRepository / PaymentRepository / TicketTypeRepository / EventRepository 的每個查詢都真的呼叫一次，
+ *   用 StatementInspector 記下 Hibernate 送出的 SQL（分頁的 count 查詢也算），再拿那條 SQL 跑 EXPLAIN：
+ *   出現全表掃描（ALL）、整個索引掃描（index）、filesort / 暫存表就算失敗
+ * - 改了 repository 查詢，這裡的 SQL 跟著變；參數的數量對不上也會失敗（要一起改這裡帶的參數）
+ * 例外：
+ * - OrderRestocker.sweep 走 JdbcTemplate，Hibernate 看不到，只能照抄它的 SQL
+ * - 主辦方的票種分頁（event_id IN (...) ORDER BY id）範圍只有自己的活動，允許 filesort，但不能全表掃
+**/
+@SpringBootTest(properties =
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.github.rdsc.dev.ProSync.QueryPlanIntegrationTest$SqlRecorder")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class QueryPlanIntegrationTest {
+
+    private static final String SEED_EMAIL_PREFIX = "plan-seed-"; // plan-seed-{n}@example.com
+    private static final String SEED_EMAIL_LIKE = SEED_EMAIL_PREFIX + "%@example.com";
+    private static final String SEED_EVENT_PREFIX = "plan-seed-event-";
+    private static final int SEED_USERS = 500;
+    private static final int SEED_ORDERS = 50_000;
+    private static final int SEED_EVENTS = 2_000;
+
+    // 0 ~ 99999 的數列（五個 0~9 交叉），不靠遞迴 CTE（有深度上限）
+    private static final String DIGITS = "(SELECT 0 d UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4 " +
+            "UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9)";
+    private static final String SEQ = "(SELECT a.d + b.d * 10 + c.d * 100 + d.d * 1000 + e.d * 10000 AS n FROM " +
+            DIGITS + " a, " + DIGITS + " b, " + DIGITS + " c, " + DIGITS + " d, " + DIGITS + " e) seq";
+
+    @Resource JdbcTemplate jdbc;
+    @Resource PlatformTransactionManager txManager;
+    @Resource OrderListRepository lr;
+    @Resource PaymentRepository pr;
+    @Resource TicketTypeRepository tr;
+    @Resource EventRepository er;
+
+    // 不會用到鎖；跟其他整合測試一樣把它換掉，不依賴本機 Redis
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    private Long seedUserId;
+
+    /**
+     * 記下這條執行緒上 Hibernate 準備送出的每一條 SQL（只在 record() 期間記，其他時候原樣放行）
+     * 由 Hibernate 依類別名稱建立，所以要 public、有無參數建構子
+    **/
+    public static class SqlRecorder implements StatementInspector {
+
+        private static final ThreadLocal<List<String>> RECORDED = new ThreadLocal<>();
+
+        @Override
+        public String inspect(String sql) {
+            List<String> out = RECORDED.get();
+            if (out != null) out.add(sql);
+            return sql;
+        }
+
+        static List<String> record(Runnable call) {
+            List<String> out = new ArrayList<>();
+            RECORDED.set(out);
+            try {
+                call.run();
+            } finally {
+                RECORDED.remove();
+            }
+            assertThat(out).as("no SQL recorded").isNotEmpty();
+            return out;
+        }
+    }
+
+    @BeforeAll
+    void seed() {
+        // 上一次如果沒跑到 @AfterAll（中途被砍掉），先清乾淨再灌
+        cleanup();
+
+        // 1/ 使用者：plan-seed-0 是主辦方，訂單平均分給 500 個人
+        jdbc.update("INSERT INTO users (email, password_hash, status, create_at, update_at) " +
+                "SELECT CONCAT(?, n, '@example.com'), '{noop}pw', 'ACTIVE', NOW(6), NOW(6) FROM " + SEQ + " WHERE n < ?",
+                SEED_EMAIL_PREFIX, SEED_USERS);
+        seedUserId = jdbc.queryForObject("SELECT id FROM users WHERE email = ?", Long.class, SEED_EMAIL_PREFIX + "0@example.com");
+
+        // 2/ 訂單：2% 待付款（明天才到期）、其餘大多已付款 / 過期 / 取消；建立時間散在最近 55 天（封存 90 天才搬）
+        jdbc.update("INSERT INTO order_list (user_id, status, total_cost, expires_at, create_at, update_at) " +
+                "SELECT u.id, " +
+                "CASE WHEN n % 50 = 0 THEN 'PENDING_PAYMENT' WHEN n % 10 = 1 THEN 'EXPIRED' WHEN n % 10 = 2 THEN 'CANCELLED' ELSE 'CONFIRMED' END, " +
+                "100.00, " +
+                "CASE WHEN n % 50 = 0 THEN NOW(6) + INTERVAL 1 DAY ELSE NOW(6) - INTERVAL n % 80000 MINUTE + INTERVAL 30 MINUTE END, " +
+                "NOW(6) - INTERVAL n % 80000 MINUTE, NOW(6) - INTERVAL n % 80000 MINUTE " +
+                "FROM " + SEQ + " JOIN (SELECT id, ROW_NUMBER() OVER (ORDER BY id) - 1 AS k FROM users WHERE email LIKE ?) u " +
+                "ON u.k = seq.n % ? WHERE n < ?", SEED_EMAIL_LIKE, SEED_USERS, SEED_ORDERS);
+
+        // 3/ 每張訂單一筆付款單，狀態跟著訂單（待付款的也是明天才到期）
+        jdbc.update("INSERT INTO payments (order_list_id, asset, quote_rate, amount_crypto, tx_hash, status, expires_at, create_at, update_at) " +
+                "SELECT o.id, 'BTC', 1000000.00000000, 0.000100000000000000, " +
+                "CASE WHEN o.status = 'CONFIRMED' THEN CONCAT('0xplanseed', o.id) END, " +
+                "CASE o.status WHEN 'CONFIRMED' THEN 'CONFIRMED' WHEN 'PENDING_PAYMENT' THEN 'PENDING' ELSE 'EXPIRED' END, " +
+                "CASE WHEN o.status = 'PENDING_PAYMENT' THEN o.expires_at ELSE o.create_at + INTERVAL 15 MINUTE END, " +
+                "o.create_at, o.create_at " +
+                "FROM order_list o JOIN users u ON u.id = o.user_id WHERE u.email LIKE ?", SEED_EMAIL_LIKE);
+
+        // 4/ 活動：1% 由 seed 使用者主辦，另外約 1% 由他協辦；每個活動三個票種
+        jdbc.update("INSERT INTO events (name, description, start_time, end_time, organizer_id, create_at, update_at) " +
+                "SELECT CONCAT(?, n), NULL, NOW(6) + INTERVAL n HOUR, NOW(6) + INTERVAL n HOUR + INTERVAL 2 HOUR, " +
+                "CASE WHEN n % 100 = 0 THEN ? END, NOW(6), NOW(6) " +
+                "FROM " + SEQ + " WHERE n < ?", SEED_EVENT_PREFIX, seedUserId, SEED_EVENTS);
+        jdbc.update("INSERT INTO ticket_types (event_id, name, quota, price, fence_token, version, create_at, update_at) " +
+                "SELECT e.id, t.name, 100, 500.00, 0, 0, NOW(6), NOW(6) FROM events e " +
+                "JOIN (SELECT 'A' name UNION ALL SELECT 'B' UNION ALL SELECT 'C') t WHERE e.name LIKE CONCAT(?, '%')",
+                SEED_EVENT_PREFIX);
+        jdbc.update("INSERT IGNORE INTO event_organizers (event_id, user_id) " +
+                "SELECT id, ? FROM events WHERE name LIKE CONCAT(?, '%') AND id % 97 = 0", seedUserId, SEED_EVENT_PREFIX);
+
+        // 5/ 資料量確認（EXPLAIN 的估算要照這個量）
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM order_list o JOIN users u ON u.id = o.user_id WHERE u.email LIKE ?",
+                Integer.class, SEED_EMAIL_LIKE)).isEqualTo(SEED_ORDERS);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM payments p JOIN order_list o ON o.id = p.order_list_id " +
+                        "JOIN users u ON u.id = o.user_id WHERE u.email LIKE ?",
+                Integer.class, SEED_EMAIL_LIKE)).isEqualTo(SEED_ORDERS);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM events WHERE name LIKE CONCAT(?, '%')",
+                Integer.class, SEED_EVENT_PREFIX)).isEqualTo(SEED_EVENTS);
+
+        // 6/ 更新統計資訊，EXPLAIN 才會照這個資料量估
+        analyze();
+    }
+
+    @AfterAll
+    void cleanup() {
+        jdbc.update("DELETE p FROM payments p JOIN order_list o ON o.id = p.order_list_id JOIN users u ON u.id = o.user_id " +
+                "WHERE u.email LIKE ?", SEED_EMAIL_LIKE);
+        jdbc.update("DELETE o FROM order_list o JOIN users u ON u.id = o.user_id WHERE u.email LIKE ?", SEED_EMAIL_LIKE);
+        jdbc.update("DELETE eo FROM event_organizers eo JOIN events e ON e.id = eo.event_id WHERE e.name LIKE CONCAT(?, '%')",
+                SEED_EVENT_PREFIX);
+        jdbc.update("DELETE t FROM ticket_types t JOIN events e ON e.id = t.event_id WHERE e.name LIKE CONCAT(?, '%')",
+                SEED_EVENT_PREFIX);
+        jdbc.update("DELETE FROM events WHERE name LIKE CONCAT(?, '%')", SEED_EVENT_PREFIX);
+
+        // 舊版灌的資料（user_id 900000000 起，沒有對應的使用者；主辦方是 plan-seed@example.com）
+        jdbc.update("DELETE p FROM payments p JOIN order_list o ON o.id = p.order_list_id WHERE o.user_id >= 900000000");
+        jdbc.update("DELETE FROM order_list WHERE user_id >= 900000000");
+        jdbc.update("DELETE FROM event_organizers WHERE user_id IN (SELECT id FROM users WHERE email = 'plan-seed@example.com')");
+
+        jdbc.update("DELETE FROM users WHERE email LIKE ? OR email = 'plan-seed@example.com'", SEED_EMAIL_LIKE);
+    }
+
+    @Test
+    @DisplayName("OrderListRepository：每個查詢都走索引、沒有 filesort")
+    void orderList_queries_use_indexes() {
+        LocalDateTime now = LocalDateTime.now();
+        Long anyId = jdbc.queryForObject("SELECT MAX(o.id) FROM order_list o JOIN users u ON u.id = o.user_id WHERE u.email LIKE ?",
+                Long.class, SEED_EMAIL_LIKE);
+
+        assertIndexed("findByIdAndStatus",
+                SqlRecorder.record(() -> lr.findByIdAndStatus(anyId, OrderStatus.PENDING_PAYMENT)).get(0),
+                anyId, OrderStatus.PENDING_PAYMENT.name());
+        assertIndexed("findAllByUserIdOrderByCreateAtDesc",
+                SqlRecorder.record(() -> lr.findAllByUserIdOrderByCreateAtDesc(seedUserId)).get(0),
+                seedUserId);
+        // 後台只查少數狀態：待付款
+        assertIndexed("findAllByStatus",
+                SqlRecorder.record(() -> lr.findAllByStatus(OrderStatus.PENDING_PAYMENT)).get(0),
+                OrderStatus.PENDING_PAYMENT.name());
+        assertIndexed("findAllByStatusAndExpiresAtBefore",
+                SqlRecorder.record(() -> lr.findAllByStatusAndExpiresAtBefore(OrderStatus.PENDING_PAYMENT, now)).get(0),
+                OrderStatus.PENDING_PAYMENT.name(), Timestamp.valueOf(now));
+        assertIndexed("findByIdWithDetail",
+                SqlRecorder.record(() -> lr.findByIdWithDetail(anyId)).get(0),
+                anyId);
+
+        // OrderRestocker.sweep（JdbcTemplate，照抄；keyset 一頁、分 4 片，游標在中段）
+        LocalDateTime cursorAt = now.minusDays(10);
+        assertIndexed("OrderRestocker.sweep",
+                "SELECT id, expires_at FROM order_list WHERE status = ? AND expires_at < ? " +
+                        "AND (expires_at > ? OR (expires_at = ? AND id > ?)) AND create_at >= ? AND create_at < ? " +
+                        "AND MOD(id, ?) = ? ORDER BY expires_at, id LIMIT ? FOR UPDATE SKIP LOCKED",
+                OrderStatus.PENDING_PAYMENT.name(), Timestamp.valueOf(now), Timestamp.valueOf(cursorAt), Timestamp.valueOf(cursorAt), 0L,
+                Timestamp.valueOf(cursorAt.minusHours(48)), Timestamp.valueOf(now.plusHours(24)), 4, 0, 500);
+    }
+
+    @Test
+    @DisplayName("PaymentRepository：每個查詢都走索引、沒有 filesort")
+    void payment_queries_use_indexes() {
+        LocalDateTime now = LocalDateTime.now();
+        String txHash = jdbc.queryForObject("SELECT tx_hash FROM payments WHERE tx_hash LIKE '0xplanseed%' ORDER BY id DESC LIMIT 1",
+                String.class);
+        Long orderListId = jdbc.queryForObject("SELECT order_list_id FROM payments WHERE tx_hash = ?", Long.class, txHash);
+        List<Long> ids = jdbc.queryForList("SELECT id FROM payments ORDER BY id DESC LIMIT 50", Long.class);
+
+        assertIndexed("findByTxHash",
+                SqlRecorder.record(() -> pr.findByTxHash(txHash)).get(0),
+                txHash);
+        assertIndexed("findAllByOrderListId",
+                SqlRecorder.record(() -> pr.findAllByOrderListId(orderListId)).get(0),
+                orderListId);
+        assertIndexed("findFirstByOrderListIdAndStatusOrderByCreateAtDesc",
+                SqlRecorder.record(() -> pr.findFirstByOrderListIdAndStatusOrderByCreateAtDesc(orderListId, PaymentStatus.PENDING)).get(0),
+                orderListId, PaymentStatus.PENDING.name(), 1);
+        assertIndexed("findAllByStatusAndExpiresAtBefore",
+                SqlRecorder.record(() -> pr.findAllByStatusAndExpiresAtBefore(PaymentStatus.PENDING, now)).get(0),
+                PaymentStatus.PENDING.name(), Timestamp.valueOf(now));
+
+        // findExpiredPage（游標在起點）
+        LocalDateTime start = JobCursor.START;
+        LocalDateTime createdBefore = now.plusHours(24);
+        assertIndexed("findExpiredPage",
+                SqlRecorder.record(() -> pr.findExpiredPage(PaymentStatus.PENDING, now, start, 0L,
+                        start.atZone(ZoneId.systemDefault()).toInstant(),
+                        createdBefore.atZone(ZoneId.systemDefault()).toInstant(),
+                        Limit.of(1000))).get(0),
+                PaymentStatus.PENDING.name(), Timestamp.valueOf(now), Timestamp.valueOf(start), Timestamp.valueOf(start), 0L,
+                Timestamp.valueOf(start), Timestamp.valueOf(createdBefore), 1000);
+
+        // expirePendingByIds（cutoff 在起點，一筆都不會改；交易也會回滾）
+        Instant at = Instant.now();
+        assertIndexed("expirePendingByIds",
+                recordRolledBack(() -> pr.expirePendingByIds(ids, start, at)).get(0),
+                args(Timestamp.from(at), ids, Timestamp.valueOf(start)));
+    }
+
+    @Test
+    @DisplayName("TicketTypeRepository：每個查詢都走索引；主辦方票種分頁只允許小範圍 filesort")
+    void ticketType_queries_use_indexes() {
+        Long ticketTypeId = jdbc.queryForObject("SELECT MAX(t.id) FROM ticket_types t JOIN events e ON e.id = t.event_id " +
+                "WHERE e.name LIKE CONCAT(?, '%')", Long.class, SEED_EVENT_PREFIX);
+        Long eventId = jdbc.queryForObject("SELECT event_id FROM ticket_types WHERE id = ?", Long.class, ticketTypeId);
+
+        assertIndexed("findAllByEventId",
+                SqlRecorder.record(() -> tr.findAllByEventId(eventId)).get(0),
+                eventId);
+        assertIndexed("findByIdWithOptimisticLock",
+                SqlRecorder.record(() -> tr.findByIdWithOptimisticLock(ticketTypeId)).get(0),
+                ticketTypeId);
+        assertIndexed("findFenceTokenById",
+                SqlRecorder.record(() -> tr.findFenceTokenById(ticketTypeId)).get(0),
+                ticketTypeId);
+        assertIndexed("findPriceById",
+                SqlRecorder.record(() -> tr.findPriceById(ticketTypeId)).get(0),
+                ticketTypeId);
+        assertIndexed("findEventIdById",
+                SqlRecorder.record(() -> tr.findEventIdById(ticketTypeId)).get(0),
+                ticketTypeId);
+
+        // applyQuotaDelta / applyQuotaDeltaFenced（delta 0，交易也會回滾）
+        Instant at = Instant.now();
+        assertIndexed("applyQuotaDelta",
+                recordRolledBack(() -> tr.applyQuotaDelta(ticketTypeId, 0, at)).get(0),
+                0, Timestamp.from(at), ticketTypeId, 0);
+        assertIndexed("applyQuotaDeltaFenced",
+                recordRolledBack(() -> tr.applyQuotaDeltaFenced(ticketTypeId, 0, 0L, at)).get(0),
+                0, 0L, Timestamp.from(at), ticketTypeId, 0, 0L);
+
+        // findAllByEventIdIn（主辦方自己的活動；內容 + count 兩條都看）
+        List<Long> owned = new ArrayList<>(er.findOwnedIds(seedUserId));
+        assertThat(owned).hasSizeGreaterThan(10); // 超過一頁才會查 count
+        List<String> sql = SqlRecorder.record(() ->
+                tr.findAllByEventIdIn(owned, PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "id"))));
+        assertPlan("findAllByEventIdIn", true, sql.get(0), args(owned, 10));
+        assertIndexed("findAllByEventIdIn (count)", countQuery(sql), owned.toArray());
+    }
+
+    @Test
+    @DisplayName("EventRepository：主辦 / 協辦的活動先各自走索引拿 id，再用主鍵分頁（不再 distinct + OR）")
+    void event_queries_use_indexes() {
+        assertIndexed("findIdsByOrganizerId",
+                SqlRecorder.record(() -> er.findIdsByOrganizerId(seedUserId)).get(0),
+                seedUserId);
+        assertIndexed("findIdsByCoOrganizerId",
+                SqlRecorder.record(() -> er.findIdsByCoOrganizerId(seedUserId)).get(0),
+                seedUserId);
+
+        // findAllByIdIn（findAllOwnedBy 的分頁；內容 + count 兩條都看）
+        Set<Long> owned = er.findOwnedIds(seedUserId);
+        assertThat(owned).hasSizeGreaterThan(10); // 超過一頁才會查 count
+        List<Long> ids = new ArrayList<>(owned);
+        PageRequest pageable = PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "id"));
+        List<String> sql = SqlRecorder.record(() -> er.findAllByIdIn(ids, pageable));
+        assertIndexed("findAllByIdIn", sql.get(0), args(ids, 10));
+        assertIndexed("findAllByIdIn (count)", countQuery(sql), ids.toArray());
+
+        // 行為不變：主辦 + 協辦都算、重複的只算一次
+        Page<Event> page = er.findAllOwnedBy(seedUserId, pageable);
+        assertThat(page.getTotalElements()).isEqualTo(owned.size());
+        assertThat(page.getContent()).allMatch(e -> owned.contains(e.getId()));
+    }
+
+    private void analyze() {
+        for (String table : List.of("users", "order_list", "payments", "events", "ticket_types", "event_organizers")) {
+            jdbc.queryForList("ANALYZE TABLE " + table);
+        }
+    }
+
+    // @Modifying 的查詢要在交易裡跑；只是為了拿到 SQL，跑完回滾
+    private List<String> recordRolledBack(Runnable call) {
+        return SqlRecorder.record(() -> new TransactionTemplate(txManager).executeWithoutResult(s -> {
+            call.run();
+            s.setRollbackOnly();
+        }));
+    }
+
+    // 分頁的 count 查詢（跟內容查詢之間可能夾著 EAGER 關聯的查詢，用開頭找）
+    private static String countQuery(List<String> sql) {
+        return sql.stream()
+                .filter(s -> s.startsWith("select count("))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no count query recorded: " + sql));
+    }
+
+    private void assertIndexed(String label, String sql, Object... params) {
+        assertPlan(label, false, sql, params);
+    }
+
+    // EXPLAIN 每一列：實體表不能 ALL / index；sortAllowed = false 時也不能 filesort / 暫存表
+    private void assertPlan(String label, boolean sortAllowed, String sql, Object... params) {
+        long placeholders = sql.chars().filter(c -> c == '?').count();
+        assertThat(placeholders).as(label + ": parameter count changed: " + sql).isEqualTo(params.length);
+
+        List<Map<String, Object>> plan = jdbc.queryForList("EXPLAIN " + sql, params);
+        assertThat(plan).as(label + ": no plan").isNotEmpty();
+        for (Map<String, Object> row : plan) {
+            String table = str(row.get("table"));
+            String type = str(row.get("type"));
+            String extra = str(row.get("Extra"));
+            if (table.isEmpty() || table.startsWith("<") || type.isEmpty()) continue; // 衍生表 / const 表 / 不可能成立的條件
+            assertThat(type).as(label + ": full scan on " + table + " " + row + "\n" + sql).isNotIn("ALL", "index");
+            if (!sortAllowed) {
+                assertThat(extra).as(label + ": " + row + "\n" + sql).doesNotContain("Using filesort").doesNotContain("Using temporary");
+            }
+        }
+    }
+
+    private static String str(Object v) {
+        return v == null ? "" : v.toString();
+    }
+
+    // 參數攤平（IN 清單展開成一個一個 ?）
+    private static Object[] args(Object... parts) {
+        List<Object> out = new ArrayList<>();
+        for (Object p : parts) {
+            if (p instanceof List<?> list) out.addAll(list);
+            else out.add(p);
+        }
+        return out.toArray();
+    }
+}
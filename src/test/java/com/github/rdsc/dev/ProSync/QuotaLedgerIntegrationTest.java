@@ -0,0 +1,114 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.inventory.AvailableQuota;
+import com.github.rdsc.dev.ProSync.inventory.QuotaLedger;
+import com.github.rdsc.dev.ProSync.inventory.QuotaWriteBehind;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.TicketOrderService;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * LEDGER 模式：
+ * 1) reserve() 只扣記憶體帳本，ticket_types.quota 先不動，明細記 pending_quota
+ * 2) 背景回寫 flush() 之後，ticket_types.quota 才真的扣掉，pending_quota 歸零
+ * 3) 帳本不夠時直接 409，不會碰 Redis 鎖
+**/
+@SpringBootTest(properties = "app.reservation.mode=LEDGER")
+class QuotaLedgerIntegrationTest {
+
+    @Resource TicketOrderService ts;
+    @Resource QuotaLedger ledger;
+    @Resource QuotaWriteBehind writeBehind;
+    @Resource AvailableQuota availableQuota;
+
+    @Resource UserRepository ur;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+    @Resource OrderListRepository lr;
+    @Resource OrderDetailRepository dr;
+
+    // LEDGER 模式不會用到鎖；一樣 mock 掉，避免依賴本機 Redis
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @Test
+    @DisplayName("LEDGER：reserve 先扣帳本 → write-behind 回寫 ticket_types.quota")
+    @WithMockUser(username = "ledger-test@example.com", roles = {"USER"})
+    void reserve_with_ledger_then_write_behind() {
+        final String email = "ledger-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Ledger Test");
+        e.setDescription("Quota ledger testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Hot");
+        t.setPrice(new BigDecimal("300.00"));
+        t.setQuota(5);
+        tr.save(t);
+
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        ol = lr.save(ol);
+
+        // 1/ 預約 3 張：帳本 5 → 2，DB quota 還是 5
+        ts.reserve(ol.getId(), t.getId(), 3);
+        assertThat(ledger.remaining(t.getId())).isEqualTo(2);
+        assertThat(tr.findById(t.getId()).orElseThrow().getQuota()).isEqualTo(5);
+        assertThat(dr.findByOrderListIdAndTicketTypeId(ol.getId(), t.getId()).orElseThrow().getPendingQuota()).isEqualTo(3);
+
+        // 2/ 帳本只剩 2 張，再要 3 張 → 409
+        Long olId = ol.getId();
+        assertThatThrownBy(() -> ts.reserve(olId, t.getId(), 3))
+                .isInstanceOf(ResponseStatusException.class);
+        assertThat(ledger.remaining(t.getId())).isEqualTo(2);
+
+        // 3/ 背景回寫：DB quota 5 → 2，pending 歸零；回寫前後算出來的可用張數都一樣（quota - pending 同一個快照）
+        assertThat(availableQuota.load(t.getId())).isEqualTo(2);
+        writeBehind.settle(t.getId());
+        assertThat(tr.findById(t.getId()).orElseThrow().getQuota()).isEqualTo(2);
+        assertThat(dr.findByOrderListIdAndTicketTypeId(ol.getId(), t.getId()).orElseThrow().getPendingQuota()).isZero();
+        assertThat(availableQuota.load(t.getId())).isEqualTo(2);
+
+        // 3-1/ 同一張訂單再加同票種：明細要鎖住重讀，不能拿回寫前的 pending 舊值再加上去
+        ts.reserve(ol.getId(), t.getId(), 1);
+        assertThat(dr.findByOrderListIdAndTicketTypeId(ol.getId(), t.getId()).orElseThrow().getPendingQuota()).isEqualTo(1);
+        writeBehind.settle(t.getId());
+        assertThat(tr.findById(t.getId()).orElseThrow().getQuota()).isEqualTo(1);
+
+        // 4/ 重建帳本（模擬重啟）：數字要跟回寫後一致
+        ledger.invalidate(t.getId());
+        ts.reserve(ol.getId(), t.getId(), 1);
+        assertThat(ledger.remaining(t.getId())).isZero();
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.ReservationMode;
+import com.github.rdsc.dev.ProSync.inventory.QuotaShards;
+import com.github.rdsc.dev.ProSync.model.Event;
+import com.github.rdsc.dev.ProSync.model.TicketType;
+import com.github.rdsc.dev.ProSync.model.TicketTypeShard;
+import com.github.rdsc.dev.ProSync.repository.EventRepository;
+import com.github.rdsc.dev.ProSync.repository.TicketTypeRepository;
+import com.github.rdsc.dev.ProSync.repository.TicketTypeShardRepository;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * STRIPED 分片：
+ * 1) take() 本家分片夠就只動本家那一列；不夠才跨片湊；加起來都不夠 → 409
+ * 2) refill() 只在 STRIPED 模式加回本家分片
+ * 3) 用其他模式啟動時，舊分片整組清掉（之後切回 STRIPED 依 DB 重新切分）
+**/
+@SpringBootTest(properties = {
+        "app.reservation.mode=STRIPED",
+        "app.reservation.striping.shards=4"
+})
+class QuotaShardsIntegrationTest {
+
+    @Resource QuotaShards quotaShards;
+    @Resource TicketTypeShardRepository shardRepo;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+    @Resource PlatformTransactionManager txManager;
+
+    // 分片不會用到鎖；一樣 mock 掉，避免依賴本機 Redis
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @Test
+    @DisplayName("STRIPED：本家分片優先、不夠才跨片，refill 只在 STRIPED 加回本家，其他模式啟動清掉舊分片")
+    void take_probes_home_shard_then_falls_through() {
+        Event e = new Event();
+        e.setName("Shard Test");
+        e.setDescription("Quota shard testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Striped");
+        t.setPrice(new BigDecimal("100.00"));
+        t.setQuota(8);
+        tr.save(t);
+        Long id = t.getId();
+
+        final Long orderListId = 12345L; // 本家 = 12345 % 4 = 1（take / refill 不會寫訂單）
+        // take 的最後一個參數是售完 generation：新票種還沒被解除過，就是 0
+        TransactionTemplate tx = new TransactionTemplate(txManager);
+
+        // 1/ 切成 4 片，各 2 張
+        quotaShards.ensureShards(id);
+        assertThat(quotas(id)).containsExactly(2, 2, 2, 2);
+
+        // 2/ 本家夠：只動本家那一列，其他分片版本不變
+        tx.executeWithoutResult(s -> quotaShards.take(id, orderListId, 2, 0L));
+        assertThat(quotas(id)).containsExactly(2, 0, 2, 2);
+        assertThat(shardRepo.findAllByTicketTypeIdOrderByShardNo(id))
+                .filteredOn(s -> s.getShardNo() != 1)
+                .extracting(TicketTypeShard::getVersion)
+                .containsOnly(0L);
+
+        // 3/ 本家不夠、沒有單片夠 → 從本家往後湊
+        tx.executeWithoutResult(s -> quotaShards.take(id, orderListId, 3, 0L));
+        assertThat(quotas(id)).containsExactly(2, 0, 0, 1);
+
+        // 4/ 加起來都不夠 → 409，分片不動
+        assertThatThrownBy(() -> tx.executeWithoutResult(s -> quotaShards.take(id, orderListId, 4, 0L)))
+                .isInstanceOf(ResponseStatusException.class);
+        assertThat(quotas(id)).containsExactly(2, 0, 0, 1);
+
+        // 5/ 回補加回本家
+        tx.executeWithoutResult(s -> quotaShards.refill(id, orderListId, 3));
+        assertThat(quotas(id)).containsExactly(2, 3, 0, 1);
+
+        // 6/ 不是 STRIPED：refill 不動分片，啟動時整組清掉
+        QuotaShards target = AopTestUtils.getTargetObject(quotaShards);
+        ReflectionTestUtils.setField(target, "mode", ReservationMode.OPTIMISTIC);
+        try {
+            tx.executeWithoutResult(s -> quotaShards.refill(id, orderListId, 3));
+            assertThat(quotas(id)).containsExactly(2, 3, 0, 1);
+
+            quotaShards.dropStaleShards();
+            assertThat(shardRepo.countByTicketTypeId(id)).isZero();
+        } finally {
+            ReflectionTestUtils.setField(target, "mode", ReservationMode.STRIPED);
+        }
+    }
+
+    private List<Integer> quotas(Long ticketTypeId) {
+        return shardRepo.findAllByTicketTypeIdOrderByShardNo(ticketTypeId).stream()
+                .map(TicketTypeShard::getQuota)
+                .toList();
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.inventory.AvailableQuota;
+import com.github.rdsc.dev.ProSync.inventory.RedisQuotaCounter;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * REDIS_LUA 計數器（要本機 Redis，連不上就略過）：
+ * 1) tryAcquire / release：Lua 檢查 + 扣減，不夠不扣；key 帶 TTL
+ * 2) 有扣減還沒落地（settled）時 invalidate → 不會從 DB 重新載入（DB 還看不到那幾張），等不到回 503
+ * 3) 載入期間 gen 變了（invalidate / 落地）→ 丟掉讀到的舊值重讀
+ * DB 的「可用張數」用 mock 控制，不需要建票種
+**/
+@SpringBootTest(properties = {
+        "app.reservation.mode=REDIS_LUA",
+        "app.reservation.redis-quota.reload-wait-ms=100"
+})
+class RedisQuotaCounterIntegrationTest {
+
+    @Resource RedisQuotaCounter counter;
+    @Resource StringRedisTemplate redis;
+
+    @MockitoBean
+    AvailableQuota availableQuota;
+
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    private Long ticketTypeId;
+
+    @BeforeEach
+    void setUp() {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+        ticketTypeId = 900_000_000L + ThreadLocalRandom.current().nextInt(1_000_000);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        if (ticketTypeId == null) return;
+        redis.delete(List.of("quota:" + ticketTypeId, "quota:" + ticketTypeId + ":inflight", "quota:" + ticketTypeId + ":gen"));
+    }
+
+    @Test
+    @DisplayName("REDIS_LUA：第一次用到從 DB 載入（帶 TTL），不夠不扣，release 加回去")
+    void acquire_and_release() {
+        when(availableQuota.load(ticketTypeId)).thenReturn(5);
+
+        assertThat(counter.tryAcquire(ticketTypeId, 3)).isTrue();
+        counter.settled(ticketTypeId, 3);
+        assertThat(counter.remaining(ticketTypeId)).isEqualTo(2);
+        assertThat(redis.getExpire("quota:" + ticketTypeId, TimeUnit.MILLISECONDS)).isPositive();
+
+        assertThat(counter.tryAcquire(ticketTypeId, 3)).isFalse(); // 不夠就不扣
+        assertThat(counter.remaining(ticketTypeId)).isEqualTo(2);
+
+        counter.release(ticketTypeId, 3);
+        assertThat(counter.remaining(ticketTypeId)).isEqualTo(5);
+        verify(availableQuota, times(1)).load(ticketTypeId); // 只載入一次
+    }
+
+    @Test
+    @DisplayName("REDIS_LUA：還有扣減沒落地時 invalidate，不會把那幾張又從 DB 載入成可賣")
+    void reload_waits_for_in_flight_reservations() {
+        when(availableQuota.load(ticketTypeId)).thenReturn(5);
+        assertThat(counter.tryAcquire(ticketTypeId, 2)).isTrue(); // Redis 5 → 3，明細還沒 commit
+
+        // 主辦方改 quota → invalidate；DB 還看不到那 2 張，讀出來還是 5
+        counter.invalidate(ticketTypeId);
+        assertThatThrownBy(() -> counter.tryAcquire(ticketTypeId, 5))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+        assertThat(counter.remaining(ticketTypeId)).isNull();
+
+        // 明細 commit（DB 可用張數 = 3）→ settled → 可以重新載入
+        when(availableQuota.load(ticketTypeId)).thenReturn(3);
+        counter.settled(ticketTypeId, 2);
+        assertThat(counter.tryAcquire(ticketTypeId, 5)).isFalse();
+        assertThat(counter.tryAcquire(ticketTypeId, 3)).isTrue();
+        counter.settled(ticketTypeId, 3);
+        assertThat(counter.remaining(ticketTypeId)).isZero();
+    }
+
+    @Test
+    @DisplayName("REDIS_LUA：載入期間被 invalidate（gen 變了）→ 讀到的舊值不寫回，重讀一次")
+    void reload_discards_value_read_before_invalidate() {
+        // 第一次讀 DB 時剛好主辦方改了 quota（5 → 1）並 invalidate
+        when(availableQuota.load(anyLong())).thenAnswer(inv -> {
+            counter.invalidate(ticketTypeId);
+            return 5;
+        }).thenReturn(1);
+
+        assertThat(counter.tryAcquire(ticketTypeId, 1)).isTrue();
+        counter.settled(ticketTypeId, 1);
+        assertThat(counter.remaining(ticketTypeId)).isZero();
+        verify(availableQuota, times(2)).load(ticketTypeId);
+    }
+}
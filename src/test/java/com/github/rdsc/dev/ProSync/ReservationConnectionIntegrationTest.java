@@ -0,0 +1,111 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.TicketOrderService;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 一次預約嘗試只佔一條連線：
+ * 1) 連線池只開 1 條：reserve() 照樣成功（如果外層還佔著一條，REQUIRES_NEW 的嘗試會拿不到連線而逾時）
+ * 2) 排隊等 seat 鎖的時候這條執行緒手上沒有交易、沒有綁著連線
+ * 3) reservation.connection.hold 記到一次 commit
+**/
+@SpringBootTest(properties = {
+        "spring.datasource.hikari.maximum-pool-size=1",
+        "spring.datasource.hikari.connection-timeout=5000"
+})
+class ReservationConnectionIntegrationTest {
+
+    @Resource TicketOrderService ts;
+    @Resource DataSource dataSource;
+    @Resource MeterRegistry meterRegistry;
+
+    @Resource UserRepository ur;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+    @Resource OrderListRepository lr;
+
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @Test
+    @DisplayName("reserve()：連線池只有 1 條也能成功，等鎖時不佔連線，一次嘗試記一筆 connection.hold")
+    @WithMockUser(username = "conn-test@example.com", roles = {"USER"})
+    void one_connection_per_attempt() throws Exception {
+        final String email = "conn-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Connection Test");
+        e.setDescription("Connection usage testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Pooled");
+        t.setPrice(new BigDecimal("100.00"));
+        t.setQuota(5);
+        tr.save(t);
+
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        ol = lr.save(ol);
+
+        // 拿鎖的當下：這條執行緒不在交易裡，也沒有綁著連線（排程工作可能借走池子裡那一條，所以不看池子的 active 數）
+        List<Boolean> holdingWhileLocking = new ArrayList<>();
+        Mockito.when(rlock.lockSeat(Mockito.anyLong(), Mockito.any())).thenAnswer(inv -> {
+            holdingWhileLocking.add(TransactionSynchronizationManager.isActualTransactionActive()
+                    || TransactionSynchronizationManager.hasResource(dataSource));
+            return "test-token";
+        });
+
+        long commitsBefore = commits();
+
+        ts.reserve(ol.getId(), t.getId(), 2);
+
+        assertThat(tr.findById(t.getId()).orElseThrow().getQuota()).isEqualTo(3);
+        assertThat(holdingWhileLocking).containsExactly(false);
+        assertThat(commits() - commitsBefore).isEqualTo(1);
+        assertThat(dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize()).isEqualTo(1);
+    }
+
+    private long commits() {
+        Timer timer = meterRegistry.find("reservation.connection.hold")
+                .tags("mode", "OPTIMISTIC", "outcome", "commit")
+                .timer();
+        return timer == null ? 0 : timer.count();
+    }
+}
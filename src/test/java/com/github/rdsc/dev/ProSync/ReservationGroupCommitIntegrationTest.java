@@ -0,0 +1,251 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.ReservationGroupCommit;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * GROUP_COMMIT 模式：
+ * 6 個人同時搶 quota = 4 的票種（每人 1 張）
+ * → 4 個成功、2 個 409，ticket_types.quota 剛好扣到 0，明細 4 筆
+ * 被拿進批次之後才逾時：呼叫端等到 commit 拿到結果，不回 503
+ * 快到最長壽命的購物車：到期時間只延到 create_at + max-age-hours，commit 後放進到期索引（要本機 Redis，連不上就略過）
+**/
+@SpringBootTest(properties = "app.reservation.mode=GROUP_COMMIT")
+class ReservationGroupCommitIntegrationTest {
+
+    @Resource ReservationGroupCommit groupCommit;
+
+    @Resource UserRepository ur;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+    @Resource OrderListRepository lr;
+    @Resource OrderDetailRepository dr;
+    @Resource JdbcTemplate jdbc;
+    @Resource PlatformTransactionManager txManager;
+    @Resource StringRedisTemplate redis;
+
+    // GROUP_COMMIT 不會用到 Redis 鎖；一樣 mock 掉，避免依賴本機 Redis
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @Test
+    @DisplayName("GROUP_COMMIT：同票種併發預約整批 commit，不超賣")
+    void concurrent_reserve_is_group_committed() throws Exception {
+        final String email = "group-commit-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Group Commit Test");
+        e.setDescription("Group commit testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Queue");
+        t.setPrice(new BigDecimal("200.00"));
+        t.setQuota(4);
+        tr.save(t);
+
+        int users = 6;
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            OrderList ol = new OrderList();
+            ol.setUser(u);
+            ol.setStatus(OrderStatus.PENDING_PAYMENT);
+            ol.setTotalCost(new BigDecimal("0.00"));
+            ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+            orderIds.add(lr.save(ol).getId());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(users);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger ok = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (Long olId : orderIds) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                try {
+                    groupCommit.reserve(olId, t.getId(), 1);
+                    ok.incrementAndGet();
+                } catch (ResponseStatusException ex) {
+                    rejected.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) f.get(10, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        assertThat(ok.get()).isEqualTo(4);
+        assertThat(rejected.get()).isEqualTo(2);
+        assertThat(tr.findById(t.getId()).orElseThrow().getQuota()).isZero();
+        long details = orderIds.stream()
+                .filter(id -> dr.findByOrderListIdAndTicketTypeId(id, t.getId()).isPresent())
+                .count();
+        assertThat(details).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("GROUP_COMMIT：已經被拿進批次才逾時 → 呼叫端等到 commit，拿到結果而不是 503（重試才不會重複預約）")
+    void timeout_after_taken_waits_for_commit() throws Exception {
+        final String email = "group-commit-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Group Commit Timeout Test");
+        e.setDescription("Group commit timeout testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Slow");
+        t.setPrice(new BigDecimal("200.00"));
+        t.setQuota(3);
+        tr.save(t);
+
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        Long olId = lr.save(ol).getId();
+
+        // 呼叫端只等 200ms；測試先鎖住票種列，寫入者拿到請求後卡在 SELECT ... FOR UPDATE
+        final long timeoutMs = 200;
+        ReservationGroupCommit target = AopTestUtils.getTargetObject(groupCommit);
+        Object original = ReflectionTestUtils.getField(target, "timeoutMs");
+        ReflectionTestUtils.setField(target, "timeoutMs", timeoutMs);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> caller = new TransactionTemplate(txManager).execute(status -> {
+                jdbc.queryForMap("SELECT id FROM ticket_types WHERE id = ? FOR UPDATE", t.getId());
+                Future<Long> f = pool.submit(() -> groupCommit.reserve(olId, t.getId(), 1));
+                try {
+                    Thread.sleep(timeoutMs * 3); // 超過呼叫端的逾時，才放掉票種列
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                assertThat(f.isDone()).isFalse(); // 逾時了但已在批次裡：還在等，沒有回 503
+                return f;
+            });
+
+            assertThat(caller.get(10, TimeUnit.SECONDS)).isEqualTo(olId);
+        } finally {
+            ReflectionTestUtils.setField(target, "timeoutMs", original);
+            pool.shutdown();
+        }
+
+        assertThat(tr.findById(t.getId()).orElseThrow().getQuota()).isEqualTo(2);
+        assertThat(dr.findByOrderListIdAndTicketTypeId(olId, t.getId()).orElseThrow().getQuantity()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("GROUP_COMMIT：到期時間不超過 create_at + max-age-hours，commit 後放進到期索引")
+    void deadline_is_capped_and_indexed() {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+
+        final String email = "group-commit-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Group Commit Deadline Test");
+        e.setDescription("Group commit deadline testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Deadline");
+        t.setPrice(new BigDecimal("200.00"));
+        t.setQuota(3);
+        tr.save(t);
+
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(5));
+        Long olId = lr.save(ol).getId();
+
+        // 購物車已經建立快 24 小時（max-age-hours 預設 24）：只剩 10 分鐘，延長 30 分鐘會超過上限
+        LocalDateTime createAt = LocalDateTime.now().minusHours(24).plusMinutes(10);
+        new TransactionTemplate(txManager).executeWithoutResult(s ->
+                jdbc.update("UPDATE order_list SET create_at = ? WHERE id = ?", Timestamp.valueOf(createAt), olId));
+
+        String member = String.valueOf(olId);
+        try {
+            assertThat(groupCommit.reserve(olId, t.getId(), 1)).isEqualTo(olId);
+
+            LocalDateTime cap = createAt.plusHours(24);
+            LocalDateTime expiresAt = lr.findById(olId).orElseThrow().getExpiresAt();
+            assertThat(Duration.between(expiresAt, cap).abs()).isLessThan(Duration.ofSeconds(1)); // 卡在上限，不是 now + 30 分鐘
+
+            Double score = redis.opsForZSet().score("expiry:order", member);
+            assertThat(score).isNotNull();
+            long expected = expiresAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            assertThat(Math.abs(score.longValue() - expected)).isLessThan(1000L);
+        } finally {
+            redis.opsForZSet().remove("expiry:order", member);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.ReservationMode;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.TicketOrderService;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.when;
+
+/**
+ * 預約路徑壓測：OPTIMISTIC（載入實體 + @Version 重試）vs GUARDED_UPDATE（一條有條件的 UPDATE）
+ * 同一個票種、同樣的併發數，比較耗時、成功數、被擋下（409/429）的數量，兩者都不能超賣。
+ * 預設不跑（要連本機 MySQL、比較慢）：mvn test -Dbenchmark=true -Dtest=ReservationPathBenchmarkTest
+ * 模式是直接改共用 context 裡的 TicketOrderService，跑完一定要改回去，後面共用這個 context 的測試才不會跑在別的模式
+**/
+@SpringBootTest
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ReservationPathBenchmarkTest {
+
+    private static final int THREADS = 16;
+    private static final int REQUESTS = 400;
+    private static final int QUOTA = 300;
+
+    @Resource TicketOrderService ts;
+
+    @Resource UserRepository ur;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+    @Resource OrderListRepository lr;
+
+    // 鎖一律放行，讓 OPTIMISTIC 真的撞在 @Version 上
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    private Object originalMode;
+
+    @BeforeEach
+    void lockAlwaysGranted() {
+        when(rlock.lockSeat(anyLong(), any(Duration.class))).thenReturn("test-token");
+        originalMode = ReflectionTestUtils.getField(AopTestUtils.getTargetObject(ts), "reservationMode");
+    }
+
+    @AfterEach
+    void restoreMode() {
+        ReflectionTestUtils.setField(AopTestUtils.getTargetObject(ts), "reservationMode", originalMode);
+    }
+
+    @Test
+    @DisplayName("Benchmark：OPTIMISTIC vs GUARDED_UPDATE")
+    void optimistic_vs_guarded_update() throws Exception {
+        Result optimistic = run(ReservationMode.OPTIMISTIC);
+        Result guarded = run(ReservationMode.GUARDED_UPDATE);
+
+        for (Result r : List.of(optimistic, guarded)) {
+            log.info("benchmark: mode = {}, ms = {}, ok = {}, 409 = {}, 429 = {}", r.mode, r.elapsedMs, r.ok, r.conflict, r.tooMany);
+        }
+
+        // 都不能超賣；GUARDED_UPDATE 沒有重試，也就不該出現 429，而且賣得完
+        assertThat(optimistic.ok).isLessThanOrEqualTo(QUOTA);
+        assertThat(guarded.ok).isEqualTo(QUOTA);
+        assertThat(guarded.tooMany).isZero();
+        assertThat(tr.findById(guarded.ticketTypeId).orElseThrow().getQuota()).isZero();
+    }
+
+    private Result run(ReservationMode mode) throws Exception {
+        ReflectionTestUtils.setField(AopTestUtils.getTargetObject(ts), "reservationMode", mode);
+
+        String email = "bench-" + UUID.randomUUID() + "@example.com";
+        User u = new User();
+        u.setEmail(email);
+        u.setStatus(UserStatus.ACTIVE);
+        u.setPasswordHash("{noop}pw");
+        ur.save(u);
+
+        Event e = new Event();
+        e.setName("Bench " + mode);
+        e.setDescription("Reservation path benchmark");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Bench");
+        t.setPrice(new BigDecimal("100.00"));
+        t.setQuota(QUOTA);
+        tr.save(t);
+
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            OrderList ol = new OrderList();
+            ol.setUser(u);
+            ol.setStatus(OrderStatus.PENDING_PAYMENT);
+            ol.setTotalCost(BigDecimal.ZERO);
+            ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+            orderIds.add(lr.save(ol).getId());
+        }
+
+        AtomicInteger ok = new AtomicInteger();
+        AtomicInteger conflict = new AtomicInteger();
+        AtomicInteger tooMany = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Long olId : orderIds) {
+            futures.add(pool.submit(() -> {
+                // 每條執行緒自己的 SecurityContext（reserve() 會讀登入者）
+                SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                        email, null, List.of(new SimpleGrantedAuthority("ROLE_USER"))));
+                start.await();
+                try {
+                    ts.reserve(olId, t.getId(), 1);
+                    ok.incrementAndGet();
+                } catch (ResponseStatusException ex) {
+                    if (ex.getStatusCode().value() == 429) tooMany.incrementAndGet();
+                    else conflict.incrementAndGet();
+                } finally {
+                    SecurityContextHolder.clearContext();
+                }
+                return null;
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : futures) f.get(2, TimeUnit.MINUTES);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        pool.shutdown();
+
+        return new Result(mode, t.getId(), elapsedMs, ok.get(), conflict.get(), tooMany.get());
+    }
+
+    private record Result(ReservationMode mode, Long ticketTypeId, long elapsedMs, int ok, int conflict, int tooMany) {}
+}
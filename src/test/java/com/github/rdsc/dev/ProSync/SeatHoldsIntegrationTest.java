@@ -0,0 +1,224 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.enums.OrderStatus;
+import com.github.rdsc.dev.ProSync.enums.UserStatus;
+import com.github.rdsc.dev.ProSync.inventory.AvailableQuota;
+import com.github.rdsc.dev.ProSync.inventory.SeatHolds;
+import com.github.rdsc.dev.ProSync.model.*;
+import com.github.rdsc.dev.ProSync.repository.*;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.OrderRestocker;
+import com.github.rdsc.dev.ProSync.service.PaymentService;
+import com.github.rdsc.dev.ProSync.service.TicketOrderService;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * REDIS_HOLD 模式（要本機 Redis，連不上就略過）：
+ * 1) reserve() 只在 Redis 佔位，ticket_types.quota 不動，明細記 held_quantity
+ * 2) 佔位算進可用張數：別張訂單要超過剩下的 → 409
+ * 3) 付款確認才扣 ticket_types.quota，佔位轉正（佔位移除、快取的 quota 同步扣）
+ * 4) 棄單過期回補：ticket_types 不寫，佔位放掉，名額回到可賣
+ * 5) 快取的 quota 過期、重新載入時剛好有人付款轉正：讀到的舊可用張數寫不回去（gen 柵欄），重讀後才寫入
+**/
+@SpringBootTest(properties = "app.reservation.mode=REDIS_HOLD")
+class SeatHoldsIntegrationTest {
+
+    @Resource TicketOrderService ts;
+    @Resource PaymentService ps;
+    @Resource OrderRestocker restocker;
+    @Resource StringRedisTemplate redis;
+    @Resource SeatHolds seatHolds;
+    @Resource JdbcTemplate jdbc;
+
+    @Resource UserRepository ur;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+    @Resource OrderListRepository lr;
+    @Resource OrderDetailRepository dr;
+
+    // REDIS_HOLD 只用 StringRedisTemplate；分散式鎖一樣 mock 掉
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    // 載入的時候插一手：讀完 DB 之後才讓「付款轉正」發生
+    @MockitoSpyBean
+    AvailableQuota availableQuota;
+
+    @Test
+    @DisplayName("REDIS_HOLD：預約只佔位 → 付款才扣 ticket_types.quota；棄單過期只放掉佔位")
+    @WithMockUser(username = "hold-test@example.com", roles = {"USER"})
+    void hold_then_pay_or_abandon() {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+
+        final String email = "hold-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Seat Hold Test");
+        e.setDescription("Redis seat hold testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Held");
+        t.setPrice(new BigDecimal("500.00"));
+        t.setQuota(5);
+        tr.save(t);
+        Long id = t.getId();
+
+        OrderList paid = newOrder(u);
+        OrderList abandoned = newOrder(u);
+
+        try {
+            // 1/ 佔 3 張：DB quota 還是 5，明細記 held_quantity = 3
+            ts.reserve(paid.getId(), id, 3);
+            assertThat(tr.findById(id).orElseThrow().getQuota()).isEqualTo(5);
+            assertThat(dr.findByOrderListIdAndTicketTypeId(paid.getId(), id).orElseThrow().getHeldQuantity()).isEqualTo(3);
+            assertThat(redis.opsForValue().get("hold:" + id + ":total")).isEqualTo("3");
+
+            // 2/ 只剩 2 張可佔：另一張訂單要 3 張 → 409，佔位總數不變
+            assertThatThrownBy(() -> ts.reserve(abandoned.getId(), id, 3))
+                    .isInstanceOfSatisfying(ResponseStatusException.class,
+                            ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.CONFLICT));
+            assertThat(redis.opsForValue().get("hold:" + id + ":total")).isEqualTo("3");
+
+            // 3/ 付款確認：這時候才扣 DB quota（5 → 2），佔位轉正
+            String txhash = "0x" + Instant.now().toEpochMilli();
+            ps.confirmCryptoTx(ps.createCryptoQuote(paid.getId(), "BTC").getId(), txhash);
+            assertThat(lr.findById(paid.getId()).orElseThrow().getStatus()).isEqualTo(OrderStatus.CONFIRMED);
+            assertThat(tr.findById(id).orElseThrow().getQuota()).isEqualTo(2);
+            assertThat(dr.findByOrderListIdAndTicketTypeId(paid.getId(), id).orElseThrow().getHeldQuantity()).isZero();
+            assertThat(redis.opsForValue().get("hold:" + id + ":total")).isEqualTo("0");
+            assertThat(redis.opsForValue().get("hold:" + id + ":quota")).isEqualTo("2");
+
+            // 4/ 另一張訂單佔走剩下的 2 張，之後沒付款過期：ticket_types 不動，佔位放掉
+            ts.reserve(abandoned.getId(), id, 2);
+            assertThat(redis.opsForValue().get("hold:" + id + ":total")).isEqualTo("2");
+            restocker.expire(List.of(abandoned.getId()), LocalDateTime.now().plusHours(1));
+            assertThat(lr.findById(abandoned.getId()).orElseThrow().getStatus()).isEqualTo(OrderStatus.EXPIRED);
+            assertThat(tr.findById(id).orElseThrow().getQuota()).isEqualTo(2);
+            assertThat(redis.opsForValue().get("hold:" + id + ":total")).isEqualTo("0");
+            assertThat(redis.opsForHash().hasKey("hold:" + id + ":qty", String.valueOf(abandoned.getId()))).isFalse();
+
+            // 5/ 名額回到可賣：新訂單可以再佔 2 張
+            OrderList again = newOrder(u);
+            ts.reserve(again.getId(), id, 2);
+            assertThat(redis.opsForValue().get("hold:" + id + ":total")).isEqualTo("2");
+        } finally {
+            Set<String> keys = redis.keys("hold:" + id + ":*");
+            if (keys != null && !keys.isEmpty()) redis.delete(keys);
+        }
+    }
+
+    @Test
+    @DisplayName("REDIS_HOLD：重新載入 quota 快取期間有人轉正 → 舊值被 gen 柵欄擋下，重讀後不多算可用張數")
+    @WithMockUser(username = "hold-test@example.com", roles = {"USER"})
+    void reload_racing_conversion_is_fenced() {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+
+        final String email = "hold-test@example.com";
+        User u = ur.findByEmail(email).orElseGet(() -> {
+            User nu = new User();
+            nu.setEmail(email);
+            nu.setStatus(UserStatus.ACTIVE);
+            nu.setPasswordHash("{noop}pw"); // 測試用，滿足非空
+            return ur.save(nu);
+        });
+
+        Event e = new Event();
+        e.setName("Seat Hold Fence Test");
+        e.setDescription("Redis seat hold reload fence testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Fenced");
+        t.setPrice(new BigDecimal("500.00"));
+        t.setQuota(5);
+        tr.save(t);
+        Long id = t.getId();
+
+        OrderList paying = newOrder(u);
+        OrderList next = newOrder(u);
+        OrderList late = newOrder(u);
+
+        try {
+            // 1/ 佔 2 張（快取載入 5），然後快取的 quota 過期
+            ts.reserve(paying.getId(), id, 2);
+            redis.delete("hold:" + id + ":quota");
+
+            // 2/ 下一次載入：讀完 DB（還是 5）之後，付款 commit（DB 5 → 3）並轉正（快取不存在，沒東西可扣）
+            doAnswer(inv -> {
+                Object stale = inv.callRealMethod();
+                jdbc.update("UPDATE ticket_types SET quota = quota - 2 WHERE id = ?", id);
+                seatHolds.convertAfterCommit(id, paying.getId());
+                return stale;
+            }).doCallRealMethod().when(availableQuota).load(id);
+
+            // 3/ 舊的 5 寫不回去 → 重讀拿到 3：佔 3 張剛好佔滿
+            ts.reserve(next.getId(), id, 3);
+            assertThat(redis.opsForValue().get("hold:" + id + ":quota")).isEqualTo("3");
+            assertThat(redis.opsForValue().get("hold:" + id + ":total")).isEqualTo("3");
+
+            // 4/ 沒有多算可用張數：再要 1 張 → 409（不然付款確認時才 409）
+            assertThatThrownBy(() -> ts.reserve(late.getId(), id, 1))
+                    .isInstanceOfSatisfying(ResponseStatusException.class,
+                            ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.CONFLICT));
+        } finally {
+            Set<String> keys = redis.keys("hold:" + id + ":*");
+            if (keys != null && !keys.isEmpty()) redis.delete(keys);
+        }
+    }
+
+    private OrderList newOrder(User u) {
+        OrderList ol = new OrderList();
+        ol.setUser(u);
+        ol.setStatus(OrderStatus.PENDING_PAYMENT);
+        ol.setTotalCost(new BigDecimal("0.00"));
+        ol.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+        return lr.save(ol);
+    }
+}
@@ -0,0 +1,240 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * seat 鎖（要本機 Redis，連不上就略過）：
+ * 每個「節點」是一個自己 new 出來的 RedisLockHelper（各自的本機分條鎖），共用同一個 Redis，
+ * 這樣排隊的順序才是 Redis 上的 FIFO ZSET 決定的，不會被同一台機器的本機分條鎖先排好
+ * 1) 公平排隊：持有者放鎖後，其他節點照排進隊伍的先後拿到鎖（解鎖通知叫醒）
+ * 2) 等到 max-wait-ms 還沒輪到 → 回 null，自己的排隊紀錄也清掉，後面的人不用等它過期
+ * 3) 本機分條鎖：同一個執行緒再鎖落在同一條的票種不會自己等自己；內層放掉不會把外層的 permit 還回去
+ * 4) 拿了鎖沒放（例外、執行緒死掉）：鎖的 TTL 一到 permit 就收回，別的執行緒拿得到
+**/
+@SpringBootTest
+class SeatLockIntegrationTest {
+
+    @Resource StringRedisTemplate redis;
+    @Resource RedisMessageListenerContainer listenerContainer;
+    @Resource MeterRegistry meterRegistry;
+
+    private final List<RedisLockHelper> nodes = new ArrayList<>();
+    private final List<Long> ticketTypeIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+    }
+
+    @AfterEach
+    void cleanUp() {
+        nodes.forEach(n -> ReflectionTestUtils.invokeMethod(n, "shutdownRenewer"));
+        nodes.clear();
+        for (Long id : ticketTypeIds) {
+            redis.delete(List.of("seat:" + id, "seat:" + id + ":queue"));
+        }
+        ticketTypeIds.clear();
+    }
+
+    @Test
+    @DisplayName("公平排隊：三個節點依序排隊，持有者放鎖後照排隊順序拿到鎖")
+    void waiters_are_admitted_in_fifo_order() throws Exception {
+        Long id = ticketTypeId();
+        String queueKey = "seat:" + id + ":queue";
+
+        RedisLockHelper holder = node(5000);
+        String held = holder.lockSeat(id, Duration.ofSeconds(10));
+        assertThat(held).isNotNull();
+
+        // 一個一個排進隊伍（等前一個真的進了 ZSET 再放下一個，排隊時間才分得出先後）
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        ConcurrentLinkedQueue<String> admitted = new ConcurrentLinkedQueue<>();
+        List<Future<String>> futures = new ArrayList<>();
+        try {
+            for (String name : List.of("first", "second", "third")) {
+                RedisLockHelper waiter = node(5000);
+                int queued = futures.size() + 1;
+                futures.add(pool.submit(() -> {
+                    String token = waiter.lockSeat(id, Duration.ofSeconds(10));
+                    if (token == null) return null;
+                    admitted.add(name);
+                    Thread.sleep(20); // 拿著一下再放，下一位才會被叫醒
+                    waiter.unlockSeat(id, token);
+                    return token;
+                }));
+                awaitQueueSize(queueKey, queued);
+                Thread.sleep(5);
+            }
+
+            Thread.sleep(200); // 讓每個節點的解鎖通知訂閱生效（沒收到通知就會睡到持有者的 TTL）
+            holder.unlockSeat(id, held);
+            for (Future<String> f : futures) {
+                assertThat(f.get(10, TimeUnit.SECONDS)).isNotNull();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(admitted).containsExactly("first", "second", "third");
+        assertThat(redis.opsForZSet().zCard(queueKey)).isZero(); // 拿到鎖就離開隊伍
+    }
+
+    @Test
+    @DisplayName("公平排隊：等到 max-wait-ms 還沒輪到 → 回 null 並離開隊伍，後面的人不受影響")
+    void waiter_times_out_and_leaves_the_queue() throws Exception {
+        Long id = ticketTypeId();
+        String queueKey = "seat:" + id + ":queue";
+
+        RedisLockHelper holder = node(5000);
+        String held = holder.lockSeat(id, Duration.ofSeconds(10));
+        assertThat(held).isNotNull();
+
+        final long maxWaitMs = 300;
+        RedisLockHelper impatient = node(maxWaitMs);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            long begin = System.nanoTime();
+            Future<String> f = pool.submit(() -> impatient.lockSeat(id, Duration.ofSeconds(10)));
+            awaitQueueSize(queueKey, 1); // 真的排進去了
+
+            assertThat(f.get(5, TimeUnit.SECONDS)).isNull();
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            assertThat(elapsedMs).isGreaterThanOrEqualTo(maxWaitMs);
+            assertThat(elapsedMs).isLessThan(maxWaitMs + 2000); // 不會睡到持有者的 TTL（10 秒）
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // 逾時的排隊紀錄清掉了；鎖還是原本持有者的
+        assertThat(redis.opsForZSet().zCard(queueKey)).isZero();
+        assertThat(redis.opsForValue().get("seat:" + id)).isEqualTo(held);
+
+        // 持有者放鎖後，新來的人不用等逾時那筆過期，馬上排第一拿到
+        holder.unlockSeat(id, held);
+        RedisLockHelper next = node(maxWaitMs);
+        long begin = System.nanoTime();
+        String token = next.lockSeat(id, Duration.ofSeconds(10));
+        assertThat(token).isNotNull();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)).isLessThan(maxWaitMs);
+        next.unlockSeat(id, token);
+    }
+
+    @Test
+    @DisplayName("本機分條鎖：同執行緒再鎖同一條不會死結；內層放掉後外層還佔著這一條")
+    void same_thread_reentry_does_not_deadlock() throws Exception {
+        final long localWaitMs = 300;
+        RedisLockHelper n = node(0, 1, localWaitMs); // 只有一條：每個票種都落在同一條
+        Long outer = ticketTypeId();
+        Long inner = ticketTypeId();
+        Long other = ticketTypeId();
+
+        String outerToken = n.lockSeat(outer, Duration.ofSeconds(10));
+        assertThat(outerToken).isNotNull();
+
+        // 1/ 同一個執行緒鎖第二個票種（批次預約）：不用等本機排隊逾時
+        long begin = System.nanoTime();
+        String innerToken = n.lockSeat(inner, Duration.ofSeconds(10));
+        assertThat(innerToken).isNotNull();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)).isLessThan(localWaitMs);
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            // 2/ 內層先放：permit 還在外層手上，別的執行緒排不進來
+            n.unlockSeat(inner, innerToken);
+            assertThat(pool.submit(() -> n.lockSeat(other, Duration.ofSeconds(10))).get(5, TimeUnit.SECONDS)).isNull();
+
+            // 3/ 外層也放了：別的執行緒拿得到
+            n.unlockSeat(outer, outerToken);
+            String otherToken = pool.submit(() -> n.lockSeat(other, Duration.ofSeconds(10))).get(5, TimeUnit.SECONDS);
+            assertThat(otherToken).isNotNull();
+            pool.submit(() -> n.unlockSeat(other, otherToken)).get(5, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("本機分條鎖：拿了不放的 permit 在鎖的 TTL 到時收回，不用等 purgeExpired")
+    void leaked_permit_is_reclaimed_at_ttl() throws Exception {
+        final long ttlMs = 300;
+        RedisLockHelper n = node(0, 1, 3000);
+        Long leaked = ticketTypeId();
+        Long other = ticketTypeId();
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            // 1/ 另一個執行緒拿了鎖就結束，沒有 unlock
+            long begin = System.nanoTime();
+            assertThat(pool.submit(() -> n.lockSeat(leaked, Duration.ofMillis(ttlMs))).get(5, TimeUnit.SECONDS)).isNotNull();
+
+            // 2/ 同一條的別的票種：等到 TTL 收回 permit 才拿得到（本機排隊最多 3 秒，purgeExpired 要 60 秒）
+            String token = n.lockSeat(other, Duration.ofSeconds(10));
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            assertThat(token).isNotNull();
+            assertThat(elapsedMs).isGreaterThanOrEqualTo(ttlMs - 50); // 排程誤差：TTL 之前不會收回
+            assertThat(elapsedMs).isLessThan(3000);
+            n.unlockSeat(other, token);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private RedisLockHelper node(long maxWaitMs) {
+        return node(maxWaitMs, 64, 2000);
+    }
+
+    // 一個「節點」：自己的本機分條鎖 + 共用的 Redis；不看 Redis 延遲，避免慢機器把斷路器打開
+    private RedisLockHelper node(long maxWaitMs, int localStripes, long localWaitMs) {
+        RedisLockHelper n = new RedisLockHelper(redis, listenerContainer, meterRegistry);
+        ReflectionTestUtils.setField(n, "maxWaitMs", maxWaitMs);
+        ReflectionTestUtils.setField(n, "localStripes", localStripes);
+        ReflectionTestUtils.setField(n, "localWaitMs", localWaitMs);
+        ReflectionTestUtils.setField(n, "breakerFailureThreshold", 5);
+        ReflectionTestUtils.setField(n, "breakerSlowCallMs", 0L);
+        ReflectionTestUtils.setField(n, "breakerOpenMs", 5000L);
+        ReflectionTestUtils.invokeMethod(n, "initStripes");
+        nodes.add(n);
+        return n;
+    }
+
+    // 測試用的票種 id：不用真的建票種，只拿來當鎖的 key；挑一段不會撞到真資料的號碼
+    private Long ticketTypeId() {
+        Long id = 9_000_000_000L + ThreadLocalRandom.current().nextLong(1_000_000_000L);
+        ticketTypeIds.add(id);
+        return id;
+    }
+
+    private void awaitQueueSize(String queueKey, long size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            Long n = redis.opsForZSet().zCard(queueKey);
+            if (n != null && n >= size) return;
+            Thread.sleep(5);
+        }
+        throw new AssertionError("queue " + queueKey + " never reached " + size);
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.inventory.AvailableQuota;
+import com.github.rdsc.dev.ProSync.inventory.SoldOutRegistry;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * 售完名單的 generation 保護：
+ * 1) 讀庫存之前拿的 generation，讀完之前這個票種被解除過 → 不標；別的票種被解除不影響
+ * 2) markIfExhausted 讀 DB 途中被解除 → 不標
+ * 3) 其他節點的解除通知（pub/sub C:{id}）一樣讓舊 generation 失效；S:{id} 會同步標記（要本機 Redis，連不上就略過）
+ * 只動記憶體裡的名單，票種 id 不需要真的存在；可用張數用 mock 控制
+**/
+@SpringBootTest
+class SoldOutRegistryIntegrationTest {
+
+    @Resource SoldOutRegistry soldOut;
+    @Resource StringRedisTemplate redis;
+
+    @MockitoBean
+    AvailableQuota availableQuota;
+
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @Test
+    @DisplayName("SoldOut：讀之前拿的 generation 在解除後失效，不會把剛回補的票種標成售完")
+    void stale_generation_does_not_mark() {
+        Long id = randomId();
+        Long other = id + 1;
+
+        // 1/ 讀 quota 之前記下 generation → 這中間回補解除 → 讀到的 0 已經過時，不標
+        long before = soldOut.generation(id);
+        soldOut.clear(id);
+        soldOut.markSoldOut(id, before);
+        assertThat(soldOut.isSoldOut(id)).isFalse();
+
+        // 2/ 別的票種被解除不影響這個票種
+        long fresh = soldOut.generation(id);
+        soldOut.clear(other);
+        soldOut.markSoldOut(id, fresh);
+        assertThat(soldOut.isSoldOut(id)).isTrue();
+
+        // 3/ 解除之後標記消失，generation 往上加
+        soldOut.clear(id);
+        assertThat(soldOut.isSoldOut(id)).isFalse();
+        assertThat(soldOut.generation(id)).isGreaterThan(fresh);
+    }
+
+    @Test
+    @DisplayName("SoldOut：markIfExhausted 讀 DB 途中被解除 → 不標；沒被解除、讀到 0 → 標")
+    void mark_if_exhausted_respects_concurrent_clear() {
+        Long id = randomId();
+
+        when(availableQuota.load(id)).thenAnswer(inv -> {
+            soldOut.clear(id); // 讀的同時剛好有回補
+            return 0;
+        }).thenReturn(0);
+
+        soldOut.markIfExhausted(id);
+        assertThat(soldOut.isSoldOut(id)).isFalse();
+
+        soldOut.markIfExhausted(id);
+        assertThat(soldOut.isSoldOut(id)).isTrue();
+        soldOut.clear(id);
+    }
+
+    @Test
+    @DisplayName("SoldOut：其他節點的解除通知讓舊 generation 失效；售完通知同步標記")
+    void pub_sub_messages_invalidate_and_mark() throws Exception {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+
+        Long id = randomId();
+        Long marked = id + 1;
+        soldOut.isSoldOut(id); // 第一次用到才訂閱
+
+        // 1/ 其他節點回補 → C:{id}；訂閱是非同步建立的，收到之前重送
+        long before = soldOut.generation(id);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (soldOut.generation(id) == before) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            redis.convertAndSend("sold-out", "C:" + id);
+            Thread.sleep(50);
+        }
+        soldOut.markSoldOut(id, before);
+        assertThat(soldOut.isSoldOut(id)).isFalse();
+
+        // 2/ 其他節點賣完 → S:{id}，本機也標記
+        redis.convertAndSend("sold-out", "S:" + marked);
+        deadline = System.currentTimeMillis() + 5000;
+        while (!soldOut.isSoldOut(marked)) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(20);
+        }
+        soldOut.clear(marked);
+    }
+
+    private static Long randomId() {
+        return 900_000_000L + ThreadLocalRandom.current().nextInt(1_000_000) * 2L;
+    }
+}
@@ -0,0 +1,164 @@
+package com.github.rdsc.dev.ProSync;
+
+import com.github.rdsc.dev.ProSync.model.Event;
+import com.github.rdsc.dev.ProSync.model.TicketType;
+import com.github.rdsc.dev.ProSync.repository.EventRepository;
+import com.github.rdsc.dev.ProSync.repository.TicketTypeRepository;
+import com.github.rdsc.dev.ProSync.security.RedisLockHelper;
+import com.github.rdsc.dev.ProSync.service.WaitingRoomService;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 等候室（要本機 Redis，連不上就略過）：
+ * 1) 沒輪到 → 429；放行後才能下單；別人的號碼牌 → 403
+ * 2) 號碼牌只能用在一張訂單：綁定後只能往同一張訂單加購，再開新訂單 → 409
+ * 3) 建單失敗 release 之後，同一張號碼牌可以重試
+ * 4) 檢查途中 Redis 出錯 → 放行（fail open）
+ * 放行排程關掉（initial-delay 拉很長），由測試自己呼叫 advance()
+**/
+@SpringBootTest(properties = {
+        "app.waiting-room.enabled=true",
+        "app.jobs.waiting-room.initial-delay-ms=3600000"
+})
+class WaitingRoomIntegrationTest {
+
+    @Resource WaitingRoomService waitingRoom;
+    @Resource StringRedisTemplate redis;
+    @Resource EventRepository er;
+    @Resource TicketTypeRepository tr;
+
+    // 等候室只用 StringRedisTemplate；分散式鎖一樣 mock 掉
+    @MockitoBean
+    RedisLockHelper rlock;
+
+    @Test
+    @DisplayName("WaitingRoom：輪到才放行，號碼牌綁定一張訂單，失敗可以放掉重試")
+    void token_is_admitted_in_order_and_bound_to_one_order() throws Exception {
+        boolean up;
+        try {
+            up = "PONG".equalsIgnoreCase(redis.getConnectionFactory().getConnection().ping());
+        } catch (Exception ex) {
+            up = false;
+        }
+        assumeTrue(up, "local Redis is not available");
+
+        Event e = new Event();
+        e.setName("Waiting Room Test");
+        e.setDescription("Waiting room testing activities");
+        e.setStartAt(LocalDateTime.now().plusDays(1));
+        e.setEndAt(LocalDateTime.now().plusDays(1).plusHours(2));
+        er.save(e);
+
+        TicketType t = new TicketType();
+        t.setEvent(e);
+        t.setName("Queued");
+        t.setPrice(new BigDecimal("100.00"));
+        t.setQuota(10);
+        tr.save(t);
+
+        Long eventId = e.getId();
+        List<Long> ticketTypes = List.of(t.getId());
+        String alice = "wr-alice@example.com";
+        String bob = "wr-bob@example.com";
+
+        try {
+            // 1/ 開門，一秒放行 1 個；兩個人排隊拿號碼
+            waitingRoom.open(eventId, 1);
+            String aliceToken = waitingRoom.join(eventId, alice).getToken();
+            String bobToken = waitingRoom.join(eventId, bob).getToken();
+
+            // 2/ 還沒放行 → 429
+            assertStatus(() -> waitingRoom.checkAdmitted(ticketTypes, aliceToken, alice, null), HttpStatus.TOO_MANY_REQUESTS);
+
+            // 3/ 放行 1 號：alice 可以開新訂單，bob 還沒輪到，拿別人的號碼牌 → 403
+            awaitAdmitted(eventId, 1);
+            WaitingRoomService.Admission admission = waitingRoom.checkAdmitted(ticketTypes, aliceToken, alice, null);
+            assertThat(admission.eventIds()).containsExactly(eventId);
+            assertStatus(() -> waitingRoom.checkAdmitted(ticketTypes, bobToken, bob, null), HttpStatus.TOO_MANY_REQUESTS);
+            assertThatThrownBy(() -> waitingRoom.checkAdmitted(ticketTypes, aliceToken, bob, null))
+                    .isInstanceOf(AccessDeniedException.class);
+
+            // 4/ 建單中（佔了 "new"）再拿同一張開新訂單 → 409
+            assertStatus(() -> waitingRoom.checkAdmitted(ticketTypes, aliceToken, alice, null), HttpStatus.CONFLICT);
+
+            // 5/ 建好訂單 777：之後只能往 777 加購
+            waitingRoom.bind(admission, 777L);
+            assertThat(waitingRoom.checkAdmitted(ticketTypes, aliceToken, alice, 777L).eventIds()).containsExactly(eventId);
+            assertStatus(() -> waitingRoom.checkAdmitted(ticketTypes, aliceToken, alice, null), HttpStatus.CONFLICT);
+            assertStatus(() -> waitingRoom.checkAdmitted(ticketTypes, aliceToken, alice, 778L), HttpStatus.CONFLICT);
+
+            // 6/ 放行 2 號：bob 建單失敗 → release → 同一張號碼牌可以重試
+            awaitAdmitted(eventId, 2);
+            WaitingRoomService.Admission bobAdmission = waitingRoom.checkAdmitted(ticketTypes, bobToken, bob, null);
+            waitingRoom.release(bobAdmission);
+            assertThat(waitingRoom.checkAdmitted(ticketTypes, bobToken, bob, null).eventIds()).containsExactly(eventId);
+        } finally {
+            waitingRoom.close(eventId);
+            Set<String> keys = redis.keys("wr:" + eventId + ":*");
+            if (keys != null && !keys.isEmpty()) redis.delete(keys);
+        }
+    }
+
+    @Test
+    @DisplayName("WaitingRoom：檢查途中 Redis 出錯（讀放行水位）→ fail open 放行，不是 500")
+    void redis_error_while_reading_admitted_fails_open() {
+        StringRedisTemplate broken = mock(StringRedisTemplate.class);
+        @SuppressWarnings("unchecked") SetOperations<String, String> sets = mock(SetOperations.class);
+        @SuppressWarnings("unchecked") ValueOperations<String, String> values = mock(ValueOperations.class);
+        when(broken.opsForSet()).thenReturn(sets);
+        when(broken.opsForValue()).thenReturn(values);
+        when(sets.isMember("wr:active", "10")).thenReturn(true);
+        when(values.get("wr:10:token:tok")).thenReturn("a@example.com|1");
+        when(values.get("wr:10:admitted")).thenThrow(new RedisConnectionFailureException("redis down"));
+
+        TicketTypeRepository repo = mock(TicketTypeRepository.class);
+        when(repo.findEventIdById(1L)).thenReturn(Optional.of(10L));
+
+        WaitingRoomService service = new WaitingRoomService(broken, repo);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "tokenTtlMinutes", 30L);
+
+        assertThat(service.checkAdmitted(List.of(1L), "tok", "a@example.com", null))
+                .isSameAs(WaitingRoomService.Admission.NONE);
+    }
+
+    // 放行一秒只推一次（tick key），等到水位到了為止
+    private void awaitAdmitted(Long eventId, long upTo) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (waitingRoom.stats(eventId).getAdmittedUpTo() < upTo) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            waitingRoom.advance();
+            Thread.sleep(100);
+        }
+    }
+
+    private static void assertStatus(Runnable call, HttpStatus status) {
+        assertThatThrownBy(call::run)
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        ex -> assertThat(ex.getStatusCode()).isEqualTo(status));
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.rdsc.dev.ProSync.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 斷路器（不需要 Spring / Redis；RedisLockBreaker 是 package-private，測試放同一個 package）：
+ * 1) CLOSED → 連續失敗到門檻 → OPEN → openMs 後 HALF_OPEN（只放一個試探）→ 成功 → CLOSED
+ * 2) HALF_OPEN 試探失敗 → 再 OPEN 一輪；太慢的呼叫算失敗；中間成功一次就重新計數
+ * 3) 租約取號（INCR fence）出錯也算進斷路器，不會一直回 null / 429 卻不降級
+**/
+class RedisLockBreakerTest {
+
+    @Test
+    @DisplayName("Breaker：closed → open → half-open → closed，狀態切換有記 metric")
+    void closed_open_half_open_closed() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RedisLockBreaker breaker = new RedisLockBreaker(3, 0, 100, registry);
+
+        // 1/ 門檻以下都還是 CLOSED
+        breaker.onFailure();
+        breaker.onFailure();
+        assertThat(breaker.state()).isEqualTo(RedisLockBreaker.State.CLOSED);
+        assertThat(breaker.allowRedis()).isTrue();
+
+        // 2/ 第 3 次 → OPEN：不碰 Redis，降級
+        breaker.onFailure();
+        assertThat(breaker.state()).isEqualTo(RedisLockBreaker.State.OPEN);
+        assertThat(breaker.isDegraded()).isTrue();
+        assertThat(breaker.allowRedis()).isFalse();
+        assertThat(registry.get("seat.lock.degraded").gauge().value()).isEqualTo(1.0);
+
+        // 3/ openMs 之後 → HALF_OPEN，只放第一個人去試
+        Thread.sleep(150);
+        assertThat(breaker.allowRedis()).isTrue();
+        assertThat(breaker.state()).isEqualTo(RedisLockBreaker.State.HALF_OPEN);
+        assertThat(breaker.allowRedis()).isFalse();
+        assertThat(breaker.isDegraded()).isTrue();
+
+        // 4/ 試探成功 → CLOSED
+        breaker.onSuccess(1);
+        assertThat(breaker.state()).isEqualTo(RedisLockBreaker.State.CLOSED);
+        assertThat(breaker.isDegraded()).isFalse();
+        assertThat(breaker.allowRedis()).isTrue();
+        assertThat(registry.get("seat.lock.degraded").gauge().value()).isZero();
+
+        assertThat(registry.get("seat.lock.mode.transition").tags("from", "CLOSED", "to", "OPEN").counter().count()).isEqualTo(1.0);
+        assertThat(registry.get("seat.lock.mode.transition").tags("from", "OPEN", "to", "HALF_OPEN").counter().count()).isEqualTo(1.0);
+        assertThat(registry.get("seat.lock.mode.transition").tags("from", "HALF_OPEN", "to", "CLOSED").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    @DisplayName("Breaker：試探失敗再 OPEN 一輪；太慢算失敗；中間成功一次重新計數")
+    void probe_failure_reopens_and_slow_calls_count() throws Exception {
+        RedisLockBreaker breaker = new RedisLockBreaker(2, 50, 100, new SimpleMeterRegistry());
+
+        // 1/ 失敗、成功、失敗：沒有「連續」到門檻
+        breaker.onFailure();
+        breaker.onSuccess(1);
+        breaker.onFailure();
+        assertThat(breaker.state()).isEqualTo(RedisLockBreaker.State.CLOSED);
+
+        // 2/ 太慢也是失敗 → 連續 2 次 → OPEN
+        breaker.onSuccess(500);
+        assertThat(breaker.state()).isEqualTo(RedisLockBreaker.State.OPEN);
+
+        // 3/ HALF_OPEN 試探失敗 → 再 OPEN，要再等一輪 openMs
+        Thread.sleep(150);
+        assertThat(breaker.allowRedis()).isTrue();
+        breaker.onFailure();
+        assertThat(breaker.state()).isEqualTo(RedisLockBreaker.State.OPEN);
+        assertThat(breaker.allowRedis()).isFalse();
+
+        // 4/ 下一輪試探可以再放一個人
+        Thread.sleep(150);
+        assertThat(breaker.allowRedis()).isTrue();
+        breaker.onSuccess(1);
+        assertThat(breaker.state()).isEqualTo(RedisLockBreaker.State.CLOSED);
+    }
+
+    @Test
+    @DisplayName("Breaker：acquireLease 的 SET NX 成功之後取號（INCR fence）、放鎖都出錯 → 算兩次失敗，斷路器打開")
+    void fence_increment_failure_counts_toward_breaker() {
+        // SET NX 還回得來，之後 Redis 開始出錯：INCR / 放鎖的 Lua 都丟例外
+        @SuppressWarnings("unchecked") ValueOperations<String, String> values = mock(ValueOperations.class);
+        when(values.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        when(values.increment(anyString())).thenThrow(new RedisConnectionFailureException("redis down"));
+        StringRedisTemplate redis = mock(StringRedisTemplate.class, inv -> {
+            if ("opsForValue".equals(inv.getMethod().getName())) return values;
+            throw new RedisConnectionFailureException("redis down");
+        });
+
+        RedisLockHelper helper = new RedisLockHelper(redis, mock(RedisMessageListenerContainer.class), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(helper, "localStripes", 4);
+        ReflectionTestUtils.setField(helper, "localWaitMs", 100L);
+        ReflectionTestUtils.setField(helper, "breakerFailureThreshold", 2);
+        ReflectionTestUtils.setField(helper, "breakerSlowCallMs", 0L);
+        ReflectionTestUtils.setField(helper, "breakerOpenMs", 60_000L);
+        helper.initStripes();
+        try {
+            // SET NX 成功（計數歸零）→ INCR 失敗（1）→ 放鎖失敗（2）→ OPEN
+            assertThat(helper.acquireLease(1L, Duration.ofMillis(300))).isNull();
+            assertThat(helper.isDegraded()).isTrue();
+
+            // 降級中：lockSeat 只發本機 token，不再碰 Redis；本機分條鎖有還回來
+            String token = helper.lockSeat(1L, Duration.ofSeconds(1));
+            assertThat(token).startsWith("local:");
+            helper.unlockSeat(1L, token);
+        } finally {
+            helper.shutdownRenewer();
+        }
+    }
+}